@@ -0,0 +1,172 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 같은 음성 신호를 SimpleOpusMuxer(.opus)와 SimpleM4AMuxer(AAC)로 encode하여 파일 크기와 CPU 시간을 비교한다.
+ *  - 실제 장치의 codec이 필요하므로 instrumentation test로 수행한다. (Opus encoder가 없으면 건너뛴다)
+ *  - 입력은 실시간보다 빠르게 넣으며, CPU 시간은 encoder thread를 포함한 process 전체 값이다.
+ *  - 결과는 logcat(TAG)으로 출력한다.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OpusAacComparisonTest {
+    private static final String TAG = OpusAacComparisonTest.class.getSimpleName();
+
+    private static final int  SAMPLE_RATE  = 48000;
+    private static final int  DURATION_SEC = 30;
+    private static final int  FRAME_MS     = 20;
+    private static final long STOP_TIMEOUT_MS = 10000;
+
+    /**
+     * 녹음 결과
+     */
+    private static class Result {
+        final String name;
+        final long   bytes;
+        final long   cpuMs;
+        final long   wallMs;
+
+        Result(String name, long bytes, long cpuMs, long wallMs) {
+            this.name   = name;
+            this.bytes  = bytes;
+            this.cpuMs  = cpuMs;
+            this.wallMs = wallMs;
+        }
+
+        long kbps() {
+            return bytes * 8 / DURATION_SEC / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{bytes=" + bytes + ", kbps=" + kbps() + ", cpuMs=" + cpuMs + ", wallMs=" + wallMs
+                    + ", realtime=" + (DURATION_SEC * 1000L / Math.max(cpuMs, 1)) + "x}";
+        }
+    }
+
+    /**
+     * 음성과 비슷한 신호를 만든다. (f0 100~200Hz의 harmonic + 4Hz 음절 envelope + 휴지 + 약한 noise)
+     */
+    private static short[] speechLike(int sampleRate, int seconds) {
+        final short[] pcm    = new short[sampleRate * seconds];
+        final Random  random = new Random(1);
+        double phase = 0;
+        for (int i = 0; i < pcm.length; i++) {
+            final double t  = (double)i / sampleRate;
+            final double f0 = 150 + 50 * Math.sin(2 * Math.PI * 0.3 * t);
+            phase += 2 * Math.PI * f0 / sampleRate;
+
+            double voiced = 0;
+            for (int h = 1; h <= 20; h++) {
+                voiced += Math.sin(h * phase) / h;
+            }
+            //2초 중 0.5초는 휴지
+            final double envelope = (t % 2.0) < 1.5 ? Math.max(0, Math.sin(2 * Math.PI * 4 * t)) : 0;
+            final double sample   = 6000 * envelope * voiced + 100 * random.nextGaussian();
+            pcm[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        return pcm;
+    }
+
+    private static Result record(String name, SimpleMuxer muxer, File file, short[] pcm) throws Exception {
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, 1));
+        muxer.start();
+
+        final int        frameSamples = SAMPLE_RATE * FRAME_MS / 1000;
+        final ByteBuffer frame = ByteBuffer.allocateDirect(frameSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        final long startCpuMs   = Process.getElapsedCpuTime();
+        final long startNanos   = System.nanoTime();
+        for (int offset = 0; offset + frameSamples <= pcm.length; offset += frameSamples) {
+            frame.clear();
+            frame.asShortBuffer().put(pcm, offset, frameSamples);
+            frame.limit(frameSamples * 2);
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, frame, offset * 1000000L / SAMPLE_RATE);
+        }
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        muxer.stop(new SimpleMuxer.StopListener() {
+            @Override
+            public void onStop() {
+                stopped.countDown();
+            }
+        });
+        assertTrue(name + " not stopped!", stopped.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        final Result result = new Result(name, file.length(), Process.getElapsedCpuTime() - startCpuMs, (System.nanoTime() - startNanos) / 1000000L);
+        Log.i(TAG, "record() - " + result);
+        return result;
+    }
+
+    private static File newFile(Context context, String name) {
+        final File file = new File(context.getCacheDir(), name);
+        file.delete();
+        return file;
+    }
+
+    /**
+     * 각 muxer의 기본 bitrate(Opus 24kbps, AAC 64kbps)로 녹음한다.
+     */
+    @Test
+    public void compareAtDefaultBitrates() throws Exception {
+        Assume.assumeTrue("no Opus encoder", SimpleOpusMuxer.isAvailable());
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final short[] pcm     = speechLike(SAMPLE_RATE, DURATION_SEC);
+
+        final File   opusFile = newFile(context, "compare.opus");
+        final File   aacFile  = newFile(context, "compare.m4a");
+        final Result opus = record("opus", new SimpleOpusMuxer(context, opusFile.getPath()), opusFile, pcm);
+        final Result aac  = record("aac", new SimpleM4AMuxer(context, aacFile.getPath()), aacFile, pcm);
+        Log.i(TAG, "compareAtDefaultBitrates() - size ratio: " + (aac.bytes * 100 / Math.max(opus.bytes, 1)) + "%, cpu ratio: "
+                + (aac.cpuMs * 100 / Math.max(opus.cpuMs, 1)) + "% (aac / opus)");
+
+        //bitrate 차이만큼 파일이 작아야 한다. (container overhead 포함, 휴지 구간은 Opus가 더 줄인다)
+        assertTrue(opus.toString(), opus.kbps() <= SimpleOpusMuxer.BIT_RATE / 1000 * 3 / 2);
+        assertTrue(opus + " vs " + aac, opus.bytes < aac.bytes);
+
+        opusFile.delete();
+        aacFile.delete();
+    }
+
+    /**
+     * 같은 bitrate(SimpleOpusMuxer.BIT_RATE)에서의 크기와 CPU 시간을 기록한다. (음질은 비교하지 않는다)
+     */
+    @Test
+    public void compareAtSameBitrate() throws Exception {
+        Assume.assumeTrue("no Opus encoder", SimpleOpusMuxer.isAvailable());
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final short[] pcm     = speechLike(SAMPLE_RATE, DURATION_SEC);
+        final int     bitrate = SimpleOpusMuxer.BIT_RATE;
+
+        final File   opusFile = newFile(context, "same.opus");
+        final File   aacFile  = newFile(context, "same.m4a");
+        final Result opus = record("opus", new SimpleOpusMuxer(context, opusFile.getPath(), bitrate), opusFile, pcm);
+        final Result aac  = record("aac", new SimpleM4AMuxer(context, aacFile.getPath(), SimpleEncoder.ENCODER_MODE_SYNC, bitrate), aacFile, pcm);
+        Log.i(TAG, "compareAtSameBitrate() - bitrate: " + bitrate + ", " + opus + ", " + aac);
+
+        //두 encoder 모두 요청한 bitrate 근처여야 비교가 의미있다.
+        assertTrue(opus.toString(), opus.kbps() <= bitrate / 1000 * 3 / 2);
+        assertTrue(aac.toString(), aac.kbps() <= bitrate / 1000 * 3 / 2);
+
+        opusFile.delete();
+        aacFile.delete();
+    }
+}
@@ -3,16 +3,18 @@ package com.kodeholic.simplerecorder;
 import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioRecord;
 import android.media.MediaPlayer;
-import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.os.Environment;
 import android.util.Log;
 import android.view.View;
@@ -30,13 +32,36 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public static final String TAG = MainActivity.class.getSimpleName();
 
     public static final int SAMPLE_RATE_IN_HZ = 44100;
+    //녹음 파일의 sample rate (SAMPLE_RATE_IN_HZ와 다르면 SimpleResampler로 변환한다. ex. 16000: 음성, 48000: 보관)
+    public static final int OUTPUT_SAMPLE_RATE_IN_HZ = SAMPLE_RATE_IN_HZ;
     public static final int CHANNEL_CONFIG    = AudioFormat.CHANNEL_IN_MONO;
     public static final int AUDIO_FORMAT      = AudioFormat.ENCODING_PCM_16BIT;
 
+    //AudioRecord에서 encoder input buffer로 직접 읽는다. (ring buffer를 거치지 않는다)
+    public static final boolean DIRECT_INPUT  = false;
+
+    //무음 구간 처리 (SimpleVADMuxer.MODE_OFF, MODE_DROP, MODE_ZERO)
+    public static final int VAD_MODE = SimpleVADMuxer.MODE_OFF;
+
+    //VAD 앞에서 PCM 전처리 (high-pass, DC 제거, gain)
+    public static final boolean PCM_CHAIN = false;
+
+    //capture buffer pool
+    public static final int  POOL_CAPACITY           = 16;
+
+    //audio codec (SimpleRecorder.CODEC_AAC, CODEC_OPUS, CODEC_FLAC). OPUS는 음성용으로 16kHz로 변환하여 녹음한다.
+    public static final int CODEC = SimpleRecorder.CODEC_AAC;
+    public static final int OPUS_SAMPLE_RATE_IN_HZ = 16000;
+
+    //후면 camera 영상을 함께 녹화한다. (SimpleMP4Muxer, .mp4)
+    public static final boolean RECORD_VIDEO  = false;
+    public static final int VIDEO_WIDTH       = 1280;
+    public static final int VIDEO_HEIGHT      = 720;
+    public static final int VIDEO_FRAME_RATE  = 30;
+    public static final int VIDEO_BIT_RATE    = 2000000;
+
     private Context mContext;
-    private AudioRecord mAudioRecord;
     private MediaPlayer mPlayer;
-    private SimpleMuxer mSMx;
 
     private Button  bt_record;
     private Button  bt_play;
@@ -77,6 +102,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         updateView();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, SimpleRecordService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        //녹음은 service에서 계속된다.
+        if (mService != null) {
+            mService.setListener(null);
+            mService = null;
+        }
+        unbindService(mServiceConnection);
+        super.onStop();
+    }
+
     public static final String[] DANGEROUS_PERMISSIONS = {
             Manifest.permission.RECORD_AUDIO,
             Manifest.permission.CAMERA,
@@ -136,7 +178,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @Override
             public void run() {
                 //녹음 상태
-                if (mSMx == null) {
+                if (!isRecording()) {
                     bt_record.setText("Record Start");
                 }
                 else {
@@ -160,11 +202,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         switch (v.getId()) {
             case R.id.bt_record:
-                if (mSMx == null) {
-                    startRecordThread();
+                if (!isRecording()) {
+                    startRecord();
                 }
                 else {
-                    stopRecordThread();
+                    stopRecord();
                 }
                 break;
 
@@ -179,111 +221,113 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
-    private void startRecordThread() {
-        mRunning = true;
-        new Thread(mRecordWorker).start();
-    }
-
-    private void stopRecordThread() {
-        mRunning = false;
-    }
-
-    private boolean mRunning = false;
-    private Runnable mRecordWorker = new Runnable() {
-        @Override
-        public void run() {
-            startRecordWav();
-
-            byte[] bytes = new byte[mBufferSize];
-            while (mRunning) {
-                int n = mAudioRecord.read(bytes, 0, mBufferSize);
-                if (AudioRecord.ERROR_INVALID_OPERATION == n) {
-                    Log.e(TAG, "mRecordWorker... read() failed!");
-                    break;
-                }
-                try {
-                    long pTimeUs = SimpleEncoder.getPTimeUs(mPrevPTimeUs);
-                    mSMx.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, bytes, 0, n, pTimeUs);
-                    mPrevPTimeUs = pTimeUs;
-                }
-                catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-
-            stopRecordWav();
+    private void startRecord() {
+        if (mService == null) {
+            showToast("Service not bound!");
+            return;
         }
-    };
-
-    private int mBufferSize = 0;
-    private void startRecordWav() {
+        showToast("start record!!");
+        mLastRecordFile = Environment.getExternalStorageDirectory().getAbsolutePath() + "/Download/" + "W_" + System.currentTimeMillis() + getRecordFileExt();
         try {
-            showToast("start record!!");
-
-            //Recorder
-            mBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT);
-            mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                    SAMPLE_RATE_IN_HZ,
-                    CHANNEL_CONFIG,
-                    AUDIO_FORMAT,
-                    mBufferSize);
-            mAudioRecord.startRecording();
-
-            //Muxer
-//            mLastRecordFile = Environment.getExternalStorageDirectory().getAbsolutePath() + "/Download/" + "W_" + System.currentTimeMillis() + ".wav";
-//            mSMx = new SimpleWAVMuxer(mContext, mLastRecordFile);
-            mLastRecordFile = Environment.getExternalStorageDirectory().getAbsolutePath() + "/Download/" + "W_" + System.currentTimeMillis() + ".m4a";
-            mSMx = new SimpleM4AMuxer(mContext, mLastRecordFile);
-            mSMx.addAudioTrack(new SimpleMuxer.AudioConfig(
-                    SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT, 1
-            ));
-            mSMx.start();
-            mRunning = true;
-
-            //화면을 갱신한다.
-            updateView();
-            return;
+            mService.startRecord(createRecordConfig(mLastRecordFile));
         }
         catch (Exception e) {
             e.printStackTrace();
+            showToast("start record!! failed!!!");
         }
 
-        //failed!
-        showToast("start record!! failed!!!");
-        stopRecordWav();
+        //화면을 갱신한다.
+        updateView();
+    }
 
-        return;
+    private String getRecordFileExt() {
+        if (RECORD_VIDEO) {
+            return ".mp4";
+        }
+        if (CODEC == SimpleRecorder.CODEC_OPUS && SimpleOpusMuxer.isAvailable()) {
+            return ".opus";
+        }
+        if (CODEC == SimpleRecorder.CODEC_FLAC) {
+            return ".flac";
+        }
+        return ".m4a";
     }
 
-    private void stopRecordWav() {
+    private SimpleRecorder.Config createRecordConfig(String path) {
+        SimpleRecorder.Config config = new SimpleRecorder.Config(path);
+        config.sampleRateInHz       = SAMPLE_RATE_IN_HZ;
+        config.outputSampleRateInHz = OUTPUT_SAMPLE_RATE_IN_HZ;
+        config.channelConfig        = CHANNEL_CONFIG;
+        config.audioFormat          = AUDIO_FORMAT;
+        config.directInput          = DIRECT_INPUT;
+        config.pcmChain             = PCM_CHAIN;
+        config.vadMode              = VAD_MODE;
+        config.poolCapacity         = POOL_CAPACITY;
+        config.codec                = CODEC;
+        if (CODEC == SimpleRecorder.CODEC_OPUS && !RECORD_VIDEO && SimpleOpusMuxer.isAvailable()) {
+            config.outputSampleRateInHz = OPUS_SAMPLE_RATE_IN_HZ;
+        }
+        if (RECORD_VIDEO) {
+            config.video = new SimpleMuxer.VideoConfig(VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE, VIDEO_BIT_RATE);
+        }
+        return config;
+    }
+
+    private void stopRecord() {
         showToast("stop record!!");
+        if (mService != null) {
+            mService.stopRecord();
+        }
+    }
 
-        //마이크 중지
-        if (mAudioRecord != null) {
-            mAudioRecord.stop();
-            mAudioRecord.release();
-            mAudioRecord = null;
+    private boolean isRecording() {
+        return mService != null && mService.isRecording();
+    }
+
+    /**
+     * 녹음은 SimpleRecordService에서 수행한다. (화면이 사라져도 유지)
+     */
+    private SimpleRecordService mService = null;
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            Log.d(TAG, "onServiceConnected()");
+            mService = ((SimpleRecordService.LocalBinder)binder).getService();
+            mService.setListener(mRecorderListener);
+            if (mService.isRecording()) {
+                mLastRecordFile = mService.getRecordFile();
+            }
+            else {
+                //녹음 버튼을 누르기 전에 encoder를 준비해 둔다.
+                SimpleRecorder.prewarm(getApplicationContext(), createRecordConfig(null));
+            }
+            updateView();
         }
 
-        //Muxer 중지
-        final SimpleMuxer smx = mSMx;
-        if (smx != null && !smx.isStopped()) {
-            smx.stop(new SimpleMuxer.StopListener() {
-                @Override
-                public void onStop() {
-                    mSMx = null;
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Log.d(TAG, "onServiceDisconnected()");
+            mService = null;
+            updateView();
+        }
+    };
 
-                    //화면을 갱신한다.
-                    updateView();
-                }
-            });
+    private final SimpleRecorder.Listener mRecorderListener = new SimpleRecorder.Listener() {
+        @Override
+        public void onStarted(String path) {
+            updateView();
         }
 
-        mRunning = false;
+        @Override
+        public void onStopped(String path) {
+            updateView();
+        }
 
-        //화면을 갱신한다.
-        updateView();
-    }
+        @Override
+        public void onError(String path, Exception e) {
+            showToast("record error!! " + e.getMessage());
+        }
+    };
 
     private void startPlayer() {
         Log.d(TAG, "startPlayer()");
@@ -350,5 +394,4 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         });
     }
 
-    private long mPrevPTimeUs = 0;
 }
@@ -0,0 +1,305 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * encode된 AAC frame마다 ADTS 헤더(7바이트)를 붙여 raw AAC(.aac) 파일로 write한다.
+ * container 종료 처리가 없으므로, 기록된 frame은 바로 재생/전송이 가능하다.
+ */
+public class SimpleAACMuxer extends SimpleMuxer {
+    public static final String MIME_TYPE = SimpleM4AMuxer.MIME_TYPE;
+    public static final int    BIT_RATE  = SimpleM4AMuxer.BIT_RATE;
+
+    public static final int ADTS_HEADER_SIZE = 7;
+    //ADTS frame_length(13bit)의 최대값 (헤더 포함)
+    public static final int MAX_ADTS_FRAME_LENGTH = 0x1FFF;
+
+    //write buffer 크기 (기본 64KB)
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+
+    //writer 상태 보호 (encoder drain thread <--> stop)
+    private final Object mLock = new Object();
+
+    private FileOutputStream mOStream;
+    private FileChannel      mChannel;
+    private ByteBuffer       mWriteBuffer;
+    private int              mWriteBufferSize;
+    private SimpleEncoder    mAudioEncoder;
+
+    //ADTS 헤더 정보 (csd-0에서 추출)
+    private int  mProfile = -1;
+    private int  mFreqIndex;
+    private int  mChannelConfig;
+    private long mFrameCount = 0;
+    private long mOversizeCount = 0; //ADTS로 표현할 수 없어 버려진 frame
+
+    public SimpleAACMuxer(Context context, String path) throws IOException {
+        this(context, path, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    public SimpleAACMuxer(Context context, String path, int writeBufferSize) throws IOException {
+        super(context, path, SimpleAACMuxer.class.getSimpleName());
+        mWriteBufferSize = writeBufferSize;
+    }
+
+    /**
+     * ADTS 헤더를 dst에 write한다.
+     * @param dst
+     * @param profile       audioObjectType (AAC LC: 2)
+     * @param freqIndex     samplingFrequencyIndex
+     * @param channelConfig channelConfiguration
+     * @param frameLength   ADTS 헤더를 포함한 frame 길이 (ADTS_HEADER_SIZE ~ MAX_ADTS_FRAME_LENGTH)
+     */
+    public static void putADTSHeader(ByteBuffer dst, int profile, int freqIndex, int channelConfig, int frameLength) {
+        if (frameLength < ADTS_HEADER_SIZE || frameLength > MAX_ADTS_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid frameLength: " + frameLength);
+        }
+        dst.put((byte)0xFF);
+        dst.put((byte)0xF1); //MPEG-4, layer 0, protection absent
+        dst.put((byte)(((profile - 1) << 6) | (freqIndex << 2) | (channelConfig >> 2)));
+        dst.put((byte)(((channelConfig & 0x3) << 6) | (frameLength >> 11)));
+        dst.put((byte)((frameLength >> 3) & 0xFF));
+        dst.put((byte)(((frameLength & 0x7) << 5) | 0x1F));
+        dst.put((byte)0xFC);
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getOversizeCount() {
+        return mOversizeCount;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack(enter) - audioConfig: " + audioConfig);
+
+        if (mStatus != ST_INIT) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        updateStatus(ST_PREPARED);
+
+        //파라미터를 설정한다.
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+
+        //Encoder를 생성한다.
+        final MediaFormat audioFormat = MediaFormat.createAudioFormat(
+                MIME_TYPE,
+                audioConfig.sampleRateInHz,
+                audioConfig.channelCount);
+        audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE  , MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_MASK , audioConfig.channelConfig);
+        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE     , BIT_RATE);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, audioConfig.channelCount);
+        mAudioEncoder = new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, audioFormat);
+
+        Log.d(TAG, "addAudioTrack(leave)");
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
+
+    /**
+     * write buffer에 쌓인 데이타를 channel로 내려쓴다.
+     * @throws IOException
+     */
+    private void flushWriteBuffer() throws IOException {
+        mWriteBuffer.flip();
+        while (mWriteBuffer.hasRemaining()) {
+            mChannel.write(mWriteBuffer);
+        }
+        mWriteBuffer.clear();
+    }
+
+    private void release() {
+        Log.d(TAG, "release() - frameCount: " + mFrameCount);
+
+        //남은 데이타를 내려쓰고, 파일을 닫는다.
+        try {
+            if (mChannel != null) {
+                flushWriteBuffer();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            if (mOStream != null) {
+                mOStream.close();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        mOStream = null;
+        mChannel = null;
+        mWriteBuffer = null;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start(enter)");
+        updateStatus(ST_STARTED);
+        if (mAudioEncoder == null) {
+            throw new Exception("encoder not prepared!");
+        }
+        mOStream     = new FileOutputStream(path);
+        mChannel     = mOStream.getChannel();
+        //최대 크기의 ADTS frame 하나는 항상 들어가야 한다.
+        mWriteBuffer = ByteBuffer.allocateDirect(Math.max(mWriteBufferSize, MAX_ADTS_FRAME_LENGTH));
+
+        //Encoder를 시작한다.
+        mAudioEncoder.startEncoder(mEncoderStartListener);
+
+        Log.d(TAG, "start(leave)");
+    }
+
+    /**
+     * encoder에 EOS를 보내고 바로 반환한다. EOS까지 write된 후 파일을 닫고 stopListener를 호출한다.
+     */
+    @Override
+    public void stop(final StopListener stopListener) {
+        Log.d(TAG, "stop(enter)");
+        updateStatus(ST_STOPPING);
+
+        SimpleEncoder encoder = mAudioEncoder;
+        mAudioEncoder = null;
+        if (encoder == null) {
+            onEncoderStopped(stopListener);
+            return;
+        }
+        encoder.stopEncoder(mEncoderStopListener).addListener(new SimpleFuture.Listener<SimpleEncoder>() {
+            @Override
+            public void onDone(SimpleFuture<SimpleEncoder> future) {
+                if (future.getError() != null) {
+                    Log.e(TAG, "stop() - encoder failed! " + future.getError());
+                }
+                onEncoderStopped(stopListener);
+            }
+        });
+
+        Log.d(TAG, "stop(leave)");
+    }
+
+    private void onEncoderStopped(StopListener stopListener) {
+        //release all the resource
+        synchronized (mLock) {
+            release();
+        }
+        updateStatus(ST_STOPPED);
+
+        //call the stop callback
+        if (stopListener != null) {
+            try {
+                stopListener.onStop();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder != null) {
+            encoder.encode(buffer, length, pTimeUS, "writeSample");
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            return 0;
+        }
+
+        //encoder input buffer로 직접 읽는다.
+        return encoder.encode(reader, maxLength, pTimeUS, "writeSample");
+    }
+
+    /**
+     * StartLister를 정의한다.
+     */
+    private SimpleEncoder.StartListener mEncoderStartListener = new SimpleEncoder.StartListener() {
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat);
+
+            //AudioSpecificConfig (csd-0)에서 ADTS 헤더 정보를 추출한다.
+            ByteBuffer csd = outputFormat.getByteBuffer("csd-0");
+            byte[] asc;
+            if (csd != null && csd.remaining() >= 2) {
+                asc = new byte[2];
+                csd.duplicate().get(asc);
+            }
+            else {
+                asc = SimpleFMP4Writer.buildAudioSpecificConfig(audioConfig.sampleRateInHz, audioConfig.channelCount);
+            }
+            synchronized (mLock) {
+                mProfile       = (asc[0] & 0xF8) >> 3;
+                mFreqIndex     = ((asc[0] & 0x07) << 1) | ((asc[1] & 0x80) >> 7);
+                mChannelConfig = (asc[1] & 0x78) >> 3;
+            }
+            Log.i(TAG, "onStart() - profile: " + mProfile + ", freqIndex: " + mFreqIndex + ", channelConfig: " + mChannelConfig);
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            synchronized (mLock) {
+                if (mProfile < 0 || mWriteBuffer == null) {
+                    Log.e(TAG, "mAudioEncoder.onEncoded() - Not Started!");
+                    return;
+                }
+
+                ///////////////////////////////////////////////////
+                // ADTS header + frame
+                //////////////////////////////////////////////////
+                try {
+                    final int frameLength = ADTS_HEADER_SIZE + info.size;
+                    if (frameLength > MAX_ADTS_FRAME_LENGTH) {
+                        mOversizeCount++;
+                        Log.w(TAG, "mAudioEncoder.onEncoded() - Too large frame for ADTS! dropped. size: " + info.size + ", count: " + mOversizeCount);
+                        return;
+                    }
+                    if (mWriteBuffer.remaining() < frameLength) {
+                        flushWriteBuffer();
+                    }
+                    putADTSHeader(mWriteBuffer, mProfile, mFreqIndex, mChannelConfig, frameLength);
+                    buffer.position(info.offset).limit(info.offset + info.size);
+                    mWriteBuffer.put(buffer);
+                    mFrameCount++;
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+
+    /**
+     * StopListener를 정의한다.
+     */
+    private SimpleEncoder.StopListener mEncoderStopListener = new SimpleEncoder.StopListener() {
+        @Override
+        public void onStop(SimpleEncoder encoder) {
+            Log.i(TAG, "onStop() - encoder: " + encoder.getMimeType());
+        }
+    };
+}
@@ -0,0 +1,181 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * capture thread와 muxer 사이에 SimpleRingBuffer를 두고,
+ * 전용 consumer thread에서 대상 SimpleMuxer.writeSample()을 호출한다.
+ */
+public class SimpleAsyncMuxer extends SimpleMuxer {
+    public static final int DEFAULT_SLOT_COUNT = 64;
+
+    //consumer thread가 데이타 없이 대기하는 최대 시간
+    private static final long PARK_NANOS = 5 * 1000 * 1000L; //5[msec]
+
+    private final SimpleMuxer      mTarget;
+    private final SimpleRingBuffer mRing;
+    private int                    mEncoderType = SimpleEncoder.ENCODER_TYPE_AUDIO;
+
+    private SimpleBitratePolicy mBitratePolicy = null;
+
+    private volatile boolean mRunning = false;
+    private Thread           mConsumer = null;
+
+    public SimpleAsyncMuxer(Context context, SimpleMuxer target, int slotSize) throws IOException {
+        this(context, target, slotSize, DEFAULT_SLOT_COUNT);
+    }
+
+    public SimpleAsyncMuxer(Context context, SimpleMuxer target, int slotSize, int slotCount) throws IOException {
+        super(context, target.path, SimpleAsyncMuxer.class.getSimpleName());
+        mTarget = target;
+        mRing   = new SimpleRingBuffer(slotSize, slotCount);
+    }
+
+    public SimpleMuxer getTarget() {
+        return mTarget;
+    }
+
+    public long getOverrunCount() {
+        return mRing.getOverrunCount();
+    }
+
+    public int getHighWaterMark() {
+        return mRing.getHighWaterMark();
+    }
+
+    /**
+     * writeSample()마다 ring buffer 적체량을 policy에 전달한다.
+     */
+    public void setBitratePolicy(SimpleBitratePolicy policy) {
+        mBitratePolicy = policy;
+    }
+
+    private void reportQueueDepth() {
+        final SimpleBitratePolicy policy = mBitratePolicy;
+        if (policy != null) {
+            policy.reportQueueDepth(mRing.size(), mRing.getSlotCount());
+        }
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig);
+        mTarget.addAudioTrack(audioConfig);
+        updateStatus(ST_PREPARED);
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception {
+        mTarget.addVideoTrack(videoConfig);
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start()");
+        updateStatus(ST_STARTED);
+        mTarget.start();
+
+        mRunning  = true;
+        mConsumer = new Thread(mConsumeRunnable, TAG);
+        mConsumer.start();
+    }
+
+    @Override
+    public void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        mEncoderType = encoderType;
+        //overrun은 ring buffer에서 집계하고, consumer thread에서 log한다.
+        mRing.offer(bytes, offset, length, pTimeUS);
+        LockSupport.unpark(mConsumer);
+        reportQueueDepth();
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        mEncoderType = encoderType;
+        //overrun은 ring buffer에서 집계하고, consumer thread에서 log한다.
+        mRing.offer(buffer, pTimeUS);
+        LockSupport.unpark(mConsumer);
+        reportQueueDepth();
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void stop(StopListener stopListener) {
+        Log.d(TAG, "stop() - " + mRing);
+        updateStatus(ST_STOPPING);
+
+        //consumer thread가 남은 chunk를 모두 처리할 때까지 기다린다.
+        mRunning = false;
+        Thread consumer = mConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            mConsumer = null;
+        }
+
+        updateStatus(ST_STOPPED);
+        mTarget.stop(stopListener);
+    }
+
+    /**
+     * ring buffer의 chunk를 대상 muxer로 전달한다.
+     */
+    private final SimpleRingBuffer.Consumer mChunkConsumer = new SimpleRingBuffer.Consumer() {
+        @Override
+        public void onChunk(ByteBuffer chunk, long pTimeUs) throws Exception {
+            mTarget.writeSample(mEncoderType, chunk, pTimeUs);
+        }
+    };
+
+    private final Runnable mConsumeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //encoder 입력은 capture 보다 한 단계 낮은 audio 우선순위로 처리한다.
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+            Log.d(TAG, "consumer - STARTED");
+            long overrunCount = 0;
+            while (mRunning || !mRing.isEmpty()) {
+                try {
+                    if (!mRing.poll(mChunkConsumer)) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                //capture thread 대신 여기서 새로 발생한 overrun을 log한다.
+                final long n = mRing.getOverrunCount();
+                if (n != overrunCount) {
+                    Log.w(TAG, "consumer - overrun! +" + (n - overrunCount) + ", " + mRing);
+                    overrunCount = n;
+                }
+            }
+            Log.d(TAG, "consumer - STOPPED, " + mRing);
+        }
+    };
+}
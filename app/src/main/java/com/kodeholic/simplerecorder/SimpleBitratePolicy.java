@@ -0,0 +1,146 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 녹음 상태에 따라 AAC bitrate를 결정한다. (Android 의존성 없음)
+ *  - 무음(SILENCE_DBFS 미만)이 SILENCE_HOLD_MS 이상 지속되면 최저 bitrate로 내린다.
+ *  - 소리가 다시 들어오면 즉시 기본(nominal) bitrate로 복귀한다.
+ *  - storage write 지연 또는 queue 적체가 심하면 MIN_CHANGE_INTERVAL_MS 마다 한 단계씩 내린다.
+ * report*()는 어느 thread에서나 호출할 수 있으며, evaluate()는 한 thread에서 호출한다.
+ */
+public class SimpleBitratePolicy {
+    public static final int[] DEFAULT_LADDER = { 32000, 48000, 64000, 96000 };
+
+    public static final double SILENCE_DBFS           = -50.0;
+    public static final long   SILENCE_HOLD_MS        = 3000;
+    public static final long   MIN_CHANGE_INTERVAL_MS = 2000;
+    public static final long   HIGH_WRITE_LATENCY_US  = 20 * 1000L; //20[msec]
+    public static final int    HIGH_QUEUE_PERCENT     = 50;
+
+    //PCM이 모두 0인 경우
+    public static final double MIN_DBFS = -120.0;
+
+    private final int[] mLadder;
+    private final int   mNominalLevel;
+
+    private int  mLevel;
+    private long mLastChangeMs   = Long.MIN_VALUE / 2;
+    private long mSilenceSinceMs = -1;
+
+    //입력
+    private volatile long   mWriteLatencyUs = 0;    //평활화된 값
+    private volatile int    mQueuePercent   = 0;
+    private volatile double mLoudnessDbfs   = 0;
+
+    public SimpleBitratePolicy(int nominalBitrate) {
+        this(DEFAULT_LADDER, nominalBitrate);
+    }
+
+    /**
+     * @param ladder         사용 가능한 bitrate (오름차순)
+     * @param nominalBitrate 기본 bitrate (ladder에서 가장 가까운 값으로 맞춘다)
+     */
+    public SimpleBitratePolicy(int[] ladder, int nominalBitrate) {
+        if (ladder == null || ladder.length == 0) {
+            throw new IllegalArgumentException("Empty ladder!");
+        }
+        mLadder = ladder.clone();
+        int nominal = 0;
+        for (int i = 0; i < mLadder.length; i++) {
+            if (Math.abs(mLadder[i] - nominalBitrate) < Math.abs(mLadder[nominal] - nominalBitrate)) {
+                nominal = i;
+            }
+        }
+        mNominalLevel = nominal;
+        mLevel        = nominal;
+    }
+
+    public int getBitrate()        { return mLadder[mLevel]; }
+    public int getNominalBitrate() { return mLadder[mNominalLevel]; }
+    public int getMinBitrate()     { return mLadder[0]; }
+
+    public void reportWriteLatency(long latencyUs) {
+        mWriteLatencyUs = (mWriteLatencyUs * 3 + latencyUs) / 4;
+    }
+
+    public void reportQueueDepth(int depth, int capacity) {
+        mQueuePercent = capacity > 0 ? depth * 100 / capacity : 0;
+    }
+
+    public void reportLoudness(double dbfs) {
+        mLoudnessDbfs = dbfs;
+    }
+
+    private boolean isUnderPressure() {
+        return mWriteLatencyUs > HIGH_WRITE_LATENCY_US || mQueuePercent >= HIGH_QUEUE_PERCENT;
+    }
+
+    /**
+     * 현재 입력으로 bitrate를 결정한다.
+     * @param nowMs 단조 증가하는 시각 (ex. pTimeUs / 1000)
+     * @return 적용할 bitrate
+     */
+    public int evaluate(long nowMs) {
+        //무음 지속 시간
+        final boolean silent = mLoudnessDbfs < SILENCE_DBFS;
+        if (!silent) {
+            mSilenceSinceMs = -1;
+        }
+        else if (mSilenceSinceMs < 0) {
+            mSilenceSinceMs = nowMs;
+        }
+
+        int target = mNominalLevel;
+        if (silent && nowMs - mSilenceSinceMs >= SILENCE_HOLD_MS) {
+            target = 0;
+        }
+        if (isUnderPressure()) {
+            target = Math.min(target, Math.max(mLevel - 1, 0));
+        }
+        if (target == mLevel) {
+            return getBitrate();
+        }
+
+        //무음에서 벗어나는 경우만 즉시 올리고, 나머지는 변경 간격을 지킨다.
+        final boolean leavingSilence = !silent && target > mLevel && mLevel == 0;
+        if (!leavingSilence && nowMs - mLastChangeMs < MIN_CHANGE_INTERVAL_MS) {
+            return getBitrate();
+        }
+        mLevel        = target;
+        mLastChangeMs = nowMs;
+
+        return getBitrate();
+    }
+
+    /**
+     * 16bit little-endian PCM의 RMS를 dBFS로 반환한다. (buffer의 position은 변경하지 않는다)
+     */
+    public static double computeDbfs(ByteBuffer pcm) {
+        final int start = pcm.position();
+        final int end   = start + (pcm.remaining() & ~1);
+        if (end == start) {
+            return MIN_DBFS;
+        }
+        double sum = 0;
+        for (int i = start; i < end; i += 2) {
+            final int sample = (short)((pcm.get(i) & 0xFF) | (pcm.get(i + 1) << 8));
+            sum += (double)sample * sample;
+        }
+        final double rms = Math.sqrt(sum / ((end - start) / 2));
+        if (rms <= 0) {
+            return MIN_DBFS;
+        }
+        return Math.max(20.0 * Math.log10(rms / 32768.0), MIN_DBFS);
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleBitratePolicy{" +
+                "bitrate=" + getBitrate() +
+                ", writeLatencyUs=" + mWriteLatencyUs +
+                ", queuePercent=" + mQueuePercent +
+                ", loudnessDbfs=" + String.format("%.1f", mLoudnessDbfs) +
+                '}';
+    }
+}
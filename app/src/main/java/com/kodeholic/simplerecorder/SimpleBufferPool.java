@@ -0,0 +1,281 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 고정 개수의 direct ByteBuffer를 reference count로 관리하는 PCM buffer pool.
+ *  - acquire()로 얻은 Buffer는 refCount가 1이며, 소유권을 넘길 때마다 retain()/release()로 관리한다.
+ *  - refCount가 0이 되면 pool로 반환된다.
+ *  - acquire마다 generation이 증가한다. 다른 thread에 오래 보관하는 경우 getGeneration()을 함께 보관하고
+ *    release(generation)을 사용하면, 이미 반환되어 다른 곳에서 다시 acquire된 buffer를 잘못 release하지 않는다. (ABA)
+ *  - pool이 비어 있으면 새로 할당하지 않고 null을 반환(또는 대기)하며, exhausted로 집계한다.
+ *    (다시 acquire에 성공할 때까지의 재시도는 한번으로 집계한다)
+ *  - setTrackLeaks(true)이면 acquire 위치를 기록하여, 오래 반환되지 않은 Buffer를 찾을 수 있다.
+ */
+public class SimpleBufferPool {
+    /**
+     * pool에서 관리되는 buffer
+     */
+    public static class Buffer {
+        private final SimpleBufferPool mPool;
+        private final ByteBuffer       mData;
+        //상위 32bit: generation (acquire마다 증가), 하위 32bit: refCount
+        private final AtomicLong       mState = new AtomicLong(0);
+        private long      mPTimeUs;
+        private long      mAcquiredNanos;
+        private Throwable mAcquiredAt;
+
+        Buffer(SimpleBufferPool pool, int capacity) {
+            mPool = pool;
+            mData = ByteBuffer.allocateDirect(capacity);
+        }
+
+        /**
+         * producer가 채울 buffer (acquire 시 clear된 상태)
+         */
+        public ByteBuffer data() { return mData; }
+
+        /**
+         * consumer마다 독립적인 position을 갖는 view
+         */
+        public ByteBuffer view() { return mData.duplicate(); }
+
+        public int  length()                  { return mData.remaining(); }
+        public long getPTimeUs()              { return mPTimeUs; }
+        public void setPTimeUs(long pTimeUs)  { mPTimeUs = pTimeUs; }
+        public int  getRefCount()             { return refCountOf(mState.get()); }
+        public int  getGeneration()           { return generationOf(mState.get()); }
+
+        public Buffer retain() {
+            return retain(1);
+        }
+
+        public Buffer retain(int count) {
+            while (true) {
+                final long state = mState.get();
+                if (refCountOf(state) <= 0) {
+                    throw new IllegalStateException("retain() on released buffer! " + this);
+                }
+                if (mState.compareAndSet(state, state + count)) {
+                    return this;
+                }
+            }
+        }
+
+        /**
+         * 현재 generation의 reference 1개를 반환한다.
+         */
+        public void release() {
+            release(false, 0);
+        }
+
+        /**
+         * generation의 reference 1개를 반환한다. 그 사이 pool로 반환되어 다시 acquire되었다면 IllegalStateException
+         * @param generation reference를 얻을 때의 getGeneration()
+         */
+        public void release(int generation) {
+            release(true, generation);
+        }
+
+        private void release(boolean checkGeneration, int generation) {
+            while (true) {
+                final long state    = mState.get();
+                final int  refCount = refCountOf(state);
+                if (checkGeneration && generationOf(state) != generation) {
+                    throw new IllegalStateException("release() on recycled buffer! generation: " + generation + ", " + this);
+                }
+                if (refCount <= 0) {
+                    throw new IllegalStateException("release() on released buffer! " + this);
+                }
+                if (mState.compareAndSet(state, state - 1)) {
+                    if (refCount == 1) {
+                        mPool.recycle(this);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private static int refCountOf(long state)   { return (int)state; }
+        private static int generationOf(long state) { return (int)(state >>> 32); }
+
+        @Override
+        public String toString() {
+            final long state = mState.get();
+            return "Buffer{" +
+                    "refCount=" + refCountOf(state) +
+                    ", generation=" + generationOf(state) +
+                    ", length=" + mData.remaining() +
+                    ", pTimeUs=" + mPTimeUs +
+                    '}';
+        }
+    }
+
+    private final int mBufferSize;
+    private final int mCapacity;
+    private final ArrayBlockingQueue<Buffer> mFree;
+    private final List<Buffer> mAll; //leak 검사용
+
+    //stats
+    private final AtomicInteger mAllocated  = new AtomicInteger(0);
+    private final AtomicInteger mInUse      = new AtomicInteger(0);
+    private final AtomicInteger mHighWater  = new AtomicInteger(0);
+    private final AtomicLong    mAcquires   = new AtomicLong(0);
+    private final AtomicLong    mReuses     = new AtomicLong(0);
+    private final AtomicLong    mExhausted  = new AtomicLong(0);
+    //exhausted 상태 (다음 acquire 성공 시 해제)
+    private final AtomicBoolean mExhaustedNow = new AtomicBoolean(false);
+
+    private volatile boolean mTrackLeaks = false;
+
+    /**
+     * @param bufferSize buffer 크기 (ex. AudioRecord.getMinBufferSize())
+     * @param capacity   최대 buffer 개수
+     */
+    public SimpleBufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Invalid bufferSize: " + bufferSize + ", capacity: " + capacity);
+        }
+        mBufferSize = bufferSize;
+        mCapacity   = capacity;
+        mFree       = new ArrayBlockingQueue<Buffer>(capacity);
+        mAll        = new ArrayList<Buffer>(capacity);
+    }
+
+    public int getBufferSize() { return mBufferSize; }
+    public int getCapacity()   { return mCapacity; }
+
+    /**
+     * acquire 위치(stack)를 기록한다. (비용이 크므로 debug 용도)
+     */
+    public void setTrackLeaks(boolean trackLeaks) {
+        mTrackLeaks = trackLeaks;
+    }
+
+    /**
+     * buffer를 얻는다. pool이 비어 있으면 null을 반환한다.
+     */
+    public Buffer acquire() {
+        Buffer buffer = mFree.poll();
+        if (buffer != null) {
+            mReuses.incrementAndGet();
+        }
+        else {
+            buffer = allocate();
+        }
+        if (buffer == null) {
+            onExhausted();
+            return null;
+        }
+        return onAcquired(buffer);
+    }
+
+    /**
+     * buffer를 얻는다. pool이 비어 있으면 timeoutMs 동안 반환을 기다린다.
+     */
+    public Buffer acquire(long timeoutMs) throws InterruptedException {
+        Buffer buffer = acquire();
+        if (buffer != null) {
+            return buffer;
+        }
+        buffer = mFree.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (buffer == null) {
+            return null;
+        }
+        mReuses.incrementAndGet();
+        return onAcquired(buffer);
+    }
+
+    private Buffer allocate() {
+        synchronized (mAll) {
+            if (mAllocated.get() >= mCapacity) {
+                return null;
+            }
+            Buffer buffer = new Buffer(this, mBufferSize);
+            mAll.add(buffer);
+            mAllocated.incrementAndGet();
+            return buffer;
+        }
+    }
+
+    private void onExhausted() {
+        if (mExhaustedNow.compareAndSet(false, true)) {
+            mExhausted.incrementAndGet();
+        }
+    }
+
+    private Buffer onAcquired(Buffer buffer) {
+        mAcquires.incrementAndGet();
+        mExhaustedNow.set(false);
+        buffer.mData.clear();
+        buffer.mPTimeUs       = 0;
+        buffer.mAcquiredNanos = System.nanoTime();
+        buffer.mAcquiredAt    = mTrackLeaks ? new Throwable("acquired here") : null;
+        //pool에 있는 buffer는 refCount가 0이므로 다른 thread와 경합하지 않는다.
+        buffer.mState.set(((long)(Buffer.generationOf(buffer.mState.get()) + 1) << 32) | 1L);
+
+        final int inUse = mInUse.incrementAndGet();
+        int highWater;
+        while (inUse > (highWater = mHighWater.get())) {
+            if (mHighWater.compareAndSet(highWater, inUse)) {
+                break;
+            }
+        }
+        return buffer;
+    }
+
+    void recycle(Buffer buffer) {
+        buffer.mAcquiredAt = null;
+        mInUse.decrementAndGet();
+        mFree.offer(buffer);
+    }
+
+    /**
+     * maxHeldMs 이상 반환되지 않은 buffer 목록을 반환한다.
+     * setTrackLeaks(true)였다면 Buffer의 acquire 위치를 getLeakTrace()로 확인할 수 있다.
+     */
+    public List<Buffer> findLeaks(long maxHeldMs) {
+        final long now = System.nanoTime();
+        List<Buffer> leaks = new ArrayList<Buffer>();
+        synchronized (mAll) {
+            for (Buffer buffer : mAll) {
+                if (buffer.getRefCount() > 0 && (now - buffer.mAcquiredNanos) / 1000000L >= maxHeldMs) {
+                    leaks.add(buffer);
+                }
+            }
+        }
+        return leaks;
+    }
+
+    public static Throwable getLeakTrace(Buffer buffer) {
+        return buffer.mAcquiredAt;
+    }
+
+    public int  getAllocatedCount() { return mAllocated.get(); }
+    public int  getInUseCount()     { return mInUse.get(); }
+    public int  getHighWaterMark()  { return mHighWater.get(); }
+    public long getAcquireCount()   { return mAcquires.get(); }
+    public long getReuseCount()     { return mReuses.get(); }
+    public long getExhaustedCount() { return mExhausted.get(); }
+
+    @Override
+    public String toString() {
+        return "SimpleBufferPool{" +
+                "bufferSize=" + mBufferSize +
+                ", capacity=" + mCapacity +
+                ", allocated=" + mAllocated.get() +
+                ", inUse=" + mInUse.get() +
+                ", highWater=" + mHighWater.get() +
+                ", acquires=" + mAcquires.get() +
+                ", reuses=" + mReuses.get() +
+                ", exhausted=" + mExhausted.get() +
+                '}';
+    }
+}
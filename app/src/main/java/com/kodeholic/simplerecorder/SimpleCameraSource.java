@@ -0,0 +1,114 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.Preview;
+import androidx.camera.core.SurfaceRequest;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.core.content.ContextCompat;
+import androidx.core.util.Consumer;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Executor;
+
+/**
+ * CameraX Preview use case의 출력 surface로 video encoder 입력 surface를 제공한다.
+ *  - camera frame은 GPU/ISP에서 encoder로 바로 전달되며, CPU 복사나 YUV 변환이 없다.
+ *  - start()/stop()은 어느 thread에서 호출해도 되며, CameraX 호출은 main thread에서 수행한다.
+ */
+public class SimpleCameraSource implements SimpleRecorder.VideoSource {
+    private static final String TAG = SimpleCameraSource.class.getSimpleName();
+
+    private final Object         mLock = new Object();
+    private final Context        mContext;
+    private final LifecycleOwner mLifecycleOwner;
+    private final Executor       mMainExecutor;
+
+    private ProcessCameraProvider mProvider = null;
+    private Preview               mPreview  = null;
+
+    /**
+     * @param context        application context (Activity를 참조하지 않는다)
+     * @param lifecycleOwner camera를 bind할 lifecycle (ex. SimpleRecordService)
+     */
+    public SimpleCameraSource(Context context, LifecycleOwner lifecycleOwner) {
+        mContext        = context.getApplicationContext();
+        mLifecycleOwner = lifecycleOwner;
+        mMainExecutor   = ContextCompat.getMainExecutor(context);
+    }
+
+    @Override
+    public void start(final Surface surface, final SimpleMuxer.VideoConfig videoConfig) throws Exception {
+        Log.d(TAG, "start() - videoConfig: " + videoConfig);
+        if (surface == null) {
+            throw new IllegalArgumentException("surface is null!");
+        }
+        final ListenableFuture<ProcessCameraProvider> future = ProcessCameraProvider.getInstance(mContext);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bind(future.get(), surface, videoConfig);
+                }
+                catch (Exception e) {
+                    Log.e(TAG, "start() - bind failed!", e);
+                }
+            }
+        }, mMainExecutor);
+    }
+
+    @Override
+    public void stop() {
+        Log.d(TAG, "stop()");
+        mMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    if (mProvider != null && mPreview != null) {
+                        mProvider.unbind(mPreview);
+                    }
+                    mProvider = null;
+                    mPreview  = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * main thread
+     */
+    private void bind(ProcessCameraProvider provider, final Surface surface, final SimpleMuxer.VideoConfig videoConfig) {
+        final Preview preview = new Preview.Builder()
+                .setTargetResolution(new Size(videoConfig.width, videoConfig.height))
+                .build();
+        preview.setSurfaceProvider(new Preview.SurfaceProvider() {
+            @Override
+            public void onSurfaceRequested(SurfaceRequest request) {
+                final Size resolution = request.getResolution();
+                if (resolution.getWidth() != videoConfig.width || resolution.getHeight() != videoConfig.height) {
+                    //encoder 해상도와 다르면 scale된다.
+                    Log.w(TAG, "onSurfaceRequested() - resolution mismatch! requested: " + resolution + ", encoder: " + videoConfig.width + "x" + videoConfig.height);
+                }
+                request.provideSurface(surface, mMainExecutor, new Consumer<SurfaceRequest.Result>() {
+                    @Override
+                    public void accept(SurfaceRequest.Result result) {
+                        Log.d(TAG, "onSurfaceRequested() - result: " + result.getResultCode());
+                    }
+                });
+            }
+        });
+        synchronized (mLock) {
+            provider.unbindAll();
+            provider.bindToLifecycle(mLifecycleOwner, CameraSelector.DEFAULT_BACK_CAMERA, preview);
+            mProvider = provider;
+            mPreview  = preview;
+        }
+        Log.i(TAG, "bind() - camera bound. " + videoConfig);
+    }
+}
@@ -0,0 +1,155 @@
+package com.kodeholic.simplerecorder;
+
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SimpleEncoder가 사용하는 codec 인터페이스.
+ * 실제 장치에서는 SimpleMediaCodec(MediaCodec)을 사용하고, JVM 환경에서는 fake codec으로 대체할 수 있다.
+ *  - MediaFormat, MediaCodec.BufferInfo, Handler 대신 아래의 Format, BufferInfo와 codec 전용 callback thread를 사용한다.
+ *  - index, flag, key 값은 MediaCodec/MediaFormat과 같다. (ex. MediaCodec.BUFFER_FLAG_END_OF_STREAM, MediaFormat.KEY_BIT_RATE)
+ */
+public interface SimpleCodec {
+    /**
+     * MediaCodec.BufferInfo와 같은 필드를 가진 data class
+     */
+    public static class BufferInfo {
+        public int  offset;
+        public int  size;
+        public long presentationTimeUs;
+        public int  flags;
+
+        public void set(int offset, int size, long presentationTimeUs, int flags) {
+            this.offset = offset;
+            this.size   = size;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags  = flags;
+        }
+
+        @Override
+        public String toString() {
+            return "BufferInfo{" +
+                    "offset=" + offset +
+                    ", size=" + size +
+                    ", presentationTimeUs=" + presentationTimeUs +
+                    ", flags=" + flags +
+                    '}';
+        }
+    }
+
+    /**
+     * MediaFormat과 같은 key를 사용하는 data class (Integer, Long, Float, String, ByteBuffer 값)
+     */
+    public static class Format {
+        private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+        public boolean containsKey(String key) {
+            return mValues.containsKey(key);
+        }
+
+        public Set<String> getKeys() {
+            return Collections.unmodifiableSet(mValues.keySet());
+        }
+
+        public Object getValue(String key) {
+            return mValues.get(key);
+        }
+
+        public Format setValue(String key, Object value) {
+            mValues.put(key, value);
+            return this;
+        }
+
+        public Format setInteger(String key, int value)           { return setValue(key, value); }
+        public Format setLong(String key, long value)             { return setValue(key, value); }
+        public Format setFloat(String key, float value)           { return setValue(key, value); }
+        public Format setString(String key, String value)         { return setValue(key, value); }
+        public Format setByteBuffer(String key, ByteBuffer value) { return setValue(key, value); }
+
+        public int getInteger(String key, int defaultValue) {
+            final Object value = mValues.get(key);
+            return (value instanceof Integer) ? (Integer)value : defaultValue;
+        }
+
+        public long getLong(String key, long defaultValue) {
+            final Object value = mValues.get(key);
+            return (value instanceof Long) ? (Long)value : defaultValue;
+        }
+
+        public String getString(String key) {
+            final Object value = mValues.get(key);
+            return (value instanceof String) ? (String)value : null;
+        }
+
+        public ByteBuffer getByteBuffer(String key) {
+            final Object value = mValues.get(key);
+            return (value instanceof ByteBuffer) ? (ByteBuffer)value : null;
+        }
+
+        @Override
+        public String toString() {
+            return "Format" + mValues;
+        }
+    }
+
+    /**
+     * 비동기(callback) 모드에서 사용하는 callback
+     */
+    public interface Callback {
+        public void onInputBufferAvailable(SimpleCodec codec, int index);
+        public void onOutputBufferAvailable(SimpleCodec codec, int index, BufferInfo info);
+        public void onOutputFormatChanged(SimpleCodec codec, Format format);
+        public void onError(SimpleCodec codec, Exception e);
+    }
+
+    /**
+     * codec을 설정한다.
+     * @param format
+     * @param callback null이면 동기(dequeue) 모드, 아니면 비동기(callback) 모드
+     * @param callbackPriority 비동기 모드에서 callback을 수행할 codec 전용 thread의 우선순위 (android.os.Process.THREAD_PRIORITY_*)
+     */
+    public void configure(Format format, Callback callback, int callbackPriority);
+
+    /**
+     * surface 입력을 사용한다. (configure() 이후, start() 이전에 호출)
+     * 입력은 surface로 전달되므로 dequeueInputBuffer()/queueInputBuffer()를 사용하지 않는다.
+     */
+    public Surface createInputSurface();
+
+    /**
+     * surface 입력의 EOS를 알린다.
+     */
+    public void signalEndOfInputStream();
+    public void start();
+    public void stop();
+
+    /**
+     * codec과 callback thread를 해제한다.
+     */
+    public void release();
+
+    /**
+     * 모든 input/output buffer를 버리고, EOS 이후에도 다시 입력 받을 수 있는 상태로 만든다.
+     * 비동기 모드에서는 flush() 후 start()를 다시 호출해야 한다.
+     */
+    public void flush();
+
+    public int dequeueInputBuffer(long timeoutUs);
+    public ByteBuffer getInputBuffer(int index);
+    public void queueInputBuffer(int index, int offset, int size, long pTimeUs, int flags);
+
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs);
+    public ByteBuffer getOutputBuffer(int index);
+    public void releaseOutputBuffer(int index);
+    public Format getOutputFormat();
+
+    /**
+     * 동작 중에 parameter를 변경한다. (ex. MediaCodec.PARAMETER_KEY_VIDEO_BITRATE)
+     */
+    public void setParameter(String key, int value);
+}
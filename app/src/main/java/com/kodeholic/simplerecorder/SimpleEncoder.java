@@ -3,9 +3,14 @@ package com.kodeholic.simplerecorder;
 import android.content.Context;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Process;
 import android.util.Log;
+import android.view.Surface;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SimpleEncoder {
     public static final String TAG = SimpleEncoder.class.getSimpleName();
@@ -16,12 +21,27 @@ public class SimpleEncoder {
     public static final int ENCODER_TYPE_AUDIO = 0;
     public static final int ENCODER_TYPE_VIDEO = 1;
 
-    private String __ENCODER_LOCK__ = "L";
+    //
+    public static final int ENCODER_MODE_SYNC  = 0; //dequeue polling (DrainRunnable)
+    public static final int ENCODER_MODE_ASYNC = 1; //MediaCodec.setCallback()
+
+    //async 모드에서 input buffer를 기다리는 PCM의 최대 개수
+    public static final int MAX_PENDING_PCM = 64;
+    //pending PCM을 버릴 때의 경고 로그 최소 간격 (capture thread에서 매 chunk 로그를 남기지 않는다)
+    public static final long PENDING_DROP_LOG_INTERVAL_MS = 1000;
+
+    //EOS를 queue한 후 codec이 EOS output을 반환하지 않는 경우의 안전장치 (정상 종료는 기다리지 않는다)
+    public static final long EOS_TIMEOUT_MS = 5000;
+
+    private final Object __ENCODER_LOCK__ = new Object();
     private Context    mContext;
     private String     mMimeType;
-    private MediaCodec mCodec;
-    private MediaCodec.BufferInfo mBufferInfo;
+    private SimpleCodec mCodec;
+    private SimpleCodec.BufferInfo mBufferInfo;
+    private MediaCodec.BufferInfo  mEncodedInfo; //listener에게 전달한다.
     private int        mEncoderType;
+    private int        mEncoderMode;
+    private Surface    mInputSurface = null; //video는 surface로 입력 받는다.
     //Listener
     private StartListener mStartListener;
     private StopListener  mStopListener;
@@ -31,10 +51,31 @@ public class SimpleEncoder {
     private boolean mDrainRunning; //쓰레이드 시작/종료 관리
     private int     mDrainAgainLaterCount;
 
+    //종료 관리 (EOS)
+    private long    mEosQueuedNanos = 0; //0이면 EOS를 아직 queue하지 않았다.
+    private boolean mEosReceived    = false;
+    private boolean mFinished       = false;
+    private SimpleFuture<SimpleEncoder> mStopFuture = new SimpleFuture<SimpleEncoder>();
+
+    //SimpleEncoderPool에서 받은 경우, EOS 후 release하지 않고 flush하여 pool로 반환한다.
+    private SimpleEncoderPool mPool    = null;
+    private String            mPoolKey = null;
+    private int               mInitialBitrate;
+    private int               mBitrate;
+
     //
     private MediaFormat mRequestedFormat = null;
     private MediaFormat mAppliedFormat = null;
 
+    //metrics
+    private SimpleMetrics.Histogram mInputWait;
+    private SimpleMetrics.Histogram mOutputWait;
+    private SimpleMetrics.Counter   mInputAgain;
+    private SimpleMetrics.Counter   mFrames;
+    private SimpleMetrics.Histogram mEosLatency;
+    private SimpleMetrics.Counter   mEosTimeout;
+    private SimpleMetrics.Counter   mPendingDropped;
+
     public interface StartListener {
         public void onStart(SimpleEncoder encoder, MediaFormat outputFormat);
         public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info);
@@ -45,29 +86,93 @@ public class SimpleEncoder {
     }
 
     public SimpleEncoder(Context context, int encoderType, String mimeType, MediaFormat format) throws Exception {
-        Log.d(TAG, "SimpleEncoder() - encoderType: " + encoderType + ", mimeType: " + mimeType + ", format: " + format);
+        this(context, encoderType, mimeType, format, ENCODER_MODE_SYNC);
+    }
+
+    public SimpleEncoder(Context context, int encoderType, String mimeType, MediaFormat format, int encoderMode) throws Exception {
+        this(context, encoderType, mimeType, format, encoderMode, new SimpleMediaCodec(mimeType));
+    }
+
+    public SimpleEncoder(Context context, int encoderType, String mimeType, MediaFormat format, int encoderMode, SimpleCodec codec) throws Exception {
+        Log.d(TAG, "SimpleEncoder() - encoderType: " + encoderType + ", mimeType: " + mimeType + ", format: " + format + ", encoderMode: " + encoderMode);
         mContext    = context;
         mEncoderType= encoderType;
+        mEncoderMode= encoderMode;
         mMimeType   = mimeType;
         mRequestedFormat = format;
+        mInitialBitrate  = (format != null && format.containsKey(MediaFormat.KEY_BIT_RATE)) ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0;
+        mBitrate         = mInitialBitrate;
 
         mDrainRunning = false;
         mDrainAgainLaterCount = 0;
         mDrainStarted = false;
 
-        mBufferInfo = new MediaCodec.BufferInfo();
-        mCodec = MediaCodec.createEncoderByType(mMimeType);
-        mCodec.configure(mRequestedFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        final SimpleMetrics metrics = SimpleMetrics.getInstance();
+        mInputWait  = metrics.histogram("encoder." + mimeType + ".input_wait_us");
+        mOutputWait = metrics.histogram("encoder." + mimeType + ".output_wait_us");
+        mInputAgain = metrics.counter("encoder." + mimeType + ".input_again");
+        mFrames     = metrics.counter("encoder." + mimeType + ".frames");
+        mEosLatency = metrics.histogram("encoder." + mimeType + ".eos_us");
+        mEosTimeout = metrics.counter("encoder." + mimeType + ".eos_timeout");
+        mPendingDropped = metrics.counter("encoder." + mimeType + ".pending_dropped");
+
+        mBufferInfo  = new SimpleCodec.BufferInfo();
+        mEncodedInfo = new MediaCodec.BufferInfo();
+        mCodec = codec;
+        mCodec.configure(SimpleMediaCodec.toFormat(mRequestedFormat), isAsync() ? mCodecCallback : null, getThreadPriority());
+        if (isVideo()) {
+            mInputSurface = mCodec.createInputSurface();
+        }
         mCodec.start();
     }
 
     public boolean isAudio() { return (mEncoderType == ENCODER_TYPE_AUDIO); }
     public boolean isVideo() { return (mEncoderType == ENCODER_TYPE_VIDEO); }
+    public boolean isAsync() { return (mEncoderMode == ENCODER_MODE_ASYNC); }
 
     public String getMimeType() {
         return mMimeType;
     }
 
+    /**
+     * video encoder의 입력 surface (camera 등이 frame을 직접 그린다, CPU 복사 없음)
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    private int getThreadPriority() {
+        return isVideo() ? Process.THREAD_PRIORITY_VIDEO : Process.THREAD_PRIORITY_AUDIO;
+    }
+
+    void attachPool(SimpleEncoderPool pool, String key) {
+        mPool    = pool;
+        mPoolKey = key;
+    }
+
+    String getPoolKey() {
+        return mPoolKey;
+    }
+
+    /**
+     * 동작 중에 bitrate 변경을 요청한다. (MediaCodec.PARAMETER_KEY_VIDEO_BITRATE)
+     * 일부 audio encoder는 요청을 무시하므로, 반드시 반영되어야 하면 segment 경계에서 encoder를 교체한다.
+     * @param bitrate
+     * @return 요청 성공 여부
+     */
+    public boolean setBitrate(int bitrate) {
+        Log.d(TAG, "setBitrate() - bitrate: " + bitrate);
+        try {
+            mCodec.setParameter(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+            mBitrate = bitrate;
+            return true;
+        }
+        catch (Exception e) {
+            Log.w(TAG, "setBitrate() - failed! bitrate: " + bitrate, e);
+        }
+        return false;
+    }
+
     public MediaFormat getMediaFormat() {
         return mAppliedFormat;
     }
@@ -86,44 +191,280 @@ public class SimpleEncoder {
             mDrainRunning = true;
             mStartListener= l;
         }
-        Thread runner = new Thread(new DrainRunnable());
+
+        //재사용(flush)된 codec은 output format을 다시 알리지 않을 수 있다.
+        if (mAppliedFormat != null && l != null) {
+            Log.d(TAG, "startEncoder() - recycled. outputFormat: " + mAppliedFormat);
+            l.onStart(this, mAppliedFormat);
+        }
+
+        //async 모드에서는 codec callback이 drain을 대신한다.
+        if (isAsync()) {
+            return;
+        }
+        Thread runner = new Thread(new DrainRunnable(), TAG + "-drain");
         runner.start();
     }
 
     /**
      * Encoder를 종료한다.
-     * @param l
+     *  - EOS(BUFFER_FLAG_END_OF_STREAM)를 queue하고, EOS output이 나오면 codec을 해제한 후 완료된다.
+     *  - 이미 queue된 입력은 모두 encode되며, 시간 제한으로 중간에 잘리지 않는다. (EOS_TIMEOUT_MS는 codec 이상 시의 안전장치)
+     * @param l 종료 시 호출 (null 가능)
+     * @return 종료 시 완료되는 future (EOS_TIMEOUT_MS 내에 EOS가 나오지 않으면 TimeoutException으로 실패)
      */
-    public void stopEncoder(StopListener l) {
+    public SimpleFuture<SimpleEncoder> stopEncoder(StopListener l) {
+        final long pTimeUs = getPTimeUs(mPrevPTimeUs);
+        //pool encoder는 종료 후 future가 교체되므로, 이번 session의 future를 반환한다.
+        final SimpleFuture<SimpleEncoder> stopFuture;
         synchronized (__ENCODER_LOCK__) {
-            mDrainRunning = false;
             mStopListener = l;
+            stopFuture    = mStopFuture;
+            if (!mDrainRunning) {
+                Log.d(TAG, "stopEncoder() - Not running! started: " + mDrainStarted + ", eosQueued: " + (mEosQueuedNanos > 0));
+                if (mDrainStarted) {
+                    return stopFuture;
+                }
+            }
+            else {
+                mDrainRunning   = false;
+                mEosQueuedNanos = System.nanoTime();
+
+                //async 모드: EOS를 pending queue에 넣는다. EOS output이 나오면 onEndOfStream()
+                if (isAsync()) {
+                    if (mInputSurface != null) {
+                        mCodec.signalEndOfInputStream();
+                    }
+                    else {
+                        enqueuePendingLocked(null, 0, pTimeUs, "stopEncoder");
+                    }
+                    startEosWatchdog(stopFuture);
+                    return stopFuture;
+                }
+            }
+        }
+
+        //시작되지 않았으면 drain할 것이 없다.
+        if (!mDrainStarted) {
+            finishEncoder(null);
+            return stopFuture;
+        }
+
+        //sync 모드: EOS를 직접 queue한다. DrainRunnable은 EOS output을 받으면 종료한다.
+        queueEndOfStream(pTimeUs);
+        return stopFuture;
+    }
+
+    /**
+     * EOS input buffer를 queue한다. (sync 모드)
+     */
+    private void queueEndOfStream(long pTimeUs) {
+        //surface 입력은 input buffer가 없다.
+        if (mInputSurface != null) {
+            Log.d(TAG, "queueEndOfStream() - signalEndOfInputStream()");
+            mCodec.signalEndOfInputStream();
+        }
+        while (mInputSurface == null && !isEosTimedOut()) {
+            final int inputIndex = dequeueInputBuffer();
+            if (inputIndex < 0) {
+                mInputAgain.increment();
+                continue;
+            }
+            Log.d(TAG, "queueEndOfStream() - queueInputBuffer(EOS) - inputIndex: " + inputIndex);
+            mCodec.queueInputBuffer(inputIndex, 0, 0, pTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            break;
+        }
+
+        //drain에게 알린다.
+        synchronized (__ENCODER_LOCK__) {
+            __ENCODER_LOCK__.notifyAll();
+        }
+    }
+
+    private boolean isEndOfStream() {
+        synchronized (__ENCODER_LOCK__) {
+            return mEosReceived;
+        }
+    }
+
+    private boolean isEosTimedOut() {
+        synchronized (__ENCODER_LOCK__) {
+            return mEosQueuedNanos > 0 && System.nanoTime() - mEosQueuedNanos > EOS_TIMEOUT_MS * 1000000L;
         }
     }
 
+    /**
+     * codec을 해제하고 종료를 알린다. (한번만 수행)
+     * @param error null이면 EOS까지 정상 처리되었다.
+     */
+    private void finishEncoder(Throwable error) {
+        final long eosQueuedNanos;
+        final StopListener stopListener;
+        final SimpleFuture<SimpleEncoder> stopFuture;
+        synchronized (__ENCODER_LOCK__) {
+            if (mFinished) {
+                return;
+            }
+            mFinished      = true;
+            mDrainRunning  = false;
+            eosQueuedNanos = mEosQueuedNanos;
+            stopListener   = mStopListener;
+            stopFuture     = mStopFuture;
+        }
+        if (eosQueuedNanos > 0) {
+            mEosLatency.recordSinceNanos(eosQueuedNanos);
+        }
+        Log.d(TAG, "finishEncoder() - eosUs: " + (eosQueuedNanos > 0 ? (System.nanoTime() - eosQueuedNanos) / 1000L : -1) + ", error: " + error + ", pool: " + mPoolKey);
+
+        //pool encoder는 정상 종료된 경우만 재사용한다.
+        final boolean reuse = (error == null && mPool != null && resetForReuse());
+        if (!reuse) {
+            releaseCodec();
+        }
+
+        //종료되었음을 알린다.
+        if (stopListener != null) {
+            stopListener.onStop(SimpleEncoder.this);
+        }
+        if (error == null) {
+            stopFuture.complete(this);
+        }
+        else {
+            stopFuture.fail(error);
+        }
+
+        if (reuse && !mPool.recycle(this)) {
+            release();
+        }
+    }
+
+    /**
+     * codec을 flush하고 시작 전 상태로 되돌린다. (pool 재사용)
+     * @return 실패하면 false (호출자가 release한다)
+     */
+    private boolean resetForReuse() {
+        try {
+            mCodec.flush();
+            if (mBitrate != mInitialBitrate && mInitialBitrate > 0) {
+                setBitrate(mInitialBitrate);
+            }
+        }
+        catch (Exception e) {
+            Log.w(TAG, "resetForReuse() - flush() failed!", e);
+            return false;
+        }
+
+        synchronized (__ENCODER_LOCK__) {
+            mDrainStarted   = false;
+            mDrainRunning   = false;
+            mDrainAgainLaterCount = 0;
+            mEosQueuedNanos = 0;
+            mEosReceived    = false;
+            mFinished       = false;
+            mStartListener  = null;
+            mStopListener   = null;
+            mStopFuture     = new SimpleFuture<SimpleEncoder>();
+            mPrevPTimeUs    = 0;
+
+            //flush되면 보유한 input buffer index는 무효가 된다.
+            mFreeInputIndexes.clear();
+            mHeldInputIndex = -1;
+            mPendingDroppedCount = 0;
+            mPendingDropLogNanos = 0;
+            PendingPCM pcm;
+            while ((pcm = mPendingPCMs.poll()) != null) {
+                if (pcm.pooled != null) {
+                    pcm.pooled.release(pcm.pooledGeneration);
+                    pcm.pooled = null;
+                }
+                mRecycledPCMs.add(pcm);
+            }
+        }
+
+        //async 모드는 flush 후 다시 start()해야 input buffer callback을 받는다.
+        if (isAsync()) {
+            try {
+                mCodec.start();
+            }
+            catch (Exception e) {
+                Log.w(TAG, "resetForReuse() - start() failed!", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * codec과 callback thread를 해제한다.
+     */
+    private void releaseCodec() {
+        try {
+            mCodec.stop();
+        }
+        catch (Exception e) {
+            Log.w(TAG, "releaseCodec() - stop() failed!", e);
+        }
+        try {
+            mCodec.release();
+        }
+        catch (Exception e) {
+            Log.w(TAG, "releaseCodec() - release() failed!", e);
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+    /**
+     * 사용하지 않은(또는 pool에서 제거된) encoder를 해제한다.
+     */
+    public void release() {
+        synchronized (__ENCODER_LOCK__) {
+            mFinished     = true;
+            mDrainRunning = false;
+        }
+        Log.d(TAG, "release() - pool: " + mPoolKey);
+        releaseCodec();
+    }
+
     /**
      * 추출기...
      */
     public class DrainRunnable implements Runnable {
         @Override
         public void run() {
+            Process.setThreadPriority(getThreadPriority());
             Log.d(TAG, "DrainRunnable() - STARTED, running: " + isDrainRunning());
-            while (isDrainRunning()) {
+            //EOS output이 나올 때까지 drain한다.
+            Throwable error = null;
+            while (!isEndOfStream()) {
+                if (isEosTimedOut()) {
+                    Log.e(TAG, "DrainRunnable() - EOS timeout! output may be truncated.");
+                    mEosTimeout.increment();
+                    error = new TimeoutException("EOS not received in " + EOS_TIMEOUT_MS + "ms");
+                    break;
+                }
                 try {
                     int drainAgainLaterCount = getDrainAgainLaterCount();
-                    Log.d(TAG, "DrainRunnable() - drain(enter) - drainAgainLaterCount: " + drainAgainLaterCount);
+                    if (SimpleLog.VERBOSE) {
+                        Log.d(TAG, "DrainRunnable() - drain(enter) - drainAgainLaterCount: " + drainAgainLaterCount);
+                    }
                     drain(0);
                     drainAgainLaterCount = getDrainAgainLaterCount();
-                    Log.d(TAG, "DrainRunnable() - drain(leave) - drainAgainLaterCount: " + drainAgainLaterCount);
+                    if (SimpleLog.VERBOSE) {
+                        Log.d(TAG, "DrainRunnable() - drain(leave) - drainAgainLaterCount: " + drainAgainLaterCount);
+                    }
 
                     //drain again이 너무 많이 반복...
-                    if (drainAgainLaterCount >= 2) {
+                    //surface 입력은 encode()의 알림이 없으므로, dequeue timeout으로만 기다린다.
+                    if (drainAgainLaterCount >= 2 && mInputSurface == null) {
                         Log.w(TAG, "drain(2) - Too many tries!! drainAgainLaterCount: " + drainAgainLaterCount);
                         initDrainAgainLaterCount();
 
                         synchronized (__ENCODER_LOCK__) {
                             try {
-                                if (isDrainRunning()) {
+                                if (mDrainRunning) {
                                     __ENCODER_LOCK__.wait(200);
                                 }
                             }
@@ -136,18 +477,10 @@ public class SimpleEncoder {
                 }
             }
 
-            //
-            long current = System.currentTimeMillis();
-            long limit   = current + 1000; //1초 정보 확인 사살
-            while (limit > current && drain(200 * 1000)) {
-                current = System.currentTimeMillis();
-            }
-            Log.d(TAG, "DrainRunnable() - STOPPED, running: " + isDrainRunning());
+            Log.d(TAG, "DrainRunnable() - STOPPED, eos: " + isEndOfStream());
 
-            //종료되었음을 알린다.
-            if (mStopListener != null) {
-                mStopListener.onStop(SimpleEncoder.this);
-            }
+            //codec을 해제하고 종료를 알린다.
+            finishEncoder(error);
         }
     }
 
@@ -159,18 +492,40 @@ public class SimpleEncoder {
      * @param f
      */
     protected void encode(final ByteBuffer buffer, final int length, final long pTimeUs, String f) {
-        Log.d(TAG, "encode(enter) - f: " + f + ", buffer: " + buffer + ", length: " + length + ", pTimeUs: " + pTimeUs + ", running: " + isDrainRunning());
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "encode(enter) - f: " + f + ", buffer: " + buffer + ", length: " + length + ", pTimeUs: " + pTimeUs + ", running: " + isDrainRunning());
+        }
+        SimpleLog.trace(SimpleLog.EV_ENCODE, length, pTimeUs);
+
+        if (isAsync()) {
+            synchronized (__ENCODER_LOCK__) {
+                if (!mDrainRunning) {
+                    return;
+                }
+                if (length <= 0) {
+                    mDrainRunning   = false;
+                    mEosQueuedNanos = System.nanoTime();
+                }
+                enqueuePendingLocked(buffer, length, pTimeUs, f);
+            }
+            return;
+        }
 
         boolean result = false;
         while (isDrainRunning()) {
-            final int inputIndex = mCodec.dequeueInputBuffer(TIMEOUT_USEC);
-            Log.d(TAG, "encode() - dequeueInputBuffer inputIndex: " + inputIndex);
+            final long startNanos = System.nanoTime();
+            final int inputIndex = dequeueInputBuffer();
+            mInputWait.recordSinceNanos(startNanos);
+            if (SimpleLog.VERBOSE) {
+                Log.d(TAG, "encode() - dequeueInputBuffer inputIndex: " + inputIndex);
+            }
 
             //무언가 문제가 있다!!
             if (inputIndex < 0) {
                 switch (inputIndex) {
                     case MediaCodec.INFO_TRY_AGAIN_LATER:
                         Log.w(TAG, "encode() - INFO_TRY_AGAIN_LATER");
+                        mInputAgain.increment();
                         break;
 
                     default:
@@ -187,12 +542,18 @@ public class SimpleEncoder {
                 inputBuffer.put(buffer);
             }
             if (length <= 0) {
-                setDrainRunning(false, "encode() - length <= 0");
+                synchronized (__ENCODER_LOCK__) {
+                    mDrainRunning   = false;
+                    mEosQueuedNanos = System.nanoTime();
+                }
                 Log.w(TAG, "encode() - queueInputBuffer(EOS) - inputIndex: " + inputIndex + ", length: " + length);
                 mCodec.queueInputBuffer(inputIndex, 0, 0, pTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
             }
             else {
-                Log.d(TAG, "encode() - queueInputBuffer() - inputIndex: " + inputIndex + ", length: " + length + ", pTimeUs: " + pTimeUs);
+                if (SimpleLog.VERBOSE) {
+                    Log.d(TAG, "encode() - queueInputBuffer() - inputIndex: " + inputIndex + ", length: " + length + ", pTimeUs: " + pTimeUs);
+                }
+                SimpleLog.trace(SimpleLog.EV_QUEUE_IN, inputIndex, pTimeUs);
                 mCodec.queueInputBuffer(inputIndex, 0, length, pTimeUs, 0);
                 result = true;
             }
@@ -204,7 +565,137 @@ public class SimpleEncoder {
             break;
         }
 
-        Log.d(TAG, "encode(leave) - f: " + f + ", running: " + isDrainRunning() + ", result: " + result);
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "encode(leave) - f: " + f + ", running: " + isDrainRunning() + ", result: " + result);
+        }
+    }
+
+    /**
+     * pool buffer를 encode 요청한다. buffer의 reference 1개는 encoder가 소유하며, 처리 후 release한다.
+     * async 모드에서는 복사하지 않고 pending queue에 보관했다가 input buffer가 생기면 채운다.
+     * @param buffer
+     * @param f
+     */
+    protected void encode(final SimpleBufferPool.Buffer buffer, String f) {
+        if (!isAsync()) {
+            try {
+                final ByteBuffer view = buffer.view();
+                encode(view, view.remaining(), buffer.getPTimeUs(), f);
+            }
+            finally {
+                buffer.release();
+            }
+            return;
+        }
+
+        synchronized (__ENCODER_LOCK__) {
+            if (!mDrainRunning) {
+                buffer.release();
+                return;
+            }
+            enqueuePendingLocked(buffer, f);
+        }
+    }
+
+    /**
+     * reader가 input buffer를 직접 채우도록 하여 encode 요청한다. (zero-copy)
+     * async 모드에서 사용 가능한 input buffer가 없으면 내부 buffer로 읽어 pending queue에 넣는다.
+     * @param reader
+     * @param maxLength
+     * @param pTimeUs
+     * @param f
+     * @return reader가 반환한 바이트 수
+     */
+    protected int encode(final SimpleMuxer.SampleReader reader, final int maxLength, final long pTimeUs, String f) {
+        if (isAsync()) {
+            Integer inputIndex;
+            synchronized (__ENCODER_LOCK__) {
+                if (!mDrainRunning) {
+                    return 0;
+                }
+                inputIndex = mPendingPCMs.isEmpty() ? mFreeInputIndexes.poll() : null;
+            }
+
+            //사용 가능한 input buffer가 없다.
+            if (inputIndex == null) {
+                if (mReadBuffer == null || mReadBuffer.capacity() < maxLength) {
+                    mReadBuffer = ByteBuffer.allocateDirect(maxLength);
+                }
+                mReadBuffer.clear();
+                final int n = reader.read(mReadBuffer, maxLength);
+                if (n > 0) {
+                    mReadBuffer.position(0).limit(n);
+                    synchronized (__ENCODER_LOCK__) {
+                        enqueuePendingLocked(mReadBuffer, n, SimpleMuxer.getPTimeUs(reader, pTimeUs), f);
+                    }
+                }
+                return n;
+            }
+            return readInputBuffer(reader, inputIndex, maxLength, pTimeUs);
+        }
+
+        while (isDrainRunning()) {
+            final long startNanos = System.nanoTime();
+            final int inputIndex = dequeueInputBuffer();
+            mInputWait.recordSinceNanos(startNanos);
+            if (inputIndex < 0) {
+                Log.w(TAG, "encode() - dequeueInputBuffer() failed. inputIndex: " + inputIndex);
+                mInputAgain.increment();
+                continue;
+            }
+            final int n = readInputBuffer(reader, inputIndex, maxLength, pTimeUs);
+
+            //drain에게 알린다.
+            synchronized (__ENCODER_LOCK__) {
+                __ENCODER_LOCK__.notifyAll();
+            }
+            return n;
+        }
+
+        return 0;
+    }
+
+    //sync 모드에서 dequeue했지만 채우지 못한 input buffer (없으면 -1)
+    private int mHeldInputIndex = -1;
+
+    /**
+     * sync 모드의 input buffer를 얻는다. 채우지 못하고 보유한 buffer가 있으면 먼저 사용한다.
+     */
+    private int dequeueInputBuffer() {
+        synchronized (__ENCODER_LOCK__) {
+            if (mHeldInputIndex >= 0) {
+                final int inputIndex = mHeldInputIndex;
+                mHeldInputIndex = -1;
+                return inputIndex;
+            }
+        }
+        return mCodec.dequeueInputBuffer(TIMEOUT_USEC);
+    }
+
+    /**
+     * reader로 input buffer를 채우고 queue한다.
+     * 읽은 데이타가 없거나(0) read 오류(음수)이면 queue하지 않고 buffer를 돌려놓으며, 오류는 그대로 반환한다.
+     * (빈 buffer를 PTS와 함께 queue하면 codec이 빈 frame 또는 EOS로 처리할 수 있다)
+     */
+    private int readInputBuffer(SimpleMuxer.SampleReader reader, int inputIndex, int maxLength, long pTimeUs) {
+        final ByteBuffer inputBuffer = mCodec.getInputBuffer(inputIndex);
+        inputBuffer.clear();
+        final int n = reader.read(inputBuffer, Math.min(maxLength, inputBuffer.capacity()));
+        if (n <= 0) {
+            synchronized (__ENCODER_LOCK__) {
+                if (isAsync()) {
+                    mFreeInputIndexes.addFirst(inputIndex);
+                    fillInputBuffersLocked();
+                }
+                else {
+                    mHeldInputIndex = inputIndex;
+                }
+            }
+            return n;
+        }
+        mCodec.queueInputBuffer(inputIndex, 0, n, SimpleMuxer.getPTimeUs(reader, pTimeUs), 0);
+
+        return n;
     }
 
     /**
@@ -217,8 +708,13 @@ public class SimpleEncoder {
             return false;
         }
         final long timeoutUs   = Math.max(_timeoutUs, TIMEOUT_USEC);
+        final long startNanos  = System.nanoTime();
         final int  outputIndex = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
-        Log.d(TAG, "drain() - dequeueOutputBuffer outputIndex: " + outputIndex + ", timeoutUs: " + timeoutUs);
+        mOutputWait.recordSinceNanos(startNanos);
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "drain() - dequeueOutputBuffer outputIndex: " + outputIndex + ", timeoutUs: " + timeoutUs);
+        }
+        SimpleLog.trace(SimpleLog.EV_DRAIN, outputIndex, timeoutUs);
 
         //무언가 문제가 있다!!
         if (outputIndex < 0) {
@@ -230,13 +726,7 @@ public class SimpleEncoder {
 
                 case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
                     Log.w(TAG, "drain() - INFO_OUTPUT_FORMAT_CHANGED");
-                    //실제 적용된 format을 저장한다.
-                    mAppliedFormat = mCodec.getOutputFormat();
-
-                    //addTrack() - 중복 시작 여부 체크 필요
-                    if (mStartListener != null) {
-                        mStartListener.onStart(this, mAppliedFormat);
-                    }
+                    onFormatChanged(mCodec.getOutputFormat());
                     break;
 
                 default:
@@ -247,33 +737,257 @@ public class SimpleEncoder {
             return false;
         }
 
+        return onOutputBuffer(outputIndex, mBufferInfo);
+    }
+
+    /**
+     * 실제 적용된 format을 저장하고, listener에게 알린다.
+     * @param format
+     */
+    private void onFormatChanged(SimpleCodec.Format format) {
+        //실제 적용된 format을 저장한다.
+        mAppliedFormat = SimpleMediaCodec.toMediaFormat(format);
+
+        //addTrack() - 중복 시작 여부 체크 필요
+        if (mStartListener != null) {
+            mStartListener.onStart(this, mAppliedFormat);
+        }
+    }
+
+    /**
+     * encode된 output buffer를 listener에게 전달하고, 반환한다.
+     * @param outputIndex
+     * @param info
+     * @return
+     */
+    private boolean onOutputBuffer(int outputIndex, SimpleCodec.BufferInfo info) {
         final ByteBuffer encodedData = mCodec.getOutputBuffer(outputIndex);
         if (encodedData == null) {
             Log.w(TAG, "drain() - getOutputBuffer() returns null. outputIndex: " + outputIndex);
             return false;
         }
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
             Log.w(TAG, "drain() - BUFFER_FLAG_CODEC_CONFIG");
-            mBufferInfo.size = 0;
+            info.size = 0;
         }
 
-        if (mBufferInfo.size != 0) {
+        if (info.size != 0) {
             //set a drain-try-count zero
             initDrainAgainLaterCount();
-            //calculate pTime...
-            mBufferInfo.presentationTimeUs = getPTimeUs(mPrevPTimeUs);
+            //codec이 산출한 pTime을 그대로 사용한다. (input pTime 기준)
             if (mStartListener != null) {
-                mStartListener.onEncoded(this, encodedData, mBufferInfo);
+                mEncodedInfo.offset = info.offset;
+                mEncodedInfo.size   = info.size;
+                mEncodedInfo.presentationTimeUs = info.presentationTimeUs;
+                mEncodedInfo.flags  = info.flags;
+                mStartListener.onEncoded(this, encodedData, mEncodedInfo);
             }
-            mPrevPTimeUs = mBufferInfo.presentationTimeUs;
+            mPrevPTimeUs = info.presentationTimeUs;
+            mFrames.increment();
+            SimpleLog.trace(SimpleLog.EV_ENCODED, info.size, info.presentationTimeUs);
         }
 
         //release the output buffer
-        mCodec.releaseOutputBuffer(outputIndex, false);
+        mCodec.releaseOutputBuffer(outputIndex);
+
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            Log.d(TAG, "drain() - BUFFER_FLAG_END_OF_STREAM");
+            synchronized (__ENCODER_LOCK__) {
+                mEosReceived = true;
+            }
+        }
+
+        return (info.size != 0);
+    }
+
+    //////////////////////////////////////////////////////////
+    // async(callback) 모드
+    //////////////////////////////////////////////////////////
+    private ByteBuffer    mReadBuffer = null;
+    private final ArrayDeque<Integer>    mFreeInputIndexes = new ArrayDeque<Integer>();
+    private final ArrayDeque<PendingPCM> mPendingPCMs      = new ArrayDeque<PendingPCM>();
+    private final ArrayDeque<PendingPCM> mRecycledPCMs     = new ArrayDeque<PendingPCM>();
+    //이 instance에서 버린 pending PCM 개수 (metrics는 같은 mime의 instance가 누적된다)
+    private long mPendingDroppedCount = 0;
+    private long mPendingDropLogNanos = 0;
+
+    /**
+     * input buffer를 기다리는 PCM
+     */
+    private static class PendingPCM {
+        byte[] data = new byte[0];
+        int    length;
+        long   pTimeUs;
+        SimpleBufferPool.Buffer pooled; //null이 아니면 data 대신 사용한다.
+        int  pooledGeneration;          //pooled를 보관한 시점의 generation
+    }
+
+    /**
+     * 이 instance에서 버린 pending PCM 개수 (async 모드에서 MAX_PENDING_PCM을 넘은 경우)
+     */
+    public long getPendingDroppedCount() {
+        synchronized (__ENCODER_LOCK__) {
+            return mPendingDroppedCount;
+        }
+    }
+
+    /**
+     * pending queue가 가득 차서 PCM을 버린다. 로그는 PENDING_DROP_LOG_INTERVAL_MS 마다 한번만 남긴다. (__ENCODER_LOCK__ 안에서 호출)
+     */
+    private void onPendingDroppedLocked(String f, long pTimeUs) {
+        mPendingDropped.increment();
+        mPendingDroppedCount++;
+
+        final long nowNanos = System.nanoTime();
+        if (mPendingDroppedCount == 1 || nowNanos - mPendingDropLogNanos >= PENDING_DROP_LOG_INTERVAL_MS * 1000000L) {
+            mPendingDropLogNanos = nowNanos;
+            Log.w(TAG, "encode() - Too many pending PCMs! dropped. f: " + f + ", pTimeUs: " + pTimeUs + ", dropped: " + mPendingDroppedCount);
+        }
+    }
+
+    /**
+     * PCM을 pending queue에 넣고, 가능한 만큼 input buffer를 채운다. (__ENCODER_LOCK__ 안에서 호출)
+     * @param buffer null이거나 length <= 0 이면 EOS
+     */
+    private void enqueuePendingLocked(ByteBuffer buffer, int length, long pTimeUs, String f) {
+        if (mPendingPCMs.size() >= MAX_PENDING_PCM && length > 0) {
+            onPendingDroppedLocked(f, pTimeUs);
+            return;
+        }
+        PendingPCM pcm = mRecycledPCMs.poll();
+        if (pcm == null) {
+            pcm = new PendingPCM();
+        }
+        pcm.length  = Math.max(length, 0);
+        pcm.pTimeUs = pTimeUs;
+        if (pcm.length > 0) {
+            if (pcm.data.length < pcm.length) {
+                pcm.data = new byte[pcm.length];
+            }
+            buffer.get(pcm.data, 0, pcm.length);
+        }
+        mPendingPCMs.add(pcm);
+
+        fillInputBuffersLocked();
+    }
+
+    /**
+     * pool buffer를 복사하지 않고 pending queue에 보관한다. (input buffer에 복사한 후 release한다)
+     */
+    private void enqueuePendingLocked(SimpleBufferPool.Buffer buffer, String f) {
+        if (mPendingPCMs.size() >= MAX_PENDING_PCM) {
+            onPendingDroppedLocked(f, buffer.getPTimeUs());
+            buffer.release();
+            return;
+        }
+        PendingPCM pcm = mRecycledPCMs.poll();
+        if (pcm == null) {
+            pcm = new PendingPCM();
+        }
+        pcm.length  = buffer.length();
+        pcm.pTimeUs = buffer.getPTimeUs();
+        pcm.pooled  = buffer;
+        pcm.pooledGeneration = buffer.getGeneration();
+        mPendingPCMs.add(pcm);
+
+        fillInputBuffersLocked();
+    }
+
+    /**
+     * 사용 가능한 input buffer에 pending PCM을 채운다. (__ENCODER_LOCK__ 안에서 호출)
+     */
+    private void fillInputBuffersLocked() {
+        while (!mPendingPCMs.isEmpty() && !mFreeInputIndexes.isEmpty()) {
+            final int        inputIndex  = mFreeInputIndexes.poll();
+            final PendingPCM pcm         = mPendingPCMs.poll();
+            final ByteBuffer inputBuffer = mCodec.getInputBuffer(inputIndex);
+            inputBuffer.clear();
+            if (pcm.length <= 0) {
+                Log.w(TAG, "encode() - queueInputBuffer(EOS) - inputIndex: " + inputIndex);
+                mCodec.queueInputBuffer(inputIndex, 0, 0, pcm.pTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            }
+            else if (pcm.pooled != null) {
+                inputBuffer.put(pcm.pooled.view());
+                mCodec.queueInputBuffer(inputIndex, 0, pcm.length, pcm.pTimeUs, 0);
+                pcm.pooled.release(pcm.pooledGeneration);
+                pcm.pooled = null;
+            }
+            else {
+                inputBuffer.put(pcm.data, 0, pcm.length);
+                mCodec.queueInputBuffer(inputIndex, 0, pcm.length, pcm.pTimeUs, 0);
+            }
+            mRecycledPCMs.add(pcm);
+        }
+    }
+
+    /**
+     * EOS까지 처리되었다.
+     * codec 해제(또는 pool 재사용을 위한 flush)는 callback thread 밖에서 수행한다. (callback 안에서 stop()하면 교착될 수 있다)
+     */
+    private void onEndOfStream(final Throwable error) {
+        Log.d(TAG, "onEndOfStream() - error: " + error);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                finishEncoder(error);
+            }
+        }, TAG + "-release").start();
+    }
 
-        return (mBufferInfo.size != 0);
+    /**
+     * EOS_TIMEOUT_MS 안에 stopFuture가 완료되지 않으면 강제로 종료한다. (async 모드)
+     */
+    private void startEosWatchdog(final SimpleFuture<SimpleEncoder> stopFuture) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stopFuture.get(EOS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                    Log.e(TAG, "onEndOfStream() - EOS timeout! output may be truncated.");
+                    mEosTimeout.increment();
+                    onEndOfStream(new TimeoutException("EOS not received in " + EOS_TIMEOUT_MS + "ms"));
+                }
+                catch (Exception e) {
+                    //정상 종료 또는 실패가 이미 반영되었다.
+                }
+            }
+        }, TAG + "-eos").start();
     }
 
+    private final SimpleCodec.Callback mCodecCallback = new SimpleCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(SimpleCodec codec, int index) {
+            synchronized (__ENCODER_LOCK__) {
+                mFreeInputIndexes.add(index);
+                fillInputBuffersLocked();
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(SimpleCodec codec, int index, SimpleCodec.BufferInfo info) {
+            final boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            onOutputBuffer(index, info);
+            if (eos) {
+                onEndOfStream(null);
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(SimpleCodec codec, SimpleCodec.Format format) {
+            Log.w(TAG, "onOutputFormatChanged() - format: " + format);
+            onFormatChanged(format);
+        }
+
+        @Override
+        public void onError(SimpleCodec codec, Exception e) {
+            Log.e(TAG, "onError() - e: " + e);
+            setDrainRunning(false, "onError()");
+            onEndOfStream(e);
+        }
+    };
+
     private int getDrainAgainLaterCount() {
         synchronized (__ENCODER_LOCK__) {
             return mDrainAgainLaterCount;
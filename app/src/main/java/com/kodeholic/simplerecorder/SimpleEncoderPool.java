@@ -0,0 +1,157 @@
+package com.kodeholic.simplerecorder;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 미리 생성/configure/start 해 둔 SimpleEncoder pool.
+ *  - MediaCodec 생성과 configure()/start()는 수백 ms가 걸리므로, 앱 시작이나 idle 시점에 prewarm() 해 둔다.
+ *  - acquire()는 같은 key의 idle encoder를 반환하고, 없으면 그 자리에서 생성한다. (miss)
+ *  - pool에서 받은 encoder는 EOS 후 codec을 release하지 않고 flush()하여 pool로 돌아온다. (recycle)
+ *  - key는 호출자가 format(mime, sample rate, channel, bitrate, encoder mode)으로 만든다. (ex. SimpleM4AMuxer.encoderKey())
+ */
+public class SimpleEncoderPool {
+    private static final String TAG = SimpleEncoderPool.class.getSimpleName();
+
+    //key 별 최대 idle encoder 개수
+    public static final int MAX_IDLE_PER_KEY = 2;
+
+    /**
+     * encoder 생성 (pool이 비어 있을 때, prewarm 시 호출된다)
+     */
+    public interface Factory {
+        public SimpleEncoder create() throws Exception;
+    }
+
+    private static final SimpleEncoderPool sInstance = new SimpleEncoderPool();
+
+    public static SimpleEncoderPool getInstance() {
+        return sInstance;
+    }
+
+    private final Object mLock = new Object();
+    private final Map<String, ArrayDeque<SimpleEncoder>> mIdle = new HashMap<String, ArrayDeque<SimpleEncoder>>();
+    //clear() 이후에는 recycle을 받지 않는다. (prewarm()하면 다시 받는다)
+    private boolean mEnabled = true;
+
+    //metrics
+    private final SimpleMetrics.Counter   mHit       = SimpleMetrics.getInstance().counter("encoder_pool.hit");
+    private final SimpleMetrics.Counter   mMiss      = SimpleMetrics.getInstance().counter("encoder_pool.miss");
+    private final SimpleMetrics.Counter   mRecycled  = SimpleMetrics.getInstance().counter("encoder_pool.recycled");
+    private final SimpleMetrics.Histogram mAcquireUs = SimpleMetrics.getInstance().histogram("encoder_pool.acquire_us");
+    private final SimpleMetrics.Histogram mCreateUs  = SimpleMetrics.getInstance().histogram("encoder_pool.create_us");
+
+    /**
+     * key의 idle encoder가 count개가 되도록 background thread에서 생성한다.
+     */
+    public void prewarm(final String key, final int count, final Factory factory) {
+        synchronized (mLock) {
+            mEnabled = true;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                while (getIdleCount(key) < Math.min(count, MAX_IDLE_PER_KEY)) {
+                    final SimpleEncoder encoder;
+                    try {
+                        encoder = create(factory);
+                    }
+                    catch (Exception e) {
+                        Log.w(TAG, "prewarm() - failed! key: " + key, e);
+                        return;
+                    }
+                    encoder.attachPool(SimpleEncoderPool.this, key);
+                    if (!recycle(encoder)) {
+                        encoder.release();
+                        return;
+                    }
+                }
+                Log.d(TAG, "prewarm() - done. key: " + key + ", idle: " + getIdleCount(key));
+            }
+        }, TAG + "-prewarm").start();
+    }
+
+    /**
+     * key의 idle encoder를 반환한다. 없으면 factory로 생성한다.
+     */
+    public SimpleEncoder acquire(String key, Factory factory) throws Exception {
+        final long startNanos = System.nanoTime();
+        SimpleEncoder encoder;
+        synchronized (mLock) {
+            final ArrayDeque<SimpleEncoder> idle = mIdle.get(key);
+            encoder = idle != null ? idle.poll() : null;
+        }
+        final boolean hit = encoder != null;
+        if (hit) {
+            mHit.increment();
+        }
+        else {
+            mMiss.increment();
+            encoder = create(factory);
+            encoder.attachPool(this, key);
+        }
+        mAcquireUs.recordSinceNanos(startNanos);
+        Log.d(TAG, "acquire() - key: " + key + ", hit: " + hit + ", us: " + (System.nanoTime() - startNanos) / 1000L);
+        return encoder;
+    }
+
+    /**
+     * flush된 encoder를 idle로 보관한다. (SimpleEncoder가 EOS 후 호출)
+     * @return false이면 보관하지 않았으므로, 호출자가 release해야 한다.
+     */
+    boolean recycle(SimpleEncoder encoder) {
+        synchronized (mLock) {
+            if (!mEnabled) {
+                return false;
+            }
+            ArrayDeque<SimpleEncoder> idle = mIdle.get(encoder.getPoolKey());
+            if (idle == null) {
+                idle = new ArrayDeque<SimpleEncoder>();
+                mIdle.put(encoder.getPoolKey(), idle);
+            }
+            if (idle.size() >= MAX_IDLE_PER_KEY) {
+                return false;
+            }
+            idle.add(encoder);
+        }
+        mRecycled.increment();
+        return true;
+    }
+
+    public int getIdleCount(String key) {
+        synchronized (mLock) {
+            final ArrayDeque<SimpleEncoder> idle = mIdle.get(key);
+            return idle != null ? idle.size() : 0;
+        }
+    }
+
+    /**
+     * idle encoder를 모두 release한다. 사용 중인 encoder는 종료 시 release된다.
+     */
+    public void clear() {
+        final ArrayDeque<SimpleEncoder> released = new ArrayDeque<SimpleEncoder>();
+        synchronized (mLock) {
+            mEnabled = false;
+            for (ArrayDeque<SimpleEncoder> idle : mIdle.values()) {
+                released.addAll(idle);
+            }
+            mIdle.clear();
+        }
+        Log.d(TAG, "clear() - released: " + released.size());
+        for (SimpleEncoder encoder : released) {
+            encoder.release();
+        }
+    }
+
+    private SimpleEncoder create(Factory factory) throws Exception {
+        final long startNanos = System.nanoTime();
+        final SimpleEncoder encoder = factory.create();
+        mCreateUs.recordSinceNanos(startNanos);
+        return encoder;
+    }
+}
@@ -0,0 +1,928 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 16bit PCM --> FLAC frame 인코더. (https://xiph.org/flac/format.html)
+ *  - fixed block size stream이며, 마지막 frame만 짧을 수 있다.
+ *  - subframe은 CONSTANT, VERBATIM, FIXED(order 0~4), LPC(order 1~maxLpcOrder) 중 가장 작은 것을 선택한다.
+ *  - residual은 Rice(4bit parameter)로 부호화하며, partition order는 0 ~ maxPartitionOrder 중 가장 작은 것을 선택한다.
+ *  - stereo는 L/R, L/S, R/S, M/S 중 예상 크기가 가장 작은 조합을 사용한다.
+ *  - 모든 buffer는 생성 시 한 번만 할당한다. android 의존성이 없으므로 JVM 환경에서 단독으로 측정/검증할 수 있다.
+ */
+public class SimpleFLACEncoder {
+    public interface Output {
+        /**
+         * encode된 frame. (반환 후 frame은 재사용된다)
+         */
+        public void onFrame(byte[] frame, int length) throws Exception;
+    }
+
+    //"fLaC" + METADATA_BLOCK_HEADER + STREAMINFO
+    public static final int STREAMINFO_SIZE = 34;
+    public static final int HEADER_SIZE     = 4 + 4 + STREAMINFO_SIZE;
+
+    public static final int MIN_BLOCK_SIZE  = 16;
+    public static final int MAX_BLOCK_SIZE  = 65535;
+    public static final int MAX_LPC_ORDER   = 32;
+    public static final int MAX_FIXED_ORDER = 4;
+    public static final int MAX_PARTITION_ORDER = 8;
+    public static final int MAX_RICE_PARAM  = 14; //15는 escape
+
+    public static final int DEFAULT_BLOCK_SIZE      = 4096;
+    public static final int DEFAULT_LPC_ORDER       = 8;
+    public static final int DEFAULT_PARTITION_ORDER = 6;
+
+    //channel assignment
+    private static final int CH_LEFT_SIDE  = 8;
+    private static final int CH_RIGHT_SIDE = 9;
+    private static final int CH_MID_SIDE   = 10;
+
+    //CRC-8 (polynomial 0x07), CRC-16 (polynomial 0x8005)
+    private static final int[] CRC8_TABLE  = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r8  = i;
+            int r16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                r8  = (r8  & 0x80)   != 0 ? (r8  << 1) ^ 0x07   : (r8  << 1);
+                r16 = (r16 & 0x8000) != 0 ? (r16 << 1) ^ 0x8005 : (r16 << 1);
+            }
+            CRC8_TABLE[i]  = r8  & 0xFF;
+            CRC16_TABLE[i] = r16 & 0xFFFF;
+        }
+    }
+
+    public static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample = 16;
+    private final int mBlockSize;
+    private final int mMaxLpcOrder;
+    private final int mMaxPartitionOrder;
+    private final int mQlpPrecision;
+    private final int mFrameBytes;
+
+    //block (channel별 정수 sample)
+    private final int[][] mBlock;
+    private int mBlockFill = 0;
+    //chunk 경계에 걸친 PCM frame 조각
+    private final byte[] mCarry;
+    private int mCarryLength = 0;
+
+    //subframe 후보 (M/S 용 포함)
+    private final int[] mMid;
+    private final int[] mSide;
+    private final int[] mResidual;
+    private final int[] mBestResidual;
+    private final long[] mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[]  mRiceParams    = new int[1 << MAX_PARTITION_ORDER];
+    private final int[]  mBestRiceParams = new int[1 << MAX_PARTITION_ORDER];
+
+    //LPC
+    private double[] mWindow = null;
+    private final double[]   mWindowed;
+    private final double[]   mAutoc;
+    private final double[][] mLpc;
+    private final double[]   mLpcError;
+    private final double[]   mLpcTmp;
+    private final int[]      mQlp;
+
+    //frame
+    private final BitWriter mWriter;
+
+    //stream 통계 (STREAMINFO)
+    private final MessageDigest mMD5;
+    private long mTotalSamples = 0;
+    private long mFrameNumber  = 0;
+    private int  mMinFrameSize = 0;
+    private int  mMaxFrameSize = 0;
+    private long mBytesEncoded = 0;
+
+    public SimpleFLACEncoder(int sampleRate, int channelCount, int blockSize) {
+        this(sampleRate, channelCount, blockSize, DEFAULT_LPC_ORDER, DEFAULT_PARTITION_ORDER);
+    }
+
+    /**
+     * @param blockSize         block당 sample 수 (16 ~ 65535, 4096 권장)
+     * @param maxLpcOrder       0이면 LPC를 사용하지 않는다. (FIXED만 사용)
+     * @param maxPartitionOrder Rice partition order 최대값 (0 ~ 8)
+     */
+    public SimpleFLACEncoder(int sampleRate, int channelCount, int blockSize, int maxLpcOrder, int maxPartitionOrder) {
+        if (channelCount < 1 || channelCount > 8) {
+            throw new IllegalArgumentException("Invalid channelCount: " + channelCount);
+        }
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid blockSize: " + blockSize);
+        }
+        if (maxLpcOrder < 0 || maxLpcOrder > MAX_LPC_ORDER) {
+            throw new IllegalArgumentException("Invalid maxLpcOrder: " + maxLpcOrder);
+        }
+        if (maxPartitionOrder < 0 || maxPartitionOrder > MAX_PARTITION_ORDER) {
+            throw new IllegalArgumentException("Invalid maxPartitionOrder: " + maxPartitionOrder);
+        }
+        mSampleRate        = sampleRate;
+        mChannelCount      = channelCount;
+        mBlockSize         = blockSize;
+        mMaxLpcOrder       = maxLpcOrder;
+        mMaxPartitionOrder = maxPartitionOrder;
+        mQlpPrecision      = qlpPrecisionOf(blockSize);
+        mFrameBytes        = channelCount * (mBitsPerSample / 8);
+
+        mBlock = new int[channelCount][blockSize];
+        mCarry = new byte[mFrameBytes];
+        mMid          = new int[blockSize];
+        mSide         = new int[blockSize];
+        mResidual     = new int[blockSize];
+        mBestResidual = new int[blockSize];
+
+        mWindowed = new double[blockSize];
+        mAutoc    = new double[maxLpcOrder + 1];
+        mLpc      = new double[maxLpcOrder + 1][maxLpcOrder + 1];
+        mLpcError = new double[maxLpcOrder + 1];
+        mLpcTmp   = new double[maxLpcOrder + 1];
+        mQlp      = new int[maxLpcOrder + 1];
+
+        //최악의 경우(VERBATIM, side channel은 bps + 1) frame 크기
+        final int maxFrameSize = 18 + 2 + channelCount * (1 + ((mBitsPerSample + 1) * blockSize + 7) / 8);
+        mWriter = new BitWriter(maxFrameSize);
+
+        try {
+            mMD5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int  getSampleRate()   { return mSampleRate; }
+    public int  getChannelCount() { return mChannelCount; }
+    public int  getBlockSize()    { return mBlockSize; }
+    public long getTotalSamples() { return mTotalSamples; }
+    public long getFrameCount()   { return mFrameNumber; }
+    public long getBytesEncoded() { return mBytesEncoded; }
+    public int  getMinFrameSize() { return mMinFrameSize; }
+    public int  getMaxFrameSize() { return mMaxFrameSize; }
+
+    /**
+     * 16bit little-endian interleaved PCM을 추가한다. block이 찰 때마다 frame을 output으로 내보낸다.
+     * (pcm의 position ~ limit, 반환 후 pcm position은 limit으로 이동한다)
+     */
+    public void write(ByteBuffer pcm, Output output) throws Exception {
+        final ByteOrder order = pcm.order();
+        pcm.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            writePCM(pcm, output);
+        }
+        finally {
+            pcm.order(order);
+        }
+    }
+
+    /**
+     * MD5는 block에 들어간 PCM frame만 계산한다. (16bit LE interleaved는 FLAC의 MD5 입력과 같다)
+     * frame 조각은 완성된 후에 계산하므로, finish()에서 버려지는 조각은 MD5에 포함되지 않는다.
+     */
+    private void writePCM(ByteBuffer pcm, Output output) throws Exception {
+
+        //이전 chunk에서 남은 frame 조각
+        while (mCarryLength > 0 && pcm.hasRemaining()) {
+            mCarry[mCarryLength++] = pcm.get();
+            if (mCarryLength == mFrameBytes) {
+                mMD5.update(mCarry, 0, mFrameBytes);
+                for (int ch = 0; ch < mChannelCount; ch++) {
+                    mBlock[ch][mBlockFill] = (short)((mCarry[ch * 2] & 0xFF) | (mCarry[ch * 2 + 1] << 8));
+                }
+                mCarryLength = 0;
+                if (++mBlockFill == mBlockSize) {
+                    encodeBlock(output);
+                }
+            }
+        }
+
+        //남은 frame 조각을 제외한 부분
+        final int whole = pcm.remaining() - pcm.remaining() % mFrameBytes;
+        if (whole > 0) {
+            final int position = pcm.position();
+            final int limit    = pcm.limit();
+            pcm.limit(position + whole);
+            mMD5.update(pcm);
+            pcm.limit(limit);
+            pcm.position(position);
+        }
+
+        while (pcm.remaining() >= mFrameBytes) {
+            final int frames = Math.min(pcm.remaining() / mFrameBytes, mBlockSize - mBlockFill);
+            if (mChannelCount == 1) {
+                final int[] mono = mBlock[0];
+                for (int i = mBlockFill; i < mBlockFill + frames; i++) {
+                    mono[i] = pcm.getShort();
+                }
+            }
+            else {
+                for (int i = mBlockFill; i < mBlockFill + frames; i++) {
+                    for (int ch = 0; ch < mChannelCount; ch++) {
+                        mBlock[ch][i] = pcm.getShort();
+                    }
+                }
+            }
+            mBlockFill += frames;
+            if (mBlockFill == mBlockSize) {
+                encodeBlock(output);
+            }
+        }
+
+        while (pcm.hasRemaining()) {
+            mCarry[mCarryLength++] = pcm.get();
+        }
+    }
+
+    /**
+     * 남은 sample을 마지막(짧은) frame으로 내보낸다.
+     */
+    public void finish(Output output) throws Exception {
+        if (mCarryLength > 0) {
+            //frame 조각은 encode할 수 없으므로 버린다. (MD5에도 포함되지 않았다)
+            mCarryLength = 0;
+        }
+        if (mBlockFill > 0) {
+            encodeBlock(output);
+        }
+    }
+
+    /**
+     * "fLaC" + STREAMINFO. 현재까지의 통계를 사용하므로 finish() 후에 다시 만들어 덮어쓴다.
+     * @param complete false이면 total samples와 MD5를 0(unknown)으로 쓴다.
+     */
+    public byte[] buildHeader(boolean complete) {
+        final byte[] h = new byte[HEADER_SIZE];
+        h[0] = 'f'; h[1] = 'L'; h[2] = 'a'; h[3] = 'C';
+        //METADATA_BLOCK_HEADER (last-metadata-block, STREAMINFO, length)
+        h[4] = (byte)0x80;
+        h[5] = 0;
+        h[6] = 0;
+        h[7] = STREAMINFO_SIZE;
+        //STREAMINFO
+        final long totalSamples = complete ? mTotalSamples : 0;
+        h[8]  = (byte)(mBlockSize >>> 8);
+        h[9]  = (byte)(mBlockSize);
+        h[10] = (byte)(mBlockSize >>> 8);
+        h[11] = (byte)(mBlockSize);
+        h[12] = (byte)(mMinFrameSize >>> 16);
+        h[13] = (byte)(mMinFrameSize >>> 8);
+        h[14] = (byte)(mMinFrameSize);
+        h[15] = (byte)(mMaxFrameSize >>> 16);
+        h[16] = (byte)(mMaxFrameSize >>> 8);
+        h[17] = (byte)(mMaxFrameSize);
+        //sample rate(20) | channels - 1(3) | bps - 1(5) | total samples(36)
+        h[18] = (byte)(mSampleRate >>> 12);
+        h[19] = (byte)(mSampleRate >>> 4);
+        h[20] = (byte)(((mSampleRate & 0x0F) << 4) | ((mChannelCount - 1) << 1) | ((mBitsPerSample - 1) >>> 4));
+        h[21] = (byte)((((mBitsPerSample - 1) & 0x0F) << 4) | (int)((totalSamples >>> 32) & 0x0F));
+        h[22] = (byte)(totalSamples >>> 24);
+        h[23] = (byte)(totalSamples >>> 16);
+        h[24] = (byte)(totalSamples >>> 8);
+        h[25] = (byte)(totalSamples);
+        if (complete) {
+            try {
+                final byte[] md5 = ((MessageDigest)mMD5.clone()).digest();
+                System.arraycopy(md5, 0, h, 26, 16);
+            }
+            catch (CloneNotSupportedException e) {
+                //MD5 0은 "검증하지 않음"이다.
+            }
+        }
+        return h;
+    }
+
+    private void encodeBlock(Output output) throws Exception {
+        final int count = mBlockFill;
+        mBlockFill = 0;
+
+        final BitWriter w = mWriter;
+        w.reset();
+
+        //channel assignment
+        int assignment = mChannelCount - 1;
+        if (mChannelCount == 2) {
+            final int[] left  = mBlock[0];
+            final int[] right = mBlock[1];
+            for (int i = 0; i < count; i++) {
+                mMid[i]  = (left[i] + right[i]) >> 1;
+                mSide[i] = left[i] - right[i];
+            }
+            final long l = estimateFixed2(left , count);
+            final long r = estimateFixed2(right, count);
+            final long m = estimateFixed2(mMid , count);
+            final long s = estimateFixed2(mSide, count);
+            long best = l + r;
+            if (l + s < best) { best = l + s; assignment = CH_LEFT_SIDE;  }
+            if (r + s < best) { best = r + s; assignment = CH_RIGHT_SIDE; }
+            if (m + s < best) {               assignment = CH_MID_SIDE;   }
+        }
+
+        //frame header
+        w.writeBits(0xFFF8, 16); //sync + reserved + fixed blocking
+        final int blockSizeCode = blockSizeCodeOf(count);
+        w.writeBits(blockSizeCode, 4);
+        w.writeBits(sampleRateCodeOf(mSampleRate), 4);
+        w.writeBits(assignment, 4);
+        w.writeBits(sampleSizeCodeOf(mBitsPerSample), 3);
+        w.writeBits(0, 1);
+        writeUTF8(w, mFrameNumber);
+        if (blockSizeCode == 6) {
+            w.writeBits(count - 1, 8);
+        }
+        else if (blockSizeCode == 7) {
+            w.writeBits(count - 1, 16);
+        }
+        w.writeBits(crc8(w.buffer(), 0, w.bytes()), 8);
+
+        //subframes
+        switch (assignment) {
+            case CH_LEFT_SIDE:
+                encodeSubframe(w, mBlock[0], count, mBitsPerSample);
+                encodeSubframe(w, mSide, count, mBitsPerSample + 1);
+                break;
+            case CH_RIGHT_SIDE:
+                encodeSubframe(w, mSide, count, mBitsPerSample + 1);
+                encodeSubframe(w, mBlock[1], count, mBitsPerSample);
+                break;
+            case CH_MID_SIDE:
+                encodeSubframe(w, mMid, count, mBitsPerSample);
+                encodeSubframe(w, mSide, count, mBitsPerSample + 1);
+                break;
+            default:
+                for (int ch = 0; ch < mChannelCount; ch++) {
+                    encodeSubframe(w, mBlock[ch], count, mBitsPerSample);
+                }
+                break;
+        }
+
+        //frame footer
+        w.alignToByte();
+        w.writeBits(crc16(w.buffer(), 0, w.bytes()), 16);
+
+        final int frameSize = w.bytes();
+        if (mMinFrameSize == 0 || frameSize < mMinFrameSize) {
+            mMinFrameSize = frameSize;
+        }
+        if (frameSize > mMaxFrameSize) {
+            mMaxFrameSize = frameSize;
+        }
+        mTotalSamples += count;
+        mBytesEncoded += frameSize;
+        mFrameNumber++;
+        output.onFrame(w.buffer(), frameSize);
+    }
+
+    private void encodeSubframe(BitWriter w, int[] x, int count, int bps) {
+        //CONSTANT
+        boolean constant = true;
+        for (int i = 1; i < count; i++) {
+            if (x[i] != x[0]) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            w.writeBits(0x00, 8);
+            w.writeBits(x[0], bps);
+            return;
+        }
+
+        //VERBATIM
+        long bestBits = 8L + (long)count * bps;
+        int  bestType = 0x01;
+        int  bestOrder = 0;
+        int  bestPartitionOrder = 0;
+        int  bestShift = 0;
+
+        //FIXED: order별 잔차 절대값 합으로 order를 고른 후, 정확한 Rice 비용을 계산한다.
+        final int fixedOrder = selectFixedOrder(x, count);
+        if (fixedOrder >= 0) {
+            computeFixedResidual(x, count, fixedOrder, mResidual);
+            final long bits = 8L + (long)fixedOrder * bps + riceBits(mResidual, count, fixedOrder);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = 0x08 | fixedOrder;
+                bestOrder = fixedOrder;
+                bestPartitionOrder = mLastPartitionOrder;
+                System.arraycopy(mRiceParams, 0, mBestRiceParams, 0, 1 << mLastPartitionOrder);
+                System.arraycopy(mResidual, fixedOrder, mBestResidual, fixedOrder, count - fixedOrder);
+            }
+        }
+
+        //LPC
+        final int maxLpcOrder = Math.min(mMaxLpcOrder, count / 4);
+        if (maxLpcOrder > 0) {
+            final int order = computeLpc(x, count, maxLpcOrder);
+            if (order > 0) {
+                final int shift = quantizeLpc(mLpc[order], order, mQlpPrecision, mQlp);
+                computeLpcResidual(x, count, mQlp, order, shift, mResidual);
+                final long bits = 8L + (long)order * bps + 4 + 5 + (long)order * mQlpPrecision + riceBits(mResidual, count, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = 0x20 | (order - 1);
+                    bestOrder = order;
+                    bestShift = shift;
+                    bestPartitionOrder = mLastPartitionOrder;
+                    System.arraycopy(mRiceParams, 0, mBestRiceParams, 0, 1 << mLastPartitionOrder);
+                    System.arraycopy(mResidual, order, mBestResidual, order, count - order);
+                }
+            }
+        }
+
+        //subframe header (zero pad + type + wasted bits flag)
+        w.writeBits(bestType << 1, 8);
+        if (bestType == 0x01) {
+            for (int i = 0; i < count; i++) {
+                w.writeBits(x[i], bps);
+            }
+            return;
+        }
+        for (int i = 0; i < bestOrder; i++) {
+            w.writeBits(x[i], bps);
+        }
+        if ((bestType & 0x20) != 0) {
+            w.writeBits(mQlpPrecision - 1, 4);
+            w.writeBits(bestShift, 5);
+            for (int i = 0; i < bestOrder; i++) {
+                w.writeBits(mQlp[i], mQlpPrecision);
+            }
+        }
+        writeResidual(w, mBestResidual, count, bestOrder, bestPartitionOrder, mBestRiceParams);
+    }
+
+    /**
+     * 잔차 절대값 합이 가장 작은 FIXED order (count가 너무 짧으면 order를 줄인다)
+     */
+    private static int selectFixedOrder(int[] x, int count) {
+        final int maxOrder = Math.min(MAX_FIXED_ORDER, count - 1);
+        if (maxOrder < 0) {
+            return -1;
+        }
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        for (int i = MAX_FIXED_ORDER; i < count; i++) {
+            final int r0 = x[i];
+            final int r1 = r0 - x[i - 1];
+            final int r2 = r1 - (x[i - 1] - x[i - 2]);
+            final int r3 = r2 - (x[i - 1] - 2 * x[i - 2] + x[i - 3]);
+            final int r4 = r3 - (x[i - 1] - 3 * x[i - 2] + 3 * x[i - 3] - x[i - 4]);
+            e0 += Math.abs(r0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+        }
+        final long[] e = { e0, e1, e2, e3, e4 };
+        int order = 0;
+        for (int i = 1; i <= maxOrder; i++) {
+            if (e[i] < e[order]) {
+                order = i;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * stereo 조합 선택용 예상 크기 (FIXED order 2 잔차 절대값 합)
+     */
+    private static long estimateFixed2(int[] x, int count) {
+        long e = 0;
+        for (int i = 2; i < count; i++) {
+            e += Math.abs(x[i] - 2 * x[i - 1] + x[i - 2]);
+        }
+        return e;
+    }
+
+    private static void computeFixedResidual(int[] x, int count, int order, int[] residual) {
+        switch (order) {
+            case 0:
+                for (int i = 0; i < count; i++) residual[i] = x[i];
+                break;
+            case 1:
+                for (int i = 1; i < count; i++) residual[i] = x[i] - x[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < count; i++) residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < count; i++) residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                break;
+            case 4:
+                for (int i = 4; i < count; i++) residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                break;
+        }
+    }
+
+    /**
+     * tukey(0.5) window + autocorrelation + Levinson-Durbin.
+     * order별 예측 오차로 예상 bit 수가 가장 작은 order를 반환한다. (계수는 mLpc[order])
+     */
+    private int computeLpc(int[] x, int count, int maxOrder) {
+        final double[] window = windowOf(count);
+        for (int i = 0; i < count; i++) {
+            mWindowed[i] = x[i] * window[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < count; i++) {
+                sum += mWindowed[i] * mWindowed[i - lag];
+            }
+            mAutoc[lag] = sum;
+        }
+        if (mAutoc[0] == 0) {
+            return 0;
+        }
+
+        //Levinson-Durbin (mLpc[order][0..order-1]: x[i] ≒ Σ c[j] * x[i-1-j])
+        final double[] a = mLpcTmp;
+        double err = mAutoc[0];
+        int validOrder = 0;
+        for (int i = 0; i < maxOrder; i++) {
+            double r = -mAutoc[i + 1];
+            for (int j = 0; j < i; j++) {
+                r -= a[j] * mAutoc[i - j];
+            }
+            r /= err;
+            a[i] = r;
+            for (int j = 0; j < i / 2; j++) {
+                final double tmp = a[j];
+                a[j]         += r * a[i - 1 - j];
+                a[i - 1 - j] += r * tmp;
+            }
+            if ((i & 1) != 0) {
+                a[i / 2] += a[i / 2] * r;
+            }
+            err *= (1.0 - r * r);
+            if (err <= 0) {
+                break;
+            }
+            for (int j = 0; j <= i; j++) {
+                mLpc[i + 1][j] = -a[j];
+            }
+            mLpcError[i + 1] = err;
+            validOrder = i + 1;
+        }
+
+        //예상 bit 수 = 잔차 sample당 bit * (count - order) + warmup/계수 bit
+        int    bestOrder = 0;
+        double bestBits  = Double.MAX_VALUE;
+        final double scale = 0.5 / count;
+        for (int order = 1; order <= validOrder; order++) {
+            final double e = mLpcError[order] * scale;
+            final double bitsPerResidual = e > 1.0 ? 0.5 * Math.log(e) / Math.log(2) : 0;
+            final double bits = bitsPerResidual * (count - order) + order * (mBitsPerSample + mQlpPrecision);
+            if (bits < bestBits) {
+                bestBits  = bits;
+                bestOrder = order;
+            }
+        }
+        return bestOrder;
+    }
+
+    private double[] windowOf(int count) {
+        if (mWindow != null && mWindow.length == count) {
+            return mWindow;
+        }
+        //마지막 짧은 block에서만 다시 만든다.
+        final double[] window = new double[count];
+        final double p  = 0.5;
+        final int    np = (int)(p / 2 * count) - 1;
+        for (int i = 0; i < count; i++) {
+            window[i] = 1.0;
+        }
+        if (np > 0) {
+            for (int i = 0; i <= np; i++) {
+                final double v = 0.5 - 0.5 * Math.cos(Math.PI * i / np);
+                window[i] = v;
+                window[count - 1 - i] = v;
+            }
+        }
+        if (count == mBlockSize) {
+            mWindow = window;
+        }
+        return window;
+    }
+
+    /**
+     * 계수를 precision bit 정수로 양자화한다. (반올림 오차는 다음 계수로 넘긴다)
+     * @return shift
+     */
+    private static int quantizeLpc(double[] lpc, int order, int precision, int[] qlp) {
+        double cmax = 0;
+        for (int i = 0; i < order; i++) {
+            cmax = Math.max(cmax, Math.abs(lpc[i]));
+        }
+        final int qmax = (1 << (precision - 1)) - 1;
+        final int qmin = -qmax - 1;
+        //cmax < 2^log2cmax
+        final int log2cmax = cmax > 0 ? Math.getExponent(cmax) + 1 : 0;
+        int shift = precision - 1 - log2cmax;
+        if (shift > 15) shift = 15;
+        if (shift < 0)  shift = 0;
+
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += lpc[i] * (1 << shift);
+            int q = (int)Math.round(error);
+            if (q > qmax) q = qmax;
+            if (q < qmin) q = qmin;
+            error -= q;
+            qlp[i] = q;
+        }
+        return shift;
+    }
+
+    private static void computeLpcResidual(int[] x, int count, int[] qlp, int order, int shift, int[] residual) {
+        for (int i = order; i < count; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long)qlp[j] * x[i - 1 - j];
+            }
+            residual[i] = x[i] - (int)(sum >> shift);
+        }
+    }
+
+    //riceBits()에서 선택된 partition order (parameter는 mRiceParams)
+    private int mLastPartitionOrder = 0;
+
+    /**
+     * residual[order..count-1]의 Rice 부호화 bit 수 (method + partition order + parameter + 잔차)
+     * partition order는 0 ~ mMaxPartitionOrder 중 가장 작은 것을 고른다.
+     */
+    private long riceBits(int[] residual, int count, int order) {
+        //가장 잘게 나눌 수 있는 partition order
+        int maxPo = mMaxPartitionOrder;
+        while (maxPo > 0 && ((count & ((1 << maxPo) - 1)) != 0 || (count >> maxPo) < order || (count >> maxPo) == 0)) {
+            maxPo--;
+        }
+
+        //가장 잘게 나눈 partition별 zigzag 합
+        final int partitions = 1 << maxPo;
+        final int partLen    = count >> maxPo;
+        for (int p = 0; p < partitions; p++) {
+            final int start = p == 0 ? order : p * partLen;
+            final int end   = (p + 1) * partLen;
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                final int r = residual[i];
+                sum += ((r << 1) ^ (r >> 31)) & 0xFFFFFFFFL;
+            }
+            mPartitionSums[p] = sum;
+        }
+
+        //order를 줄여가며 (인접 partition을 합치며) 비용을 비교한다.
+        long bestBits = Long.MAX_VALUE;
+        int  bestPo   = 0;
+        for (int po = maxPo; po >= 0; po--) {
+            final int n = 1 << po;
+            if (po < maxPo) {
+                for (int p = 0; p < n; p++) {
+                    mPartitionSums[p] = mPartitionSums[2 * p] + mPartitionSums[2 * p + 1];
+                }
+            }
+            long bits = 0;
+            for (int p = 0; p < n; p++) {
+                final int len = (count >> po) - (p == 0 ? order : 0);
+                bits += 4 + riceCost(mPartitionSums[p], len, null, 0);
+            }
+            if (bits <= bestBits) {
+                bestBits = bits;
+                bestPo   = po;
+            }
+        }
+
+        //선택된 order의 parameter (합을 다시 구한다)
+        final int n   = 1 << bestPo;
+        final int len = count >> bestPo;
+        for (int p = 0; p < n; p++) {
+            final int start = p == 0 ? order : p * len;
+            final int end   = (p + 1) * len;
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                final int r = residual[i];
+                sum += ((r << 1) ^ (r >> 31)) & 0xFFFFFFFFL;
+            }
+            riceCost(sum, end - start, mRiceParams, p);
+        }
+        mLastPartitionOrder = bestPo;
+        return 2 + 4 + bestBits;
+    }
+
+    /**
+     * 합이 sum인 len개 잔차의 최소 Rice 예상 비용. (parameter k: len * (k + 1) + (sum >> k))
+     */
+    private static long riceCost(long sum, int len, int[] params, int index) {
+        long bestBits = Long.MAX_VALUE;
+        int  bestK    = 0;
+        for (int k = 0; k <= MAX_RICE_PARAM; k++) {
+            final long bits = (long)len * (k + 1) + (sum >> k);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestK    = k;
+            }
+        }
+        if (params != null) {
+            params[index] = bestK;
+        }
+        return bestBits;
+    }
+
+    private static void writeResidual(BitWriter w, int[] residual, int count, int order, int partitionOrder, int[] params) {
+        w.writeBits(0, 2); //4bit Rice parameter
+        w.writeBits(partitionOrder, 4);
+        final int n   = 1 << partitionOrder;
+        final int len = count >> partitionOrder;
+        for (int p = 0; p < n; p++) {
+            final int k     = params[p];
+            final int start = p == 0 ? order : p * len;
+            final int end   = (p + 1) * len;
+            w.writeBits(k, 4);
+            for (int i = start; i < end; i++) {
+                final int r = residual[i];
+                w.writeRice((r << 1) ^ (r >> 31), k);
+            }
+        }
+    }
+
+    private static void writeUTF8(BitWriter w, long value) {
+        if (value < 0x80) {
+            w.writeBits((int)value, 8);
+            return;
+        }
+        //추가 byte 개수
+        int extra;
+        if      (value < 0x800L)      extra = 1;
+        else if (value < 0x10000L)    extra = 2;
+        else if (value < 0x200000L)   extra = 3;
+        else if (value < 0x4000000L)  extra = 4;
+        else if (value < 0x80000000L) extra = 5;
+        else                          extra = 6;
+        final int lead = (0xFF00 >> (extra + 1)) & 0xFF;
+        w.writeBits(lead | (int)(value >>> (6 * extra)), 8);
+        for (int i = extra - 1; i >= 0; i--) {
+            w.writeBits(0x80 | (int)((value >>> (6 * i)) & 0x3F), 8);
+        }
+    }
+
+    private static int blockSizeCodeOf(int blockSize) {
+        switch (blockSize) {
+            case 192  : return 1;
+            case 576  : return 2;
+            case 1152 : return 3;
+            case 2304 : return 4;
+            case 4608 : return 5;
+            case 256  : return 8;
+            case 512  : return 9;
+            case 1024 : return 10;
+            case 2048 : return 11;
+            case 4096 : return 12;
+            case 8192 : return 13;
+            case 16384: return 14;
+            case 32768: return 15;
+        }
+        return blockSize <= 256 ? 6 : 7;
+    }
+
+    private static int sampleRateCodeOf(int sampleRate) {
+        switch (sampleRate) {
+            case 88200 : return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000  : return 4;
+            case 16000 : return 5;
+            case 22050 : return 6;
+            case 24000 : return 7;
+            case 32000 : return 8;
+            case 44100 : return 9;
+            case 48000 : return 10;
+            case 96000 : return 11;
+        }
+        return 0; //STREAMINFO 참조
+    }
+
+    private static int sampleSizeCodeOf(int bitsPerSample) {
+        switch (bitsPerSample) {
+            case 8 : return 1;
+            case 12: return 2;
+            case 16: return 4;
+            case 20: return 5;
+            case 24: return 6;
+        }
+        return 0; //STREAMINFO 참조
+    }
+
+    /**
+     * block 크기에 따른 LPC 계수 precision (libFLAC과 같은 기준)
+     */
+    private static int qlpPrecisionOf(int blockSize) {
+        if (blockSize <= 192)  return 7;
+        if (blockSize <= 384)  return 8;
+        if (blockSize <= 576)  return 9;
+        if (blockSize <= 1152) return 10;
+        if (blockSize <= 2304) return 11;
+        if (blockSize <= 4608) return 12;
+        return 13;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleFLACEncoder{" +
+                "sampleRate=" + mSampleRate +
+                ", channelCount=" + mChannelCount +
+                ", blockSize=" + mBlockSize +
+                ", maxLpcOrder=" + mMaxLpcOrder +
+                ", frames=" + mFrameNumber +
+                ", samples=" + mTotalSamples +
+                ", bytes=" + mBytesEncoded +
+                ", frameSize=" + mMinFrameSize + "~" + mMaxFrameSize +
+                '}';
+    }
+
+    /**
+     * MSB first bit writer (고정 크기 byte[])
+     */
+    private static class BitWriter {
+        private final byte[] mBuffer;
+        private int  mPosition = 0;
+        private long mAcc      = 0;
+        private int  mAccBits  = 0;
+
+        BitWriter(int capacity) {
+            mBuffer = new byte[capacity];
+        }
+
+        void reset() {
+            mPosition = 0;
+            mAcc      = 0;
+            mAccBits  = 0;
+        }
+
+        byte[] buffer() {
+            return mBuffer;
+        }
+
+        /**
+         * 내려쓴 byte 수 (byte 경계에서만 유효)
+         */
+        int bytes() {
+            return mPosition;
+        }
+
+        /**
+         * value의 하위 n(0 ~ 32) bit
+         */
+        void writeBits(int value, int n) {
+            mAcc = (mAcc << n) | (value & ((1L << n) - 1));
+            mAccBits += n;
+            while (mAccBits >= 8) {
+                mAccBits -= 8;
+                mBuffer[mPosition++] = (byte)(mAcc >>> mAccBits);
+            }
+        }
+
+        /**
+         * unsigned u를 parameter k로 Rice 부호화한다. (u >> k 개의 0, 1, 하위 k bit)
+         */
+        void writeRice(int u, int k) {
+            int q = u >>> k;
+            if (q + 1 + k <= 32) {
+                writeBits((1 << k) | (u & ((1 << k) - 1)), q + 1 + k);
+                return;
+            }
+            while (q >= 32) {
+                writeBits(0, 32);
+                q -= 32;
+            }
+            writeBits(0, q);
+            writeBits((1 << k) | (u & ((1 << k) - 1)), 1 + k);
+        }
+
+        void alignToByte() {
+            if (mAccBits > 0) {
+                writeBits(0, 8 - mAccBits);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 무손실 FLAC muxer. (SimpleWAVMuxer 대체, 16bit PCM)
+ *  - writeSample()은 PCM을 SimpleRingBuffer에 복사만 하고, 전용 encode thread에서 SimpleFLACEncoder로 encode한다.
+ *  - 파일 처음에 STREAMINFO(total samples/MD5 = unknown)를 쓰고, stop() 시점에 최종 값으로 덮어쓴다. (WAV header와 같은 방식)
+ *    frame마다 sync/CRC가 있으므로 중간에 종료되어도 마지막 frame까지 재생 가능하다.
+ *  - ring buffer가 가득 차서 버려진 sample은 capture thread에서 집계만 하고, encode thread와 stop()에서 log한다.
+ */
+public class SimpleFLACMuxer extends SimpleMuxer {
+    //write buffer 크기 (기본 256KB)
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = SimpleWAVMuxer.DEFAULT_WRITE_BUFFER_SIZE;
+    //ring buffer (기본 8KB x 64 = 16bit mono 44.1kHz에서 약 6초)
+    public static final int DEFAULT_SLOT_SIZE  = 8 * 1024;
+    public static final int DEFAULT_SLOT_COUNT = 64;
+
+    //encode thread가 데이타 없이 대기하는 최대 시간
+    private static final long PARK_NANOS = 5 * 1000 * 1000L; //5[msec]
+
+    private final File mTargetFile;
+    private final int  mBlockSize;
+    private final int  mWriteBufferSize;
+    private final SimpleRingBuffer mRing;
+
+    private SimpleFLACEncoder mEncoder = null;
+    private FileOutputStream  mOStream = null;
+    private FileChannel       mChannel = null;
+    private ByteBuffer        mWriteBuffer = null;
+
+    private volatile boolean mRunning = false;
+    private Thread           mEncodeThread = null;
+
+    //overrun으로 버려진 PCM 바이트 (capture thread에서만 증가한다)
+    private volatile long mLostBytes  = 0;
+    private int           mFrameBytes = 2; //channelCount * 2
+
+    //metrics
+    private final SimpleMetrics.Histogram mEncodeLatency;
+    private final SimpleMetrics.Counter   mLostSamples;
+
+    public SimpleFLACMuxer(Context context, String path) throws IOException {
+        this(context, path, SimpleFLACEncoder.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize frame당 sample 수 (16 ~ 65535, 4096 권장. 작을수록 압축률이 낮고 중간 종료 시 손실이 작다)
+     */
+    public SimpleFLACMuxer(Context context, String path, int blockSize) throws IOException {
+        this(context, path, blockSize, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_SLOT_SIZE, DEFAULT_SLOT_COUNT);
+    }
+
+    public SimpleFLACMuxer(Context context, String path, int blockSize, int writeBufferSize, int slotSize, int slotCount) throws IOException {
+        super(context, path, SimpleFLACMuxer.class.getSimpleName());
+
+        if (blockSize < SimpleFLACEncoder.MIN_BLOCK_SIZE || blockSize > SimpleFLACEncoder.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid blockSize: " + blockSize);
+        }
+        if (writeBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid writeBufferSize: " + writeBufferSize);
+        }
+        mTargetFile      = new File(path);
+        mBlockSize       = blockSize;
+        mWriteBufferSize = writeBufferSize;
+        mRing            = new SimpleRingBuffer(slotSize, slotCount);
+        mEncodeLatency   = SimpleMetrics.getInstance().histogram("mux." + TAG + ".encode_us");
+        mLostSamples     = SimpleMetrics.getInstance().counter("mux." + TAG + ".lost_samples");
+    }
+
+    public SimpleFLACEncoder getEncoder() {
+        return mEncoder;
+    }
+
+    public long getOverrunCount() {
+        return mRing.getOverrunCount();
+    }
+
+    public int getHighWaterMark() {
+        return mRing.getHighWaterMark();
+    }
+
+    /**
+     * overrun으로 encode되지 못한 sample 수 (channel당)
+     */
+    public long getLostSampleCount() {
+        return mLostBytes / mFrameBytes;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig);
+
+        if (mStatus != ST_INIT) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        updateStatus(ST_PREPARED);
+
+        //파라미터를 설정한다.
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+
+        //16bit PCM만 지원한다.
+        mEncoder    = new SimpleFLACEncoder(audioConfig.sampleRateInHz, audioConfig.channelCount, mBlockSize);
+        mFrameBytes = audioConfig.channelCount * 2;
+        Log.d(TAG, "addAudioTrack() - " + mEncoder);
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start()");
+        updateStatus(ST_STARTED);
+
+        //output stream 생성
+        mOStream = new FileOutputStream(mTargetFile);
+        mChannel = mOStream.getChannel();
+        mWriteBuffer = ByteBuffer.allocateDirect(mWriteBufferSize);
+
+        //STREAMINFO를 write한다. (total samples, MD5는 stop() 시점에 갱신)
+        writeHeader(false);
+        mChannel.position(SimpleFLACEncoder.HEADER_SIZE);
+
+        mRunning      = true;
+        mEncodeThread = new Thread(mEncodeRunnable, TAG);
+        mEncodeThread.start();
+    }
+
+    @Override
+    public void stop(StopListener stopListener) {
+        Log.d(TAG, "stop() - " + mRing);
+        updateStatus(ST_STOPPING);
+
+        //encode thread가 남은 chunk를 모두 encode할 때까지 기다린다.
+        mRunning = false;
+        Thread encodeThread = mEncodeThread;
+        if (encodeThread != null) {
+            LockSupport.unpark(encodeThread);
+            try {
+                encodeThread.join();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            mEncodeThread = null;
+        }
+        updateStatus(ST_STOPPED);
+
+        //마지막 frame을 내려쓰고, STREAMINFO를 갱신한다.
+        try {
+            if (mChannel != null) {
+                mEncoder.finish(mFrameOutput);
+                flushWriteBuffer();
+                writeHeader(true);
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        finally {
+            Log.i(TAG, "stop() - " + mEncoder + ", overrun: " + mRing.getOverrunCount() + ", lostSamples: " + getLostSampleCount());
+            //free all the resource
+            release();
+
+            if (stopListener != null) {
+                stopListener.onStop();
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+
+        //slot보다 큰 chunk는 나누어 넣는다.
+        final int slotSize = mRing.getSlotSize();
+        for (int n = 0; n < length; n += slotSize) {
+            final int chunk = Math.min(slotSize, length - n);
+            if (!mRing.offer(bytes, offset + n, chunk, pTimeUS)) {
+                onOverrun(chunk);
+            }
+        }
+        LockSupport.unpark(mEncodeThread);
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+
+        //slot보다 큰 chunk는 나누어 넣는다.
+        final int slotSize = mRing.getSlotSize();
+        final int limit    = buffer.limit();
+        while (buffer.hasRemaining()) {
+            buffer.limit(buffer.position() + Math.min(slotSize, buffer.remaining()));
+            if (!mRing.offer(buffer, pTimeUS)) {
+                onOverrun(buffer.remaining());
+                buffer.position(buffer.limit());
+            }
+            buffer.limit(limit);
+        }
+        LockSupport.unpark(mEncodeThread);
+        recordWrite(startNanos, length);
+    }
+
+    /**
+     * 버려진 chunk를 집계한다. (capture thread, log하지 않는다)
+     */
+    private void onOverrun(int length) {
+        mLostBytes = mLostBytes + length;
+        mLostSamples.add(length / mFrameBytes);
+    }
+
+    private void release() {
+        Log.d(TAG, "release()");
+
+        //OStream을 닫는다. (channel도 함께 닫힌다)
+        try {
+            if (mOStream != null) {
+                mOStream.close();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        mOStream = null;
+        mChannel = null;
+        mWriteBuffer = null;
+    }
+
+    /**
+     * write buffer에 쌓인 데이타를 channel로 내려쓴다.
+     * @throws IOException
+     */
+    private void flushWriteBuffer() throws IOException {
+        mWriteBuffer.flip();
+        while (mWriteBuffer.hasRemaining()) {
+            mChannel.write(mWriteBuffer);
+        }
+        mWriteBuffer.clear();
+    }
+
+    /**
+     * "fLaC" + STREAMINFO를 파일 처음 위치에 write한다. (channel position은 변경되지 않는다)
+     * @throws IOException
+     */
+    private void writeHeader(boolean complete) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(mEncoder.buildHeader(complete));
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += mChannel.write(header, position);
+        }
+    }
+
+    /**
+     * encode된 frame을 write buffer에 복사하고, 부족하면 파일에 write한다. (encode thread, stop())
+     */
+    private final SimpleFLACEncoder.Output mFrameOutput = new SimpleFLACEncoder.Output() {
+        @Override
+        public void onFrame(byte[] frame, int length) throws Exception {
+            int offset = 0;
+            while (offset < length) {
+                if (!mWriteBuffer.hasRemaining()) {
+                    flushWriteBuffer();
+                }
+                final int n = Math.min(length - offset, mWriteBuffer.remaining());
+                mWriteBuffer.put(frame, offset, n);
+                offset += n;
+            }
+        }
+    };
+
+    /**
+     * ring buffer의 chunk를 encoder로 전달한다.
+     */
+    private final SimpleRingBuffer.Consumer mChunkConsumer = new SimpleRingBuffer.Consumer() {
+        @Override
+        public void onChunk(ByteBuffer chunk, long pTimeUs) throws Exception {
+            final long startNanos = System.nanoTime();
+            final long frames     = mEncoder.getFrameCount();
+            mEncoder.write(chunk, mFrameOutput);
+            if (mEncoder.getFrameCount() != frames) {
+                mEncodeLatency.recordSinceNanos(startNanos);
+            }
+        }
+    };
+
+    private final Runnable mEncodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //capture 보다 한 단계 낮은 audio 우선순위로 encode한다. (SimpleAsyncMuxer consumer와 같다)
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+            Log.d(TAG, "encoder - STARTED");
+            long lostSamples = 0;
+            while (mRunning || !mRing.isEmpty()) {
+                try {
+                    if (!mRing.poll(mChunkConsumer)) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                //capture thread 대신 여기서 새로 버려진 sample을 log한다.
+                final long n = getLostSampleCount();
+                if (n != lostSamples) {
+                    Log.w(TAG, "encoder - overrun! lostSamples: +" + (n - lostSamples) + ", " + mRing);
+                    lostSamples = n;
+                }
+            }
+            Log.d(TAG, "encoder - STOPPED, " + mRing);
+        }
+    };
+}
@@ -0,0 +1,258 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MediaMuxer 없이 AAC를 fragmented MP4로 write한다.
+ * fragment(moof + mdat) 단위로 파일에 기록되므로 메모리 사용량이 녹음 길이와 무관하고,
+ * 녹음 중에도 마지막 fragment까지 재생/업로드가 가능하다.
+ */
+public class SimpleFMP4Muxer extends SimpleMuxer {
+    public static final String MIME_TYPE = SimpleM4AMuxer.MIME_TYPE;
+    public static final int    BIT_RATE  = SimpleM4AMuxer.BIT_RATE;
+
+    //fragment 당 AAC frame 개수 (44.1kHz 기준 약 1초)
+    public static final int DEFAULT_FRAMES_PER_FRAGMENT = 43;
+
+    //writer 상태 보호 (encoder drain thread <--> stop)
+    private final Object mLock = new Object();
+
+    private FileOutputStream mOStream;
+    private FileChannel      mChannel;
+    private SimpleFMP4Writer mWriter;
+    private SimpleEncoder    mAudioEncoder;
+    private int              mFramesPerFragment;
+
+    public SimpleFMP4Muxer(Context context, String path) throws IOException {
+        this(context, path, DEFAULT_FRAMES_PER_FRAGMENT);
+    }
+
+    public SimpleFMP4Muxer(Context context, String path, int framesPerFragment) throws IOException {
+        super(context, path, SimpleFMP4Muxer.class.getSimpleName());
+        mFramesPerFragment = framesPerFragment;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack(enter) - audioConfig: " + audioConfig);
+
+        if (mStatus != ST_INIT) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        updateStatus(ST_PREPARED);
+
+        //파라미터를 설정한다.
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+
+        //Encoder를 생성한다.
+        final MediaFormat audioFormat = MediaFormat.createAudioFormat(
+                MIME_TYPE,
+                audioConfig.sampleRateInHz,
+                audioConfig.channelCount);
+        audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE  , MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_MASK , audioConfig.channelConfig);
+        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE     , BIT_RATE);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, audioConfig.channelCount);
+        mAudioEncoder = new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, audioFormat);
+
+        Log.d(TAG, "addAudioTrack(leave)");
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
+
+    private void release() {
+        Log.d(TAG, "release()");
+
+        //남은 fragment를 write하고, 파일을 닫는다.
+        try {
+            if (mWriter != null) {
+                mWriter.flush();
+                Log.d(TAG, "release() - fragments: " + mWriter.getFragmentCount() + ", bytes: " + mWriter.getWrittenBytes());
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            if (mOStream != null) {
+                mOStream.close();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        mWriter  = null;
+        mChannel = null;
+        mOStream = null;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start(enter)");
+        updateStatus(ST_STARTED);
+        if (mAudioEncoder == null) {
+            throw new Exception("encoder not prepared!");
+        }
+        mOStream = new FileOutputStream(path);
+        mChannel = mOStream.getChannel();
+
+        //Encoder를 시작한다.
+        mAudioEncoder.startEncoder(mEncoderStartListener);
+
+        Log.d(TAG, "start(leave)");
+    }
+
+    /**
+     * encoder에 EOS를 보내고 바로 반환한다. EOS까지 write된 후 파일을 닫고 stopListener를 호출한다.
+     */
+    @Override
+    public void stop(final StopListener stopListener) {
+        Log.d(TAG, "stop(enter)");
+        updateStatus(ST_STOPPING);
+
+        SimpleEncoder encoder = mAudioEncoder;
+        mAudioEncoder = null;
+        if (encoder == null) {
+            onEncoderStopped(stopListener);
+            return;
+        }
+        encoder.stopEncoder(mEncoderStopListener).addListener(new SimpleFuture.Listener<SimpleEncoder>() {
+            @Override
+            public void onDone(SimpleFuture<SimpleEncoder> future) {
+                if (future.getError() != null) {
+                    Log.e(TAG, "stop() - encoder failed! " + future.getError());
+                }
+                onEncoderStopped(stopListener);
+            }
+        });
+
+        Log.d(TAG, "stop(leave)");
+    }
+
+    private void onEncoderStopped(StopListener stopListener) {
+        //release all the resource
+        synchronized (mLock) {
+            release();
+        }
+        updateStatus(ST_STOPPED);
+
+        //call the stop callback
+        if (stopListener != null) {
+            try {
+                stopListener.onStop();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder != null) {
+            encoder.encode(buffer, length, pTimeUS, "writeSample");
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            return 0;
+        }
+
+        //encoder input buffer로 직접 읽는다.
+        return encoder.encode(reader, maxLength, pTimeUS, "writeSample");
+    }
+
+    /**
+     * StartLister를 정의한다.
+     */
+    private SimpleEncoder.StartListener mEncoderStartListener = new SimpleEncoder.StartListener() {
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat);
+            if (mWriter != null) {
+                Log.e(TAG, "mAudioEncoder.onStart() - Already Started!");
+                return;
+            }
+
+            //AudioSpecificConfig (csd-0)
+            byte[] asc;
+            ByteBuffer csd = outputFormat.getByteBuffer("csd-0");
+            if (csd != null) {
+                asc = new byte[csd.remaining()];
+                csd.duplicate().get(asc);
+            }
+            else {
+                asc = SimpleFMP4Writer.buildAudioSpecificConfig(audioConfig.sampleRateInHz, audioConfig.channelCount);
+            }
+
+            ///////////////////////////////////////////////////
+            // ftyp + moov
+            //////////////////////////////////////////////////
+            try {
+                synchronized (mLock) {
+                    mWriter = new SimpleFMP4Writer(mChannel,
+                            audioConfig.sampleRateInHz,
+                            audioConfig.channelCount,
+                            asc,
+                            mFramesPerFragment,
+                            BIT_RATE);
+                    mWriter.writeHeader();
+                }
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            synchronized (mLock) {
+                if (mWriter == null) {
+                    Log.e(TAG, "mAudioEncoder.onEncoded() - Not Started!");
+                    return;
+                }
+
+                ///////////////////////////////////////////////////
+                // moof + mdat
+                //////////////////////////////////////////////////
+                try {
+                    buffer.position(info.offset).limit(info.offset + info.size);
+                    mWriter.writeFrame(buffer);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+
+    /**
+     * StopListener를 정의한다.
+     */
+    private SimpleEncoder.StopListener mEncoderStopListener = new SimpleEncoder.StopListener() {
+        @Override
+        public void onStop(SimpleEncoder encoder) {
+            Log.i(TAG, "onStop() - encoder: " + encoder.getMimeType());
+        }
+    };
+}
@@ -0,0 +1,393 @@
+package com.kodeholic.simplerecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * AAC frame을 fragmented MP4 (ISO BMFF, CMAF 호환 구조)로 write한다.
+ *  - writeHeader() : ftyp + moov(mvex 포함, 샘플 테이블은 비어 있음)
+ *  - writeFrame()  : frame을 모아서 framesPerFragment 마다 moof + mdat을 write한다.
+ *  - fragment 단위로만 메모리를 사용하며, 매 fragment 경계에서 파일은 재생 가능하다.
+ */
+public class SimpleFMP4Writer {
+    public static final int AAC_FRAME_SAMPLES = 1024;
+    public static final int TRACK_ID          = 1;
+
+    //moof 고정 크기 (mfhd + traf(tfhd + tfdt + trun 헤더))
+    private static final int MOOF_FIXED_SIZE = 8 + 16 + 8 + 16 + 20 + 20;
+    private static final int MOOF_PER_SAMPLE = 8; //duration + size
+    private static final int INITIAL_FRAME_SIZE = 1024;
+
+    private final WritableByteChannel mChannel;
+    private final int    mSampleRate;
+    private final int    mChannelCount;
+    private final byte[] mAudioSpecificConfig;
+    private final int    mFramesPerFragment;
+    private final int    mAvgBitrate;
+
+    private final ByteBuffer mMoof;
+    private final int[]      mSampleSizes;
+    private ByteBuffer       mMdat;
+    private int              mSampleCount = 0;
+
+    private int  mSequenceNumber = 0;
+    private long mBaseMediaDecodeTime = 0;
+    private long mWrittenBytes = 0;
+
+    /**
+     * @param channel             출력 channel (파일 또는 업로드 stream)
+     * @param sampleRate          AAC sample rate
+     * @param channelCount        channel 개수
+     * @param audioSpecificConfig AudioSpecificConfig (MediaFormat "csd-0")
+     * @param framesPerFragment   fragment 당 AAC frame 개수
+     * @param avgBitrate          평균 bitrate (esds 기록용)
+     */
+    public SimpleFMP4Writer(WritableByteChannel channel, int sampleRate, int channelCount, byte[] audioSpecificConfig, int framesPerFragment, int avgBitrate) {
+        if (framesPerFragment <= 0) {
+            throw new IllegalArgumentException("Invalid framesPerFragment: " + framesPerFragment);
+        }
+        mChannel             = channel;
+        mSampleRate          = sampleRate;
+        mChannelCount        = channelCount;
+        mAudioSpecificConfig = audioSpecificConfig;
+        mFramesPerFragment   = framesPerFragment;
+        mAvgBitrate          = avgBitrate;
+
+        mMoof        = ByteBuffer.allocate(MOOF_FIXED_SIZE + MOOF_PER_SAMPLE * framesPerFragment + 8);
+        mSampleSizes = new int[framesPerFragment];
+        mMdat        = ByteBuffer.allocate(8 + INITIAL_FRAME_SIZE * framesPerFragment);
+    }
+
+    public int  getFragmentCount() { return mSequenceNumber; }
+    public long getWrittenBytes()  { return mWrittenBytes; }
+    public long getDurationUs()    { return mBaseMediaDecodeTime * 1000000L / mSampleRate; }
+
+    /**
+     * ftyp, moov를 write한다.
+     * @throws IOException
+     */
+    public void writeHeader() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1024 + mAudioSpecificConfig.length);
+
+        //ftyp
+        int ftyp = begin(b, "ftyp");
+        fourcc(b, "iso6");
+        b.putInt(0);
+        fourcc(b, "iso6");
+        fourcc(b, "cmfc");
+        fourcc(b, "isom");
+        fourcc(b, "mp41");
+        end(b, ftyp);
+
+        //moov
+        int moov = begin(b, "moov");
+        {
+            int mvhd = beginFull(b, "mvhd", 0, 0);
+            b.putInt(0);            //creation_time
+            b.putInt(0);            //modification_time
+            b.putInt(1000);         //timescale
+            b.putInt(0);            //duration
+            b.putInt(0x00010000);   //rate
+            b.putShort((short)0x0100); //volume
+            zero(b, 10);
+            matrix(b);
+            zero(b, 24);
+            b.putInt(TRACK_ID + 1); //next_track_ID
+            end(b, mvhd);
+
+            int trak = begin(b, "trak");
+            {
+                int tkhd = beginFull(b, "tkhd", 0, 0x000003); //enabled | in_movie
+                b.putInt(0);
+                b.putInt(0);
+                b.putInt(TRACK_ID);
+                b.putInt(0);
+                b.putInt(0);        //duration
+                zero(b, 8);
+                b.putShort((short)0); //layer
+                b.putShort((short)1); //alternate_group
+                b.putShort((short)0x0100); //volume
+                b.putShort((short)0);
+                matrix(b);
+                b.putInt(0);        //width
+                b.putInt(0);        //height
+                end(b, tkhd);
+
+                int mdia = begin(b, "mdia");
+                {
+                    int mdhd = beginFull(b, "mdhd", 0, 0);
+                    b.putInt(0);
+                    b.putInt(0);
+                    b.putInt(mSampleRate); //timescale
+                    b.putInt(0);           //duration
+                    b.putShort((short)0x55C4); //language: und
+                    b.putShort((short)0);
+                    end(b, mdhd);
+
+                    int hdlr = beginFull(b, "hdlr", 0, 0);
+                    b.putInt(0);
+                    fourcc(b, "soun");
+                    zero(b, 12);
+                    b.put("SoundHandler".getBytes("US-ASCII"));
+                    b.put((byte)0);
+                    end(b, hdlr);
+
+                    int minf = begin(b, "minf");
+                    {
+                        int smhd = beginFull(b, "smhd", 0, 0);
+                        b.putShort((short)0);
+                        b.putShort((short)0);
+                        end(b, smhd);
+
+                        int dinf = begin(b, "dinf");
+                        int dref = beginFull(b, "dref", 0, 0);
+                        b.putInt(1);
+                        int url = beginFull(b, "url ", 0, 1); //self-contained
+                        end(b, url);
+                        end(b, dref);
+                        end(b, dinf);
+
+                        int stbl = begin(b, "stbl");
+                        {
+                            int stsd = beginFull(b, "stsd", 0, 0);
+                            b.putInt(1);
+                            writeMp4a(b);
+                            end(b, stsd);
+
+                            int stts = beginFull(b, "stts", 0, 0);
+                            b.putInt(0);
+                            end(b, stts);
+                            int stsc = beginFull(b, "stsc", 0, 0);
+                            b.putInt(0);
+                            end(b, stsc);
+                            int stsz = beginFull(b, "stsz", 0, 0);
+                            b.putInt(0);
+                            b.putInt(0);
+                            end(b, stsz);
+                            int stco = beginFull(b, "stco", 0, 0);
+                            b.putInt(0);
+                            end(b, stco);
+                        }
+                        end(b, stbl);
+                    }
+                    end(b, minf);
+                }
+                end(b, mdia);
+            }
+            end(b, trak);
+
+            int mvex = begin(b, "mvex");
+            int trex = beginFull(b, "trex", 0, 0);
+            b.putInt(TRACK_ID);
+            b.putInt(1);                 //default_sample_description_index
+            b.putInt(AAC_FRAME_SAMPLES); //default_sample_duration
+            b.putInt(0);                 //default_sample_size
+            b.putInt(0);                 //default_sample_flags
+            end(b, trex);
+            end(b, mvex);
+        }
+        end(b, moov);
+
+        b.flip();
+        write(b);
+    }
+
+    /**
+     * mp4a sample entry + esds
+     */
+    private void writeMp4a(ByteBuffer b) {
+        int mp4a = begin(b, "mp4a");
+        zero(b, 6);
+        b.putShort((short)1);            //data_reference_index
+        zero(b, 8);
+        b.putShort((short)mChannelCount);
+        b.putShort((short)16);           //samplesize
+        b.putShort((short)0);
+        b.putShort((short)0);
+        b.putInt(mSampleRate << 16);
+
+        final int asc = mAudioSpecificConfig.length;
+        int esds = beginFull(b, "esds", 0, 0);
+        //ES_Descriptor
+        b.put((byte)0x03);
+        b.put((byte)(3 + 2 + 13 + 2 + asc + 2 + 1));
+        b.putShort((short)0);            //ES_ID
+        b.put((byte)0);                  //flags
+        //DecoderConfigDescriptor
+        b.put((byte)0x04);
+        b.put((byte)(13 + 2 + asc));
+        b.put((byte)0x40);               //objectTypeIndication: MPEG-4 Audio
+        b.put((byte)0x15);               //streamType: audio, upStream 0, reserved 1
+        b.put((byte)0);                  //bufferSizeDB (24bit)
+        b.putShort((short)0);
+        b.putInt(mAvgBitrate);           //maxBitrate
+        b.putInt(mAvgBitrate);           //avgBitrate
+        //DecoderSpecificInfo
+        b.put((byte)0x05);
+        b.put((byte)asc);
+        b.put(mAudioSpecificConfig);
+        //SLConfigDescriptor
+        b.put((byte)0x06);
+        b.put((byte)1);
+        b.put((byte)0x02);
+        end(b, esds);
+
+        end(b, mp4a);
+    }
+
+    /**
+     * AAC frame 하나를 추가한다. framesPerFragment 만큼 모이면 fragment를 write한다.
+     * @param frame position ~ limit 범위가 frame 데이타
+     * @throws IOException
+     */
+    public void writeFrame(ByteBuffer frame) throws IOException {
+        final int size = frame.remaining();
+        if (mSampleCount == 0) {
+            mMdat.clear();
+            mMdat.position(8);
+        }
+        if (mMdat.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(mMdat.capacity() * 2, mMdat.position() + size));
+            mMdat.flip();
+            grown.put(mMdat);
+            mMdat = grown;
+        }
+        mMdat.put(frame);
+        mSampleSizes[mSampleCount++] = size;
+
+        if (mSampleCount >= mFramesPerFragment) {
+            flush();
+        }
+    }
+
+    /**
+     * 모인 frame을 moof + mdat으로 write한다.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (mSampleCount == 0) {
+            return;
+        }
+        final int moofSize = MOOF_FIXED_SIZE + MOOF_PER_SAMPLE * mSampleCount;
+        final ByteBuffer b = mMoof;
+        b.clear();
+
+        int moof = begin(b, "moof");
+        int mfhd = beginFull(b, "mfhd", 0, 0);
+        b.putInt(++mSequenceNumber);
+        end(b, mfhd);
+
+        int traf = begin(b, "traf");
+        int tfhd = beginFull(b, "tfhd", 0, 0x020000); //default-base-is-moof
+        b.putInt(TRACK_ID);
+        end(b, tfhd);
+
+        int tfdt = beginFull(b, "tfdt", 1, 0);
+        b.putLong(mBaseMediaDecodeTime);
+        end(b, tfdt);
+
+        int trun = beginFull(b, "trun", 0, 0x000001 | 0x000100 | 0x000200); //data-offset, duration, size
+        b.putInt(mSampleCount);
+        b.putInt(moofSize + 8); //data_offset: moof 시작 기준 mdat payload 위치
+        for (int i = 0; i < mSampleCount; i++) {
+            b.putInt(AAC_FRAME_SAMPLES);
+            b.putInt(mSampleSizes[i]);
+        }
+        end(b, trun);
+        end(b, traf);
+        end(b, moof);
+
+        b.flip();
+        write(b);
+
+        //mdat
+        final int mdatSize = mMdat.position();
+        mMdat.putInt(0, mdatSize);
+        mMdat.put(4, (byte)'m').put(5, (byte)'d').put(6, (byte)'a').put(7, (byte)'t');
+        mMdat.flip();
+        write(mMdat);
+        mMdat.clear();
+
+        mBaseMediaDecodeTime += (long)AAC_FRAME_SAMPLES * mSampleCount;
+        mSampleCount = 0;
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            mWrittenBytes += mChannel.write(b);
+        }
+    }
+
+    //////////////////////////////////////////////////////////
+    // AudioSpecificConfig
+    //////////////////////////////////////////////////////////
+    private static final int[] SAMPLING_FREQUENCIES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    /**
+     * sample rate에 해당하는 samplingFrequencyIndex (없으면 -1)
+     */
+    public static int getSamplingFrequencyIndex(int sampleRate) {
+        for (int i = 0; i < SAMPLING_FREQUENCIES.length; i++) {
+            if (SAMPLING_FREQUENCIES[i] == sampleRate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * AAC-LC AudioSpecificConfig를 생성한다. (csd-0이 없는 경우)
+     */
+    public static byte[] buildAudioSpecificConfig(int sampleRate, int channelCount) {
+        final int objectType = 2; //AAC LC
+        final int freqIndex  = getSamplingFrequencyIndex(sampleRate);
+        if (freqIndex < 0) {
+            throw new IllegalArgumentException("Unsupported sampleRate: " + sampleRate);
+        }
+        return new byte[] {
+                (byte)((objectType << 3) | (freqIndex >> 1)),
+                (byte)(((freqIndex & 0x1) << 7) | (channelCount << 3))
+        };
+    }
+
+    //////////////////////////////////////////////////////////
+    // box helper
+    //////////////////////////////////////////////////////////
+    private static int begin(ByteBuffer b, String type) {
+        int start = b.position();
+        b.putInt(0);
+        fourcc(b, type);
+        return start;
+    }
+
+    private static int beginFull(ByteBuffer b, String type, int version, int flags) {
+        int start = begin(b, type);
+        b.putInt((version << 24) | (flags & 0xffffff));
+        return start;
+    }
+
+    private static void end(ByteBuffer b, int start) {
+        b.putInt(start, b.position() - start);
+    }
+
+    private static void fourcc(ByteBuffer b, String type) {
+        for (int i = 0; i < 4; i++) {
+            b.put((byte)type.charAt(i));
+        }
+    }
+
+    private static void zero(ByteBuffer b, int n) {
+        for (int i = 0; i < n; i++) {
+            b.put((byte)0);
+        }
+    }
+
+    private static void matrix(ByteBuffer b) {
+        b.putInt(0x00010000); b.putInt(0); b.putInt(0);
+        b.putInt(0); b.putInt(0x00010000); b.putInt(0);
+        b.putInt(0); b.putInt(0); b.putInt(0x40000000);
+    }
+}
@@ -0,0 +1,135 @@
+package com.kodeholic.simplerecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 외부에서 완료시키는 Future. (minSdk 21에서는 CompletableFuture를 사용할 수 없다)
+ *  - complete() 또는 fail()은 한번만 반영된다.
+ *  - 완료 전에 등록된 listener는 완료한 thread에서, 완료 후에 등록된 listener는 등록한 thread에서 호출된다.
+ */
+public class SimpleFuture<V> implements Future<V> {
+    public interface Listener<V> {
+        public void onDone(SimpleFuture<V> future);
+    }
+
+    private final Object mLock = new Object();
+    private boolean   mDone  = false;
+    private V         mValue = null;
+    private Throwable mError = null;
+    private List<Listener<V>> mListeners = null;
+
+    public static <V> SimpleFuture<V> completed(V value) {
+        final SimpleFuture<V> future = new SimpleFuture<V>();
+        future.complete(value);
+        return future;
+    }
+
+    public boolean complete(V value) {
+        return finish(value, null);
+    }
+
+    public boolean fail(Throwable error) {
+        return finish(null, error);
+    }
+
+    private boolean finish(V value, Throwable error) {
+        final List<Listener<V>> listeners;
+        synchronized (mLock) {
+            if (mDone) {
+                return false;
+            }
+            mDone      = true;
+            mValue     = value;
+            mError     = error;
+            listeners  = mListeners;
+            mListeners = null;
+            mLock.notifyAll();
+        }
+        if (listeners != null) {
+            for (Listener<V> l : listeners) {
+                l.onDone(this);
+            }
+        }
+        return true;
+    }
+
+    public void addListener(Listener<V> listener) {
+        synchronized (mLock) {
+            if (!mDone) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<Listener<V>>();
+                }
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onDone(this);
+    }
+
+    /**
+     * 완료 후 실패 원인 (성공이면 null)
+     */
+    public Throwable getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return getError() instanceof CancellationException;
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mDone;
+        }
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        synchronized (mLock) {
+            while (!mDone) {
+                mLock.wait();
+            }
+            return getLocked();
+        }
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (!mDone) {
+                final long remainNanos = deadline - System.nanoTime();
+                if (remainNanos <= 0) {
+                    throw new TimeoutException();
+                }
+                mLock.wait(remainNanos / 1000000L, (int)(remainNanos % 1000000L));
+            }
+            return getLocked();
+        }
+    }
+
+    private V getLocked() throws ExecutionException {
+        if (mError instanceof CancellationException) {
+            throw (CancellationException)mError;
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mValue;
+    }
+}
@@ -0,0 +1,310 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 여러 track의 encoded sample을 pTime 순서로 섞어(interleave) writer에게 전달하는 bounded reorder queue.
+ *  - track 별 입력은 pTime 순서라고 가정한다. 다른 모든 track이 그 시각까지 진행한 sample만 내보낸다.
+ *  - start() 이전에는 보관만 한다. (MediaMuxer는 모든 track이 addTrack()된 후에 start할 수 있다)
+ *  - 보관 개수/바이트가 한도를 넘으면 start 이전에는 가장 이른 sample을 버리고(dropped), 이후에는 강제로 내보낸다(forced).
+ *  - 보관할 필요가 없는 sample은 복사하지 않고 바로 내보내며, 보관용 byte[]는 재사용한다.
+ *  - 끝난 track은 endOfTrack()으로 알려야 다른 track이 기다리지 않는다.
+ */
+public class SimpleInterleaver {
+    public interface Writer {
+        public void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception;
+    }
+
+    /**
+     * 보관 중인 sample
+     */
+    private static class Sample {
+        int        track;
+        byte[]     data = new byte[0];
+        ByteBuffer view = ByteBuffer.wrap(data);
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    }
+
+    private final Object mLock = new Object();
+    private final String mTag;
+    private final Writer mWriter;
+    private final int    mMaxSamples;
+    private final long   mMaxBytes;
+
+    private final List<ArrayDeque<Sample>> mQueues;
+    private final ArrayDeque<Sample>       mRecycled = new ArrayDeque<Sample>();
+    private final long[]    mLastPTimeUs; //track 별 마지막 입력 pTime
+    private final boolean[] mEnded;
+    private boolean mStarted = false;
+    private int     mQueuedSamples = 0;
+    private long    mQueuedBytes   = 0;
+    //이 instance의 집계 (metrics는 같은 tag의 instance가 누적된다)
+    private long    mDirectCount   = 0;
+    private long    mForcedCount   = 0;
+    private long    mDroppedCount  = 0;
+
+    //metrics
+    private final SimpleMetrics.Counter   mDirect;
+    private final SimpleMetrics.Counter   mQueued;
+    private final SimpleMetrics.Counter   mForced;
+    private final SimpleMetrics.Counter   mDropped;
+    private final SimpleMetrics.Histogram mDepth;
+
+    /**
+     * @param tag        metrics 이름 (ex. muxer TAG)
+     * @param trackCount track 개수 (0 ~ trackCount-1)
+     * @param maxSamples 최대 보관 sample 개수
+     * @param maxBytes   최대 보관 바이트
+     */
+    public SimpleInterleaver(String tag, int trackCount, int maxSamples, long maxBytes, Writer writer) {
+        if (trackCount <= 0 || maxSamples <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid trackCount: " + trackCount + ", maxSamples: " + maxSamples + ", maxBytes: " + maxBytes);
+        }
+        mTag        = tag;
+        mWriter     = writer;
+        mMaxSamples = maxSamples;
+        mMaxBytes   = maxBytes;
+        mQueues     = new ArrayList<ArrayDeque<Sample>>(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            mQueues.add(new ArrayDeque<Sample>());
+        }
+        mLastPTimeUs = new long[trackCount];
+        mEnded       = new boolean[trackCount];
+        Arrays.fill(mLastPTimeUs, Long.MIN_VALUE);
+
+        final SimpleMetrics metrics = SimpleMetrics.getInstance();
+        mDirect  = metrics.counter("interleave." + tag + ".direct");
+        mQueued  = metrics.counter("interleave." + tag + ".queued");
+        mForced  = metrics.counter("interleave." + tag + ".forced");
+        mDropped = metrics.counter("interleave." + tag + ".dropped");
+        mDepth   = metrics.histogram("interleave." + tag + ".depth");
+    }
+
+    /**
+     * 이후 sample부터 writer에게 전달한다. 보관 중인 sample은 순서대로 내보낸다.
+     */
+    public void start() {
+        synchronized (mLock) {
+            Log.d(mTag, "interleaver.start() - queued: " + mQueuedSamples + ", bytes: " + mQueuedBytes + ", dropped: " + mDroppedCount);
+            mStarted = true;
+            drainLocked(false);
+        }
+    }
+
+    public boolean isStarted() {
+        synchronized (mLock) {
+            return mStarted;
+        }
+    }
+
+    /**
+     * sample을 전달한다. buffer는 반환 후 재사용되어도 된다. (필요하면 복사해 둔다)
+     */
+    public void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception {
+        synchronized (mLock) {
+            final long pTimeUs = info.presentationTimeUs;
+            if (pTimeUs > mLastPTimeUs[track]) {
+                mLastPTimeUs[track] = pTimeUs;
+            }
+
+            //이 track이 pTimeUs까지 진행했으므로, 그보다 이른 sample을 먼저 내보낸다.
+            //그 후 가장 이른 sample이고 다른 track이 모두 이 시각 이후라면 복사하지 않고 바로 내보낸다.
+            //(보통 늦게 나오는 video sample이 여기에 해당한다)
+            drainLocked(false);
+            if (mStarted && isEarliestLocked(track, pTimeUs) && isReadyLocked(track, pTimeUs)) {
+                mDirect.increment();
+                mDirectCount++;
+                mWriter.writeSample(track, buffer, info);
+                drainLocked(false);
+                return;
+            }
+            enqueueLocked(track, buffer, info);
+            drainLocked(false);
+        }
+    }
+
+    /**
+     * track이 끝났다. (더 이상 이 track을 기다리지 않는다)
+     */
+    public void endOfTrack(int track) {
+        synchronized (mLock) {
+            Log.d(mTag, "interleaver.endOfTrack() - track: " + track + ", queued: " + mQueuedSamples);
+            mEnded[track] = true;
+            drainLocked(false);
+        }
+    }
+
+    /**
+     * 보관 중인 sample을 pTime 순서로 모두 내보낸다. start() 이전이면 버린다.
+     */
+    public void flush() {
+        synchronized (mLock) {
+            Log.d(mTag, "interleaver.flush() - started: " + mStarted + ", queued: " + mQueuedSamples);
+            drainLocked(true);
+        }
+    }
+
+    public int getQueuedSamples() {
+        synchronized (mLock) {
+            return mQueuedSamples;
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (mLock) {
+            return mQueuedBytes;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    public long getForcedCount() {
+        synchronized (mLock) {
+            return mForcedCount;
+        }
+    }
+
+    public long getDirectCount() {
+        synchronized (mLock) {
+            return mDirectCount;
+        }
+    }
+
+    /**
+     * 다른 모든 track이 pTimeUs까지 진행했거나 끝났으면, 이보다 이른 sample은 더 이상 오지 않는다.
+     */
+    private boolean isReadyLocked(int track, long pTimeUs) {
+        for (int i = 0; i < mLastPTimeUs.length; i++) {
+            if (i != track && !mEnded[i] && mLastPTimeUs[i] < pTimeUs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * track에 보관 중인 sample이 없고, 다른 track에 보관 중인 sample보다 이르다.
+     */
+    private boolean isEarliestLocked(int track, long pTimeUs) {
+        if (!mQueues.get(track).isEmpty()) {
+            return false;
+        }
+        for (ArrayDeque<Sample> queue : mQueues) {
+            final Sample head = queue.peek();
+            if (head != null && head.info.presentationTimeUs < pTimeUs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void enqueueLocked(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        Sample sample = mRecycled.poll();
+        if (sample == null) {
+            sample = new Sample();
+        }
+        //info 기준으로 복사하고, buffer의 position/limit은 되돌린다.
+        final int size     = info.size;
+        final int position = buffer.position();
+        final int limit    = buffer.limit();
+        if (sample.data.length < size) {
+            sample.data = new byte[size];
+            sample.view = ByteBuffer.wrap(sample.data);
+        }
+        buffer.limit(info.offset + size).position(info.offset);
+        buffer.get(sample.data, 0, size);
+        buffer.limit(limit).position(position);
+        sample.track = track;
+        sample.info.offset             = 0;
+        sample.info.size               = size;
+        sample.info.presentationTimeUs = info.presentationTimeUs;
+        sample.info.flags              = info.flags;
+
+        mQueues.get(track).add(sample);
+        mQueuedSamples++;
+        mQueuedBytes += size;
+        mQueued.increment();
+        mDepth.record(mQueuedSamples);
+    }
+
+    /**
+     * 가장 이른 sample부터 내보낼 수 있는 만큼 내보낸다.
+     * @param all true이면 기다리지 않고 모두 내보낸다.
+     */
+    private void drainLocked(boolean all) {
+        while (mQueuedSamples > 0) {
+            //가장 이른 sample
+            ArrayDeque<Sample> earliest = null;
+            for (ArrayDeque<Sample> queue : mQueues) {
+                final Sample head = queue.peek();
+                if (head != null && (earliest == null || head.info.presentationTimeUs < earliest.peek().info.presentationTimeUs)) {
+                    earliest = queue;
+                }
+            }
+            final Sample  sample = earliest.peek();
+            final boolean full   = mQueuedSamples > mMaxSamples || mQueuedBytes > mMaxBytes;
+
+            if (!mStarted) {
+                if (!full && !all) {
+                    return;
+                }
+                //시작 전에는 쓸 수 없으므로 버린다.
+                mDropped.increment();
+                mDroppedCount++;
+            }
+            else if (all || isReadyLocked(sample.track, sample.info.presentationTimeUs)) {
+                writeLocked(sample);
+            }
+            else if (full) {
+                mForced.increment();
+                mForcedCount++;
+                writeLocked(sample);
+            }
+            else {
+                return;
+            }
+
+            earliest.poll();
+            mQueuedSamples--;
+            mQueuedBytes -= sample.info.size;
+            mRecycled.add(sample);
+        }
+    }
+
+    private void writeLocked(Sample sample) {
+        sample.view.clear();
+        sample.view.limit(sample.info.size);
+        try {
+            mWriter.writeSample(sample.track, sample.view, sample.info);
+        }
+        catch (Exception e) {
+            //실패한 sample은 버리고 다음으로 진행한다.
+            Log.e(mTag, "interleaver.write() - failed! track: " + sample.track + ", pTimeUs: " + sample.info.presentationTimeUs, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "SimpleInterleaver{" +
+                    "started=" + mStarted +
+                    ", queued=" + mQueuedSamples +
+                    ", bytes=" + mQueuedBytes +
+                    ", direct=" + mDirectCount +
+                    ", forced=" + mForcedCount +
+                    ", dropped=" + mDroppedCount +
+                    '}';
+        }
+    }
+}
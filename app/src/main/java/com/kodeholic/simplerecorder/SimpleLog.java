@@ -0,0 +1,83 @@
+package com.kodeholic.simplerecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * hot path(encode/drain/writeSample/onEncoded) 전용 로그.
+ *  - VERBOSE가 false이면 if (SimpleLog.VERBOSE) { Log.d(...); } 블록은 javac가 제거한다. (문자열 생성 없음)
+ *  - trace()는 미리 할당된 long[] ring에 (시각, event, a, b)만 기록하므로 할당이 없다.
+ *    필요한 시점에 dumpTrace()로 문자열로 변환하여 출력한다.
+ */
+public class SimpleLog {
+    //hot path 문자열 로그 (release에서는 false)
+    public static final boolean VERBOSE = false;
+
+    //binary trace (false이면 trace()는 아무것도 하지 않는다)
+    public static final boolean TRACE = true;
+
+    //trace event
+    public static final int EV_ENCODE    = 1; //a: length    , b: pTimeUs
+    public static final int EV_QUEUE_IN  = 2; //a: inputIndex, b: pTimeUs
+    public static final int EV_DRAIN     = 3; //a: outputIndex, b: timeoutUs
+    public static final int EV_ENCODED   = 4; //a: size      , b: pTimeUs
+    public static final int EV_MUX_WRITE = 5; //a: length    , b: pTimeUs
+    public static final int EV_WAV_WRITE = 6; //a: length    , b: totalLength
+
+    public static String valueOfEvent(int event) {
+        switch (event) {
+            case EV_ENCODE   : return "ENCODE";
+            case EV_QUEUE_IN : return "QUEUE_IN";
+            case EV_DRAIN    : return "DRAIN";
+            case EV_ENCODED  : return "ENCODED";
+            case EV_MUX_WRITE: return "MUX_WRITE";
+            case EV_WAV_WRITE: return "WAV_WRITE";
+        }
+        return "UNKNOWN(" + event + ")";
+    }
+
+    //record: [nanoTime, event, a, b]
+    private static final int  RECORD_SIZE = 4;
+    private static final int  CAPACITY    = 4096; //2의 거듭제곱
+    private static final long[] sRing     = new long[CAPACITY * RECORD_SIZE];
+    private static final AtomicLong sSeq  = new AtomicLong(0);
+    private static volatile boolean sTraceEnabled = true;
+
+    public static void setTraceEnabled(boolean enabled) {
+        sTraceEnabled = enabled;
+    }
+
+    /**
+     * event를 ring에 기록한다. (가장 오래된 record를 덮어쓴다)
+     */
+    public static void trace(int event, long a, long b) {
+        if (!TRACE || !sTraceEnabled) {
+            return;
+        }
+        final int base = (int)(sSeq.getAndIncrement() & (CAPACITY - 1)) * RECORD_SIZE;
+        sRing[base    ] = System.nanoTime();
+        sRing[base + 1] = event;
+        sRing[base + 2] = a;
+        sRing[base + 3] = b;
+    }
+
+    /**
+     * 최근 maxRecords개의 record를 오래된 순서로 출력한다.
+     * 기록 중에 호출되면 일부 record는 섞여서 보일 수 있다.
+     */
+    public static void dumpTrace(SimpleMetrics.Printer printer, int maxRecords) {
+        final long end   = sSeq.get();
+        final long count = Math.min(end, Math.min(maxRecords, CAPACITY));
+        for (long seq = end - count; seq < end; seq++) {
+            final int base = (int)(seq & (CAPACITY - 1)) * RECORD_SIZE;
+            printer.print(seq
+                    + " " + (sRing[base] / 1000L)
+                    + " " + valueOfEvent((int)sRing[base + 1])
+                    + " " + sRing[base + 2]
+                    + " " + sRing[base + 3]);
+        }
+    }
+
+    public static void clearTrace() {
+        sSeq.set(0);
+    }
+}
@@ -10,21 +10,128 @@ import android.util.Log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+/**
+ * AAC audio M4A muxer.
+ *  - MediaMuxer는 audio track의 output format이 나온 후에 start한다. (SimpleTrackMuxer)
+ *  - 그 전에 encode된 frame은 버리지 않고 보관했다가 start 후 순서대로 write한다. (MAX_PRESTART_SAMPLES/BYTES 한도)
+ */
 public class SimpleM4AMuxer extends SimpleMuxer {
     public static final String MIME_TYPE = "audio/mp4a-latm";
     public static final int    BIT_RATE  = 64000;
 
-    //waiting to stop..
-    private final String  __STOP_WAITER__ = "W";
+    //SimpleTrackMuxer track
+    public static final int TRACK_AUDIO = 0;
 
-    private MediaMuxer    mMx;
-    private int           mTrackIndex;
+    //start 이전 보관 한도 (AAC 1024 samples/frame, 44.1kHz 기준 약 3초)
+    public static final int  MAX_PRESTART_SAMPLES = 128;
+    public static final long MAX_PRESTART_BYTES   = 256 * 1024;
+
+    private final SimpleTrackMuxer mTrackMuxer;
     private SimpleEncoder mAudioEncoder;
+    private int           mEncoderMode;
+    private int           mBitrate;
+    private SimpleBitratePolicy mBitratePolicy = null;
 
     public SimpleM4AMuxer(Context context, String path) throws IOException {
+        this(context, path, SimpleEncoder.ENCODER_MODE_SYNC);
+    }
+
+    /**
+     * @param encoderMode SimpleEncoder.ENCODER_MODE_SYNC or SimpleEncoder.ENCODER_MODE_ASYNC
+     */
+    public SimpleM4AMuxer(Context context, String path, int encoderMode) throws IOException {
+        this(context, path, encoderMode, BIT_RATE);
+    }
+
+    /**
+     * @param encoderMode SimpleEncoder.ENCODER_MODE_SYNC or SimpleEncoder.ENCODER_MODE_ASYNC
+     * @param bitrate     시작 bitrate
+     */
+    public SimpleM4AMuxer(Context context, String path, int encoderMode, int bitrate) throws IOException {
+        this(context, path, encoderMode, bitrate, new SimpleMediaMuxerSink(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4));
+    }
+
+    /**
+     * @param sink MediaMuxer 대신 사용할 sink (JVM 테스트용)
+     */
+    public SimpleM4AMuxer(Context context, String path, int encoderMode, int bitrate, SimpleMuxerSink sink) throws IOException {
         super(context, path, SimpleM4AMuxer.class.getSimpleName());
-        mMx = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        mTrackIndex = -1;
+        mTrackMuxer = new SimpleTrackMuxer(TAG, sink, 1, MAX_PRESTART_SAMPLES, MAX_PRESTART_BYTES);
+        mEncoderMode = encoderMode;
+        mBitrate = bitrate;
+    }
+
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    /**
+     * start 이전 보관 한도를 넘어 버려진 frame 개수
+     */
+    public long getDroppedFrames() {
+        return mTrackMuxer.getDroppedCount();
+    }
+
+    /**
+     * muxer start를 기다리며 보관 중인 바이트
+     */
+    public long getBufferedBytes() {
+        return mTrackMuxer.getBufferedBytes();
+    }
+
+    /**
+     * SimpleEncoderPool key
+     */
+    public static String encoderKey(AudioConfig audioConfig, int encoderMode, int bitrate) {
+        return MIME_TYPE + "/" + audioConfig.sampleRateInHz + "/" + audioConfig.channelCount + "/" + audioConfig.channelConfig + "/" + bitrate + "/" + encoderMode;
+    }
+
+    public static MediaFormat createAudioFormat(AudioConfig audioConfig, int bitrate) {
+        final MediaFormat audioFormat = MediaFormat.createAudioFormat(
+                MIME_TYPE,
+                audioConfig.sampleRateInHz,
+                audioConfig.channelCount);
+        audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE  , MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_MASK , audioConfig.channelConfig);
+        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE     , bitrate);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, audioConfig.channelCount);
+        return audioFormat;
+    }
+
+    /**
+     * addAudioTrack()에서 바로 사용할 수 있도록 encoder를 미리 생성해 둔다. (background)
+     */
+    public static void prewarm(final Context context, final AudioConfig audioConfig, final int encoderMode, final int bitrate) {
+        SimpleEncoderPool.getInstance().prewarm(encoderKey(audioConfig, encoderMode, bitrate), 1, new SimpleEncoderPool.Factory() {
+            @Override
+            public SimpleEncoder create() throws Exception {
+                return new SimpleEncoder(context, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, createAudioFormat(audioConfig, bitrate), encoderMode);
+            }
+        });
+    }
+
+    /**
+     * policy를 설정하면 writeSample()마다 loudness를, onEncoded()마다 write 지연을 전달하고,
+     * 결정된 bitrate를 encoder에 반영한다. (SampleReader 입력은 loudness를 측정하지 않는다)
+     */
+    public void setBitratePolicy(SimpleBitratePolicy policy) {
+        mBitratePolicy = policy;
+    }
+
+    private void applyBitratePolicy(ByteBuffer pcm, long pTimeUS) {
+        final SimpleBitratePolicy policy = mBitratePolicy;
+        final SimpleEncoder encoder = mAudioEncoder;
+        if (policy == null || encoder == null) {
+            return;
+        }
+        policy.reportLoudness(SimpleBitratePolicy.computeDbfs(pcm));
+        final int bitrate = policy.evaluate(pTimeUS / 1000L);
+        if (bitrate != mBitrate) {
+            Log.i(TAG, "applyBitratePolicy() - bitrate: " + mBitrate + " --> " + bitrate + ", " + policy);
+            if (encoder.setBitrate(bitrate)) {
+                mBitrate = bitrate;
+            }
+        }
     }
 
     @Override
@@ -42,16 +149,15 @@ public class SimpleM4AMuxer extends SimpleMuxer {
         this.audioConfig.channelConfig  = audioConfig.channelConfig;  //AudioFormat.CHANNEL_IN_MONO;
         this.audioConfig.audioFormat    = audioConfig.audioFormat;    //AudioFormat.ENCODING_PCM_16BIT;
 
-        //Encoder를 생성한다.
-        final MediaFormat audioFormat = MediaFormat.createAudioFormat(
-                MIME_TYPE,
-                audioConfig.sampleRateInHz,
-                audioConfig.channelCount);
-        audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE  , MediaCodecInfo.CodecProfileLevel.AACObjectLC);
-        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_MASK , audioConfig.channelConfig);
-        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE     , BIT_RATE);
-        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, audioConfig.channelCount);
-        mAudioEncoder = new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, audioFormat);
+        //Encoder를 얻는다. (prewarm 되어 있으면 생성/configure 비용이 없다)
+        final MediaFormat audioFormat = createAudioFormat(audioConfig, mBitrate);
+        mAudioEncoder = SimpleEncoderPool.getInstance().acquire(encoderKey(audioConfig, mEncoderMode, mBitrate), new SimpleEncoderPool.Factory() {
+            @Override
+            public SimpleEncoder create() throws Exception {
+                return new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, audioFormat, mEncoderMode);
+            }
+        });
+        mTrackMuxer.declareTrack(TRACK_AUDIO);
 
         Log.d(TAG, "addAudioTrack(leave)");
 
@@ -61,33 +167,6 @@ public class SimpleM4AMuxer extends SimpleMuxer {
     @Override
     public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
 
-    private void release() {
-        Log.d(TAG, "release(enter)");
-
-        ///////////////////////////////////////////////////
-        // Muxer stop
-        //////////////////////////////////////////////////
-        try {
-            mMx.stop();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        ///////////////////////////////////////////////////
-        // Muxer release
-        //////////////////////////////////////////////////
-        try {
-            mMx.release();
-            mMx = null;
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        Log.d(TAG, "release(leave)");
-    }
-
     @Override
     public void start() throws Exception {
         Log.d(TAG, "start(enter)");
@@ -96,38 +175,47 @@ public class SimpleM4AMuxer extends SimpleMuxer {
             throw new Exception("encoder not prepared!");
         }
 
-        //Encoder를 시작한다.
+        //Encoder를 시작한다. (muxer는 output format이 나오면 시작한다)
+        mTrackMuxer.begin();
         mAudioEncoder.startEncoder(mEncoderStartListener);
 
         Log.d(TAG, "start(leave)");
         return;
     }
 
+    /**
+     * encoder에 EOS를 보내고 바로 반환한다. EOS까지 write된 후 파일을 닫고 stopListener를 호출한다.
+     */
     @Override
     public void stop(final StopListener stopListener) {
         Log.d(TAG, "stop(enter)");
-        updateStatus(ST_STOPPED);
+        updateStatus(ST_STOPPING);
 
         SimpleEncoder encoder = mAudioEncoder;
-        if (encoder != null) {
-            encoder.stopEncoder(mEncoderStopListener);
-            mAudioEncoder = null;
-
-            //wait...
-            Log.d(TAG, "stop(waiting)");
-            synchronized (__STOP_WAITER__) {
-                try {
-                    __STOP_WAITER__.wait(1000);
-                }
-                catch (Exception e) {
-                    e.printStackTrace();
+        mAudioEncoder = null;
+        if (encoder == null) {
+            onEncoderStopped(stopListener);
+            return;
+        }
+        encoder.stopEncoder(mEncoderStopListener).addListener(new SimpleFuture.Listener<SimpleEncoder>() {
+            @Override
+            public void onDone(SimpleFuture<SimpleEncoder> future) {
+                if (future.getError() != null) {
+                    Log.e(TAG, "stop() - encoder failed! " + future.getError());
                 }
+                mTrackMuxer.endOfTrack(TRACK_AUDIO);
+                onEncoderStopped(stopListener);
             }
-        }
+        });
+
+        Log.d(TAG, "stop(leave)");
+    }
 
+    private void onEncoderStopped(StopListener stopListener) {
         //release all the resource
         Log.d(TAG, "stop(release)");
-        release();
+        mTrackMuxer.finish();
+        updateStatus(ST_STOPPED);
 
         //call the stop callback
         if (stopListener != null) {
@@ -138,64 +226,87 @@ public class SimpleM4AMuxer extends SimpleMuxer {
                 e.printStackTrace();
             }
         }
-
-        Log.d(TAG, "stop(leave)");
-
-        return;
     }
 
     @Override
-    public void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception {
-        Log.d(TAG, "writeSample(enter) - encoderType: " + encoderType + ", length: " + length + ", pTimeUS: " + pTimeUS + ", trackIndex: " + mTrackIndex);
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "writeSample(enter) - encoderType: " + encoderType + ", length: " + buffer.remaining() + ", pTimeUS: " + pTimeUS + ", " + mTrackMuxer);
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        SimpleLog.trace(SimpleLog.EV_MUX_WRITE, length, pTimeUS);
+        applyBitratePolicy(buffer, pTimeUS);
         SimpleEncoder encoder = mAudioEncoder;
         if (encoder != null) {
-            ByteBuffer buffer = ByteBuffer.wrap(bytes);
-            buffer.position(offset).limit(length);
             encoder.encode(buffer, length, pTimeUS, "writeSample");
         }
+        recordWrite(startNanos, length);
 
-        Log.d(TAG, "writeSample(leave) - encoderType: " + encoderType + ", trackIndex: " + mTrackIndex);
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "writeSample(leave) - encoderType: " + encoderType + ", " + mTrackMuxer);
+        }
 
         return;
     }
 
+    @Override
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            return 0;
+        }
+
+        //encoder input buffer로 직접 읽는다.
+        return encoder.encode(reader, maxLength, pTimeUS, "writeSample");
+    }
+
+    @Override
+    public void writeSample(int encoderType, SimpleBufferPool.Buffer buffer) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.length();
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            buffer.release();
+            return;
+        }
+        applyBitratePolicy(buffer.data(), buffer.getPTimeUs());
+
+        //async 모드에서는 복사 없이 encoder에게 넘긴다.
+        encoder.encode(buffer, "writeSample");
+        recordWrite(startNanos, length);
+    }
+
     /**
      * StartLister를 정의한다.
      */
     private SimpleEncoder.StartListener mEncoderStartListener = new SimpleEncoder.StartListener() {
         @Override
         public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
-            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat + ", trackIndex: " + mTrackIndex);
-            if (mTrackIndex != -1) {
-                Log.e(TAG, "mAudioEncoder.onStart() - Already Started!");
-                return;
-            }
+            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat + ", " + mTrackMuxer);
 
             ///////////////////////////////////////////////////
-            // Muxer addTrack
+            // Muxer addTrack (선언된 track이 모두 추가되면 start)
             //////////////////////////////////////////////////
-            try {
-                mTrackIndex = mMx.addTrack(outputFormat);
-                mMx.start();
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
+            mTrackMuxer.onFormat(TRACK_AUDIO, outputFormat);
         }
 
         @Override
         public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
-            Log.i(TAG, "onEncoded() - encoder: " + encoder.getMimeType() + ", buffer: " + buffer + ", info: " + info + ", trackIndex: " + mTrackIndex);
-            if (mTrackIndex == -1) {
-                Log.e(TAG, "mAudioEncoder.onEncoded() - Not Started!");
-                return;
+            if (SimpleLog.VERBOSE) {
+                Log.i(TAG, "onEncoded() - encoder: " + encoder.getMimeType() + ", buffer: " + buffer + ", info: " + info + ", " + mTrackMuxer);
             }
 
             ///////////////////////////////////////////////////
-            // Muxer writeSampleData
+            // Muxer writeSampleData (start 이전이면 보관한다)
             //////////////////////////////////////////////////
             try {
-                mMx.writeSampleData(mTrackIndex, buffer, info);
+                final long startNanos = System.nanoTime();
+                mTrackMuxer.writeSample(TRACK_AUDIO, buffer, info);
+                final SimpleBitratePolicy policy = mBitratePolicy;
+                if (policy != null) {
+                    policy.reportWriteLatency((System.nanoTime() - startNanos) / 1000L);
+                }
             }
             catch (Exception e) {
                 e.printStackTrace();
@@ -209,11 +320,7 @@ public class SimpleM4AMuxer extends SimpleMuxer {
     private SimpleEncoder.StopListener mEncoderStopListener = new SimpleEncoder.StopListener() {
         @Override
         public void onStop(SimpleEncoder encoder) {
-            Log.i(TAG, "onStop() - encoder: " + encoder.getMimeType() + ", trackIndex: " + mTrackIndex);
-
-            synchronized (__STOP_WAITER__) {
-                __STOP_WAITER__.notifyAll();
-            }
+            Log.i(TAG, "onStop() - encoder: " + encoder.getMimeType() + ", " + mTrackMuxer);
         }
     };
 }
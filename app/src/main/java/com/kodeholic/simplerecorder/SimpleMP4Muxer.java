@@ -0,0 +1,230 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * AAC audio + AVC video MP4 muxer.
+ *  - video encoder는 surface 입력을 사용한다. (getInputSurface()에 camera 등이 직접 그리며, frame의 CPU 복사가 없다)
+ *  - 선언된(addAudioTrack/addVideoTrack) 모든 track의 output format이 나온 후에 MediaMuxer를 start한다. (SimpleTrackMuxer)
+ *  - audio/video sample은 pTime 순서로 섞어 write한다. (start 이전 sample도 보관한다)
+ */
+public class SimpleMP4Muxer extends SimpleMuxer {
+    public static final String VIDEO_MIME_TYPE = "video/avc";
+
+    //SimpleTrackMuxer track
+    public static final int TRACK_AUDIO = 0;
+    public static final int TRACK_VIDEO = 1;
+
+    //reorder queue 한도
+    public static final int  MAX_QUEUED_SAMPLES = 256;
+    public static final long MAX_QUEUED_BYTES   = 8 * 1024 * 1024;
+
+    private final Object mLock = new Object();
+    private final SimpleTrackMuxer mTrackMuxer;
+    private SimpleEncoder mAudioEncoder;
+    private SimpleEncoder mVideoEncoder;
+    private int mPendingStops = 0;
+
+    public SimpleMP4Muxer(Context context, String path) throws IOException {
+        this(context, path, new SimpleMediaMuxerSink(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4));
+    }
+
+    /**
+     * @param sink MediaMuxer 대신 사용할 sink (JVM 테스트용)
+     */
+    public SimpleMP4Muxer(Context context, String path, SimpleMuxerSink sink) throws IOException {
+        super(context, path, SimpleMP4Muxer.class.getSimpleName());
+        mTrackMuxer = new SimpleTrackMuxer(TAG, sink, 2, MAX_QUEUED_SAMPLES, MAX_QUEUED_BYTES);
+    }
+
+    public SimpleTrackMuxer getTrackMuxer() {
+        return mTrackMuxer;
+    }
+
+    /**
+     * video 입력 surface (addVideoTrack() 이후 유효)
+     */
+    public Surface getInputSurface() {
+        final SimpleEncoder encoder = mVideoEncoder;
+        return encoder != null ? encoder.getInputSurface() : null;
+    }
+
+    public static MediaFormat createVideoFormat(VideoConfig videoConfig) {
+        final MediaFormat videoFormat = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, videoConfig.width, videoConfig.height);
+        videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT     , MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        videoFormat.setInteger(MediaFormat.KEY_BIT_RATE         , videoConfig.bitrate);
+        videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE       , videoConfig.frameRate);
+        videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL , videoConfig.iFrameInterval);
+        return videoFormat;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig);
+        if (mStatus != ST_INIT && mStatus != ST_PREPARED) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+
+        //SimpleM4AMuxer와 같은 encoder를 사용한다. (prewarm 공유)
+        final MediaFormat audioFormat = SimpleM4AMuxer.createAudioFormat(audioConfig, SimpleM4AMuxer.BIT_RATE);
+        final int         encoderMode = SimpleEncoder.ENCODER_MODE_SYNC;
+        mAudioEncoder = SimpleEncoderPool.getInstance().acquire(SimpleM4AMuxer.encoderKey(audioConfig, encoderMode, SimpleM4AMuxer.BIT_RATE), new SimpleEncoderPool.Factory() {
+            @Override
+            public SimpleEncoder create() throws Exception {
+                return new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, SimpleM4AMuxer.MIME_TYPE, audioFormat, encoderMode);
+            }
+        });
+        mTrackMuxer.declareTrack(TRACK_AUDIO);
+        updateStatus(ST_PREPARED);
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception {
+        Log.d(TAG, "addVideoTrack() - videoConfig: " + videoConfig);
+        if (mStatus != ST_INIT && mStatus != ST_PREPARED) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        this.videoConfig = videoConfig;
+        mTrackMuxer.getSink().setOrientationHint(videoConfig.orientationHint);
+        mVideoEncoder = new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_VIDEO, VIDEO_MIME_TYPE, createVideoFormat(videoConfig), SimpleEncoder.ENCODER_MODE_SYNC);
+        mTrackMuxer.declareTrack(TRACK_VIDEO);
+        updateStatus(ST_PREPARED);
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start() - audio: " + mTrackMuxer.isDeclared(TRACK_AUDIO) + ", video: " + mTrackMuxer.isDeclared(TRACK_VIDEO));
+        updateStatus(ST_STARTED);
+        mTrackMuxer.begin();
+        if (mAudioEncoder != null) {
+            mAudioEncoder.startEncoder(mEncoderStartListener);
+        }
+        if (mVideoEncoder != null) {
+            mVideoEncoder.startEncoder(mEncoderStartListener);
+        }
+    }
+
+    /**
+     * 두 encoder에 EOS를 보내고 바로 반환한다. 모든 track이 끝나면 남은 sample을 write하고 파일을 닫는다.
+     */
+    @Override
+    public void stop(final StopListener stopListener) {
+        Log.d(TAG, "stop() - " + mTrackMuxer);
+        updateStatus(ST_STOPPING);
+
+        final SimpleEncoder[] encoders = { mAudioEncoder, mVideoEncoder };
+        mAudioEncoder = null;
+        mVideoEncoder = null;
+        final int pendingStops = (encoders[0] != null ? 1 : 0) + (encoders[1] != null ? 1 : 0);
+        synchronized (mLock) {
+            mPendingStops = pendingStops;
+        }
+        if (pendingStops == 0) {
+            onEncodersStopped(stopListener);
+            return;
+        }
+        for (final SimpleEncoder encoder : encoders) {
+            if (encoder == null) {
+                continue;
+            }
+            encoder.stopEncoder(null).addListener(new SimpleFuture.Listener<SimpleEncoder>() {
+                @Override
+                public void onDone(SimpleFuture<SimpleEncoder> future) {
+                    if (future.getError() != null) {
+                        Log.e(TAG, "stop() - encoder failed! " + encoder.getMimeType() + ", " + future.getError());
+                    }
+                    mTrackMuxer.endOfTrack(trackOf(encoder));
+                    final boolean done;
+                    synchronized (mLock) {
+                        done = (--mPendingStops == 0);
+                    }
+                    if (done) {
+                        onEncodersStopped(stopListener);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onEncodersStopped(StopListener stopListener) {
+        mTrackMuxer.finish();
+        updateStatus(ST_STOPPED);
+
+        if (stopListener != null) {
+            try {
+                stopListener.onStop();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        final SimpleEncoder encoder = mAudioEncoder;
+        if (encoder != null) {
+            encoder.encode(buffer, length, pTimeUS, "writeSample");
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        final SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            return 0;
+        }
+        return encoder.encode(reader, maxLength, pTimeUS, "writeSample");
+    }
+
+    @Override
+    public void writeSample(int encoderType, SimpleBufferPool.Buffer buffer) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.length();
+        final SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            buffer.release();
+            return;
+        }
+        encoder.encode(buffer, "writeSample");
+        recordWrite(startNanos, length);
+    }
+
+    private static int trackOf(SimpleEncoder encoder) {
+        return encoder.isVideo() ? TRACK_VIDEO : TRACK_AUDIO;
+    }
+
+    private final SimpleEncoder.StartListener mEncoderStartListener = new SimpleEncoder.StartListener() {
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat);
+            mTrackMuxer.onFormat(trackOf(encoder), outputFormat);
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            try {
+                mTrackMuxer.writeSample(trackOf(encoder), buffer, info);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    };
+}
@@ -0,0 +1,295 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * MediaCodec 기반의 SimpleCodec 구현
+ *  - 비동기 모드의 callback은 codec 전용 HandlerThread에서 수행한다. (API 21/22 포함)
+ */
+public class SimpleMediaCodec implements SimpleCodec {
+    private static final String TAG = SimpleMediaCodec.class.getSimpleName();
+
+    //MediaFormat.getKeys()가 없는 API 29 미만에서 복사하는 key
+    private static final String[] KNOWN_KEYS = {
+            MediaFormat.KEY_MIME,
+            MediaFormat.KEY_SAMPLE_RATE,
+            MediaFormat.KEY_CHANNEL_COUNT,
+            MediaFormat.KEY_CHANNEL_MASK,
+            MediaFormat.KEY_AAC_PROFILE,
+            MediaFormat.KEY_BIT_RATE,
+            MediaFormat.KEY_BITRATE_MODE,
+            MediaFormat.KEY_COMPLEXITY,
+            MediaFormat.KEY_MAX_INPUT_SIZE,
+            MediaFormat.KEY_PCM_ENCODING,
+            MediaFormat.KEY_IS_ADTS,
+            MediaFormat.KEY_WIDTH,
+            MediaFormat.KEY_HEIGHT,
+            MediaFormat.KEY_MAX_WIDTH,
+            MediaFormat.KEY_MAX_HEIGHT,
+            MediaFormat.KEY_FRAME_RATE,
+            MediaFormat.KEY_I_FRAME_INTERVAL,
+            MediaFormat.KEY_COLOR_FORMAT,
+            MediaFormat.KEY_PROFILE,
+            MediaFormat.KEY_LEVEL,
+            MediaFormat.KEY_PRIORITY,
+            MediaFormat.KEY_ROTATION,
+            MediaFormat.KEY_DURATION,
+            MediaFormat.KEY_LANGUAGE,
+            "csd-0",
+            "csd-1",
+            "csd-2",
+    };
+
+    private final String  mMimeType;
+    private MediaCodec    mCodec;
+    private HandlerThread mCallbackThread = null;
+    private final MediaCodec.BufferInfo mDequeueInfo  = new MediaCodec.BufferInfo();
+    private final BufferInfo            mCallbackInfo = new BufferInfo(); //callback thread 전용
+
+    public SimpleMediaCodec(String mimeType) throws IOException {
+        mMimeType = mimeType;
+        mCodec    = MediaCodec.createEncoderByType(mimeType);
+    }
+
+    public MediaCodec getMediaCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public void configure(Format format, final Callback callback, int callbackPriority) {
+        if (callback != null) {
+            mCallbackThread = new HandlerThread(TAG + "-callback", callbackPriority);
+            mCallbackThread.start();
+            final Handler handler = new Handler(mCallbackThread.getLooper());
+
+            MediaCodec.Callback cb = new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    callback.onInputBufferAvailable(SimpleMediaCodec.this, index);
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                    mCallbackInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                    callback.onOutputBufferAvailable(SimpleMediaCodec.this, index, mCallbackInfo);
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                    callback.onError(SimpleMediaCodec.this, e);
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                    callback.onOutputFormatChanged(SimpleMediaCodec.this, toFormat(format));
+                }
+            };
+
+            //setCallback()은 configure() 전에 호출되어야 한다.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mCodec.setCallback(cb, handler);
+            }
+            else {
+                //API 21/22는 codec을 생성한 thread의 looper(없으면 main looper)로 callback한다.
+                //callback thread에서 codec을 다시 생성하여 전용 thread에서 callback을 받는다.
+                recreateCodec(handler);
+                mCodec.setCallback(cb);
+            }
+        }
+        mCodec.configure(toMediaFormat(format), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    /**
+     * handler thread에서 codec을 생성하고, 기존 codec을 해제한다. (API 21/22)
+     */
+    private void recreateCodec(Handler handler) {
+        final SimpleFuture<MediaCodec> future = new SimpleFuture<MediaCodec>();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(MediaCodec.createEncoderByType(mMimeType));
+                }
+                catch (Exception e) {
+                    future.fail(e);
+                }
+            }
+        });
+
+        final MediaCodec codec;
+        try {
+            codec = future.get();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("recreateCodec() - failed! mimeType: " + mMimeType, e);
+        }
+        Log.d(TAG, "recreateCodec() - created on callback thread. mimeType: " + mMimeType);
+        mCodec.release();
+        mCodec = codec;
+    }
+
+    @Override
+    public Surface createInputSurface() {
+        return mCodec.createInputSurface();
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public void stop() {
+        mCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        try {
+            mCodec.release();
+        }
+        finally {
+            if (mCallbackThread != null) {
+                mCallbackThread.quitSafely();
+                mCallbackThread = null;
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        mCodec.flush();
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long pTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, offset, size, pTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        final int index = mCodec.dequeueOutputBuffer(mDequeueInfo, timeoutUs);
+        if (index >= 0) {
+            info.set(mDequeueInfo.offset, mDequeueInfo.size, mDequeueInfo.presentationTimeUs, mDequeueInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public Format getOutputFormat() {
+        return toFormat(mCodec.getOutputFormat());
+    }
+
+    @Override
+    public void setParameter(String key, int value) {
+        Bundle params = new Bundle();
+        params.putInt(key, value);
+        mCodec.setParameters(params);
+    }
+
+    //////////////////////////////////////////////////////////
+    // MediaFormat <-> SimpleCodec.Format
+    //////////////////////////////////////////////////////////
+
+    /**
+     * MediaFormat을 SimpleCodec.Format으로 복사한다. (ByteBuffer는 공유한다)
+     */
+    public static Format toFormat(MediaFormat mediaFormat) {
+        final Format format = new Format();
+        if (mediaFormat == null) {
+            return format;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            for (String key : mediaFormat.getKeys()) {
+                switch (mediaFormat.getValueTypeForKey(key)) {
+                    case MediaFormat.TYPE_INTEGER    : format.setInteger   (key, mediaFormat.getInteger(key));    break;
+                    case MediaFormat.TYPE_LONG       : format.setLong      (key, mediaFormat.getLong(key));       break;
+                    case MediaFormat.TYPE_FLOAT      : format.setFloat     (key, mediaFormat.getFloat(key));      break;
+                    case MediaFormat.TYPE_STRING     : format.setString    (key, mediaFormat.getString(key));     break;
+                    case MediaFormat.TYPE_BYTE_BUFFER: format.setByteBuffer(key, mediaFormat.getByteBuffer(key)); break;
+                    default: break;
+                }
+            }
+            return format;
+        }
+        for (String key : KNOWN_KEYS) {
+            if (mediaFormat.containsKey(key)) {
+                format.setValue(key, getValue(mediaFormat, key));
+            }
+        }
+        return format;
+    }
+
+    /**
+     * 값의 type을 알 수 없으므로 차례로 시도한다. (API 29 미만)
+     */
+    private static Object getValue(MediaFormat mediaFormat, String key) {
+        try { return mediaFormat.getInteger(key);    } catch (ClassCastException e) { ; }
+        try { return mediaFormat.getLong(key);       } catch (ClassCastException e) { ; }
+        try { return mediaFormat.getFloat(key);      } catch (ClassCastException e) { ; }
+        try { return mediaFormat.getString(key);     } catch (ClassCastException e) { ; }
+        try { return mediaFormat.getByteBuffer(key); } catch (ClassCastException e) { ; }
+        return null;
+    }
+
+    /**
+     * SimpleCodec.Format을 MediaFormat으로 복사한다. (ByteBuffer는 공유한다)
+     */
+    public static MediaFormat toMediaFormat(Format format) {
+        final MediaFormat mediaFormat = new MediaFormat();
+        for (String key : format.getKeys()) {
+            final Object value = format.getValue(key);
+            if (value instanceof Integer) {
+                mediaFormat.setInteger(key, (Integer)value);
+            }
+            else if (value instanceof Long) {
+                mediaFormat.setLong(key, (Long)value);
+            }
+            else if (value instanceof Float) {
+                mediaFormat.setFloat(key, (Float)value);
+            }
+            else if (value instanceof String) {
+                mediaFormat.setString(key, (String)value);
+            }
+            else if (value instanceof ByteBuffer) {
+                mediaFormat.setByteBuffer(key, (ByteBuffer)value);
+            }
+        }
+        return mediaFormat;
+    }
+}
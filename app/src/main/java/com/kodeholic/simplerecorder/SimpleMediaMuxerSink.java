@@ -0,0 +1,56 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * MediaMuxer 기반의 SimpleMuxerSink 구현
+ */
+public class SimpleMediaMuxerSink implements SimpleMuxerSink {
+    private MediaMuxer mMx;
+
+    /**
+     * @param outputFormat MediaMuxer.OutputFormat
+     */
+    public SimpleMediaMuxerSink(String path, int outputFormat) throws IOException {
+        mMx = new MediaMuxer(path, outputFormat);
+    }
+
+    public MediaMuxer getMediaMuxer() {
+        return mMx;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) throws Exception {
+        return mMx.addTrack(format);
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMx.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() throws Exception {
+        mMx.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception {
+        mMx.writeSampleData(trackIndex, buffer, info);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        mMx.stop();
+    }
+
+    @Override
+    public void release() {
+        mMx.release();
+    }
+}
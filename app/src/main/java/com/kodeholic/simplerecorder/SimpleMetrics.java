@@ -0,0 +1,285 @@
+package com.kodeholic.simplerecorder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * pipeline 단계별 counter/histogram 저장소.
+ *  - counter(), histogram()으로 미리 등록해 두고, 기록(add/record) 시에는 할당이 없다.
+ *  - snapshot()으로 현재 값을 조회하고, startDump()로 주기적으로 출력할 수 있다.
+ */
+public class SimpleMetrics {
+    /**
+     * dump 출력 대상
+     */
+    public interface Printer {
+        public void print(String line);
+    }
+
+    /**
+     * 누적 counter
+     */
+    public static class Counter {
+        private final String     mName;
+        private final AtomicLong mValue = new AtomicLong(0);
+
+        Counter(String name) {
+            mName = name;
+        }
+
+        public String getName()         { return mName; }
+        public long   get()             { return mValue.get(); }
+        public void   increment()       { mValue.incrementAndGet(); }
+        public void   add(long delta)   { mValue.addAndGet(delta); }
+    }
+
+    /**
+     * HDR 방식의 log-linear histogram. (2의 거듭제곱 구간마다 SUB_BUCKETS개로 나누며, 상대오차는 약 6%)
+     */
+    public static class Histogram {
+        static final int SUB_BITS    = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+        static final int BUCKETS     = 64 * SUB_BUCKETS;
+
+        private final String          mName;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong      mCount   = new AtomicLong(0);
+        private final AtomicLong      mSum     = new AtomicLong(0);
+        private final AtomicLong      mMax     = new AtomicLong(0);
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        public String getName() { return mName; }
+
+        static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int)Math.max(value, 0);
+            }
+            final int msb   = 63 - Long.numberOfLeadingZeros(value);
+            final int shift = msb - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int)((value >> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long valueOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = (index >> SUB_BITS) - 1;
+            return ((long)(SUB_BUCKETS | (index & (SUB_BUCKETS - 1)))) << shift;
+        }
+
+        public void record(long value) {
+            mBuckets.incrementAndGet(indexOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get())) {
+                if (mMax.compareAndSet(max, value)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * nanoTime 기준 시작 시각부터의 경과 시간을 usec로 기록한다.
+         */
+        public void recordSinceNanos(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000L);
+        }
+
+        public long getCount() { return mCount.get(); }
+
+        /**
+         * @param percentile 0 ~ 100
+         */
+        public long getPercentile(double percentile) {
+            final long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    return valueOf(i);
+                }
+            }
+            return mMax.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+
+    /**
+     * 조회 시점의 값
+     */
+    public static class Snapshot {
+        public final String name;
+        public final long   count;
+        public final double mean;
+        public final long   p50;
+        public final long   p90;
+        public final long   p99;
+        public final long   max;
+
+        Snapshot(String name, long count, double mean, long p50, long p90, long p99, long max) {
+            this.name  = name;
+            this.count = count;
+            this.mean  = mean;
+            this.p50   = p50;
+            this.p90   = p90;
+            this.p99   = p99;
+            this.max   = max;
+        }
+
+        @Override
+        public String toString() {
+            if (p50 < 0) {
+                return name + "{count=" + count + '}';
+            }
+            return name + "{" +
+                    "count=" + count +
+                    ", mean=" + String.format("%.1f", mean) +
+                    ", p50=" + p50 +
+                    ", p90=" + p90 +
+                    ", p99=" + p99 +
+                    ", max=" + max +
+                    '}';
+        }
+    }
+
+    //////////////////////////////////////////////////////////
+    // registry
+    //////////////////////////////////////////////////////////
+    private static final SimpleMetrics sInstance = new SimpleMetrics();
+
+    public static SimpleMetrics getInstance() {
+        return sInstance;
+    }
+
+    private final Object mLock = new Object();
+    private final Map<String, Counter>   mCounters   = new LinkedHashMap<String, Counter>();
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<String, Histogram>();
+
+    public Counter counter(String name) {
+        synchronized (mLock) {
+            Counter counter = mCounters.get(name);
+            if (counter == null) {
+                counter = new Counter(name);
+                mCounters.put(name, counter);
+            }
+            return counter;
+        }
+    }
+
+    public Histogram histogram(String name) {
+        synchronized (mLock) {
+            Histogram histogram = mHistograms.get(name);
+            if (histogram == null) {
+                histogram = new Histogram(name);
+                mHistograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * 등록된 모든 counter/histogram의 현재 값을 반환한다. (counter는 p50 이하가 -1)
+     */
+    public List<Snapshot> snapshot() {
+        List<Snapshot> list = new ArrayList<Snapshot>();
+        synchronized (mLock) {
+            for (Counter c : mCounters.values()) {
+                list.add(new Snapshot(c.getName(), c.get(), 0, -1, -1, -1, -1));
+            }
+            for (Histogram h : mHistograms.values()) {
+                final long count = h.getCount();
+                list.add(new Snapshot(h.getName(),
+                        count,
+                        count == 0 ? 0 : (double)h.mSum.get() / count,
+                        h.getPercentile(50),
+                        h.getPercentile(90),
+                        h.getPercentile(99),
+                        h.mMax.get()));
+            }
+        }
+        return list;
+    }
+
+    public void reset() {
+        synchronized (mLock) {
+            for (Counter c : mCounters.values()) {
+                c.mValue.set(0);
+            }
+            for (Histogram h : mHistograms.values()) {
+                h.reset();
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////
+    // periodic dump
+    //////////////////////////////////////////////////////////
+    private Thread mDumpThread = null;
+
+    /**
+     * intervalMs 마다 snapshot을 출력한다. counter는 구간 동안의 초당 증가량(/s)을 함께 출력한다.
+     */
+    public void startDump(final long intervalMs, final Printer printer) {
+        synchronized (mLock) {
+            if (mDumpThread != null) {
+                return;
+            }
+            mDumpThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, Long> prev = new LinkedHashMap<String, Long>();
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            Thread.sleep(intervalMs);
+                        }
+                        catch (InterruptedException e) {
+                            break;
+                        }
+                        for (Snapshot s : snapshot()) {
+                            if (s.p50 < 0) {
+                                Long last = prev.put(s.name, s.count);
+                                long delta = s.count - (last != null ? last : 0);
+                                printer.print(s + " " + (delta * 1000 / intervalMs) + "/s");
+                            }
+                            else {
+                                printer.print(s.toString());
+                            }
+                        }
+                    }
+                }
+            }, "SimpleMetrics-dump");
+            mDumpThread.setDaemon(true);
+            mDumpThread.setPriority(Thread.MIN_PRIORITY);
+            mDumpThread.start();
+        }
+    }
+
+    public void stopDump() {
+        synchronized (mLock) {
+            if (mDumpThread != null) {
+                mDumpThread.interrupt();
+                mDumpThread = null;
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.media.AudioFormat;
 import android.util.Log;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public abstract class SimpleMuxer {
     public static final int ST_INIT     = 0;
@@ -56,13 +57,67 @@ public abstract class SimpleMuxer {
     /**
      * Video 포맷 정보
      */
-    public class VideoConfig {
+    public static class VideoConfig {
+        public int width;           // 1280 ...
+        public int height;          // 720 ...
+        public int frameRate;       // 30
+        public int bitrate;         // 2000000
+        public int iFrameInterval;  // [sec]
+        public int orientationHint; // 0, 90, 180, 270
+
         public VideoConfig() { }
+        public VideoConfig(int width, int height, int frameRate, int bitrate) {
+            this.width          = width;
+            this.height         = height;
+            this.frameRate      = frameRate;
+            this.bitrate        = bitrate;
+            this.iFrameInterval = 1;
+        }
+
+        @Override
+        public String toString() {
+            return "VideoConfig{" +
+                    "width=" + width +
+                    ", height=" + height +
+                    ", frameRate=" + frameRate +
+                    ", bitrate=" + bitrate +
+                    ", iFrameInterval=" + iFrameInterval +
+                    ", orientationHint=" + orientationHint +
+                    '}';
+        }
     }
 
     public interface StopListener {
         public void onStop();
     }
+
+    /**
+     * capture source가 전달된 buffer를 직접 채운다. (zero-copy 입력)
+     *  - buffer는 clear된 상태로 전달되며, 0번 위치부터 채워야 한다.
+     *  - 채운 바이트 수를 반환한다. (음수는 오류)
+     */
+    public interface SampleReader {
+        public int read(ByteBuffer buffer, int maxLength);
+    }
+
+    /**
+     * read() 이후에 chunk의 presentation time이 정해지는 reader
+     *  - writeSample(reader)에 전달된 pTimeUS 대신, read() 직후의 getPTimeUs()를 사용한다.
+     *  - 첫 chunk를 읽은 후에 AudioTimestamp로 anchor하는 경우 (SimpleRecorder direct 모드)
+     */
+    public interface TimedSampleReader extends SampleReader {
+        /**
+         * 방금 read()한 chunk의 시작 presentation time
+         */
+        public long getPTimeUs();
+    }
+
+    /**
+     * reader가 TimedSampleReader이면 방금 읽은 chunk의 pTime을, 아니면 pTimeUs를 반환한다. (read() 직후 호출)
+     */
+    public static long getPTimeUs(SampleReader reader, long pTimeUs) {
+        return (reader instanceof TimedSampleReader) ? ((TimedSampleReader)reader).getPTimeUs() : pTimeUs;
+    }
     //////////////////////////////////////////////////////////////////
     //
     // Members
@@ -76,6 +131,14 @@ public abstract class SimpleMuxer {
     protected Context mContext;
     protected int mStatus = ST_INIT;
 
+    //SampleReader 기본 구현에서 사용하는 direct buffer
+    private ByteBuffer mReadBuffer = null;
+
+    //metrics
+    protected final SimpleMetrics.Histogram mWriteLatency;
+    protected final SimpleMetrics.Counter   mWriteBytes;
+    protected final SimpleMetrics.Histogram mStopLatency;
+
     public SimpleMuxer(Context context, String path, String tag) throws IOException {
         mContext = context;
 
@@ -83,6 +146,10 @@ public abstract class SimpleMuxer {
         this.TAG  = tag;
         this.audioConfig = new AudioConfig();
         this.videoConfig = new VideoConfig();
+
+        mWriteLatency = SimpleMetrics.getInstance().histogram("mux." + tag + ".write_us");
+        mWriteBytes   = SimpleMetrics.getInstance().counter("mux." + tag + ".bytes");
+        mStopLatency  = SimpleMetrics.getInstance().histogram("mux." + tag + ".stop_us");
     }
     public boolean isPrepared() { return mStatus == ST_PREPARED; }
     public boolean isStarted()  { return mStatus == ST_STARTED; }
@@ -119,6 +186,16 @@ public abstract class SimpleMuxer {
         }
     }
 
+    /**
+     * writeSample()의 처리 시간과 바이트 수를 기록한다.
+     * @param startNanos writeSample() 시작 시점의 System.nanoTime()
+     * @param length
+     */
+    protected void recordWrite(long startNanos, int length) {
+        mWriteLatency.recordSinceNanos(startNanos);
+        mWriteBytes.add(length);
+    }
+
     protected int channelConfig2Count(int channelConfig) {
         switch (channelConfig) {
             case AudioFormat.CHANNEL_IN_DEFAULT: // AudioFormat.CHANNEL_CONFIGURATION_DEFAULT
@@ -143,6 +220,63 @@ public abstract class SimpleMuxer {
     public abstract void addAudioTrack(AudioConfig audioConfig) throws Exception;
     public abstract void addVideoTrack(VideoConfig videoConfig) throws Exception;
     public abstract void start() throws Exception;
-    public abstract void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception;
+    public abstract void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception;
     public abstract void stop(final StopListener stopListener);
+
+    /**
+     * stop()을 요청하고, 실제로 종료(파일 완료)되면 완료되는 future를 반환한다.
+     * stop 요청부터 완료까지의 시간은 mux.<TAG>.stop_us로 기록한다.
+     */
+    public SimpleFuture<SimpleMuxer> stopAsync() {
+        final SimpleFuture<SimpleMuxer> future = new SimpleFuture<SimpleMuxer>();
+        final long startNanos = System.nanoTime();
+        stop(new StopListener() {
+            @Override
+            public void onStop() {
+                mStopLatency.recordSinceNanos(startNanos);
+                Log.d(TAG, "stopAsync() - finished in " + (System.nanoTime() - startNanos) / 1000L + "us");
+                future.complete(SimpleMuxer.this);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * byte[] 입력을 ByteBuffer API로 전달한다.
+     */
+    public void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception {
+        writeSample(encoderType, ByteBuffer.wrap(bytes, offset, length), pTimeUS);
+    }
+
+    /**
+     * reader가 채운 데이타를 write한다.
+     * 기본 구현은 내부 direct buffer로 읽은 후 writeSample(ByteBuffer)로 전달하며,
+     * encoder input buffer로 직접 읽을 수 있는 muxer는 재정의한다.
+     * @return reader가 반환한 바이트 수
+     */
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        if (mReadBuffer == null || mReadBuffer.capacity() < maxLength) {
+            mReadBuffer = ByteBuffer.allocateDirect(maxLength);
+        }
+        mReadBuffer.clear();
+        int n = reader.read(mReadBuffer, maxLength);
+        if (n > 0) {
+            mReadBuffer.position(0).limit(n);
+            writeSample(encoderType, mReadBuffer, getPTimeUs(reader, pTimeUS));
+        }
+        return n;
+    }
+
+    /**
+     * pool buffer를 전달한다. 호출자의 reference 1개의 소유권이 muxer로 넘어오며, 처리가 끝나면 release한다.
+     * 기본 구현은 writeSample(ByteBuffer)로 동기 처리한 후 바로 release한다.
+     */
+    public void writeSample(int encoderType, SimpleBufferPool.Buffer buffer) throws Exception {
+        try {
+            writeSample(encoderType, buffer.view(), buffer.getPTimeUs());
+        }
+        finally {
+            buffer.release();
+        }
+    }
 }
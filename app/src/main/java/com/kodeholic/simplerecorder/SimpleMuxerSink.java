@@ -0,0 +1,28 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * encoded sample을 파일로 기록하는 container writer 인터페이스. (MediaMuxer와 같은 호출 규칙)
+ * 실제 장치에서는 SimpleMediaMuxerSink(MediaMuxer)를 사용하고, JVM 환경에서는 fake sink로 대체할 수 있다.
+ */
+public interface SimpleMuxerSink {
+    /**
+     * start() 이전에 호출한다.
+     * @return track index
+     */
+    public int addTrack(MediaFormat format) throws Exception;
+
+    public void setOrientationHint(int degrees);
+
+    public void start() throws Exception;
+
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception;
+
+    public void stop() throws Exception;
+
+    public void release();
+}
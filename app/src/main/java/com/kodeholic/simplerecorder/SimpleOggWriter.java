@@ -0,0 +1,210 @@
+package com.kodeholic.simplerecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 단일 logical stream의 Ogg page writer. (RFC 3533)
+ *  - packet을 255바이트 segment로 나누어(lacing) page에 담고, page가 차면 다음 page로 이어 쓴다. (continued)
+ *  - page는 body가 maxPageBytes 이상이거나, page의 granule 범위가 maxPageGranules 이상이면 내려쓴다. (streaming)
+ *    녹음이 비정상 종료되어도 마지막 page 이전까지는 재생할 수 있다.
+ *  - page granule position은 page에서 끝나는 마지막 packet의 값이며, 끝나는 packet이 없으면 -1이다.
+ *  - page buffer는 생성 시 한 번만 할당한다.
+ */
+public class SimpleOggWriter {
+    public static final int HEADER_SIZE   = 27;
+    public static final int MAX_SEGMENTS  = 255;
+    public static final int MAX_BODY_SIZE = MAX_SEGMENTS * 255;
+
+    //header type
+    public static final int FLAG_CONTINUED = 0x01;
+    public static final int FLAG_BOS       = 0x02;
+    public static final int FLAG_EOS       = 0x04;
+
+    //CRC-32 (polynomial 0x04C11DB7, 초기값 0, reflection 없음)
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r = i << 24;
+            for (int j = 0; j < 8; j++) {
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04C11DB7 : (r << 1);
+            }
+            CRC_TABLE[i] = r;
+        }
+    }
+
+    public static int crc32(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    private final WritableByteChannel mChannel;
+    private final int  mSerialNo;
+    private final int  mMaxPageBytes;
+    private final long mMaxPageGranules;
+
+    //현재 page
+    private final byte[]     mHeader  = new byte[HEADER_SIZE + MAX_SEGMENTS];
+    private final byte[]     mBody    = new byte[MAX_BODY_SIZE];
+    private final ByteBuffer mHeaderBuffer = ByteBuffer.wrap(mHeader);
+    private final ByteBuffer mBodyBuffer   = ByteBuffer.wrap(mBody);
+    private int     mSegments   = 0;
+    private int     mBodySize   = 0;
+    private boolean mContinued  = false; //page가 이전 page의 packet으로 시작한다.
+    private long    mGranulePos = -1;    //page에서 끝난 마지막 packet의 granule
+    private long    mFirstGranulePos = -1;
+
+    //stream
+    private int     mPageSeq    = 0;
+    private long    mLastGranulePos = 0;
+    private boolean mEnded      = false;
+    private long    mPageCount  = 0;
+    private long    mBytesWritten = 0;
+
+    /**
+     * @param maxPageBytes    page body가 이 크기 이상이면 내려쓴다. (<= MAX_BODY_SIZE)
+     * @param maxPageGranules page의 첫/마지막 packet granule 차이가 이 값 이상이면 내려쓴다. (ex. Opus 48000 = 1초)
+     */
+    public SimpleOggWriter(WritableByteChannel channel, int serialNo, int maxPageBytes, long maxPageGranules) {
+        mChannel         = channel;
+        mSerialNo        = serialNo;
+        mMaxPageBytes    = Math.min(maxPageBytes, MAX_BODY_SIZE);
+        mMaxPageGranules = maxPageGranules;
+    }
+
+    public long getPageCount()    { return mPageCount; }
+    public long getBytesWritten() { return mBytesWritten; }
+    public long getGranulePos()   { return mLastGranulePos; }
+
+    /**
+     * packet을 추가한다. (packet의 position ~ limit, 반환 후 packet은 재사용되어도 된다)
+     * @param granulePos packet 끝의 granule position
+     * @param flush      true이면 이 packet으로 page를 끝낸다. (ex. header packet)
+     */
+    public void writePacket(ByteBuffer packet, long granulePos, boolean flush) throws IOException {
+        if (mEnded) {
+            throw new IllegalStateException("Already ended!");
+        }
+        int     remaining = packet.remaining();
+        boolean first     = true;
+        int segment;
+        do {
+            //segment table이 차면 page를 내려쓴다. packet 중간에서 나뉜 경우에만 다음 page는 continued로 시작한다.
+            //(이전 packet이 255번째 segment에서 끝났다면 새 packet은 새 page에서 시작한다)
+            if (mSegments == MAX_SEGMENTS) {
+                writePage(0);
+                mContinued = !first;
+            }
+            first   = false;
+            segment = Math.min(remaining, 255);
+            packet.get(mBody, mBodySize, segment);
+            mHeader[HEADER_SIZE + mSegments++] = (byte)segment;
+            mBodySize += segment;
+            remaining -= segment;
+        }
+        while (segment == 255);
+
+        //packet 완료
+        mGranulePos = granulePos;
+        if (mFirstGranulePos < 0) {
+            mFirstGranulePos = granulePos;
+        }
+        mLastGranulePos = granulePos;
+        if (flush || mBodySize >= mMaxPageBytes || granulePos - mFirstGranulePos >= mMaxPageGranules) {
+            writePage(0);
+        }
+    }
+
+    /**
+     * 쌓인 packet을 page로 내려쓴다.
+     */
+    public void flush() throws IOException {
+        if (mSegments > 0) {
+            writePage(0);
+        }
+    }
+
+    /**
+     * 마지막 page를 EOS로 내려쓴다. 쌓인 packet이 없으면 빈 EOS page를 쓴다.
+     */
+    public void finish() throws IOException {
+        if (mEnded) {
+            return;
+        }
+        if (mSegments == 0) {
+            mGranulePos = mLastGranulePos;
+        }
+        writePage(FLAG_EOS);
+        mEnded = true;
+    }
+
+    private void writePage(int flags) throws IOException {
+        if (mPageSeq == 0) {
+            flags |= FLAG_BOS;
+        }
+        if (mContinued) {
+            flags |= FLAG_CONTINUED;
+        }
+        final long granulePos = mGranulePos;
+        mHeader[0] = 'O';
+        mHeader[1] = 'g';
+        mHeader[2] = 'g';
+        mHeader[3] = 'S';
+        mHeader[4] = 0; //version
+        mHeader[5] = (byte)flags;
+        for (int i = 0; i < 8; i++) {
+            mHeader[6 + i] = (byte)(granulePos >>> (i * 8));
+        }
+        putIntLE(mHeader, 14, mSerialNo);
+        putIntLE(mHeader, 18, mPageSeq);
+        putIntLE(mHeader, 22, 0);
+        mHeader[26] = (byte)mSegments;
+
+        final int headerSize = HEADER_SIZE + mSegments;
+        int crc = crc32(0, mHeader, 0, headerSize);
+        crc = crc32(crc, mBody, 0, mBodySize);
+        putIntLE(mHeader, 22, crc);
+
+        mHeaderBuffer.clear();
+        mHeaderBuffer.limit(headerSize);
+        while (mHeaderBuffer.hasRemaining()) {
+            mChannel.write(mHeaderBuffer);
+        }
+        mBodyBuffer.clear();
+        mBodyBuffer.limit(mBodySize);
+        while (mBodyBuffer.hasRemaining()) {
+            mChannel.write(mBodyBuffer);
+        }
+        mBytesWritten += headerSize + mBodySize;
+        mPageCount++;
+
+        //다음 page
+        mPageSeq++;
+        mSegments   = 0;
+        mBodySize   = 0;
+        mContinued  = false;
+        mGranulePos = -1;
+        mFirstGranulePos = -1;
+    }
+
+    private static void putIntLE(byte[] dst, int offset, int value) {
+        dst[offset    ] = (byte)(value);
+        dst[offset + 1] = (byte)(value >>> 8);
+        dst[offset + 2] = (byte)(value >>> 16);
+        dst[offset + 3] = (byte)(value >>> 24);
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleOggWriter{" +
+                "serialNo=" + mSerialNo +
+                ", pages=" + mPageCount +
+                ", bytes=" + mBytesWritten +
+                ", granulePos=" + mLastGranulePos +
+                ", ended=" + mEnded +
+                '}';
+    }
+}
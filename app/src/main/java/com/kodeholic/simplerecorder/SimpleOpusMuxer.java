@@ -0,0 +1,413 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * encode된 Opus packet을 Ogg container(.opus)로 write한다. (RFC 7845)
+ *  - encoder는 platform Opus encoder(MediaCodecList)를 우선 사용하고, 없으면 setFallbackCodecFactory()로 등록한 codec을 사용한다.
+ *  - OpusHead/OpusTags header page는 encoder output format이 나온 후 직접 만든다. (pre-skip은 csd-1의 codec delay)
+ *  - granule position은 packet TOC로 계산한 48kHz sample 수의 누적이다.
+ *  - page는 1초(MAX_PAGE_GRANULES) 또는 MAX_PAGE_BYTES마다 내려쓴다.
+ */
+public class SimpleOpusMuxer extends SimpleMuxer {
+    public static final String MIME_TYPE = "audio/opus";
+    public static final int    BIT_RATE  = 24000; //음성 기준
+
+    //Opus encoder가 받는 input sample rate
+    public static final int[] SAMPLE_RATES = { 8000, 12000, 16000, 24000, 48000 };
+
+    //Ogg granule은 input sample rate와 무관하게 48kHz 기준이다.
+    public static final int  GRANULE_RATE       = 48000;
+    public static final int  DEFAULT_PRE_SKIP   = 312; //6.5ms (csd-1이 없는 경우)
+    public static final int  MAX_PAGE_BYTES     = 8 * 1024;
+    public static final long MAX_PAGE_GRANULES  = GRANULE_RATE;
+
+    public static final String VENDOR = "SimpleRecorder";
+
+    private static final int[] SILK_FRAME_SAMPLES = { 480, 960, 1920, 2880 };
+
+    /**
+     * platform encoder가 없을 때 사용할 codec (ex. libopus JNI)
+     */
+    public interface CodecFactory {
+        public SimpleCodec create(SimpleCodec.Format format) throws Exception;
+    }
+
+    private static CodecFactory sFallbackCodecFactory = null;
+    private static Boolean      sPlatformEncoder      = null;
+
+    public static void setFallbackCodecFactory(CodecFactory factory) {
+        sFallbackCodecFactory = factory;
+    }
+
+    /**
+     * MediaCodecList에 Opus encoder가 있는가? (Android 10 이상)
+     */
+    public static synchronized boolean hasPlatformEncoder() {
+        if (sPlatformEncoder == null) {
+            boolean found = false;
+            try {
+                for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                    if (!info.isEncoder()) {
+                        continue;
+                    }
+                    for (String type : info.getSupportedTypes()) {
+                        if (MIME_TYPE.equalsIgnoreCase(type)) {
+                            Log.d("SimpleOpusMuxer", "hasPlatformEncoder() - " + info.getName());
+                            found = true;
+                        }
+                    }
+                }
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+            sPlatformEncoder = found;
+        }
+        return sPlatformEncoder;
+    }
+
+    /**
+     * platform encoder 또는 fallback codec이 있는가?
+     */
+    public static boolean isAvailable() {
+        return hasPlatformEncoder() || sFallbackCodecFactory != null;
+    }
+
+    public static boolean isSupportedSampleRate(int sampleRateInHz) {
+        for (int rate : SAMPLE_RATES) {
+            if (rate == sampleRateInHz) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * packet이 담고 있는 48kHz sample 수 (RFC 6716 3.1, TOC byte)
+     */
+    public static int getPacketSamples(ByteBuffer packet, int offset, int length) {
+        if (length < 1) {
+            return 0;
+        }
+        final int toc    = packet.get(offset) & 0xFF;
+        final int config = toc >> 3;
+        final int frameSamples;
+        if (config < 12) {
+            //SILK: 10, 20, 40, 60ms
+            frameSamples = SILK_FRAME_SAMPLES[config & 0x3];
+        }
+        else if (config < 16) {
+            //Hybrid: 10, 20ms
+            frameSamples = (config & 0x1) != 0 ? 960 : 480;
+        }
+        else {
+            //CELT: 2.5, 5, 10, 20ms
+            frameSamples = 120 << (config & 0x3);
+        }
+        final int frames;
+        switch (toc & 0x3) {
+            case 0:  frames = 1; break;
+            case 1:
+            case 2:  frames = 2; break;
+            default: frames = length < 2 ? 0 : (packet.get(offset + 1) & 0x3F); break;
+        }
+        return frames * frameSamples;
+    }
+
+    /**
+     * OpusHead identification header (RFC 7845 5.1, channel mapping family 0)
+     */
+    public static ByteBuffer buildOpusHead(int channelCount, int preSkip, int inputSampleRate) {
+        final ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(new byte[] { 'O', 'p', 'u', 's', 'H', 'e', 'a', 'd' });
+        head.put((byte)1);                  //version
+        head.put((byte)channelCount);
+        head.putShort((short)preSkip);
+        head.putInt(inputSampleRate);
+        head.putShort((short)0);            //output gain
+        head.put((byte)0);                  //mapping family
+        head.flip();
+        return head;
+    }
+
+    /**
+     * OpusTags comment header (RFC 7845 5.2, user comment 없음)
+     */
+    public static ByteBuffer buildOpusTags(String vendor) {
+        final byte[] vendorBytes = vendor.getBytes();
+        final ByteBuffer tags = ByteBuffer.allocate(8 + 4 + vendorBytes.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tags.put(new byte[] { 'O', 'p', 'u', 's', 'T', 'a', 'g', 's' });
+        tags.putInt(vendorBytes.length);
+        tags.put(vendorBytes);
+        tags.putInt(0);
+        tags.flip();
+        return tags;
+    }
+
+    //writer 상태 보호 (encoder drain thread <--> stop)
+    private final Object mLock = new Object();
+
+    private FileOutputStream mOStream;
+    private FileChannel      mChannel;
+    private SimpleOggWriter  mOgg;
+    private SimpleEncoder    mAudioEncoder;
+    private SimpleCodec      mCodec = null; //null이면 platform encoder
+    private int              mBitrate;
+
+    private boolean mHeaderWritten = false;
+    private long    mGranulePos    = 0;
+    private long    mPacketCount   = 0;
+
+    public SimpleOpusMuxer(Context context, String path) throws IOException {
+        this(context, path, BIT_RATE);
+    }
+
+    public SimpleOpusMuxer(Context context, String path, int bitrate) throws IOException {
+        super(context, path, SimpleOpusMuxer.class.getSimpleName());
+        mBitrate = bitrate;
+    }
+
+    /**
+     * platform encoder/fallback 대신 사용할 codec을 지정한다. (JVM 테스트용, addAudioTrack() 이전에 호출)
+     */
+    public void setCodec(SimpleCodec codec) {
+        mCodec = codec;
+    }
+
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    public SimpleOggWriter getOggWriter() {
+        return mOgg;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack(enter) - audioConfig: " + audioConfig);
+
+        if (mStatus != ST_INIT) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        if (!isSupportedSampleRate(audioConfig.sampleRateInHz)) {
+            throw new IllegalArgumentException("Unsupported sampleRateInHz: " + audioConfig.sampleRateInHz);
+        }
+        updateStatus(ST_PREPARED);
+
+        //파라미터를 설정한다.
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+
+        //Encoder를 생성한다.
+        final MediaFormat audioFormat = MediaFormat.createAudioFormat(
+                MIME_TYPE,
+                audioConfig.sampleRateInHz,
+                audioConfig.channelCount);
+        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE     , mBitrate);
+        audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, audioConfig.channelCount);
+        SimpleCodec codec = mCodec;
+        if (codec == null) {
+            if (hasPlatformEncoder()) {
+                codec = new SimpleMediaCodec(MIME_TYPE);
+            }
+            else if (sFallbackCodecFactory != null) {
+                Log.i(TAG, "addAudioTrack() - no platform encoder. use fallback codec.");
+                codec = sFallbackCodecFactory.create(SimpleMediaCodec.toFormat(audioFormat));
+            }
+            else {
+                throw new IllegalStateException("No Opus encoder!");
+            }
+        }
+        mAudioEncoder = new SimpleEncoder(mContext, SimpleEncoder.ENCODER_TYPE_AUDIO, MIME_TYPE, audioFormat, SimpleEncoder.ENCODER_MODE_SYNC, codec);
+
+        Log.d(TAG, "addAudioTrack(leave)");
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
+
+    private void release() {
+        Log.d(TAG, "release() - packetCount: " + mPacketCount + ", " + mOgg);
+
+        //마지막 page를 EOS로 내려쓰고, 파일을 닫는다.
+        try {
+            if (mOgg != null && mHeaderWritten) {
+                mOgg.finish();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            if (mOStream != null) {
+                mOStream.close();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        mOStream = null;
+        mChannel = null;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start(enter)");
+        updateStatus(ST_STARTED);
+        if (mAudioEncoder == null) {
+            throw new Exception("encoder not prepared!");
+        }
+        mOStream = new FileOutputStream(path);
+        mChannel = mOStream.getChannel();
+        mOgg     = new SimpleOggWriter(mChannel, new Random().nextInt(), MAX_PAGE_BYTES, MAX_PAGE_GRANULES);
+
+        //Encoder를 시작한다.
+        mAudioEncoder.startEncoder(mEncoderStartListener);
+
+        Log.d(TAG, "start(leave)");
+    }
+
+    /**
+     * encoder에 EOS를 보내고 바로 반환한다. EOS까지 write된 후 파일을 닫고 stopListener를 호출한다.
+     */
+    @Override
+    public void stop(final StopListener stopListener) {
+        Log.d(TAG, "stop(enter)");
+        updateStatus(ST_STOPPING);
+
+        SimpleEncoder encoder = mAudioEncoder;
+        mAudioEncoder = null;
+        if (encoder == null) {
+            onEncoderStopped(stopListener);
+            return;
+        }
+        encoder.stopEncoder(null).addListener(new SimpleFuture.Listener<SimpleEncoder>() {
+            @Override
+            public void onDone(SimpleFuture<SimpleEncoder> future) {
+                if (future.getError() != null) {
+                    Log.e(TAG, "stop() - encoder failed! " + future.getError());
+                }
+                onEncoderStopped(stopListener);
+            }
+        });
+
+        Log.d(TAG, "stop(leave)");
+    }
+
+    private void onEncoderStopped(StopListener stopListener) {
+        //release all the resource
+        synchronized (mLock) {
+            release();
+        }
+        updateStatus(ST_STOPPED);
+
+        //call the stop callback
+        if (stopListener != null) {
+            try {
+                stopListener.onStop();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder != null) {
+            encoder.encode(buffer, length, pTimeUS, "writeSample");
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public int writeSample(int encoderType, SampleReader reader, int maxLength, long pTimeUS) throws Exception {
+        SimpleEncoder encoder = mAudioEncoder;
+        if (encoder == null) {
+            return 0;
+        }
+
+        //encoder input buffer로 직접 읽는다.
+        return encoder.encode(reader, maxLength, pTimeUS, "writeSample");
+    }
+
+    /**
+     * csd-1(codec delay, ns)에서 48kHz 기준 pre-skip을 구한다.
+     */
+    private static int getPreSkip(MediaFormat outputFormat) {
+        final ByteBuffer csd = outputFormat != null ? outputFormat.getByteBuffer("csd-1") : null;
+        if (csd == null || csd.remaining() < 8) {
+            return DEFAULT_PRE_SKIP;
+        }
+        final long delayNs = csd.duplicate().order(ByteOrder.LITTLE_ENDIAN).getLong();
+        return (int)(delayNs * GRANULE_RATE / 1000000000L);
+    }
+
+    /**
+     * StartLister를 정의한다.
+     */
+    private SimpleEncoder.StartListener mEncoderStartListener = new SimpleEncoder.StartListener() {
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            Log.i(TAG, "onStart() - encoder: " + encoder.getMimeType() + ", outputFormat: " + outputFormat);
+
+            //OpusHead, OpusTags는 각각 별도 page에 write한다. (RFC 7845 3)
+            final int preSkip = getPreSkip(outputFormat);
+            synchronized (mLock) {
+                if (mHeaderWritten || mOgg == null) {
+                    return;
+                }
+                try {
+                    mOgg.writePacket(buildOpusHead(audioConfig.channelCount, preSkip, audioConfig.sampleRateInHz), 0, true);
+                    mOgg.writePacket(buildOpusTags(VENDOR), 0, true);
+                    mHeaderWritten = true;
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            Log.i(TAG, "onStart() - preSkip: " + preSkip + ", " + mOgg);
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            synchronized (mLock) {
+                if (!mHeaderWritten || mOStream == null) {
+                    Log.e(TAG, "mAudioEncoder.onEncoded() - Not Started!");
+                    return;
+                }
+
+                ///////////////////////////////////////////////////
+                // Ogg packet
+                //////////////////////////////////////////////////
+                try {
+                    mGranulePos += getPacketSamples(buffer, info.offset, info.size);
+                    buffer.position(info.offset).limit(info.offset + info.size);
+                    mOgg.writePacket(buffer, mGranulePos, false);
+                    mPacketCount++;
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+}
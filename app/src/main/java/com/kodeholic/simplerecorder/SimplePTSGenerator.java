@@ -0,0 +1,166 @@
+package com.kodeholic.simplerecorder;
+
+/**
+ * 누적 sample 수로 PCM chunk의 presentation time을 산출한다.
+ *  - 기준 시각(anchor)은 녹음 시작 시 한번만 설정한다. (AudioTimestamp 또는 System.nanoTime())
+ *  - 이후 pTimeUs = anchor + (누적 frame 수 * 1000000 / sampleRateInHz) 로, wall-clock jitter가 없다.
+ *  - MODE_DRIFT_CORRECTION 에서는 관측된 wall-clock과의 차이(clock skew)를 측정하고,
+ *    chunk마다 최대 MAX_SLEW_PPM 만큼만 보정하여 단조 증가를 유지한다.
+ */
+public class SimplePTSGenerator {
+    public static final int MODE_FIXED            = 0;
+    public static final int MODE_DRIFT_CORRECTION = 1;
+
+    //chunk 길이 대비 최대 보정량
+    public static final long MAX_SLEW_PPM = 1000;
+    //skew를 산출하기 위한 최소 경과 시간
+    public static final long MIN_SKEW_ELAPSED_US = 1000 * 1000L; //1[sec]
+
+    private final int mSampleRateInHz;
+    private final int mBytesPerFrame;
+    private final int mMode;
+
+    private boolean mAnchored = false;
+    private long    mAnchorUs;       //anchor frame의 presentation time
+    private long    mAnchorFrame;    //anchor 시점의 frame 위치
+    private long    mTotalBytes = 0;
+
+    //drift 보정
+    private boolean mHasBaseOffset = false;
+    private long    mBaseOffsetUs;   //최초 관측된 capture 지연
+    private long    mDriftUs = 0;    //평활화된 누적 drift
+    private long    mCorrectionUs = 0;
+
+    public SimplePTSGenerator(int sampleRateInHz, int bytesPerFrame, int mode) {
+        if (sampleRateInHz <= 0 || bytesPerFrame <= 0) {
+            throw new IllegalArgumentException("Invalid sampleRateInHz: " + sampleRateInHz + ", bytesPerFrame: " + bytesPerFrame);
+        }
+        mSampleRateInHz = sampleRateInHz;
+        mBytesPerFrame  = bytesPerFrame;
+        mMode           = mode;
+    }
+
+    /**
+     * 기준 시각을 설정한다. (최초 한번만 적용된다)
+     * @param framePosition nanoTime 시점에 capture된 frame 위치 (AudioTimestamp.framePosition, 없으면 0)
+     * @param nanoTime      System.nanoTime() 기준 시각 (AudioTimestamp.nanoTime)
+     */
+    public void anchor(long framePosition, long nanoTime) {
+        if (mAnchored) {
+            return;
+        }
+        mAnchored    = true;
+        mAnchorFrame = framePosition;
+        mAnchorUs    = nanoTime / 1000L;
+    }
+
+    public boolean isAnchored() {
+        return mAnchored;
+    }
+
+    /**
+     * 다음 chunk의 시작 presentation time
+     * @return
+     */
+    public long getPTimeUs() {
+        if (!mAnchored) {
+            anchor(0, System.nanoTime());
+        }
+        return framesToPTimeUs(getFrameCount()) + mCorrectionUs;
+    }
+
+    /**
+     * 누적 sample 수를 갱신한다.
+     * @param byteLength chunk 길이
+     */
+    public void advance(int byteLength) {
+        mTotalBytes += Math.max(byteLength, 0);
+    }
+
+    /**
+     * 누적 sample 수를 갱신하고, drift를 측정한다.
+     * @param byteLength   chunk 길이
+     * @param observedNano chunk를 모두 읽은 시점의 System.nanoTime()
+     */
+    public void advance(int byteLength, long observedNano) {
+        advance(byteLength);
+        observe(observedNano, byteLength);
+    }
+
+    /**
+     * chunk의 시작 presentation time을 반환하고, 누적 sample 수를 갱신한다.
+     */
+    public long next(int byteLength) {
+        final long pTimeUs = getPTimeUs();
+        advance(byteLength);
+        return pTimeUs;
+    }
+
+    /**
+     * chunk의 시작 presentation time을 반환하고, 누적 sample 수 갱신 및 drift를 측정한다.
+     */
+    public long next(int byteLength, long observedNano) {
+        final long pTimeUs = getPTimeUs();
+        advance(byteLength, observedNano);
+        return pTimeUs;
+    }
+
+    private void observe(long observedNano, int byteLength) {
+        final long expectedUs = framesToPTimeUs(getFrameCount());
+        final long offsetUs   = observedNano / 1000L - expectedUs;
+        if (!mHasBaseOffset) {
+            mHasBaseOffset = true;
+            mBaseOffsetUs  = offsetUs;
+            return;
+        }
+
+        //평활화 (1/16)
+        mDriftUs += ((offsetUs - mBaseOffsetUs) - mDriftUs) / 16;
+        if (mMode != MODE_DRIFT_CORRECTION) {
+            return;
+        }
+
+        //chunk 길이의 MAX_SLEW_PPM 이내에서만 보정한다.
+        final long chunkUs = framesToUs(byteLength / mBytesPerFrame);
+        final long maxStep = Math.max(chunkUs * MAX_SLEW_PPM / 1000000L, 1);
+        final long delta   = mDriftUs - mCorrectionUs;
+        mCorrectionUs += Math.max(-maxStep, Math.min(maxStep, delta));
+    }
+
+    /**
+     * 측정된 clock skew (wall-clock이 sample clock보다 빠르면 양수)
+     * @return ppm
+     */
+    public double getClockSkewPpm() {
+        final long elapsedUs = framesToUs(getFrameCount());
+        if (!mHasBaseOffset || elapsedUs < MIN_SKEW_ELAPSED_US) {
+            return 0;
+        }
+        return mDriftUs * 1000000.0 / elapsedUs;
+    }
+
+    public long getDriftUs()      { return mDriftUs; }
+    public long getCorrectionUs() { return mCorrectionUs; }
+    public long getFrameCount()   { return mTotalBytes / mBytesPerFrame; }
+
+    public long framesToUs(long frames) {
+        return frames * 1000000L / mSampleRateInHz;
+    }
+
+    private long framesToPTimeUs(long frame) {
+        return mAnchorUs + framesToUs(frame) - framesToUs(mAnchorFrame);
+    }
+
+    @Override
+    public String toString() {
+        return "SimplePTSGenerator{" +
+                "sampleRateInHz=" + mSampleRateInHz +
+                ", bytesPerFrame=" + mBytesPerFrame +
+                ", mode=" + mMode +
+                ", frameCount=" + getFrameCount() +
+                ", driftUs=" + mDriftUs +
+                ", correctionUs=" + mCorrectionUs +
+                ", skewPpm=" + getClockSkewPpm() +
+                '}';
+    }
+}
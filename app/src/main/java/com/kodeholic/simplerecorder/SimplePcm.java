@@ -0,0 +1,303 @@
+package com.kodeholic.simplerecorder;
+
+/**
+ * PCM 변환 함수와 기본 processor 모음. (Android 의존성 없음)
+ *  - sample은 interleaved float[] (-1.0 ~ 1.0)로 처리한다.
+ *  - 반복문은 분기 없이 배열을 순차 접근하도록 작성하여, JIT/ART가 vectorize 할 수 있게 한다.
+ *    (HighPass는 재귀 필터이므로 예외)
+ */
+public final class SimplePcm {
+    private SimplePcm() { }
+
+    private static final float SCALE_TO_FLOAT = 1.0f / 32768.0f;
+
+    /**
+     * PCM 처리 단계. process()는 samples를 직접 변경한다.
+     */
+    public interface Processor {
+        /**
+         * 입력 형식을 설정한다. (chain 구성이 바뀔 때마다 호출된다)
+         * @return 출력 channel 수
+         */
+        public int configure(int sampleRateInHz, int channelCount);
+
+        /**
+         * @param samples interleaved samples
+         * @param length  입력 sample 수 (모든 channel 포함)
+         * @return 출력 sample 수
+         */
+        public int process(float[] samples, int length);
+
+        /**
+         * 출력 sample 수 / 입력 sample 수의 최대값 (work buffer 크기 산출용)
+         */
+        public int getExpansion();
+    }
+
+    /**
+     * sample rate를 변경하는 processor (SimplePcmChain이 이후 processor에 변경된 rate를 전달한다)
+     */
+    public interface RateConverter {
+        public int getOutputSampleRate();
+    }
+
+    //////////////////////////////////////////////////////////
+    // 변환
+    //////////////////////////////////////////////////////////
+
+    /**
+     * 16bit little-endian PCM --> float
+     * @param n sample 수
+     */
+    public static void bytesToFloat(byte[] src, float[] dst, int n) {
+        for (int i = 0; i < n; i++) {
+            final int lo = src[2 * i] & 0xFF;
+            final int hi = src[2 * i + 1];
+            dst[i] = (short)((hi << 8) | lo) * SCALE_TO_FLOAT;
+        }
+    }
+
+    /**
+     * float --> 16bit little-endian PCM (범위를 벗어나면 clip)
+     * @param n sample 수
+     */
+    public static void floatToBytes(float[] src, byte[] dst, int n) {
+        for (int i = 0; i < n; i++) {
+            int s = Math.round(src[i] * 32768.0f);
+            s = Math.min(Math.max(s, Short.MIN_VALUE), Short.MAX_VALUE);
+            dst[2 * i]     = (byte)s;
+            dst[2 * i + 1] = (byte)(s >> 8);
+        }
+    }
+
+    public static void shortToFloat(short[] src, float[] dst, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] = src[i] * SCALE_TO_FLOAT;
+        }
+    }
+
+    public static void floatToShort(float[] src, short[] dst, int n) {
+        for (int i = 0; i < n; i++) {
+            int s = Math.round(src[i] * 32768.0f);
+            dst[i] = (short)Math.min(Math.max(s, Short.MIN_VALUE), Short.MAX_VALUE);
+        }
+    }
+
+    //////////////////////////////////////////////////////////
+    // processor
+    //////////////////////////////////////////////////////////
+
+    /**
+     * 고정 gain (dB)
+     */
+    public static class Gain implements Processor {
+        private volatile float mGain;
+
+        public Gain(float gainDb) {
+            setGainDb(gainDb);
+        }
+
+        public void setGainDb(float gainDb) {
+            mGain = (float)Math.pow(10.0, gainDb / 20.0);
+        }
+
+        @Override
+        public int configure(int sampleRateInHz, int channelCount) {
+            return channelCount;
+        }
+
+        @Override
+        public int process(float[] samples, int length) {
+            final float gain = mGain;
+            for (int i = 0; i < length; i++) {
+                samples[i] *= gain;
+            }
+            return length;
+        }
+
+        @Override
+        public int getExpansion() { return 1; }
+    }
+
+    /**
+     * DC offset 제거. chunk 평균을 channel별로 평활화하여 뺀다.
+     */
+    public static class DCRemover implements Processor {
+        //chunk 마다 평균을 반영하는 비율
+        public static final float DEFAULT_ALPHA = 0.05f;
+
+        private final float mAlpha;
+        private int     mChannelCount = 1;
+        private float[] mOffset = new float[1];
+        private boolean mPrimed = false;
+
+        public DCRemover() {
+            this(DEFAULT_ALPHA);
+        }
+
+        public DCRemover(float alpha) {
+            mAlpha = alpha;
+        }
+
+        @Override
+        public int configure(int sampleRateInHz, int channelCount) {
+            mChannelCount = channelCount;
+            mOffset = new float[channelCount];
+            mPrimed = false;
+            return channelCount;
+        }
+
+        @Override
+        public int process(float[] samples, int length) {
+            final int channels = mChannelCount;
+            final int frames   = length / channels;
+            if (frames == 0) {
+                return length;
+            }
+            for (int c = 0; c < channels; c++) {
+                float sum = 0;
+                for (int i = c; i < length; i += channels) {
+                    sum += samples[i];
+                }
+                final float mean = sum / frames;
+                mOffset[c] = mPrimed ? mOffset[c] + mAlpha * (mean - mOffset[c]) : mean;
+            }
+            mPrimed = true;
+
+            if (channels == 1) {
+                final float offset = mOffset[0];
+                for (int i = 0; i < length; i++) {
+                    samples[i] -= offset;
+                }
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    samples[i] -= mOffset[i % channels];
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public int getExpansion() { return 1; }
+    }
+
+    /**
+     * 2차 Butterworth high-pass filter (biquad, transposed direct form II)
+     */
+    public static class HighPass implements Processor {
+        public static final float DEFAULT_CUTOFF_HZ = 80.0f;
+
+        private final float mCutoffHz;
+        private int   mChannelCount = 1;
+        private float b0, b1, b2, a1, a2;
+        private float[] z1 = new float[1];
+        private float[] z2 = new float[1];
+
+        public HighPass() {
+            this(DEFAULT_CUTOFF_HZ);
+        }
+
+        public HighPass(float cutoffHz) {
+            mCutoffHz = cutoffHz;
+        }
+
+        @Override
+        public int configure(int sampleRateInHz, int channelCount) {
+            mChannelCount = channelCount;
+            z1 = new float[channelCount];
+            z2 = new float[channelCount];
+
+            final double w0    = 2.0 * Math.PI * mCutoffHz / sampleRateInHz;
+            final double cos   = Math.cos(w0);
+            final double alpha = Math.sin(w0) / (2.0 * Math.sqrt(0.5)); //Q = 1/sqrt(2)
+            final double a0    = 1.0 + alpha;
+            b0 = (float)(((1.0 + cos) / 2.0) / a0);
+            b1 = (float)(-(1.0 + cos) / a0);
+            b2 = b0;
+            a1 = (float)((-2.0 * cos) / a0);
+            a2 = (float)((1.0 - alpha) / a0);
+            return channelCount;
+        }
+
+        @Override
+        public int process(float[] samples, int length) {
+            final int channels = mChannelCount;
+            for (int c = 0; c < channels; c++) {
+                float s1 = z1[c];
+                float s2 = z2[c];
+                for (int i = c; i < length; i += channels) {
+                    final float x = samples[i];
+                    final float y = b0 * x + s1;
+                    s1 = b1 * x - a1 * y + s2;
+                    s2 = b2 * x - a2 * y;
+                    samples[i] = y;
+                }
+                z1[c] = s1;
+                z2[c] = s2;
+            }
+            return length;
+        }
+
+        @Override
+        public int getExpansion() { return 1; }
+    }
+
+    /**
+     * stereo --> mono (평균)
+     */
+    public static class Downmix implements Processor {
+        private int mChannelCount = 1;
+
+        @Override
+        public int configure(int sampleRateInHz, int channelCount) {
+            mChannelCount = channelCount;
+            return channelCount == 2 ? 1 : channelCount;
+        }
+
+        @Override
+        public int process(float[] samples, int length) {
+            if (mChannelCount != 2) {
+                return length;
+            }
+            final int frames = length / 2;
+            for (int i = 0; i < frames; i++) {
+                samples[i] = (samples[2 * i] + samples[2 * i + 1]) * 0.5f;
+            }
+            return frames;
+        }
+
+        @Override
+        public int getExpansion() { return 1; }
+    }
+
+    /**
+     * mono --> stereo (복제)
+     */
+    public static class Upmix implements Processor {
+        private int mChannelCount = 2;
+
+        @Override
+        public int configure(int sampleRateInHz, int channelCount) {
+            mChannelCount = channelCount;
+            return channelCount == 1 ? 2 : channelCount;
+        }
+
+        @Override
+        public int process(float[] samples, int length) {
+            if (mChannelCount != 1) {
+                return length;
+            }
+            //뒤에서부터 채워야 덮어쓰지 않는다.
+            for (int i = length - 1; i >= 0; i--) {
+                final float s = samples[i];
+                samples[2 * i]     = s;
+                samples[2 * i + 1] = s;
+            }
+            return length * 2;
+        }
+
+        @Override
+        public int getExpansion() { return 2; }
+    }
+}
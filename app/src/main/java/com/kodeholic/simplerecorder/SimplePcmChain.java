@@ -0,0 +1,160 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SimplePcm.Processor를 순서대로 적용한다. (Android 의존성 없음)
+ *  - 16bit PCM chunk를 float[]로 한번 변환하고, 모든 processor가 같은 배열을 in-place로 처리한 후 16bit로 되돌린다.
+ *  - processor는 동작 중에 추가/삭제/순서 변경이 가능하다. 변경은 chunk 사이에 반영되며,
+ *    변경 시에만 배열을 새로 만들므로 chunk 처리 중에는 할당이 없다.
+ */
+public class SimplePcmChain {
+    private final Object mLock = new Object();
+
+    private final int mSampleRateInHz;
+    private final int mChannelCount;
+    private final List<SimplePcm.Processor> mList = new ArrayList<SimplePcm.Processor>();
+
+    //process()에서 참조하는 snapshot
+    private SimplePcm.Processor[] mProcessors = new SimplePcm.Processor[0];
+    private int mOutputChannelCount;
+    private int mOutputSampleRateInHz;
+    private int mExpansion = 1;
+
+    //work buffer
+    private byte[]     mBytes  = new byte[0];
+    private float[]    mFloats = new float[0];
+    private ByteBuffer mOutput = ByteBuffer.allocateDirect(0);
+
+    public SimplePcmChain(int sampleRateInHz, int channelCount) {
+        mSampleRateInHz     = sampleRateInHz;
+        mChannelCount       = channelCount;
+        mOutputChannelCount = channelCount;
+        mOutputSampleRateInHz = sampleRateInHz;
+    }
+
+    public SimplePcmChain add(SimplePcm.Processor processor) {
+        synchronized (mLock) {
+            mList.add(processor);
+            rebuildLocked();
+        }
+        return this;
+    }
+
+    public SimplePcmChain add(int index, SimplePcm.Processor processor) {
+        synchronized (mLock) {
+            mList.add(index, processor);
+            rebuildLocked();
+        }
+        return this;
+    }
+
+    public boolean remove(SimplePcm.Processor processor) {
+        synchronized (mLock) {
+            final boolean removed = mList.remove(processor);
+            if (removed) {
+                rebuildLocked();
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * processor의 위치를 변경한다.
+     */
+    public boolean move(SimplePcm.Processor processor, int index) {
+        synchronized (mLock) {
+            if (!mList.remove(processor)) {
+                return false;
+            }
+            mList.add(Math.min(index, mList.size()), processor);
+            rebuildLocked();
+            return true;
+        }
+    }
+
+    public List<SimplePcm.Processor> getProcessors() {
+        synchronized (mLock) {
+            return new ArrayList<SimplePcm.Processor>(mList);
+        }
+    }
+
+    /**
+     * 순서대로 configure()하여 sample rate와 channel 수를 전파하고, snapshot을 교체한다.
+     */
+    private void rebuildLocked() {
+        int sampleRateInHz = mSampleRateInHz;
+        int channelCount   = mChannelCount;
+        int expansion      = 1;
+        for (SimplePcm.Processor processor : mList) {
+            channelCount = processor.configure(sampleRateInHz, channelCount);
+            expansion   *= Math.max(processor.getExpansion(), 1);
+            if (processor instanceof SimplePcm.RateConverter) {
+                sampleRateInHz = ((SimplePcm.RateConverter)processor).getOutputSampleRate();
+            }
+        }
+        mExpansion            = expansion;
+        mOutputChannelCount   = channelCount;
+        mOutputSampleRateInHz = sampleRateInHz;
+        mProcessors         = mList.toArray(new SimplePcm.Processor[mList.size()]);
+    }
+
+    public int getInputChannelCount()  { return mChannelCount; }
+    public int getInputSampleRate()    { return mSampleRateInHz; }
+
+    public int getOutputSampleRate() {
+        synchronized (mLock) {
+            return mOutputSampleRateInHz;
+        }
+    }
+
+    public int getOutputChannelCount() {
+        synchronized (mLock) {
+            return mOutputChannelCount;
+        }
+    }
+
+    /**
+     * 마지막으로 처리된 float sample (32bit float 출력이 필요한 경우)
+     */
+    public float[] getFloatSamples() { return mFloats; }
+
+    /**
+     * 16bit little-endian PCM chunk를 처리한다. (한 thread에서만 호출한다)
+     * @param pcm 입력 (position ~ limit를 모두 소비한다)
+     * @return 처리된 16bit PCM (내부 buffer이며, 다음 호출 전까지만 유효하다)
+     */
+    public ByteBuffer process(ByteBuffer pcm) {
+        final int inSamples = pcm.remaining() / 2;
+        int samples = inSamples;
+
+        //chain 변경과 겹치지 않도록 한다. (경합이 없으면 비용은 무시할 수준)
+        synchronized (mLock) {
+            ensureCapacity(inSamples, mExpansion);
+            pcm.get(mBytes, 0, inSamples * 2);
+            SimplePcm.bytesToFloat(mBytes, mFloats, inSamples);
+
+            final SimplePcm.Processor[] processors = mProcessors;
+            for (int i = 0; i < processors.length; i++) {
+                samples = processors[i].process(mFloats, samples);
+            }
+        }
+
+        SimplePcm.floatToBytes(mFloats, mBytes, samples);
+        mOutput.clear();
+        mOutput.put(mBytes, 0, samples * 2);
+        mOutput.flip();
+        return mOutput;
+    }
+
+    private void ensureCapacity(int inSamples, int expansion) {
+        final int samples = inSamples * expansion;
+        if (mFloats.length < samples) {
+            mFloats = new float[samples];
+            mBytes  = new byte[samples * 2];
+            mOutput = ByteBuffer.allocateDirect(samples * 2);
+        }
+    }
+}
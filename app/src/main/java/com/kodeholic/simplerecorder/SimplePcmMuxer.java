@@ -0,0 +1,106 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SimplePcmChain으로 PCM을 처리한 후, 대상 SimpleMuxer에 전달한다.
+ *  - chain의 출력 sample rate와 channel 수로 대상 muxer의 track을 구성한다. (SimpleResampler, Downmix/Upmix)
+ *  - pool buffer는 단독 소유(refCount == 1)이고 크기가 충분하면, 처리 결과를 같은 buffer에 다시 써서 소유권을 넘긴다.
+ */
+public class SimplePcmMuxer extends SimpleMuxer {
+    private final SimpleMuxer    mTarget;
+    private final SimplePcmChain mChain;
+
+    public SimplePcmMuxer(Context context, SimpleMuxer target, SimplePcmChain chain) throws IOException {
+        super(context, target.path, SimplePcmMuxer.class.getSimpleName());
+        mTarget = target;
+        mChain  = chain;
+    }
+
+    public SimpleMuxer getTarget() {
+        return mTarget;
+    }
+
+    public SimplePcmChain getChain() {
+        return mChain;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig + ", processors: " + mChain.getProcessors().size());
+        if (audioConfig.channelCount != mChain.getInputChannelCount() || audioConfig.sampleRateInHz != mChain.getInputSampleRate()) {
+            throw new IllegalArgumentException("Mismatched audioConfig: " + audioConfig + ", chain: " + mChain.getInputSampleRate() + "/" + mChain.getInputChannelCount());
+        }
+        final int channelCount = mChain.getOutputChannelCount();
+        mTarget.addAudioTrack(new AudioConfig(
+                mChain.getOutputSampleRate(),
+                channelCount == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO,
+                audioConfig.audioFormat,
+                channelCount
+        ));
+        updateStatus(ST_PREPARED);
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception {
+        mTarget.addVideoTrack(videoConfig);
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start()");
+        updateStatus(ST_STARTED);
+        mTarget.start();
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        mTarget.writeSample(encoderType, mChain.process(buffer), pTimeUS);
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void writeSample(int encoderType, SimpleBufferPool.Buffer buffer) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            buffer.release();
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.length();
+        final ByteBuffer output = mChain.process(buffer.view());
+        final ByteBuffer data   = buffer.data();
+        if (buffer.getRefCount() == 1 && output.remaining() <= data.capacity()) {
+            //같은 buffer에 다시 쓰고, 소유권을 그대로 넘긴다.
+            data.clear();
+            data.put(output);
+            data.flip();
+            mTarget.writeSample(encoderType, buffer);
+        }
+        else {
+            final long pTimeUS = buffer.getPTimeUs();
+            buffer.release();
+            mTarget.writeSample(encoderType, output, pTimeUS);
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void stop(StopListener stopListener) {
+        Log.d(TAG, "stop()");
+        updateStatus(ST_STOPPED);
+        mTarget.stop(stopListener);
+    }
+}
@@ -0,0 +1,360 @@
+package com.kodeholic.simplerecorder;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 하나의 capture source(SampleReader)에서 읽은 PCM chunk를 N개의 SimpleMuxer(sink)로 전달한다.
+ *  - chunk는 SimpleBufferPool buffer이며 복사하지 않고 reference count로 공유한다. (모든 sink가 release하면 pool로 반환)
+ *  - sink마다 전용 consumer thread와 queue가 있으며, queue가 가득 찬 경우의 정책(policy)을 지정한다.
+ *  - source는 SampleReader이므로 AudioRecord 대신 합성 PCM source로 JVM에서 구동할 수 있다.
+ *  - capture thread는 THREAD_PRIORITY_URGENT_AUDIO, sink thread는 THREAD_PRIORITY_AUDIO로 동작한다.
+ *
+ * sink muxer의 addAudioTrack()/start()는 호출자가, stop()은 engine이 수행한다.
+ * startCapture()로 capture를 먼저 시작하면, muxer가 준비되는 동안의 PCM은 sink queue에 쌓인다. (pre-roll)
+ */
+public class SimpleRecordEngine {
+    private static final String TAG = SimpleRecordEngine.class.getSimpleName();
+
+    //queue가 가득 찬 경우의 정책
+    public static final int POLICY_BLOCK       = 0; //capture thread가 기다린다. (stop() 이후 sink thread가 없으면 버린다)
+    public static final int POLICY_DROP_OLDEST = 1; //가장 오래된 chunk를 버린다.
+    public static final int POLICY_DROP_NEWEST = 2; //새 chunk를 버린다.
+
+    public static final String valueOfPolicy(int policy) {
+        switch (policy) {
+            case POLICY_BLOCK      : return "BLOCK";
+            case POLICY_DROP_OLDEST: return "DROP_OLDEST";
+            case POLICY_DROP_NEWEST: return "DROP_NEWEST";
+        }
+
+        return "UNK(" + policy + ")";
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+    public static final int DEFAULT_POOL_CAPACITY  = DEFAULT_QUEUE_CAPACITY * 4;
+
+    //pool이 비었을 때 반환을 기다리는 시간
+    private static final long ACQUIRE_TIMEOUT_MS = 20;
+    //POLICY_BLOCK에서 queue가 가득 찬 경우, stop 여부를 확인하는 주기
+    private static final long OFFER_TIMEOUT_MS   = 20;
+
+    /**
+     * 출력 대상
+     */
+    public class Sink implements Runnable {
+        private final SimpleMuxer mMuxer;
+        private final int         mPolicy;
+        private final ArrayBlockingQueue<SimpleBufferPool.Buffer> mQueue;
+        //sink 별 drop 수. metrics counter는 같은 이름을 공유하므로 getDroppedCount()에는 사용하지 않는다.
+        private final AtomicLong            mDropped = new AtomicLong();
+        private final SimpleMetrics.Counter mDroppedCounter;
+        private volatile Thread mThread = null;
+
+        Sink(SimpleMuxer muxer, int policy, int queueCapacity, int index) {
+            mMuxer   = muxer;
+            mPolicy  = policy;
+            mQueue   = new ArrayBlockingQueue<SimpleBufferPool.Buffer>(queueCapacity);
+            mDroppedCounter = SimpleMetrics.getInstance().counter("engine.sink" + index + "." + muxer.TAG + ".dropped");
+        }
+
+        public SimpleMuxer getMuxer()  { return mMuxer; }
+        public int  getPolicy()        { return mPolicy; }
+        public int  getQueueSize()     { return mQueue.size(); }
+        public long getDroppedCount()  { return mDropped.get(); }
+
+        /**
+         * chunk를 queue에 넣는다. (capture thread)
+         */
+        void offer(SimpleBufferPool.Buffer chunk) throws InterruptedException {
+            switch (mPolicy) {
+                case POLICY_BLOCK:
+                    while (!mQueue.offer(chunk, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        //stop() 이후에는 queue를 비워줄 sink thread가 없으면(pre-roll) 더 기다리지 않는다.
+                        if (!mRunning && mThread == null) {
+                            onDropped();
+                            chunk.release();
+                            return;
+                        }
+                    }
+                    return;
+
+                case POLICY_DROP_OLDEST:
+                    while (!mQueue.offer(chunk)) {
+                        SimpleBufferPool.Buffer oldest = mQueue.poll();
+                        if (oldest != null) {
+                            onDropped();
+                            oldest.release();
+                        }
+                    }
+                    return;
+
+                case POLICY_DROP_NEWEST:
+                default:
+                    if (!mQueue.offer(chunk)) {
+                        onDropped();
+                        chunk.release();
+                    }
+                    return;
+            }
+        }
+
+        private void onDropped() {
+            mDropped.incrementAndGet();
+            mDroppedCounter.increment();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+            Log.d(TAG, "sink(" + mMuxer.TAG + ") - STARTED, policy: " + valueOfPolicy(mPolicy));
+            while (true) {
+                SimpleBufferPool.Buffer chunk;
+                try {
+                    chunk = mQueue.take();
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+                if (chunk == mEndOfStream) {
+                    break;
+                }
+                //reference 1개의 소유권을 muxer로 넘긴다.
+                try {
+                    mMuxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, chunk);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            Log.d(TAG, "sink(" + mMuxer.TAG + ") - STOPPED, dropped: " + mDropped.get());
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final SimpleMuxer.SampleReader mSource;
+    private final SimplePTSGenerator       mPTSGenerator;
+    private final int                      mChunkSize;
+    private final List<Sink>               mSinks = new ArrayList<Sink>();
+
+    private final SimpleBufferPool         mPool;
+    //sink thread 종료 표시
+    private final SimpleBufferPool.Buffer  mEndOfStream = new SimpleBufferPool.Buffer(null, 0);
+
+    private volatile boolean mRunning = false;
+    private Thread mCaptureThread = null;
+
+    /**
+     * @param source       capture source (ex. AudioRecord.read(ByteBuffer, int))
+     * @param chunkSize    한번에 읽을 최대 바이트 수
+     * @param ptsGenerator chunk의 pTime 산출
+     */
+    public SimpleRecordEngine(SimpleMuxer.SampleReader source, int chunkSize, SimplePTSGenerator ptsGenerator) {
+        this(source, new SimpleBufferPool(chunkSize, DEFAULT_POOL_CAPACITY), ptsGenerator);
+    }
+
+    /**
+     * @param source       capture source
+     * @param pool         chunk pool (buffer 크기 = 한번에 읽을 최대 바이트 수)
+     * @param ptsGenerator chunk의 pTime 산출
+     */
+    public SimpleRecordEngine(SimpleMuxer.SampleReader source, SimpleBufferPool pool, SimplePTSGenerator ptsGenerator) {
+        mSource       = source;
+        mPool         = pool;
+        mChunkSize    = pool.getBufferSize();
+        mPTSGenerator = ptsGenerator;
+    }
+
+    public SimpleBufferPool getPool() {
+        return mPool;
+    }
+
+    public Sink addSink(SimpleMuxer muxer) {
+        return addSink(muxer, POLICY_BLOCK, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * start() 이전에 호출해야 한다.
+     */
+    public Sink addSink(SimpleMuxer muxer, int policy, int queueCapacity) {
+        synchronized (mLock) {
+            if (mRunning) {
+                throw new IllegalStateException("Already started!");
+            }
+            Sink sink = new Sink(muxer, policy, queueCapacity, mSinks.size());
+            mSinks.add(sink);
+            return sink;
+        }
+    }
+
+    public List<Sink> getSinks() {
+        return mSinks;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * sink thread와 capture를 시작한다. (startCapture() 이후라면 sink thread만 시작한다)
+     */
+    public void start() {
+        synchronized (mLock) {
+            Log.d(TAG, "start() - sinks: " + mSinks.size() + ", chunkSize: " + mChunkSize + ", capturing: " + mRunning);
+            for (Sink sink : mSinks) {
+                if (sink.mThread == null) {
+                    sink.mThread = new Thread(sink, TAG + "-" + sink.mMuxer.TAG);
+                    sink.mThread.start();
+                }
+            }
+            startCaptureLocked();
+        }
+    }
+
+    /**
+     * sink thread 없이 capture만 시작한다. (pre-roll)
+     *  - sink muxer가 준비되는 동안 chunk는 sink queue에 쌓이며, queue가 가득 차면 policy를 따른다.
+     *  - POLICY_BLOCK sink가 있으면 capture가 멈추므로, pre-roll에는 POLICY_DROP_OLDEST를 사용한다.
+     *  - pool capacity는 queue capacity보다 커야 한다. (capture 중인 chunk)
+     *  - muxer가 준비되면 start()를 호출한다. sink thread는 쌓인 chunk부터 write한다.
+     */
+    public void startCapture() {
+        synchronized (mLock) {
+            Log.d(TAG, "startCapture() - sinks: " + mSinks.size() + ", chunkSize: " + mChunkSize);
+            startCaptureLocked();
+        }
+    }
+
+    private void startCaptureLocked() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mCaptureThread = new Thread(mCaptureRunnable, TAG + "-capture");
+        mCaptureThread.start();
+    }
+
+    /**
+     * capture를 중지하고, 각 sink가 queue에 남은 chunk를 모두 write한 후 muxer를 종료한다.
+     * 모든 muxer가 실제로 종료(파일 완료)된 후 반환하며, 그 다음 stopListener를 호출한다.
+     * (thread join은 lock 밖에서 수행한다. capture thread가 POLICY_BLOCK sink에서 기다리는 중이어도 멈추지 않는다)
+     */
+    public void stop(SimpleMuxer.StopListener stopListener) {
+        Log.d(TAG, "stop()");
+        final Thread     captureThread;
+        final List<Sink> sinks;
+        synchronized (mLock) {
+            mRunning      = false;
+            captureThread = mCaptureThread;
+            mCaptureThread = null;
+            sinks = new ArrayList<Sink>(mSinks);
+        }
+        joinQuietly(captureThread);
+
+        for (Sink sink : sinks) {
+            //sink thread가 시작되지 않았으면(pre-roll 중 실패) 쌓인 chunk를 버린다.
+            if (sink.mThread == null) {
+                SimpleBufferPool.Buffer chunk;
+                while ((chunk = sink.mQueue.poll()) != null) {
+                    chunk.release();
+                }
+                continue;
+            }
+            try {
+                sink.mQueue.put(mEndOfStream);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        final List<SimpleFuture<SimpleMuxer>> stopped = new ArrayList<SimpleFuture<SimpleMuxer>>();
+        for (Sink sink : sinks) {
+            joinQuietly(sink.mThread);
+            sink.mThread = null;
+            stopped.add(sink.mMuxer.stopAsync());
+        }
+        for (SimpleFuture<SimpleMuxer> future : stopped) {
+            try {
+                future.get();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (stopListener != null) {
+            stopListener.onStop();
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final Runnable mCaptureRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //AudioRecord overrun을 막기 위해 가장 높은 audio 우선순위로 읽는다.
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            Log.d(TAG, "capture - STARTED");
+            long exhausted = mPool.getExhaustedCount();
+            while (mRunning) {
+                SimpleBufferPool.Buffer chunk;
+                try {
+                    chunk = mPool.acquire(ACQUIRE_TIMEOUT_MS);
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+                if (chunk == null) {
+                    //재시도마다 로그를 남기지 않는다. (exhausted는 다시 acquire될 때까지 한번으로 집계된다)
+                    if (mPool.getExhaustedCount() != exhausted) {
+                        exhausted = mPool.getExhaustedCount();
+                        Log.w(TAG, "capture - pool exhausted! " + mPool);
+                    }
+                    continue;
+                }
+                final int n = mSource.read(chunk.data(), mChunkSize);
+                if (n < 0) {
+                    Log.e(TAG, "capture - read() failed! n: " + n);
+                    chunk.release();
+                    break;
+                }
+                if (n == 0 || mSinks.isEmpty()) {
+                    chunk.release();
+                    continue;
+                }
+                chunk.data().position(0).limit(n);
+                chunk.setPTimeUs(mPTSGenerator.next(n, System.nanoTime()));
+
+                //sink 개수만큼 참조한다. (acquire 시 1개)
+                if (mSinks.size() > 1) {
+                    chunk.retain(mSinks.size() - 1);
+                }
+                for (Sink sink : mSinks) {
+                    try {
+                        sink.offer(chunk);
+                    }
+                    catch (InterruptedException e) {
+                        chunk.release();
+                    }
+                }
+            }
+            Log.d(TAG, "capture - STOPPED, " + mPTSGenerator + ", " + mPool);
+        }
+    };
+}
@@ -0,0 +1,172 @@
+package com.kodeholic.simplerecorder;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.lifecycle.LifecycleService;
+
+/**
+ * SimpleRecorder를 호스팅하는 foreground service.
+ *  - Activity가 background로 가거나 종료되어도 녹음을 계속한다.
+ *  - bindService()로 LocalBinder를 얻어 startRecord()/stopRecord()/isRecording()을 호출한다.
+ *  - 녹음 중에만 started + foreground 상태이며, 녹음이 끝나면 stopSelf() 한다.
+ *  - 종료 시 SimpleEncoderPool을 비운다. (prewarm은 녹음 설정을 아는 쪽에서 SimpleRecorder.prewarm()으로 한다)
+ *  - video 녹화 시 camera는 Activity가 아닌 service의 lifecycle에 bind한다. (화면이 사라져도 녹화를 유지하고, Activity를 참조하지 않는다)
+ */
+public class SimpleRecordService extends LifecycleService {
+    private static final String TAG = SimpleRecordService.class.getSimpleName();
+
+    public static final String CHANNEL_ID      = "record";
+    public static final int    NOTIFICATION_ID = 1;
+
+    public class LocalBinder extends Binder {
+        public SimpleRecordService getService() {
+            return SimpleRecordService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private SimpleRecorder mRecorder;
+    private SimpleRecorder.Listener mListener = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(TAG, "onCreate()");
+        mRecorder = new SimpleRecorder(getApplicationContext());
+        mRecorder.setListener(mRecorderListener);
+        //Config.video가 지정된 경우에만 사용된다.
+        mRecorder.setVideoSource(new SimpleCameraSource(getApplicationContext(), this));
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        Log.d(TAG, "onBind()");
+        super.onBind(intent);
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Log.d(TAG, "onStartCommand() - recording: " + mRecorder.isRecording());
+        super.onStartCommand(intent, flags, startId);
+        //process가 종료된 후 다시 시작하지 않는다. (녹음 설정은 binder로만 전달된다)
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "onDestroy() - recording: " + mRecorder.isRecording());
+        mRecorder.stop(null);
+        SimpleEncoderPool.getInstance().clear();
+        super.onDestroy();
+    }
+
+    //////////////////////////////////////////////////////////
+    // binder API
+    //////////////////////////////////////////////////////////
+
+    /**
+     * 녹음 상태를 전달받는다. (recorder thread에서 호출된다)
+     */
+    public void setListener(SimpleRecorder.Listener listener) {
+        mListener = listener;
+    }
+
+    public void startRecord(SimpleRecorder.Config config) throws Exception {
+        Log.d(TAG, "startRecord() - " + config);
+
+        //unbind 되어도 service가 유지되도록 started 상태로 만든다.
+        startService(new Intent(this, SimpleRecordService.class));
+        startForeground(NOTIFICATION_ID, buildNotification(config.path));
+        try {
+            mRecorder.start(config);
+        }
+        catch (Exception e) {
+            stopForeground(true);
+            stopSelf();
+            throw e;
+        }
+    }
+
+    public void stopRecord() {
+        Log.d(TAG, "stopRecord()");
+        mRecorder.stop(null);
+    }
+
+    public boolean isRecording() {
+        return mRecorder.isRecording();
+    }
+
+    public String getRecordFile() {
+        return mRecorder.getPath();
+    }
+
+    public long getElapsedMs() {
+        return mRecorder.getElapsedMs();
+    }
+
+    public SimpleRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    //////////////////////////////////////////////////////////
+    // 내부
+    //////////////////////////////////////////////////////////
+
+    private final SimpleRecorder.Listener mRecorderListener = new SimpleRecorder.Listener() {
+        @Override
+        public void onStarted(String path) {
+            if (mListener != null) {
+                mListener.onStarted(path);
+            }
+        }
+
+        @Override
+        public void onStopped(String path) {
+            stopForeground(true);
+            stopSelf();
+            if (mListener != null) {
+                mListener.onStopped(path);
+            }
+        }
+
+        @Override
+        public void onError(String path, Exception e) {
+            if (mListener != null) {
+                mListener.onError(path, e);
+            }
+        }
+    };
+
+    private Notification buildNotification(String path) {
+        final Intent intent = new Intent(this, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        final PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent, 0);
+
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager nm = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
+            nm.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Recording", NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, CHANNEL_ID);
+        }
+        else {
+            builder = new Notification.Builder(this);
+        }
+        return builder
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText("Recording... " + path)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+}
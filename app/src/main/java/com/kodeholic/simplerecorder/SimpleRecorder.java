@@ -0,0 +1,586 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * capture --> PCM 처리 --> encode --> mux 파이프라인. (Activity 의존성 없음)
+ *  - SimpleRecordService가 호스팅하며, 화면과 무관하게 동작한다.
+ *  - capture는 SimpleRecordEngine의 capture thread(THREAD_PRIORITY_URGENT_AUDIO)에서 수행한다.
+ *  - setSource()로 AudioRecord 대신 합성 PCM source를, setMuxerFactory()로 가짜 muxer를 지정하면 JVM/Robolectric에서 구동할 수 있다.
+ *  - start()는 capture를 먼저 시작하고, encoder/muxer가 준비되는 동안의 PCM은 pre-roll(sink queue)로 보관한다.
+ *  - prewarm()으로 encoder를 미리 생성해 두면 start() 시 MediaCodec 생성/configure 비용이 없다.
+ *  - Config.video와 setVideoSource()를 지정하면 SimpleMP4Muxer로 audio + video를 녹화한다.
+ */
+public class SimpleRecorder {
+    private static final String TAG = SimpleRecorder.class.getSimpleName();
+
+    //audio codec
+    public static final int CODEC_AAC  = 0; //SimpleM4AMuxer (.m4a)
+    public static final int CODEC_OPUS = 1; //SimpleOpusMuxer (.opus, outputSampleRateInHz는 8/12/16/24/48kHz)
+    public static final int CODEC_FLAC = 2; //SimpleFLACMuxer (.flac, 무손실 보관용)
+
+    public static final String valueOfCodec(int codec) {
+        switch (codec) {
+            case CODEC_AAC : return "AAC";
+            case CODEC_OPUS: return "OPUS";
+            case CODEC_FLAC: return "FLAC";
+        }
+
+        return "UNK(" + codec + ")";
+    }
+
+    /**
+     * 녹음 설정
+     */
+    public static class Config {
+        public String  path;
+        public int     sampleRateInHz       = 44100;
+        public int     outputSampleRateInHz = 44100; //다르면 SimpleResampler로 변환한다.
+        public int     channelConfig        = AudioFormat.CHANNEL_IN_MONO;
+        public int     audioFormat          = AudioFormat.ENCODING_PCM_16BIT;
+        public boolean directInput          = false; //AudioRecord에서 encoder input buffer로 직접 읽는다.
+        public boolean pcmChain             = false; //high-pass, DC 제거, gain
+        public int     vadMode              = SimpleVADMuxer.MODE_OFF;
+        public int     poolCapacity         = 16;
+        public int     preRollMs            = 1000; //encoder/muxer 준비 중에 보관할 PCM 길이 (directInput은 제외)
+        public int     codec                = CODEC_AAC; //OPUS encoder가 없으면 AAC로 녹음한다.
+        public int     chunkSize            = 0; //한번에 읽을 바이트 수 (0이면 AudioRecord.getMinBufferSize())
+        public SimpleMuxer.VideoConfig video = null; //null이면 audio만 녹음한다.
+
+        public Config() { }
+        public Config(String path) {
+            this.path = path;
+        }
+
+        public int getChannelCount() {
+            return channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        }
+
+        public int getBytesPerFrame() {
+            return getChannelCount() * (audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 1 : 2);
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "path='" + path + '\'' +
+                    ", sampleRateInHz=" + sampleRateInHz +
+                    ", outputSampleRateInHz=" + outputSampleRateInHz +
+                    ", channelConfig=" + channelConfig +
+                    ", audioFormat=" + audioFormat +
+                    ", directInput=" + directInput +
+                    ", pcmChain=" + pcmChain +
+                    ", vadMode=" + SimpleVADMuxer.valueOfMode(vadMode) +
+                    ", poolCapacity=" + poolCapacity +
+                    ", preRollMs=" + preRollMs +
+                    ", codec=" + valueOfCodec(codec) +
+                    ", chunkSize=" + chunkSize +
+                    ", video=" + video +
+                    '}';
+        }
+    }
+
+    /**
+     * video frame을 encoder 입력 surface에 그리는 source. (ex. SimpleCameraSource)
+     */
+    public interface VideoSource {
+        public void start(Surface surface, SimpleMuxer.VideoConfig videoConfig) throws Exception;
+        public void stop();
+    }
+
+    /**
+     * codec에 따른 muxer(SimpleM4AMuxer 등) 대신 사용할 muxer를 만든다. (테스트용)
+     * 반환된 muxer는 SimpleAsyncMuxer, SimpleVADMuxer 등으로 감싸지며 bitrate policy는 적용하지 않는다.
+     */
+    public interface MuxerFactory {
+        public SimpleMuxer create(Context context, Config config) throws Exception;
+    }
+
+    public interface Listener {
+        public void onStarted(String path);
+        public void onStopped(String path);
+        public void onError(String path, Exception e);
+    }
+
+    private final Object  mLock = new Object();
+    private final Context mContext;
+
+    private Listener mListener = null;
+    private SimpleMuxer.SampleReader mSource = null;
+    private MuxerFactory mMuxerFactory = null;
+    private VideoSource mVideoSource = null;
+
+    //녹음 중인 경우만 유효
+    private Config             mConfig       = null;
+    private AudioRecord        mAudioRecord  = null;
+    private SimpleMuxer        mSMx          = null;
+    private SimpleMP4Muxer     mMP4Mx        = null;
+    private boolean            mVideoStarted = false;
+    private SimpleRecordEngine mEngine       = null;
+    private SimplePTSGenerator mPTSGenerator = null;
+    private Thread             mDirectThread = null;
+    private volatile boolean   mRunning      = false;
+    private long               mStartTimeMs  = 0;
+    private long               mStartNanos   = 0;
+    private int                mBufferSize   = 0;
+
+    //capture metrics
+    private final SimpleMetrics.Histogram mCaptureRead  = SimpleMetrics.getInstance().histogram("capture.read_us");
+    private final SimpleMetrics.Histogram mCaptureBytes = SimpleMetrics.getInstance().histogram("capture.chunk_bytes");
+    private final SimpleMetrics.Histogram mStopLatency  = SimpleMetrics.getInstance().histogram("recorder.stop_us");
+    //start() 요청부터 첫 PCM capture까지, muxer 준비 완료까지
+    private final SimpleMetrics.Histogram mFirstSample  = SimpleMetrics.getInstance().histogram("recorder.first_sample_us");
+    private final SimpleMetrics.Histogram mReadyLatency = SimpleMetrics.getInstance().histogram("recorder.ready_us");
+
+    public SimpleRecorder(Context context) {
+        mContext = context;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * AudioRecord 대신 사용할 capture source를 지정한다. (테스트용, start() 이전에 호출)
+     */
+    public void setSource(SimpleMuxer.SampleReader source) {
+        mSource = source;
+    }
+
+    /**
+     * codec에 따른 muxer 대신 사용할 muxer factory를 지정한다. (테스트용, start() 이전에 호출)
+     */
+    public void setMuxerFactory(MuxerFactory muxerFactory) {
+        mMuxerFactory = muxerFactory;
+    }
+
+    /**
+     * Config.video가 지정된 경우 사용할 video source를 지정한다. (start() 이전에 호출)
+     */
+    public void setVideoSource(VideoSource videoSource) {
+        mVideoSource = videoSource;
+    }
+
+    public boolean isRecording() {
+        return mRunning;
+    }
+
+    public String getPath() {
+        final Config config = mConfig;
+        return config != null ? config.path : null;
+    }
+
+    public long getElapsedMs() {
+        return mRunning ? System.currentTimeMillis() - mStartTimeMs : 0;
+    }
+
+    public SimpleMuxer getMuxer() {
+        return mSMx;
+    }
+
+    /**
+     * config로 녹음할 때 사용할 encoder를 미리 생성해 둔다. (앱 시작, idle 시점에 호출)
+     */
+    public static void prewarm(Context context, Config config) {
+        Log.d(TAG, "prewarm() - " + config);
+        if (isOpus(config) || isFLAC(config)) {
+            return;
+        }
+        SimpleM4AMuxer.prewarm(context, new SimpleMuxer.AudioConfig(
+                config.outputSampleRateInHz, config.channelConfig, config.audioFormat, config.getChannelCount()
+        ), SimpleEncoder.ENCODER_MODE_SYNC, SimpleM4AMuxer.BIT_RATE);
+    }
+
+    /**
+     * 녹음을 시작한다.
+     */
+    public void start(Config config) throws Exception {
+        synchronized (mLock) {
+            Log.d(TAG, "start() - " + config);
+            if (mRunning || mSMx != null) {
+                throw new IllegalStateException("Already recording or stopping! " + mConfig);
+            }
+            mConfig = config;
+            try {
+                startLocked(config);
+            }
+            catch (Exception e) {
+                Log.e(TAG, "start() - failed!", e);
+                releaseLocked();
+                throw e;
+            }
+        }
+        if (mListener != null) {
+            mListener.onStarted(config.path);
+        }
+    }
+
+    private void startLocked(Config config) throws Exception {
+        mStartNanos = System.nanoTime();
+
+        //5초마다 metrics를 출력한다.
+        SimpleMetrics.getInstance().reset();
+        SimpleMetrics.getInstance().startDump(5000, new SimpleMetrics.Printer() {
+            @Override
+            public void print(String line) {
+                Log.i(TAG, "metrics - " + line);
+            }
+        });
+
+        //Recorder
+        final int minBufferSize = AudioRecord.getMinBufferSize(config.sampleRateInHz, config.channelConfig, config.audioFormat);
+        mBufferSize = config.chunkSize > 0 ? config.chunkSize : minBufferSize;
+        if (mBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size: " + mBufferSize + ", minBufferSize: " + minBufferSize);
+        }
+        if (mSource == null) {
+            mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
+                    config.sampleRateInHz,
+                    config.channelConfig,
+                    config.audioFormat,
+                    Math.max(minBufferSize, mBufferSize));
+            mAudioRecord.startRecording();
+        }
+        mPTSGenerator = new SimplePTSGenerator(config.sampleRateInHz, config.getBytesPerFrame(), SimplePTSGenerator.MODE_DRIFT_CORRECTION);
+
+        //Muxer (video는 bitrate policy를 적용하지 않는다)
+        final SimpleBitratePolicy policy;
+        final SimpleMuxer baseMuxer;
+        if (mMuxerFactory != null) {
+            policy    = null;
+            baseMuxer = mMuxerFactory.create(mContext, config);
+        }
+        else if (config.video != null && mVideoSource != null) {
+            policy    = null;
+            mMP4Mx    = new SimpleMP4Muxer(mContext, config.path);
+            baseMuxer = mMP4Mx;
+        }
+        else if (isOpus(config)) {
+            policy    = null;
+            baseMuxer = new SimpleOpusMuxer(mContext, config.path);
+        }
+        else if (isFLAC(config)) {
+            policy    = null;
+            baseMuxer = new SimpleFLACMuxer(mContext, config.path);
+        }
+        else {
+            policy = new SimpleBitratePolicy(SimpleM4AMuxer.BIT_RATE);
+            final SimpleM4AMuxer m4aMuxer = new SimpleM4AMuxer(mContext, config.path);
+            m4aMuxer.setBitratePolicy(policy);
+            baseMuxer = m4aMuxer;
+        }
+        if (config.directInput) {
+            mSMx = baseMuxer;
+        }
+        else {
+            //FLAC은 자체 encode thread가 있으므로 SimpleAsyncMuxer를 거치지 않는다.
+            SimpleMuxer queuedMuxer = baseMuxer;
+            if (!isFLAC(config)) {
+                SimpleAsyncMuxer asyncMuxer = new SimpleAsyncMuxer(mContext, baseMuxer, mBufferSize);
+                if (policy != null) {
+                    asyncMuxer.setBitratePolicy(policy);
+                }
+                queuedMuxer = asyncMuxer;
+            }
+            mSMx = new SimpleVADMuxer(mContext, queuedMuxer, config.vadMode);
+            final SimplePcmChain chain = new SimplePcmChain(config.sampleRateInHz, config.getChannelCount());
+            if (config.pcmChain) {
+                chain.add(new SimplePcm.HighPass())
+                     .add(new SimplePcm.DCRemover())
+                     .add(new SimplePcm.Gain(0));
+            }
+            if (config.outputSampleRateInHz != config.sampleRateInHz) {
+                chain.add(new SimpleResampler(config.outputSampleRateInHz));
+            }
+            if (!chain.getProcessors().isEmpty()) {
+                mSMx = new SimplePcmMuxer(mContext, mSMx, chain);
+            }
+        }
+
+        //encoder/muxer가 준비되는 동안 capture한 PCM을 sink queue에 보관한다. (pre-roll)
+        if (!config.directInput) {
+            final int queueCapacity = Math.max(config.poolCapacity, getPreRollChunks(config));
+            mEngine = new SimpleRecordEngine(mSampleReader, new SimpleBufferPool(mBufferSize, queueCapacity + 2), mPTSGenerator);
+            mEngine.addSink(mSMx, SimpleRecordEngine.POLICY_DROP_OLDEST, queueCapacity);
+            mEngine.startCapture();
+        }
+
+        mSMx.addAudioTrack(new SimpleMuxer.AudioConfig(
+                config.sampleRateInHz, config.channelConfig, config.audioFormat, config.getChannelCount()
+        ));
+        if (mMP4Mx != null) {
+            mSMx.addVideoTrack(config.video);
+        }
+        mSMx.start();
+        if (mMP4Mx != null) {
+            //encoder 입력 surface에 camera 등이 직접 그린다. (frame의 CPU 복사 없음)
+            mVideoSource.start(mMP4Mx.getInputSurface(), config.video);
+            mVideoStarted = true;
+        }
+        mReadyLatency.recordSinceNanos(mStartNanos);
+        Log.i(TAG, "start() - ready in " + (System.nanoTime() - mStartNanos) / 1000000L + "ms");
+
+        mRunning     = true;
+        mStartTimeMs = System.currentTimeMillis();
+        if (config.directInput) {
+            mDirectThread = new Thread(mDirectRunnable, TAG + "-capture");
+            mDirectThread.start();
+        }
+        else {
+            mEngine.start();
+        }
+    }
+
+    private void stopVideoSource() {
+        if (mVideoStarted) {
+            mVideoStarted = false;
+            try {
+                mVideoSource.stop();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Opus로 녹음할 수 있는가? (encoder가 없으면 AAC로 녹음한다)
+     */
+    private static boolean isOpus(Config config) {
+        if (config.codec != CODEC_OPUS || config.video != null) {
+            return false;
+        }
+        if (!SimpleOpusMuxer.isAvailable()) {
+            Log.w(TAG, "isOpus() - No Opus encoder! fallback to AAC.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * FLAC으로 녹음하는가? (video와 함께 녹화할 때는 AAC를 사용한다)
+     */
+    private static boolean isFLAC(Config config) {
+        return config.codec == CODEC_FLAC && config.video == null;
+    }
+
+    /**
+     * preRollMs를 담을 수 있는 chunk 개수
+     */
+    private int getPreRollChunks(Config config) {
+        final long bytes = (long)config.preRollMs * config.sampleRateInHz * config.getBytesPerFrame() / 1000L;
+        return (int)((bytes + mBufferSize - 1) / mBufferSize);
+    }
+
+    /**
+     * 녹음을 중지한다. (호출 thread를 막지 않으며, 종료되면 stopListener를 호출한다)
+     */
+    public void stop(final SimpleMuxer.StopListener stopListener) {
+        synchronized (mLock) {
+            Log.d(TAG, "stop() - running: " + mRunning);
+            if (!mRunning) {
+                if (stopListener != null) {
+                    stopListener.onStop();
+                }
+                return;
+            }
+            mRunning = false;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final String path;
+                final long startNanos = System.nanoTime();
+                synchronized (mLock) {
+                    path = getPath();
+                    stopLocked();
+                }
+                //stop 요청부터 파일 완료까지
+                mStopLatency.recordSinceNanos(startNanos);
+                Log.i(TAG, "stop() - file ready in " + (System.nanoTime() - startNanos) / 1000000L + "ms, " + path);
+                if (stopListener != null) {
+                    stopListener.onStop();
+                }
+                if (mListener != null) {
+                    mListener.onStopped(path);
+                }
+            }
+        }, TAG + "-stop").start();
+    }
+
+    private void stopLocked() {
+        //video 입력을 먼저 멈춘다. (encoder는 signalEndOfInputStream()으로 종료한다)
+        stopVideoSource();
+
+        //capture 중지 (engine은 queue에 남은 chunk를 모두 write한 후 muxer를 종료한다)
+        if (mEngine != null) {
+            mEngine.stop(null);
+            Log.d(TAG, "stop() - " + mPTSGenerator + ", " + mEngine.getPool());
+
+            //muxer 종료 후에도 반환되지 않은 buffer
+            for (SimpleBufferPool.Buffer leak : mEngine.getPool().findLeaks(0)) {
+                Log.w(TAG, "stop() - leaked: " + leak, SimpleBufferPool.getLeakTrace(leak));
+            }
+        }
+        if (mDirectThread != null) {
+            try {
+                mDirectThread.join();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        releaseLocked();
+    }
+
+    private void releaseLocked() {
+        mRunning = false;
+        stopVideoSource();
+
+        //start() 실패 시 pre-roll capture 중지
+        if (mEngine != null && mEngine.isRunning()) {
+            mEngine.stop(null);
+        }
+
+        //마이크 중지
+        if (mAudioRecord != null) {
+            mAudioRecord.stop();
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+
+        //Muxer 중지 (engine이 이미 종료한 경우는 무시된다)
+        if (mSMx != null && !mSMx.isStopped()) {
+            try {
+                mSMx.stopAsync().get();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        SimpleMetrics.getInstance().stopDump();
+
+        mSMx          = null;
+        mMP4Mx        = null;
+        mEngine       = null;
+        mDirectThread = null;
+    }
+
+    /**
+     * 첫 chunk를 읽은 후, pTime 기준 시각을 설정한다.
+     * @param n 첫 chunk 길이
+     */
+    private void anchorPTSGenerator(int n) {
+        if (mAudioRecord != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            AudioTimestamp ts = new AudioTimestamp();
+            if (mAudioRecord.getTimestamp(ts, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+                mPTSGenerator.anchor(ts.framePosition, ts.nanoTime);
+                return;
+            }
+        }
+
+        //첫 chunk의 시작 시각으로 추정한다.
+        long chunkUs = mPTSGenerator.framesToUs(n / mConfig.getBytesPerFrame());
+        mPTSGenerator.anchor(0, System.nanoTime() - chunkUs * 1000L);
+    }
+
+    /**
+     * capture 실패(read() < 0)를 알리고 녹음을 중지한다. (capture thread, session당 한번)
+     * ERROR_INVALID_OPERATION, ERROR_BAD_VALUE, ERROR_DEAD_OBJECT, ERROR 모두 실패로 처리한다.
+     * pre-roll 중에는 start()가 lock을 잡고 capture thread를 join할 수 있으므로, 별도 thread에서 수행한다.
+     */
+    private void onCaptureError(final int error) {
+        Log.e(TAG, "read() failed! n: " + error);
+        final String path = getPath();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onError(path, new IllegalStateException("AudioRecord read() failed! n: " + error));
+                }
+                stop(null);
+            }
+        }, TAG + "-error").start();
+    }
+
+    /**
+     * AudioRecord(또는 지정된 source)에서 전달된 buffer로 직접 읽는다.
+     */
+    private final SimpleMuxer.TimedSampleReader mSampleReader = new SimpleMuxer.TimedSampleReader() {
+        @Override
+        public int read(ByteBuffer buffer, int maxLength) {
+            final long startNanos = System.nanoTime();
+            final int n = mSource != null ? mSource.read(buffer, maxLength) : mAudioRecord.read(buffer, maxLength);
+            mCaptureRead.recordSinceNanos(startNanos);
+            if (n < 0) {
+                //capture thread(engine, direct 모두)는 음수를 받으면 종료한다.
+                onCaptureError(n);
+                return n;
+            }
+            mCaptureBytes.record(n);
+            if (n > 0 && !mPTSGenerator.isAnchored()) {
+                anchorPTSGenerator(n);
+                mFirstSample.recordSinceNanos(mStartNanos);
+                Log.i(TAG, "read() - first sample in " + (System.nanoTime() - mStartNanos) / 1000000L + "ms");
+            }
+            return n;
+        }
+
+        /**
+         * direct 모드: read() 후에 누적 frame 위치와 anchor(AudioTimestamp)로 산출한다.
+         */
+        @Override
+        public long getPTimeUs() {
+            return mPTSGenerator.isAnchored() ? mPTSGenerator.getPTimeUs() : 0;
+        }
+    };
+
+    /**
+     * AudioRecord에서 encoder input buffer로 직접 읽는다. (Config.directInput)
+     */
+    private final Runnable mDirectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            Log.d(TAG, "direct - STARTED");
+            while (mRunning) {
+                try {
+                    //pTime은 read() 후에 mSampleReader.getPTimeUs()로 정해진다. (첫 chunk에서 anchor)
+                    int n = mSMx.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, mSampleReader, mBufferSize, 0);
+                    //capture 실패는 mSampleReader에서 보고한다.
+                    if (n < 0) {
+                        break;
+                    }
+                    if (n > 0) {
+                        mPTSGenerator.advance(n, System.nanoTime());
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            Log.d(TAG, "direct - STOPPED, " + mPTSGenerator);
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "SimpleRecorder{" +
+                "recording=" + mRunning +
+                ", elapsedMs=" + getElapsedMs() +
+                ", config=" + mConfig +
+                ", muxer=" + mSMx +
+                '}';
+    }
+}
@@ -0,0 +1,258 @@
+package com.kodeholic.simplerecorder;
+
+import java.util.Arrays;
+
+/**
+ * streaming polyphase sample rate converter. (Android 의존성 없음)
+ *  - 변환 비율을 L/M (= outRate/inRate, 기약분수)으로 두고, L개의 phase 필터(Kaiser windowed sinc)를 미리 계산한다.
+ *  - L이 MAX_PHASES보다 크면 MAX_PHASES개의 phase 사이를 선형 보간한다. (임의 비율 지원)
+ *  - chunk 사이의 입력은 history에 남겨 이어서 처리하며, chunk 처리 중에는 할당이 없다.
+ *  - 출력은 입력보다 getLatencyFrames() 만큼 늦다. (필터의 절반 길이)
+ */
+public class SimpleResampler implements SimplePcm.Processor, SimplePcm.RateConverter {
+    public static final int QUALITY_LOW    = 0; //짧은 필터, 낮은 지연
+    public static final int QUALITY_MEDIUM = 1;
+    public static final int QUALITY_HIGH   = 2; //긴 필터, 높은 SNR
+
+    public static final String valueOfQuality(int quality) {
+        switch (quality) {
+            case QUALITY_LOW   : return "LOW";
+            case QUALITY_MEDIUM: return "MEDIUM";
+            case QUALITY_HIGH  : return "HIGH";
+        }
+
+        return "UNK(" + quality + ")";
+    }
+
+    //quality 별 필터 설정 (출력 rate 기준 zero-crossing 수, 통과 대역 비율, Kaiser beta)
+    private static final int[]    HALF_TAPS = {  8,     16,    32    };
+    private static final double[] ROLLOFF   = {  0.85,  0.91,  0.95  };
+    private static final double[] BETA      = {  6.0,   8.0,   10.0  };
+
+    public static final int MAX_PHASES = 1024;
+
+    private final int mOutSampleRateInHz;
+    private final int mQuality;
+
+    private int mInSampleRateInHz;
+    private int mChannelCount = 1;
+
+    //phase 필터 (phase 수 + 1) x taps, phase 0의 offset은 mTaps * phase
+    private float[] mFilters;
+    private int     mTaps;
+    private int     mPhases;
+    private boolean mExact;
+
+    //L/M
+    private int mUp;
+    private int mDown;
+
+    //입력 history (interleaved), mHistoryFrames 만큼 유효
+    private float[] mHistory = new float[0];
+    private int     mHistoryFrames;
+
+    //다음 출력 위치 = mPosInt + mPosNum / mUp (history 기준 frame)
+    private int mPosInt;
+    private int mPosNum;
+
+    public SimpleResampler(int outSampleRateInHz) {
+        this(outSampleRateInHz, QUALITY_MEDIUM);
+    }
+
+    public SimpleResampler(int outSampleRateInHz, int quality) {
+        if (outSampleRateInHz <= 0 || quality < QUALITY_LOW || quality > QUALITY_HIGH) {
+            throw new IllegalArgumentException("Invalid outSampleRateInHz: " + outSampleRateInHz + ", quality: " + quality);
+        }
+        mOutSampleRateInHz = outSampleRateInHz;
+        mQuality           = quality;
+    }
+
+    @Override
+    public int configure(int sampleRateInHz, int channelCount) {
+        if (sampleRateInHz <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Invalid sampleRateInHz: " + sampleRateInHz + ", channelCount: " + channelCount);
+        }
+        mInSampleRateInHz = sampleRateInHz;
+        mChannelCount     = channelCount;
+
+        final int gcd = gcd(sampleRateInHz, mOutSampleRateInHz);
+        mUp    = mOutSampleRateInHz / gcd;
+        mDown  = sampleRateInHz / gcd;
+        mExact = mUp <= MAX_PHASES;
+        mPhases = mExact ? mUp : MAX_PHASES;
+
+        //downsampling이면 cutoff를 출력 nyquist로 낮추고, 그만큼 필터를 길게 한다.
+        final double scale = Math.min(1.0, (double)mOutSampleRateInHz / sampleRateInHz) * ROLLOFF[mQuality];
+        final int    half  = (int)Math.ceil(HALF_TAPS[mQuality] / scale);
+        mTaps    = 2 * half;
+        mFilters = new float[(mPhases + 1) * mTaps];
+        final double beta  = BETA[mQuality];
+        final double i0b   = besselI0(beta);
+        for (int p = 0; p <= mPhases; p++) {
+            final double frac = (double)p / mPhases;
+            double sum = 0;
+            for (int k = 0; k < mTaps; k++) {
+                //출력 위치와 입력 sample 사이의 거리 (입력 frame 단위)
+                final double d = (k - half + 1) - frac;
+                final double r = d / half;
+                final double window = Math.abs(r) >= 1.0 ? 0 : besselI0(beta * Math.sqrt(1.0 - r * r)) / i0b;
+                final double value  = scale * sinc(scale * d) * window;
+                mFilters[p * mTaps + k] = (float)value;
+                sum += value;
+            }
+            //DC gain = 1
+            for (int k = 0; k < mTaps; k++) {
+                mFilters[p * mTaps + k] /= sum;
+            }
+        }
+
+        //첫 출력이 첫 입력 위치가 되도록, history를 (half - 1) frame의 0으로 채운다.
+        mHistoryFrames = half - 1;
+        ensureHistory(mHistoryFrames);
+        Arrays.fill(mHistory, 0, mHistoryFrames * channelCount, 0);
+        mPosInt = half - 1;
+        mPosNum = 0;
+        return channelCount;
+    }
+
+    @Override
+    public int getOutputSampleRate() {
+        return mOutSampleRateInHz;
+    }
+
+    @Override
+    public int getExpansion() {
+        //chunk 마다 최대 ceil(frames * L / M) + 1 frame
+        return (int)Math.ceil((double)mOutSampleRateInHz / Math.max(mInSampleRateInHz, 1)) + 1;
+    }
+
+    public int getQuality()      { return mQuality; }
+    public int getTaps()         { return mTaps; }
+    public int getLatencyFrames() { return mTaps / 2; }
+
+    @Override
+    public int process(float[] samples, int length) {
+        final int channels = mChannelCount;
+        final int frames   = length / channels;
+
+        //입력을 history 뒤에 붙인다.
+        ensureHistory(mHistoryFrames + frames);
+        System.arraycopy(samples, 0, mHistory, mHistoryFrames * channels, frames * channels);
+        mHistoryFrames += frames;
+
+        final float[] history = mHistory;
+        final float[] filters = mFilters;
+        final int     taps    = mTaps;
+        final int     half    = taps / 2;
+        final int     up      = mUp;
+        final int     down    = mDown;
+        int posInt = mPosInt;
+        int posNum = mPosNum;
+        int out    = 0;
+
+        while (posInt + half < mHistoryFrames) {
+            final int first = (posInt - half + 1) * channels;
+            if (mExact) {
+                final int f = posNum * taps;
+                for (int c = 0; c < channels; c++) {
+                    float acc = 0;
+                    for (int k = 0, i = first + c; k < taps; k++, i += channels) {
+                        acc += filters[f + k] * history[i];
+                    }
+                    samples[out++] = acc;
+                }
+            }
+            else {
+                final long   scaled = (long)posNum * mPhases;
+                final int    p      = (int)(scaled / up);
+                final float  w      = (float)(scaled - (long)p * up) / up;
+                final int    f0     = p * taps;
+                final int    f1     = f0 + taps;
+                for (int c = 0; c < channels; c++) {
+                    float acc0 = 0;
+                    float acc1 = 0;
+                    for (int k = 0, i = first + c; k < taps; k++, i += channels) {
+                        acc0 += filters[f0 + k] * history[i];
+                        acc1 += filters[f1 + k] * history[i];
+                    }
+                    samples[out++] = acc0 + w * (acc1 - acc0);
+                }
+            }
+
+            //다음 출력 위치 (M/L frame 이동)
+            posNum += down;
+            posInt += posNum / up;
+            posNum %= up;
+        }
+
+        //더 이상 필요 없는 입력을 버린다.
+        final int discard = Math.min(Math.max(posInt - half + 1, 0), mHistoryFrames);
+        if (discard > 0) {
+            System.arraycopy(history, discard * channels, history, 0, (mHistoryFrames - discard) * channels);
+            mHistoryFrames -= discard;
+            posInt -= discard;
+        }
+        mPosInt = posInt;
+        mPosNum = posNum;
+
+        return out;
+    }
+
+    /**
+     * history 크기가 부족할 때만 새로 할당한다.
+     */
+    private void ensureHistory(int frames) {
+        final int size = frames * mChannelCount;
+        if (mHistory.length < size) {
+            final float[] history = new float[Math.max(size, mHistory.length * 2)];
+            System.arraycopy(mHistory, 0, history, 0, mHistory.length);
+            mHistory = history;
+        }
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) {
+            return 1.0;
+        }
+        final double px = Math.PI * x;
+        return Math.sin(px) / px;
+    }
+
+    /**
+     * 0차 modified Bessel function (Kaiser window)
+     */
+    private static double besselI0(double x) {
+        double sum  = 1.0;
+        double term = 1.0;
+        final double q = x * x / 4.0;
+        for (int k = 1; k < 50; k++) {
+            term *= q / ((double)k * k);
+            sum  += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleResampler{" +
+                "in=" + mInSampleRateInHz +
+                ", out=" + mOutSampleRateInHz +
+                ", ratio=" + mUp + "/" + mDown +
+                ", quality=" + valueOfQuality(mQuality) +
+                ", taps=" + mTaps +
+                ", phases=" + mPhases + (mExact ? "" : "(interpolated)") +
+                '}';
+    }
+}
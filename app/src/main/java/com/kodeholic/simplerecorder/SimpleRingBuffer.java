@@ -0,0 +1,159 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 단일 생산자/단일 소비자(SPSC) PCM ring buffer.
+ *  - 생성 시점에 모든 slot을 할당하며, offer/poll 시에는 lock도 할당도 없다.
+ *  - 생산자(capture thread)는 offer()만, 소비자(muxer thread)는 poll()만 호출해야 한다.
+ *  - 가득 찬 상태에서의 offer()는 버려지며 overrun으로 집계된다.
+ */
+public class SimpleRingBuffer {
+    public interface Consumer {
+        public void onChunk(ByteBuffer chunk, long pTimeUs) throws Exception;
+    }
+
+    private final int    mSlotSize;
+    private final int    mSlotCount;
+    private final int    mMask;
+    private final byte[] mData;
+    private final int[]  mLengths;
+    private final long[] mPTimes;
+    //소비자에게 전달하는 view (소비자 전용)
+    private final ByteBuffer mView;
+
+    //다음에 write할 sequence (생산자만 갱신)
+    private final AtomicLong mHead = new AtomicLong(0);
+    //다음에 read할 sequence (소비자만 갱신)
+    private final AtomicLong mTail = new AtomicLong(0);
+
+    //통계 (생산자만 갱신)
+    private volatile long mOverrunCount  = 0;
+    private volatile int  mHighWaterMark = 0;
+
+    /**
+     * @param slotSize  chunk 최대 크기 (보통 AudioRecord.getMinBufferSize())
+     * @param slotCount slot 개수 (2의 거듭제곱으로 올림한다)
+     */
+    public SimpleRingBuffer(int slotSize, int slotCount) {
+        if (slotSize <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("Invalid slotSize: " + slotSize + ", slotCount: " + slotCount);
+        }
+        int count = 1;
+        while (count < slotCount) {
+            count <<= 1;
+        }
+        mSlotSize  = slotSize;
+        mSlotCount = count;
+        mMask      = count - 1;
+        mData      = new byte[slotSize * count];
+        mLengths   = new int[count];
+        mPTimes    = new long[count];
+        mView      = ByteBuffer.wrap(mData);
+    }
+
+    public int getSlotSize()  { return mSlotSize; }
+    public int getSlotCount() { return mSlotCount; }
+
+    /**
+     * chunk를 추가한다. (생산자 전용)
+     * @return 가득 차서 버려진 경우 false
+     */
+    public boolean offer(byte[] bytes, int offset, int length, long pTimeUs) {
+        final int slot = acquireSlot(length);
+        if (slot < 0) {
+            return false;
+        }
+        System.arraycopy(bytes, offset, mData, slot * mSlotSize, length);
+        publishSlot(slot, length, pTimeUs);
+        return true;
+    }
+
+    /**
+     * buffer의 남은 데이타를 chunk로 추가한다. (생산자 전용, buffer position이 이동한다)
+     * @return 가득 차서 버려진 경우 false
+     */
+    public boolean offer(ByteBuffer buffer, long pTimeUs) {
+        final int length = buffer.remaining();
+        final int slot   = acquireSlot(length);
+        if (slot < 0) {
+            return false;
+        }
+        buffer.get(mData, slot * mSlotSize, length);
+        publishSlot(slot, length, pTimeUs);
+        return true;
+    }
+
+    private int acquireSlot(int length) {
+        if (length > mSlotSize) {
+            throw new IllegalArgumentException("Too large chunk. length: " + length + ", slotSize: " + mSlotSize);
+        }
+        final long head = mHead.get();
+        final int  used = (int)(head - mTail.get());
+        if (used >= mSlotCount) {
+            mOverrunCount = mOverrunCount + 1;
+            return -1;
+        }
+        if (used + 1 > mHighWaterMark) {
+            mHighWaterMark = used + 1;
+        }
+        return (int)head & mMask;
+    }
+
+    private void publishSlot(int slot, int length, long pTimeUs) {
+        mLengths[slot] = length;
+        mPTimes[slot]  = pTimeUs;
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    /**
+     * 가장 오래된 chunk 하나를 consumer에게 전달하고 제거한다. (소비자 전용)
+     * consumer가 반환된 이후에는 전달된 buffer가 재사용되므로 참조를 보관하면 안된다.
+     * @return 비어 있는 경우 false
+     */
+    public boolean poll(Consumer consumer) throws Exception {
+        final long tail = mTail.get();
+        if (tail == mHead.get()) {
+            return false;
+        }
+
+        final int slot = (int)tail & mMask;
+        try {
+            final int offset = slot * mSlotSize;
+            mView.limit(offset + mLengths[slot]).position(offset);
+            consumer.onChunk(mView, mPTimes[slot]);
+        }
+        finally {
+            mTail.lazySet(tail + 1);
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+
+    public int size() {
+        return (int)(mHead.get() - mTail.get());
+    }
+
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleRingBuffer{" +
+                "slotSize=" + mSlotSize +
+                ", slotCount=" + mSlotCount +
+                ", size=" + size() +
+                ", overrunCount=" + mOverrunCount +
+                ", highWaterMark=" + mHighWaterMark +
+                '}';
+    }
+}
@@ -0,0 +1,331 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 일정 시간 또는 일정 크기마다 새로운 파일(segment)로 전환하며 녹음한다.
+ *  - 다음 segment는 미리 생성/시작해 두고, writeSample()에서는 참조만 전환한다.
+ *  - 이전 segment의 종료(stop)와 다음 segment의 준비는 별도 thread에서 수행한다.
+ *  - 종료된 segment의 경계는 manifest 파일(path + ".manifest")에 한 줄씩 기록한다.
+ *  - stop()은 기다리지 않는다. 모든 segment가 종료되면 rotator thread에서 StopListener를 호출한다.
+ */
+public class SimpleSegmentMuxer extends SimpleMuxer {
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * segment muxer 생성기
+     */
+    public interface Factory {
+        public SimpleMuxer create(Context context, String path) throws Exception;
+    }
+
+    /**
+     * segment 정보
+     */
+    private static class Segment {
+        final int         index;
+        final String      path;
+        final SimpleMuxer muxer;
+        long startUs = -1;
+        long endUs   = -1;
+        long bytes   = 0;
+
+        Segment(int index, String path, SimpleMuxer muxer) {
+            this.index = index;
+            this.path  = path;
+            this.muxer = muxer;
+        }
+    }
+
+    private final Factory mFactory;
+    private final long    mSegmentDurationUs; //0이면 사용 안함
+    private final long    mSegmentBytes;      //0이면 사용 안함
+    private final ExecutorService mRotator = Executors.newSingleThreadExecutor();
+    //writeSample()과 stop() 사이에서 mCurrent/mNext 전환을 보호한다.
+    private final Object mLock = new Object();
+
+    private Segment         mCurrent = null;
+    private Future<Segment> mNext    = null;
+    private int             mNextIndex = 0;
+    private FileOutputStream mManifest = null;
+    private volatile boolean mRotateRequested = false;
+    private boolean          mRotatePending   = false;
+
+    /**
+     * @param path              기본 경로 (ex. /sdcard/Download/W_123.m4a --> W_123_0000.m4a, W_123_0001.m4a ...)
+     * @param factory           segment muxer 생성기
+     * @param segmentDurationUs segment 최대 길이 (0이면 사용 안함)
+     * @param segmentBytes      segment 최대 입력 바이트 수 (0이면 사용 안함)
+     */
+    public SimpleSegmentMuxer(Context context, String path, Factory factory, long segmentDurationUs, long segmentBytes) throws IOException {
+        super(context, path, SimpleSegmentMuxer.class.getSimpleName());
+        mFactory = factory;
+        mSegmentDurationUs = segmentDurationUs;
+        mSegmentBytes      = segmentBytes;
+    }
+
+    public String getManifestPath() {
+        return path + MANIFEST_SUFFIX;
+    }
+
+    /**
+     * index번째 segment 경로를 반환한다.
+     */
+    public String getSegmentPath(int index) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf(File.separatorChar)) {
+            dot = path.length();
+        }
+        return path.substring(0, dot) + String.format(Locale.US, "_%04d", index) + path.substring(dot);
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig);
+
+        if (mStatus != ST_INIT) {
+            throw new IllegalStateException("Invalid mStatus: " + valueOfStatus(mStatus));
+        }
+        updateStatus(ST_PREPARED);
+
+        //파라미터를 설정한다.
+        this.audioConfig.sampleRateInHz = audioConfig.sampleRateInHz;
+        this.audioConfig.channelCount   = audioConfig.channelCount;
+        this.audioConfig.channelConfig  = audioConfig.channelConfig;
+        this.audioConfig.audioFormat    = audioConfig.audioFormat;
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start()");
+        updateStatus(ST_STARTED);
+
+        mManifest = new FileOutputStream(getManifestPath(), false);
+        mCurrent  = openSegment(mNextIndex++);
+        prepareNext();
+    }
+
+    /**
+     * segment를 생성하고 시작한다.
+     */
+    private Segment openSegment(int index) throws Exception {
+        final String segmentPath = getSegmentPath(index);
+        Log.d(TAG, "openSegment() - index: " + index + ", path: " + segmentPath);
+
+        SimpleMuxer muxer = mFactory.create(mContext, segmentPath);
+        muxer.addAudioTrack(audioConfig);
+        muxer.start();
+
+        return new Segment(index, segmentPath, muxer);
+    }
+
+    /**
+     * 다음 segment를 미리 준비한다.
+     */
+    private void prepareNext() {
+        final int index = mNextIndex++;
+        mNext = mRotator.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws Exception {
+                return openSegment(index);
+            }
+        });
+    }
+
+    /**
+     * 가능한 빨리 segment를 전환한다.
+     * 미리 준비된 segment는 폐기하고 factory로 새로 생성하므로, 변경된 설정(ex. bitrate)이 다음 segment부터 적용된다.
+     * (폐기된 segment의 index는 건너뛴다)
+     */
+    public void requestRotate() {
+        mRotateRequested = true;
+    }
+
+    private boolean needRotate(long pTimeUS, int length) {
+        if (mCurrent.bytes == 0) {
+            return false;
+        }
+        if (mRotatePending) {
+            //새로 준비한 segment가 생성될 때까지는 현재 segment에 계속 write한다.
+            return mNext.isDone();
+        }
+        if (mSegmentDurationUs > 0 && pTimeUS - mCurrent.startUs >= mSegmentDurationUs) {
+            return true;
+        }
+        if (mSegmentBytes > 0 && mCurrent.bytes + length > mSegmentBytes) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 미리 준비된 segment로 전환하고, 이전 segment는 별도 thread에서 종료한다.
+     */
+    private void rotate(long pTimeUS) throws Exception {
+        final Segment prev = mCurrent;
+        prev.endUs = pTimeUS;
+        mRotatePending = false;
+
+        //준비가 늦어지는 경우에만 기다린다.
+        mCurrent = mNext.get();
+        prepareNext();
+        Log.d(TAG, "rotate() - " + prev.index + " --> " + mCurrent.index + ", pTimeUS: " + pTimeUS);
+
+        mRotator.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeSegment(prev);
+            }
+        });
+    }
+
+    /**
+     * segment를 종료하고 manifest에 기록한다. (rotator thread)
+     */
+    private void closeSegment(final Segment segment) {
+        Log.d(TAG, "closeSegment() - index: " + segment.index + ", bytes: " + segment.bytes);
+
+        //파일이 완료된 후 manifest에 기록한다.
+        try {
+            segment.muxer.stopAsync().get();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        writeManifest(segment);
+    }
+
+    private void writeManifest(Segment segment) {
+        if (mManifest == null) {
+            return;
+        }
+        try {
+            final String line = segment.index
+                    + "\t" + new File(segment.path).getName()
+                    + "\t" + segment.startUs
+                    + "\t" + segment.endUs
+                    + "\t" + segment.bytes
+                    + "\n";
+            mManifest.write(line.getBytes("UTF-8"));
+            mManifest.getFD().sync();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 사용하지 않은 segment를 종료하고 삭제한다. (rotator thread)
+     */
+    private void discardSegment(final Future<Segment> next) {
+        mRotator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Segment unused = next.get();
+                    unused.muxer.stopAsync().get();
+                    new File(unused.path).delete();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        synchronized (mLock) {
+            //현재 상태 체크! (stop() 이후에는 mCurrent가 없다)
+            if (mStatus != ST_STARTED) {
+                Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+                return;
+            }
+            if (mRotateRequested) {
+                mRotateRequested = false;
+                mRotatePending   = true;
+                discardSegment(mNext);
+                prepareNext();
+            }
+            if (needRotate(pTimeUS, length)) {
+                rotate(pTimeUS);
+            }
+            final Segment current = mCurrent;
+            if (current.startUs < 0) {
+                current.startUs = pTimeUS;
+            }
+            current.bytes += length;
+            current.endUs  = pTimeUS;
+            current.muxer.writeSample(encoderType, buffer, pTimeUS);
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void stop(final StopListener stopListener) {
+        Log.d(TAG, "stop()");
+        final Segment current;
+        final Future<Segment> next;
+        synchronized (mLock) {
+            updateStatus(ST_STOPPING);
+            current  = mCurrent;
+            next     = mNext;
+            mCurrent = null;
+            mNext    = null;
+        }
+        if (current != null) {
+            mRotator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeSegment(current);
+                }
+            });
+        }
+
+        //미리 준비된 segment는 사용되지 않았으므로 삭제한다.
+        if (next != null) {
+            discardSegment(next);
+        }
+
+        //앞서 요청된 segment 종료가 모두 끝나면 rotator thread에서 종료를 알린다.
+        mRotator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mManifest != null) {
+                        mManifest.close();
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                mManifest = null;
+                synchronized (mLock) {
+                    updateStatus(ST_STOPPED);
+                }
+                Log.d(TAG, "stop() - all segments closed.");
+
+                if (stopListener != null) {
+                    stopListener.onStop();
+                }
+            }
+        });
+        mRotator.shutdown();
+    }
+}
@@ -0,0 +1,182 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SimpleMuxerSink 앞의 start barrier + interleaver.
+ *  - declareTrack()으로 선언한 모든 track의 output format이 onFormat()으로 들어온 후에 sink를 start한다.
+ *  - start 이전에 encode된 sample은 SimpleInterleaver에 보관(byte[] 재사용, 개수/바이트 한도)했다가,
+ *    start 후 pTime 순서로 내보낸다. 한도를 넘으면 가장 이른 sample을 버린다. (getDroppedCount())
+ *  - track 번호(0 ~ trackCount-1)는 호출자가 정하며, sink의 track index와는 별개이다.
+ */
+public class SimpleTrackMuxer {
+    private final Object mLock = new Object();
+    private final String  mTag;
+    private final SimpleMuxerSink   mSink;
+    private final SimpleInterleaver mInterleaver;
+    private final boolean[] mDeclared;
+    private final int[]     mTrackIndexes;
+    private boolean mSinkStarted = false;
+    private long    mStartNanos  = 0;
+
+    //metrics
+    private final SimpleMetrics.Histogram mBarrierWait;
+
+    /**
+     * @param tag        log/metrics 이름 (ex. muxer TAG)
+     * @param maxSamples start 이전(또는 track 간 reorder) 최대 보관 sample 개수
+     * @param maxBytes   start 이전(또는 track 간 reorder) 최대 보관 바이트
+     */
+    public SimpleTrackMuxer(String tag, SimpleMuxerSink sink, int trackCount, int maxSamples, long maxBytes) {
+        mTag          = tag;
+        mSink         = sink;
+        mDeclared     = new boolean[trackCount];
+        mTrackIndexes = new int[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mTrackIndexes[i] = -1;
+        }
+        mInterleaver = new SimpleInterleaver(tag, trackCount, maxSamples, maxBytes, mWriter);
+        mBarrierWait = SimpleMetrics.getInstance().histogram("mux." + tag + ".barrier_us");
+    }
+
+    public SimpleMuxerSink getSink() {
+        return mSink;
+    }
+
+    public SimpleInterleaver getInterleaver() {
+        return mInterleaver;
+    }
+
+    /**
+     * start barrier가 기다릴 track을 선언한다. (begin() 이전에 호출)
+     */
+    public void declareTrack(int track) {
+        synchronized (mLock) {
+            mDeclared[track] = true;
+        }
+    }
+
+    public boolean isDeclared(int track) {
+        synchronized (mLock) {
+            return mDeclared[track];
+        }
+    }
+
+    /**
+     * encoder 시작 직전에 호출한다. 선언되지 않은 track은 기다리지 않는다.
+     */
+    public void begin() {
+        mStartNanos = System.nanoTime();
+        for (int track = 0; track < mDeclared.length; track++) {
+            if (!isDeclared(track)) {
+                mInterleaver.endOfTrack(track);
+            }
+        }
+    }
+
+    public boolean isStarted() {
+        synchronized (mLock) {
+            return mSinkStarted;
+        }
+    }
+
+    /**
+     * track의 output format을 추가하고, 선언된 track이 모두 추가되면 sink를 start한 후 보관 중인 sample을 내보낸다.
+     */
+    public void onFormat(int track, MediaFormat format) {
+        synchronized (mLock) {
+            if (mTrackIndexes[track] != -1) {
+                Log.w(mTag, "onFormat() - Already added! track: " + track);
+                return;
+            }
+            try {
+                mTrackIndexes[track] = mSink.addTrack(format);
+            }
+            catch (Exception e) {
+                Log.e(mTag, "onFormat() - addTrack() failed! track: " + track, e);
+                return;
+            }
+            for (int i = 0; i < mDeclared.length; i++) {
+                if (mDeclared[i] && mTrackIndexes[i] == -1) {
+                    Log.d(mTag, "onFormat() - track: " + track + ", waiting for track: " + i);
+                    return;
+                }
+            }
+            try {
+                mSink.start();
+                mSinkStarted = true;
+            }
+            catch (Exception e) {
+                Log.e(mTag, "onFormat() - start() failed!", e);
+                return;
+            }
+        }
+        mBarrierWait.recordSinceNanos(mStartNanos);
+        Log.i(mTag, "onFormat() - sink started. barrierMs: " + (System.nanoTime() - mStartNanos) / 1000000L + ", " + mInterleaver);
+        mInterleaver.start();
+    }
+
+    /**
+     * encode된 sample. start 이전이면 보관한다. (buffer는 반환 후 재사용되어도 된다)
+     */
+    public void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception {
+        mInterleaver.writeSample(track, buffer, info);
+    }
+
+    public void endOfTrack(int track) {
+        mInterleaver.endOfTrack(track);
+    }
+
+    /**
+     * 남은 sample을 내보내고 sink를 stop/release한다. (start되지 못했으면 보관 중인 sample은 버려진다)
+     */
+    public void finish() {
+        mInterleaver.flush();
+        Log.d(mTag, "finish() - " + this);
+        try {
+            if (isStarted()) {
+                mSink.stop();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            mSink.release();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long getDroppedCount() {
+        return mInterleaver.getDroppedCount();
+    }
+
+    public long getBufferedBytes() {
+        return mInterleaver.getQueuedBytes();
+    }
+
+    public int getBufferedSamples() {
+        return mInterleaver.getQueuedSamples();
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleTrackMuxer{" +
+                "started=" + isStarted() +
+                ", " + mInterleaver +
+                '}';
+    }
+
+    private final SimpleInterleaver.Writer mWriter = new SimpleInterleaver.Writer() {
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) throws Exception {
+            mSink.writeSampleData(mTrackIndexes[track], buffer, info);
+        }
+    };
+}
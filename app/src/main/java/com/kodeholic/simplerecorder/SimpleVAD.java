@@ -0,0 +1,134 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 16bit little-endian PCM chunk 단위의 음성 구간 검출기. (에너지 + zero-crossing, 할당 없음)
+ *  - 에너지가 (noise floor + VOICE_MARGIN_DB) 또는 MIN_VOICE_DBFS 이상이면 음성으로 판단한다.
+ *  - 에너지가 조금 낮더라도 zero-crossing rate가 높으면 무성음(s, f ...)으로 보고 음성으로 판단한다.
+ *  - 음성이 끝난 후에도 hangover 동안은 음성으로 유지하여, 말끝이 잘리지 않게 한다.
+ */
+public class SimpleVAD {
+    public static final double MIN_VOICE_DBFS     = -45.0;
+    public static final double VOICE_MARGIN_DB    = 12.0;
+    public static final double UNVOICED_MARGIN_DB = 6.0;
+    public static final double UNVOICED_ZCR       = 0.25; //sample 당 zero-crossing 비율
+    public static final long   DEFAULT_HANGOVER_MS = 300;
+
+    //noise floor 추적 (chunk 마다 상승은 천천히, 하강은 즉시)
+    private static final double NOISE_RISE_DB = 0.05;
+
+    private final int  mSampleRateInHz;
+    private final int  mChannelCount;
+    private final long mHangoverFrames;
+
+    private double  mNoiseFloorDbfs = MIN_VOICE_DBFS - VOICE_MARGIN_DB;
+    private long    mHangoverLeft   = 0;
+    private double  mLastDbfs       = SimpleBitratePolicy.MIN_DBFS;
+    private double  mLastZcr        = 0;
+
+    //통계 (frame 단위)
+    private long mTotalFrames   = 0;
+    private long mSilentFrames  = 0;
+
+    public SimpleVAD(int sampleRateInHz, int channelCount) {
+        this(sampleRateInHz, channelCount, DEFAULT_HANGOVER_MS);
+    }
+
+    public SimpleVAD(int sampleRateInHz, int channelCount, long hangoverMs) {
+        if (sampleRateInHz <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Invalid sampleRateInHz: " + sampleRateInHz + ", channelCount: " + channelCount);
+        }
+        mSampleRateInHz = sampleRateInHz;
+        mChannelCount   = channelCount;
+        mHangoverFrames = hangoverMs * sampleRateInHz / 1000L;
+    }
+
+    /**
+     * chunk가 음성(또는 hangover)인지 판단한다. (buffer의 position은 변경하지 않는다)
+     * @param pcm 16bit little-endian PCM
+     * @return true: 음성, false: 무음
+     */
+    public boolean process(ByteBuffer pcm) {
+        final int start  = pcm.position();
+        final int end    = start + (pcm.remaining() & ~1);
+        final int step   = 2 * mChannelCount; //첫번째 channel만 검사한다.
+        final long frames = (end - start) / step;
+        if (frames <= 0) {
+            return mHangoverLeft > 0;
+        }
+
+        double sum = 0;
+        int    crossings = 0;
+        int    prev = 0;
+        for (int i = start; i + 1 < end; i += step) {
+            final int sample = (short)((pcm.get(i) & 0xFF) | (pcm.get(i + 1) << 8));
+            sum += (double)sample * sample;
+            if ((sample ^ prev) < 0) {
+                crossings++;
+            }
+            prev = sample;
+        }
+        final double rms  = Math.sqrt(sum / frames);
+        final double dbfs = rms > 0 ? Math.max(20.0 * Math.log10(rms / 32768.0), SimpleBitratePolicy.MIN_DBFS) : SimpleBitratePolicy.MIN_DBFS;
+        final double zcr  = (double)crossings / frames;
+        mLastDbfs = dbfs;
+        mLastZcr  = zcr;
+
+        //음성 판단
+        final double threshold = Math.max(MIN_VOICE_DBFS, mNoiseFloorDbfs + VOICE_MARGIN_DB);
+        final boolean voiced   = dbfs >= threshold;
+        final boolean unvoiced = dbfs >= threshold - UNVOICED_MARGIN_DB && zcr >= UNVOICED_ZCR;
+
+        //noise floor 갱신
+        if (dbfs < mNoiseFloorDbfs) {
+            mNoiseFloorDbfs = dbfs;
+        }
+        else if (!voiced && !unvoiced) {
+            mNoiseFloorDbfs += NOISE_RISE_DB;
+        }
+
+        boolean active;
+        if (voiced || unvoiced) {
+            mHangoverLeft = mHangoverFrames;
+            active = true;
+        }
+        else if (mHangoverLeft > 0) {
+            mHangoverLeft -= frames;
+            active = true;
+        }
+        else {
+            active = false;
+        }
+
+        mTotalFrames += frames;
+        if (!active) {
+            mSilentFrames += frames;
+        }
+        return active;
+    }
+
+    public double getLastDbfs()       { return mLastDbfs; }
+    public double getLastZcr()        { return mLastZcr; }
+    public double getNoiseFloorDbfs() { return mNoiseFloorDbfs; }
+    public long   getTotalFrames()    { return mTotalFrames; }
+    public long   getSilentFrames()   { return mSilentFrames; }
+
+    /**
+     * 무음으로 판단된 sample 비율 (0 ~ 100)
+     */
+    public double getSilentPercent() {
+        return mTotalFrames > 0 ? mSilentFrames * 100.0 / mTotalFrames : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleVAD{" +
+                "sampleRateInHz=" + mSampleRateInHz +
+                ", noiseFloorDbfs=" + String.format("%.1f", mNoiseFloorDbfs) +
+                ", totalFrames=" + mTotalFrames +
+                ", silentFrames=" + mSilentFrames +
+                ", silent=" + String.format("%.1f", getSilentPercent()) + "%" +
+                '}';
+    }
+}
@@ -0,0 +1,158 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SimpleVAD로 무음 구간을 검출하여, 대상 SimpleMuxer에 전달하기 전에 처리한다.
+ *  - MODE_OFF : 모두 전달한다. (무음 비율만 측정)
+ *  - MODE_DROP: 무음 chunk를 전달하지 않는다. 이후 chunk의 pTime은 그대로이므로,
+ *               M4A는 timeline에 gap이 남고, WAV는 (timeline이 없으므로) 무음 구간만큼 짧아진다.
+ *  - MODE_ZERO: 무음 chunk를 digital silence(0)로 바꾸어 전달한다. timeline은 유지되며,
+ *               encoder는 최소 크기의 frame을 만든다.
+ */
+public class SimpleVADMuxer extends SimpleMuxer {
+    public static final int MODE_OFF  = 0;
+    public static final int MODE_DROP = 1;
+    public static final int MODE_ZERO = 2;
+
+    public static final String valueOfMode(int mode) {
+        switch (mode) {
+            case MODE_OFF : return "OFF";
+            case MODE_DROP: return "DROP";
+            case MODE_ZERO: return "ZERO";
+        }
+
+        return "UNK(" + mode + ")";
+    }
+
+    private final SimpleMuxer mTarget;
+    private final int         mMode;
+    private SimpleVAD         mVAD = null;
+    private ByteBuffer        mZeroBuffer = null;
+
+    private final SimpleMetrics.Counter mSavedBytes;
+
+    public SimpleVADMuxer(Context context, SimpleMuxer target, int mode) throws IOException {
+        super(context, target.path, SimpleVADMuxer.class.getSimpleName());
+        mTarget = target;
+        mMode   = mode;
+        mSavedBytes = SimpleMetrics.getInstance().counter("vad.saved_bytes");
+    }
+
+    public SimpleMuxer getTarget() {
+        return mTarget;
+    }
+
+    public SimpleVAD getVAD() {
+        return mVAD;
+    }
+
+    /**
+     * 무음으로 처리된 sample 비율 (0 ~ 100)
+     */
+    public double getSavedPercent() {
+        return mVAD != null ? mVAD.getSilentPercent() : 0;
+    }
+
+    @Override
+    public void addAudioTrack(AudioConfig audioConfig) throws Exception {
+        Log.d(TAG, "addAudioTrack() - audioConfig: " + audioConfig + ", mode: " + valueOfMode(mMode));
+        mTarget.addAudioTrack(audioConfig);
+        mVAD = new SimpleVAD(audioConfig.sampleRateInHz, audioConfig.channelCount);
+        updateStatus(ST_PREPARED);
+    }
+
+    @Override
+    public void addVideoTrack(VideoConfig videoConfig) throws Exception {
+        mTarget.addVideoTrack(videoConfig);
+    }
+
+    @Override
+    public void start() throws Exception {
+        Log.d(TAG, "start()");
+        updateStatus(ST_STARTED);
+        mTarget.start();
+    }
+
+    /**
+     * 0으로 채워진 buffer를 반환한다. (크기가 부족할 때만 새로 할당한다)
+     */
+    private ByteBuffer getZeroBuffer(int length) {
+        if (mZeroBuffer == null || mZeroBuffer.capacity() < length) {
+            mZeroBuffer = ByteBuffer.allocateDirect(length);
+        }
+        mZeroBuffer.clear();
+        mZeroBuffer.limit(length);
+        return mZeroBuffer;
+    }
+
+    /**
+     * @return true이면 원본을 전달한다.
+     */
+    private boolean isVoice(ByteBuffer buffer) {
+        if (mVAD == null) {
+            return true;
+        }
+        final boolean voice = mVAD.process(buffer);
+        if (!voice && mMode != MODE_OFF) {
+            mSavedBytes.add(buffer.remaining());
+        }
+        return voice || mMode == MODE_OFF;
+    }
+
+    @Override
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            Log.d(TAG, "writeSample() - Invalid mStatus: " + valueOfStatus(mStatus));
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+        if (isVoice(buffer)) {
+            mTarget.writeSample(encoderType, buffer, pTimeUS);
+        }
+        else if (mMode == MODE_ZERO) {
+            buffer.position(buffer.limit());
+            mTarget.writeSample(encoderType, getZeroBuffer(length), pTimeUS);
+        }
+        else {
+            buffer.position(buffer.limit());
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void writeSample(int encoderType, SimpleBufferPool.Buffer buffer) throws Exception {
+        //현재 상태 체크!
+        if (mStatus != ST_STARTED) {
+            buffer.release();
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.length();
+        if (isVoice(buffer.data())) {
+            //소유권을 그대로 넘긴다.
+            mTarget.writeSample(encoderType, buffer);
+        }
+        else {
+            final long pTimeUS = buffer.getPTimeUs();
+            buffer.release();
+            if (mMode == MODE_ZERO) {
+                mTarget.writeSample(encoderType, getZeroBuffer(length), pTimeUS);
+            }
+        }
+        recordWrite(startNanos, length);
+    }
+
+    @Override
+    public void stop(StopListener stopListener) {
+        Log.d(TAG, "stop() - " + mVAD);
+        updateStatus(ST_STOPPED);
+        mTarget.stop(stopListener);
+    }
+}
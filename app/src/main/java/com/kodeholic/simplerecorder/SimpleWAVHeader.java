@@ -0,0 +1,92 @@
+package com.kodeholic.simplerecorder;
+
+/**
+ * WAV(RIFF) 헤더 생성기.
+ * android 의존성이 없으므로 JVM 환경에서 단독으로 측정/검증할 수 있다.
+ *  - write(): 'JUNK' chunk로 ds64 자리를 예약한 80바이트 헤더. RIFF 크기가 32bit를 넘으면
+ *    같은 자리에 'RF64' + 'ds64'로 쓴다. (EBU Tech 3306, data 위치가 바뀌지 않으므로 녹음 중에 전환할 수 있다)
+ */
+public class SimpleWAVHeader {
+    //'RIFF'(12) + 'JUNK' 또는 'ds64'(8 + 28) + 'fmt '(8 + 16) + 'data'(8)
+    public static final int RF64_HEADER_SIZE = 80;
+
+    private static final int  DS64_CHUNK_SIZE = 28;
+    private static final long MAX_CHUNK_SIZE  = 0xFFFFFFFFL;
+
+    /**
+     * write()로 쓴 헤더가 RF64인가?
+     */
+    public static boolean isRF64(long totalPCMLength) {
+        return RF64_HEADER_SIZE - 8 + totalPCMLength > MAX_CHUNK_SIZE;
+    }
+
+    /**
+     * RF64_HEADER_SIZE 바이트 헤더를 dst에 쓴다. (할당 없음)
+     * @param totalPCMLength data chunk 길이
+     * @return RF64로 썼으면 true
+     */
+    public static boolean write(byte[] dst, int channelCount, int sampleRateInHz, int bitsPerSample, long totalPCMLength) {
+        final int     blockAlign = channelCount * bitsPerSample / 8;
+        final long    riffSize   = RF64_HEADER_SIZE - 8 + totalPCMLength;
+        final boolean rf64       = isRF64(totalPCMLength);
+
+        //'RIFF'/'RF64' chunk ------------------------------
+        putTag(dst, 0, rf64 ? "RF64" : "RIFF");
+        putIntLE(dst, 4, rf64 ? (int)MAX_CHUNK_SIZE : (int)riffSize);
+        putTag(dst, 8, "WAVE");
+
+        //'ds64'/'JUNK' chunk ------------------------------
+        putTag(dst, 12, rf64 ? "ds64" : "JUNK");
+        putIntLE(dst, 16, DS64_CHUNK_SIZE);
+        if (rf64) {
+            putLongLE(dst, 20, riffSize);
+            putLongLE(dst, 28, totalPCMLength);
+            putLongLE(dst, 36, blockAlign > 0 ? totalPCMLength / blockAlign : 0);
+            putIntLE (dst, 44, 0); //table length
+        }
+        else {
+            for (int i = 20; i < 20 + DS64_CHUNK_SIZE; i++) {
+                dst[i] = 0;
+            }
+        }
+
+        //'fmt ' sub-chunk ---------------------------------
+        putTag(dst, 48, "fmt ");
+        putIntLE(dst, 52, 16);
+        putShortLE(dst, 56, 1); //format: 1 (==PCM)
+        putShortLE(dst, 58, channelCount);
+        putIntLE(dst, 60, sampleRateInHz);
+        putIntLE(dst, 64, sampleRateInHz * blockAlign);
+        putShortLE(dst, 68, blockAlign);
+        putShortLE(dst, 70, bitsPerSample);
+
+        //'data' sub-chunk ---------------------------------
+        putTag(dst, 72, "data");
+        putIntLE(dst, 76, rf64 ? (int)MAX_CHUNK_SIZE : (int)totalPCMLength);
+
+        return rf64;
+    }
+
+    private static void putTag(byte[] dst, int offset, String tag) {
+        for (int i = 0; i < 4; i++) {
+            dst[offset + i] = (byte)tag.charAt(i);
+        }
+    }
+
+    private static void putShortLE(byte[] dst, int offset, int value) {
+        dst[offset    ] = (byte)(value);
+        dst[offset + 1] = (byte)(value >>> 8);
+    }
+
+    private static void putIntLE(byte[] dst, int offset, int value) {
+        dst[offset    ] = (byte)(value);
+        dst[offset + 1] = (byte)(value >>> 8);
+        dst[offset + 2] = (byte)(value >>> 16);
+        dst[offset + 3] = (byte)(value >>> 24);
+    }
+
+    private static void putLongLE(byte[] dst, int offset, long value) {
+        putIntLE(dst, offset    , (int)value);
+        putIntLE(dst, offset + 4, (int)(value >>> 32));
+    }
+}
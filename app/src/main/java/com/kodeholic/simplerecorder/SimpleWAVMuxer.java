@@ -6,94 +6,60 @@ import android.util.Log;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class SimpleWAVMuxer extends SimpleMuxer {
     public static final String TAG = SimpleWAVMuxer.class.getSimpleName();
 
-    private static final int HEADER_SIZE = 44;
+    //ds64 자리를 예약한 헤더. data가 4GB를 넘으면 RF64로 전환된다. (SimpleWAVHeader.write())
+    private static final int HEADER_SIZE = SimpleWAVHeader.RF64_HEADER_SIZE;
+
+    //write buffer 크기 (기본 256KB)
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 256 * 1024;
+    //header 갱신 주기 (기본 5초)
+    public static final int DEFAULT_HEADER_SYNC_SECONDS = 5;
 
     private int bitsPerSample; //16
     private int byteRate;      //sampleRateInHz * channelCount * (bitsPerSample / 8)
     private int blockAlign;    //                 channelCount * (bitsPerSample / 8)
 
     private File         mTargetFile = null;
-    private OutputStream mOStream = null;
-    private int          mTotalPCMLength = 0;
+    private FileChannel  mChannel = null;
+    private ByteBuffer   mWriteBuffer = null;
+    private int          mWriteBufferSize;
+    private long         mTotalPCMLength = 0;
+    private int          mHeaderSyncBytes = -1;
+    private long         mSyncedPCMLength = 0;
+    private boolean      mRF64 = false;
+    //header buffer (sync()마다 재사용한다)
+    private final byte[]     mHeader = new byte[HEADER_SIZE];
+    private final ByteBuffer mHeaderBuffer = ByteBuffer.wrap(mHeader);
 
     public SimpleWAVMuxer(Context context, String path) throws IOException {
+        this(context, path, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    public SimpleWAVMuxer(Context context, String path, int writeBufferSize) throws IOException {
         super(context, path, SimpleWAVMuxer.class.getSimpleName());
 
+        if (writeBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid writeBufferSize: " + writeBufferSize);
+        }
         mTargetFile = new File(path);
         mTotalPCMLength = 0;
+        mWriteBufferSize = writeBufferSize;
+    }
+
+    public long getTotalPCMLength() {
+        return mTotalPCMLength;
     }
 
     /**
-     * generate a WAV header
-     * @return
+     * 마지막으로 쓴 header가 RF64인가?
      */
-    private byte[] getWAVHeader() {
-        byte[] h = new byte[HEADER_SIZE];
-        int fileLength   = HEADER_SIZE + mTotalPCMLength;
-        int headChunkSize = fileLength - 6;
-        int fmt_ChunkSize = 16;
-        int dataChunkSize = fileLength - HEADER_SIZE;
-
-        Log.d(TAG, "getWAVHeader() - audioConfig: " + audioConfig
-                + ", bitsPerSample: " + bitsPerSample
-                + ", byteRate: " + byteRate
-                + ", blockAlign: " + blockAlign
-                + ", headChunkSize: " + headChunkSize
-                + ", fmt_ChunkSize: " + fmt_ChunkSize
-                + ", dataChunkSize: " + dataChunkSize
-        );
-
-        //'RIFF' chunk -------------------------------------
-        h[0]  = 'R'; h[1]  = 'I'; h[2]  = 'F'; h[3]  = 'F';
-        //--------------------------------------------------
-        h[4]  = (byte)((headChunkSize >>  0) & 0xff);
-        h[5]  = (byte)((headChunkSize >>  8) & 0xff);
-        h[6]  = (byte)((headChunkSize >> 16) & 0xff);
-        h[7]  = (byte)((headChunkSize >> 24) & 0xff);
-        h[8]  = 'W';
-        h[9]  = 'A';
-        h[10] = 'V';
-        h[11] = 'E';
-
-        //'fmt ' sub-chunk ---------------------------------
-        h[12] = 'f'; h[13] = 'm'; h[14] = 't'; h[15] = ' ';
-        //--------------------------------------------------
-        h[16] = (byte)((fmt_ChunkSize >>  0) & 0xff);
-        h[17] = (byte)((fmt_ChunkSize >>  8) & 0xff);
-        h[18] = (byte)((fmt_ChunkSize >> 16) & 0xff);
-        h[19] = (byte)((fmt_ChunkSize >> 24) & 0xff);
-        h[20] = (byte)1;  //format: 1 (==PCM)
-        h[21] = 0;
-        h[22] = (byte)(audioConfig.channelCount & 0xff);
-        h[23] = 0;
-        h[24] = (byte)((audioConfig.sampleRateInHz >>  0) & 0xff);
-        h[25] = (byte)((audioConfig.sampleRateInHz >>  8) & 0xff);
-        h[26] = (byte)((audioConfig.sampleRateInHz >> 16) & 0xff);
-        h[27] = (byte)((audioConfig.sampleRateInHz >> 24) & 0xff);
-        h[28] = (byte)((byteRate      >>  0) & 0xff);
-        h[29] = (byte)((byteRate      >>  8) & 0xff);
-        h[30] = (byte)((byteRate      >> 16) & 0xff);
-        h[31] = (byte)((byteRate      >> 24) & 0xff);
-        h[32] = (byte)((blockAlign    >>  0) & 0xff);
-        h[33] = (byte)((blockAlign    >>  8) & 0xff);
-        h[34] = (byte)((bitsPerSample >>  0) & 0xff);
-        h[35] = (byte)((bitsPerSample >>  8) & 0xff);
-
-        //'data' sub-chunk ---------------------------------
-        h[36] = 'd'; h[37] = 'a'; h[38] = 't'; h[39] = 'a';
-        //--------------------------------------------------
-        h[40] = (byte)((dataChunkSize >>  0) & 0xff);
-        h[41] = (byte)((dataChunkSize >>  8) & 0xff);
-        h[42] = (byte)((dataChunkSize >> 16) & 0xff);
-        h[43] = (byte)((dataChunkSize >> 24) & 0xff);
-
-        return h;
+    public boolean isRF64() {
+        return mRF64;
     }
 
     @Override
@@ -114,6 +80,9 @@ public class SimpleWAVMuxer extends SimpleMuxer {
         bitsPerSample  = 16;
         byteRate       = this.audioConfig.sampleRateInHz * this.audioConfig.channelCount * bitsPerSample / 8;
         blockAlign     = this.audioConfig.channelCount * bitsPerSample / 8;
+        if (mHeaderSyncBytes < 0) {
+            mHeaderSyncBytes = byteRate * DEFAULT_HEADER_SYNC_SECONDS;
+        }
 
         //로깅한다.
         Log.d(TAG, "addAudioTrack() - audioConfig: " + this.audioConfig
@@ -128,19 +97,79 @@ public class SimpleWAVMuxer extends SimpleMuxer {
     @Override
     public void addVideoTrack(VideoConfig videoConfig) throws Exception { ; }
 
+    /**
+     * header 갱신 주기를 설정한다. 중간에 종료되어도 마지막 갱신 시점까지는 재생 가능하다.
+     * @param headerSyncBytes PCM 바이트 수 (0이면 stop() 시점에만 갱신한다)
+     */
+    public void setHeaderSyncBytes(int headerSyncBytes) {
+        mHeaderSyncBytes = headerSyncBytes;
+    }
+
+    /**
+     * buffer를 내려쓰고, 현재까지의 길이로 header를 갱신한다.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        flushWriteBuffer();
+        writeHeader();
+        mSyncedPCMLength = mTotalPCMLength;
+    }
+
+    /**
+     * 출력 파일의 channel을 연다. (테스트에서 channel을 대체할 수 있다)
+     * @throws IOException
+     */
+    protected FileChannel openChannel(File file) throws IOException {
+        return new FileOutputStream(file).getChannel();
+    }
+
     private void release() {
         Log.d(TAG, "release()");
 
-        //OStream을 닫는다.
+        //channel을 닫는다. (FileOutputStream도 함께 닫힌다)
         try {
-            if (mOStream != null) {
-                mOStream.close();
+            if (mChannel != null) {
+                mChannel.close();
             }
         }
         catch (Exception e) {
             e.printStackTrace();
         }
-        mOStream = null;
+        mChannel = null;
+        mWriteBuffer = null;
+    }
+
+    /**
+     * write buffer에 쌓인 데이타를 channel로 내려쓴다.
+     * @throws IOException
+     */
+    private void flushWriteBuffer() throws IOException {
+        mWriteBuffer.flip();
+        while (mWriteBuffer.hasRemaining()) {
+            mChannel.write(mWriteBuffer);
+        }
+        mWriteBuffer.clear();
+    }
+
+    /**
+     * 헤더를 파일 처음 위치에 write한다. (channel position은 변경되지 않는다)
+     * @throws IOException
+     */
+    private void writeHeader() throws IOException {
+        final boolean rf64 = SimpleWAVHeader.write(mHeader, audioConfig.channelCount, audioConfig.sampleRateInHz, bitsPerSample, mTotalPCMLength);
+        if (rf64 && !mRF64) {
+            Log.i(TAG, "writeHeader() - promoted to RF64. totalPCMLength: " + mTotalPCMLength);
+        }
+        mRF64 = rf64;
+
+        mHeaderBuffer.clear();
+        long position = 0;
+        while (mHeaderBuffer.hasRemaining()) {
+            position += mChannel.write(mHeaderBuffer, position);
+        }
     }
 
     @Override
@@ -148,61 +177,79 @@ public class SimpleWAVMuxer extends SimpleMuxer {
         Log.d(TAG, "start()");
         updateStatus(ST_STARTED);
 
-        //output stream 생성
+        //output channel 생성
         try {
-            mOStream = new FileOutputStream(mTargetFile);
+            mChannel = openChannel(mTargetFile);
+            mWriteBuffer = ByteBuffer.allocateDirect(mWriteBufferSize);
         }
         catch (IOException e) {
             throw e;
         }
 
-        //헤더 44바이트를 write한다.
-        mOStream.write(getWAVHeader());
+        //헤더를 write한다.
+        writeHeader();
+        mChannel.position(HEADER_SIZE);
     }
 
     @Override
     public void stop(StopListener stopListener) {
-        Log.d(TAG, "stop()");
+        Log.d(TAG, "stop() - totalPCMLength: " + mTotalPCMLength + ", rf64: " + mRF64);
         updateStatus(ST_STOPPED);
 
-        //RAF를 열고, header를 write한다.
-        RandomAccessFile raf = null;
+        //남은 데이타를 내려쓰고, header를 갱신한다.
         try {
-            raf = new RandomAccessFile(mTargetFile, "rw");
-            raf.write(getWAVHeader());
+            if (mChannel != null) {
+                flushWriteBuffer();
+                writeHeader();
+            }
         }
         catch (Exception e) {
             e.printStackTrace();
         }
         finally {
+            //free all the resource
+            release();
+
             if (stopListener != null) {
                 stopListener.onStop();
             }
-            if (raf != null) {
-                try {
-                    raf.close();
-                }
-                catch (Exception ignore) {
-                }
-            }
-
-            //free all the resource
-            release();
         }
     }
 
     @Override
-    public void writeSample(int encoderType, byte[] bytes, int offset, int length, long pTimeUS) throws Exception {
-        Log.d(TAG, "writeSample() - encoderType: " + encoderType + ", length: " + length + ", pTimeUS: " + pTimeUS);
+    public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+        if (SimpleLog.VERBOSE) {
+            Log.d(TAG, "writeSample() - encoderType: " + encoderType + ", length: " + buffer.remaining() + ", pTimeUS: " + pTimeUS);
+        }
 
         //현재 상태 체크!
         if (mStatus != ST_STARTED) {
             Log.d(TAG, "writeSampleData() - Invalid mStatus: " + valueOfStatus(mStatus));
             return;
         }
+        final long startNanos = System.nanoTime();
+        final int  length     = buffer.remaining();
+
         //전체 길이를 갱신한다.
-        mTotalPCMLength += bytes.length;
-        //파일에 write한다.
-        mOStream.write(bytes, 0, bytes.length);
+        mTotalPCMLength += length;
+        SimpleLog.trace(SimpleLog.EV_WAV_WRITE, length, mTotalPCMLength);
+
+        //buffer에 복사하고, 가득 차면 파일에 write한다.
+        final int limit = buffer.limit();
+        while (buffer.hasRemaining()) {
+            int n = Math.min(buffer.remaining(), mWriteBuffer.remaining());
+            buffer.limit(buffer.position() + n);
+            mWriteBuffer.put(buffer);
+            buffer.limit(limit);
+            if (!mWriteBuffer.hasRemaining()) {
+                flushWriteBuffer();
+            }
+        }
+
+        //주기적으로 header를 갱신한다.
+        if (mHeaderSyncBytes > 0 && mTotalPCMLength - mSyncedPCMLength >= mHeaderSyncBytes) {
+            sync();
+        }
+        recordWrite(startNanos, length);
     }
 }
@@ -0,0 +1,206 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM 테스트용 SimpleCodec.
+ *  - 입력 하나마다 outputSize 크기의 output 하나를 같은 pTime으로 내보낸다. (encodeDelayUs 만큼 지연)
+ *  - 비동기 모드에서는 전용 thread에서 callback한다.
+ *  - dropEndOfStream이면 EOS 입력에 대해 output을 내보내지 않는다. (EOS timeout 확인)
+ */
+public class FakeCodec implements SimpleCodec {
+    public static final int BUFFER_COUNT = 4;
+
+    private final ByteBuffer[] mInputs  = new ByteBuffer[BUFFER_COUNT];
+    private final ByteBuffer[] mOutputs = new ByteBuffer[BUFFER_COUNT];
+    private final LinkedBlockingQueue<Integer>    mFreeInputs = new LinkedBlockingQueue<Integer>();
+    private final LinkedBlockingQueue<Output>     mReady      = new LinkedBlockingQueue<Output>();
+    private final ScheduledExecutorService mWorker = Executors.newSingleThreadScheduledExecutor();
+
+    private final long mEncodeDelayUs;
+    private final int  mOutputSize;
+    public volatile boolean dropEndOfStream = false;
+
+    private Callback mCallback = null;
+    private boolean  mFormatSent = false;
+
+    //검증용
+    public volatile boolean configured = false;
+    public volatile boolean released   = false;
+    public volatile int     inputCount = 0;
+    public volatile int     bitrate    = 0;
+    public volatile int     flushCount = 0;
+
+    private static class Output {
+        final int        index;
+        final BufferInfo info;
+
+        Output(int index, BufferInfo info) {
+            this.index = index;
+            this.info  = info;
+        }
+    }
+
+    public FakeCodec(long encodeDelayUs, int outputSize) {
+        mEncodeDelayUs = encodeDelayUs;
+        mOutputSize    = outputSize;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mInputs[i]  = ByteBuffer.allocate(8192);
+            mOutputs[i] = ByteBuffer.allocate(Math.max(outputSize, 1));
+            mFreeInputs.add(i);
+        }
+    }
+
+    public static Format outputFormat() {
+        return new Format()
+                .setString(MediaFormat.KEY_MIME, "audio/mp4a-latm")
+                .setInteger(MediaFormat.KEY_SAMPLE_RATE, 44100)
+                .setInteger(MediaFormat.KEY_CHANNEL_COUNT, 1)
+                .setByteBuffer("csd-0", ByteBuffer.wrap(new byte[] { 0x12, 0x08 }));
+    }
+
+    @Override
+    public void configure(Format format, Callback callback, int callbackPriority) {
+        mCallback  = callback;
+        configured = true;
+    }
+
+    @Override
+    public Surface createInputSurface() {
+        return null;
+    }
+
+    @Override
+    public void signalEndOfInputStream() { ; }
+
+    @Override
+    public void start() {
+        if (mCallback == null) {
+            return;
+        }
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mFormatSent) {
+                    mFormatSent = true;
+                    mCallback.onOutputFormatChanged(FakeCodec.this, outputFormat());
+                }
+                Integer index;
+                while ((index = mFreeInputs.poll()) != null) {
+                    mCallback.onInputBufferAvailable(FakeCodec.this, index);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() { ; }
+
+    @Override
+    public void release() {
+        released = true;
+        mWorker.shutdownNow();
+    }
+
+    @Override
+    public void flush() {
+        flushCount++;
+        mReady.clear();
+        mFreeInputs.clear();
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeInputs.add(i);
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        try {
+            final Integer index = mFreeInputs.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            return (index != null) ? index : MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+        catch (InterruptedException e) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputs[index];
+    }
+
+    @Override
+    public void queueInputBuffer(final int index, int offset, int size, final long pTimeUs, final int flags) {
+        final boolean eos = (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        inputCount++;
+        if (eos && dropEndOfStream) {
+            return;
+        }
+        final BufferInfo info = new BufferInfo();
+        info.set(0, eos ? 0 : mOutputSize, pTimeUs, flags);
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallback != null) {
+                    mCallback.onOutputBufferAvailable(FakeCodec.this, index, info);
+                    mCallback.onInputBufferAvailable(FakeCodec.this, index);
+                }
+                else {
+                    mReady.add(new Output(index, info));
+                }
+            }
+        }, mEncodeDelayUs, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        if (!mFormatSent) {
+            mFormatSent = true;
+            return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        try {
+            final Output output = mReady.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            if (output == null) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+            info.set(output.info.offset, output.info.size, output.info.presentationTimeUs, output.info.flags);
+            //sync 모드에서는 output index를 input index와 같게 사용하고, release 시 input을 반환한다.
+            return output.index;
+        }
+        catch (InterruptedException e) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        mOutputs[index].clear().limit(mOutputSize);
+        return mOutputs[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        if (mCallback == null) {
+            mFreeInputs.add(index);
+        }
+    }
+
+    @Override
+    public Format getOutputFormat() {
+        return outputFormat();
+    }
+
+    @Override
+    public void setParameter(String key, int value) {
+        if (MediaCodec.PARAMETER_KEY_VIDEO_BITRATE.equals(key)) {
+            bitrate = value;
+        }
+    }
+}
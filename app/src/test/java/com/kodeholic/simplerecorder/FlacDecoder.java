@@ -0,0 +1,374 @@
+package com.kodeholic.simplerecorder;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * JVM 테스트용 FLAC decoder. (16bit 이하, fixed/variable block size)
+ *  - SimpleFLACEncoder와 코드를 공유하지 않는다. (bit reader, CRC-8/CRC-16을 bit 단위로 따로 구현)
+ *  - frame마다 sync, frame number, CRC-8(header), CRC-16(frame)을 검사하고, STREAMINFO의 MD5가 있으면 decode 결과와 비교한다.
+ *  - 결과는 interleaved sample이며, subframe type별 개수를 기록한다.
+ */
+public class FlacDecoder {
+    //subframe type별 개수
+    public static final int SUBFRAME_CONSTANT = 0;
+    public static final int SUBFRAME_VERBATIM = 1;
+    public static final int SUBFRAME_FIXED    = 2;
+    public static final int SUBFRAME_LPC      = 3;
+
+    //STREAMINFO
+    public int    minBlockSize;
+    public int    maxBlockSize;
+    public int    minFrameSize;
+    public int    maxFrameSize;
+    public int    sampleRate;
+    public int    channelCount;
+    public int    bitsPerSample;
+    public long   totalSamples;
+    public byte[] md5 = new byte[16];
+
+    //decode 결과
+    public int         frameCount = 0;
+    public final int[] subframeCounts = new int[4];
+
+    private final byte[] mData;
+    private long mBitPos = 0;
+
+    public FlacDecoder(byte[] data) {
+        mData = data;
+    }
+
+    public boolean hasMD5() {
+        for (byte b : md5) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return interleaved sample
+     */
+    public int[] decode() throws IOException {
+        if (mData.length < 4 || mData[0] != 'f' || mData[1] != 'L' || mData[2] != 'a' || mData[3] != 'C') {
+            throw new IOException("no fLaC marker");
+        }
+        mBitPos = 32;
+        readMetadata();
+
+        final MessageDigest digest = newMD5();
+        int[] out = new int[1 << 16];
+        int   n   = 0;
+        while (mBitPos / 8 < mData.length) {
+            final int[][] channels = readFrame();
+            final int     count    = channels[0].length;
+            for (int i = 0; i < count; i++) {
+                for (int ch = 0; ch < channels.length; ch++) {
+                    final int sample = channels[ch][i];
+                    if (n == out.length) {
+                        out = Arrays.copyOf(out, n * 2);
+                    }
+                    out[n++] = sample;
+                    digest.update((byte)sample);
+                    digest.update((byte)(sample >> 8));
+                }
+            }
+            frameCount++;
+        }
+
+        if (hasMD5() && !Arrays.equals(digest.digest(), md5)) {
+            throw new IOException("MD5 mismatch!");
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private void readMetadata() throws IOException {
+        boolean last;
+        do {
+            last = readBits(1) == 1;
+            final int  type   = (int)readBits(7);
+            final int  length = (int)readBits(24);
+            final long start  = mBitPos;
+            if (type == 0) {
+                minBlockSize  = (int)readBits(16);
+                maxBlockSize  = (int)readBits(16);
+                minFrameSize  = (int)readBits(24);
+                maxFrameSize  = (int)readBits(24);
+                sampleRate    = (int)readBits(20);
+                channelCount  = (int)readBits(3) + 1;
+                bitsPerSample = (int)readBits(5) + 1;
+                totalSamples  = readBits(36);
+                for (int i = 0; i < 16; i++) {
+                    md5[i] = (byte)readBits(8);
+                }
+            }
+            mBitPos = start + length * 8L;
+        }
+        while (!last);
+    }
+
+    private int[][] readFrame() throws IOException {
+        final int frameStart = (int)(mBitPos / 8);
+        if (readBits(15) != 0x7FFC) {
+            throw new IOException("no frame sync at " + frameStart);
+        }
+        readBits(1); //blocking strategy
+        final int blockSizeCode  = (int)readBits(4);
+        final int sampleRateCode = (int)readBits(4);
+        final int assignment     = (int)readBits(4);
+        final int sampleSizeCode = (int)readBits(3);
+        if (readBits(1) != 0) {
+            throw new IOException("reserved bit");
+        }
+        final long frameNumber = readUTF8();
+        if (frameNumber != frameCount) {
+            throw new IOException("frame number " + frameNumber + " != " + frameCount);
+        }
+
+        final int blockSize;
+        if      (blockSizeCode == 1)                        blockSize = 192;
+        else if (blockSizeCode >= 2 && blockSizeCode <= 5)  blockSize = 576 << (blockSizeCode - 2);
+        else if (blockSizeCode == 6)                        blockSize = (int)readBits(8) + 1;
+        else if (blockSizeCode == 7)                        blockSize = (int)readBits(16) + 1;
+        else if (blockSizeCode >= 8)                        blockSize = 256 << (blockSizeCode - 8);
+        else throw new IOException("reserved block size");
+
+        if      (sampleRateCode == 12)                         readBits(8);
+        else if (sampleRateCode == 13 || sampleRateCode == 14) readBits(16);
+        else if (sampleRateCode == 15) throw new IOException("invalid sample rate");
+
+        final int bps = sampleSizeCode == 0 ? bitsPerSample : bitsOfSampleSizeCode(sampleSizeCode);
+
+        final int headerCrc = crc8(mData, frameStart, (int)(mBitPos / 8) - frameStart);
+        if (readBits(8) != headerCrc) {
+            throw new IOException("CRC-8 mismatch! frame: " + frameCount);
+        }
+
+        final int count = assignment < 8 ? assignment + 1 : 2;
+        final int[][] channels = new int[count][];
+        for (int ch = 0; ch < count; ch++) {
+            //side channel은 1bit 더 크다.
+            final boolean side = (assignment == 8 && ch == 1) || (assignment == 9 && ch == 0) || (assignment == 10 && ch == 1);
+            channels[ch] = readSubframe(blockSize, side ? bps + 1 : bps);
+        }
+        if (mBitPos % 8 != 0) {
+            readBits((int)(8 - mBitPos % 8));
+        }
+        final int frameCrc = crc16(mData, frameStart, (int)(mBitPos / 8) - frameStart);
+        if (readBits(16) != frameCrc) {
+            throw new IOException("CRC-16 mismatch! frame: " + frameCount);
+        }
+
+        //stereo decorrelation
+        for (int i = 0; i < blockSize && assignment >= 8; i++) {
+            final int a = channels[0][i];
+            final int b = channels[1][i];
+            switch (assignment) {
+                case 8: //left/side
+                    channels[1][i] = a - b;
+                    break;
+                case 9: //side/right
+                    channels[0][i] = a + b;
+                    break;
+                default: //mid/side
+                    final int mid = (a << 1) | (b & 1);
+                    channels[0][i] = (mid + b) >> 1;
+                    channels[1][i] = (mid - b) >> 1;
+                    break;
+            }
+        }
+        return channels;
+    }
+
+    private int[] readSubframe(int blockSize, int bps) throws IOException {
+        if (readBits(1) != 0) {
+            throw new IOException("subframe padding");
+        }
+        final int type = (int)readBits(6);
+        if (readBits(1) != 0) {
+            throw new IOException("wasted bits not supported");
+        }
+        final int[] x = new int[blockSize];
+        if (type == 0) {
+            subframeCounts[SUBFRAME_CONSTANT]++;
+            Arrays.fill(x, (int)readSignedBits(bps));
+        }
+        else if (type == 1) {
+            subframeCounts[SUBFRAME_VERBATIM]++;
+            for (int i = 0; i < blockSize; i++) {
+                x[i] = (int)readSignedBits(bps);
+            }
+        }
+        else if ((type & 0x38) == 0x08) {
+            subframeCounts[SUBFRAME_FIXED]++;
+            final int order = type & 0x07;
+            if (order > 4) {
+                throw new IOException("fixed order " + order);
+            }
+            for (int i = 0; i < order; i++) {
+                x[i] = (int)readSignedBits(bps);
+            }
+            readResidual(x, blockSize, order);
+            for (int i = order; i < blockSize; i++) {
+                final long p;
+                switch (order) {
+                    case 0 : p = 0; break;
+                    case 1 : p = x[i - 1]; break;
+                    case 2 : p = 2L * x[i - 1] - x[i - 2]; break;
+                    case 3 : p = 3L * x[i - 1] - 3L * x[i - 2] + x[i - 3]; break;
+                    default: p = 4L * x[i - 1] - 6L * x[i - 2] + 4L * x[i - 3] - x[i - 4]; break;
+                }
+                x[i] += (int)p;
+            }
+        }
+        else if ((type & 0x20) != 0) {
+            subframeCounts[SUBFRAME_LPC]++;
+            final int order = (type & 0x1F) + 1;
+            for (int i = 0; i < order; i++) {
+                x[i] = (int)readSignedBits(bps);
+            }
+            final int precision = (int)readBits(4) + 1;
+            if (precision == 16) {
+                throw new IOException("invalid qlp precision");
+            }
+            final int shift = (int)readSignedBits(5);
+            if (shift < 0) {
+                throw new IOException("negative qlp shift");
+            }
+            final long[] qlp = new long[order];
+            for (int i = 0; i < order; i++) {
+                qlp[i] = readSignedBits(precision);
+            }
+            readResidual(x, blockSize, order);
+            for (int i = order; i < blockSize; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += qlp[j] * x[i - 1 - j];
+                }
+                x[i] += (int)(sum >> shift);
+            }
+        }
+        else {
+            throw new IOException("reserved subframe type " + type);
+        }
+        return x;
+    }
+
+    private void readResidual(int[] x, int blockSize, int order) throws IOException {
+        final int method = (int)readBits(2);
+        if (method > 1) {
+            throw new IOException("reserved residual method");
+        }
+        final int paramBits = method == 0 ? 4 : 5;
+        final int escape    = method == 0 ? 15 : 31;
+        final int partitionOrder = (int)readBits(4);
+        if ((blockSize >> partitionOrder) < order) {
+            throw new IOException("partition order " + partitionOrder);
+        }
+        int i = order;
+        for (int p = 0; p < (1 << partitionOrder); p++) {
+            final int k     = (int)readBits(paramBits);
+            final int count = (blockSize >> partitionOrder) - (p == 0 ? order : 0);
+            if (k == escape) {
+                final int bits = (int)readBits(5);
+                for (int j = 0; j < count; j++) {
+                    x[i++] = (int)readSignedBits(bits);
+                }
+                continue;
+            }
+            for (int j = 0; j < count; j++) {
+                long q = 0;
+                while (readBits(1) == 0) {
+                    q++;
+                }
+                final long u = (q << k) | readBits(k);
+                x[i++] = (int)((u >>> 1) ^ -(u & 1));
+            }
+        }
+    }
+
+    private long readUTF8() throws IOException {
+        final long first = readBits(8);
+        if (first < 0x80) {
+            return first;
+        }
+        int ones = 0;
+        while (((first >> (7 - ones)) & 1) != 0) {
+            ones++;
+        }
+        long value = first & (0x3F >> (ones - 1));
+        for (int i = 0; i < ones - 1; i++) {
+            final long c = readBits(8);
+            if ((c & 0xC0) != 0x80) {
+                throw new IOException("invalid UTF-8 frame number");
+            }
+            value = (value << 6) | (c & 0x3F);
+        }
+        return value;
+    }
+
+    private long readBits(int n) throws IOException {
+        long value = 0;
+        for (int i = 0; i < n; i++) {
+            final int index = (int)(mBitPos >>> 3);
+            if (index >= mData.length) {
+                throw new IOException("unexpected end of stream");
+            }
+            value = (value << 1) | ((mData[index] >> (7 - (mBitPos & 7))) & 1);
+            mBitPos++;
+        }
+        return value;
+    }
+
+    private long readSignedBits(int n) throws IOException {
+        final long value = readBits(n);
+        if (n > 0 && ((value >> (n - 1)) & 1) != 0) {
+            return value - (1L << n);
+        }
+        return value;
+    }
+
+    private static int bitsOfSampleSizeCode(int code) throws IOException {
+        switch (code) {
+            case 1: return 8;
+            case 2: return 12;
+            case 4: return 16;
+            case 5: return 20;
+            case 6: return 24;
+            default: throw new IOException("reserved sample size " + code);
+        }
+    }
+
+    private static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xFFFF : (crc << 1) & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+
+    private static MessageDigest newMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SimpleAACMuxer.putADTSHeader()가 만든 ADTS 헤더를 bit 단위로 decode하여 확인한다.
+ */
+public class SimpleAACMuxerTest {
+
+    /**
+     * ADTS 고정/가변 헤더 (protection_absent = 1, 7바이트)
+     */
+    private static class ADTSHeader {
+        final int syncword, id, layer, protectionAbsent;
+        final int profile, freqIndex, privateBit, channelConfig;
+        final int frameLength, bufferFullness, rawDataBlocks;
+
+        ADTSHeader(ByteBuffer b, int p) {
+            long bits = 0;
+            for (int i = 0; i < 7; i++) {
+                bits = (bits << 8) | (b.get(p + i) & 0xFF);
+            }
+            syncword         = (int)(bits >>> 44) & 0xFFF;
+            id               = (int)(bits >>> 43) & 0x1;
+            layer            = (int)(bits >>> 41) & 0x3;
+            protectionAbsent = (int)(bits >>> 40) & 0x1;
+            profile          = (int)(bits >>> 38) & 0x3; //audioObjectType - 1
+            freqIndex        = (int)(bits >>> 34) & 0xF;
+            privateBit       = (int)(bits >>> 33) & 0x1;
+            channelConfig    = (int)(bits >>> 30) & 0x7;
+            frameLength      = (int)(bits >>> 13) & 0x1FFF;
+            bufferFullness   = (int)(bits >>> 2)  & 0x7FF;
+            rawDataBlocks    = (int)(bits)        & 0x3;
+        }
+    }
+
+    private static ADTSHeader put(int profile, int freqIndex, int channelConfig, int payloadSize) {
+        final ByteBuffer b = ByteBuffer.allocate(SimpleAACMuxer.ADTS_HEADER_SIZE);
+        SimpleAACMuxer.putADTSHeader(b, profile, freqIndex, channelConfig, SimpleAACMuxer.ADTS_HEADER_SIZE + payloadSize);
+        assertEquals(SimpleAACMuxer.ADTS_HEADER_SIZE, b.position());
+        return new ADTSHeader(b, 0);
+    }
+
+    @Test
+    public void decodesAllFields() {
+        final int[] payloadSizes = { 0, 1, 7, 255, 256, 371, 1024, 2040, 2041, 4096, 8000,
+                SimpleAACMuxer.MAX_ADTS_FRAME_LENGTH - SimpleAACMuxer.ADTS_HEADER_SIZE };
+        final int[][] configs = {
+                { 2, 4, 1 },  //AAC LC, 44.1kHz, mono
+                { 2, 3, 2 },  //AAC LC, 48kHz, stereo
+                { 1, 8, 2 },  //AAC Main, 16kHz, stereo
+                { 4, 11, 7 }, //AAC LTP, 8kHz, 7.1 (channelConfig 3bit 경계)
+                { 2, 0, 6 },  //96kHz, 5.1
+        };
+        for (int[] c : configs) {
+            for (int payloadSize : payloadSizes) {
+                final ADTSHeader h = put(c[0], c[1], c[2], payloadSize);
+                final String msg = "config: " + c[0] + "/" + c[1] + "/" + c[2] + ", payload: " + payloadSize;
+                assertEquals(msg, 0xFFF, h.syncword);
+                assertEquals(msg, 0, h.id);       //MPEG-4
+                assertEquals(msg, 0, h.layer);
+                assertEquals(msg, 1, h.protectionAbsent);
+                assertEquals(msg, c[0] - 1, h.profile);
+                assertEquals(msg, c[1], h.freqIndex);
+                assertEquals(msg, 0, h.privateBit);
+                assertEquals(msg, c[2], h.channelConfig);
+                assertEquals(msg, SimpleAACMuxer.ADTS_HEADER_SIZE + payloadSize, h.frameLength);
+                assertEquals(msg, 0x7FF, h.bufferFullness); //VBR
+                assertEquals(msg, 0, h.rawDataBlocks);
+            }
+        }
+    }
+
+    /**
+     * 13bit frame_length를 넘는 frame(payload 8185 이상)은 channelConfig를 침범하지 않고 거부된다.
+     */
+    @Test
+    public void rejectsFramesLargerThan13Bits() {
+        for (int payloadSize : new int[] { 8185, 8191, 8192, 65535 }) {
+            try {
+                put(2, 4, 2, payloadSize);
+                fail("payload: " + payloadSize);
+            }
+            catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFrameShorterThanHeader() {
+        SimpleAACMuxer.putADTSHeader(ByteBuffer.allocate(7), 2, 4, 1, SimpleAACMuxer.ADTS_HEADER_SIZE - 1);
+    }
+
+    /**
+     * 연속된 frame의 헤더를 frame_length로 따라가며 다시 찾을 수 있다. (ADTS parser 동작)
+     */
+    @Test
+    public void framesAreSelfSynchronizing() {
+        final ByteBuffer b = ByteBuffer.allocate(1 << 20);
+        int frames = 0;
+        for (int size = 0; b.remaining() > SimpleAACMuxer.MAX_ADTS_FRAME_LENGTH; size = (size * 31 + 17) % 8000, frames++) {
+            SimpleAACMuxer.putADTSHeader(b, 2, 4, 1, SimpleAACMuxer.ADTS_HEADER_SIZE + size);
+            b.position(b.position() + size);
+        }
+        final int end = b.position();
+        int p = 0;
+        int found = 0;
+        while (p < end) {
+            final ADTSHeader h = new ADTSHeader(b, p);
+            assertEquals(0xFFF, h.syncword);
+            p += h.frameLength;
+            found++;
+        }
+        assertEquals(end, p);
+        assertEquals(frames, found);
+    }
+
+    /**
+     * encoder drain thread에서 frame마다 호출되는 경로의 처리량
+     */
+    @Test
+    public void headerThroughput() {
+        final ByteBuffer b = ByteBuffer.allocateDirect(SimpleAACMuxer.ADTS_HEADER_SIZE * 1024);
+        final int loops = 5000000;
+        //warm-up
+        for (int i = 0; i < loops / 10; i++) {
+            if (b.remaining() < SimpleAACMuxer.ADTS_HEADER_SIZE) {
+                b.clear();
+            }
+            SimpleAACMuxer.putADTSHeader(b, 2, 4, 1, 7 + (i & 0x1FF));
+        }
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            if (b.remaining() < SimpleAACMuxer.ADTS_HEADER_SIZE) {
+                b.clear();
+            }
+            SimpleAACMuxer.putADTSHeader(b, 2, 4, 1, 7 + (i & 0x1FF));
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long perSecond    = loops * 1000000000L / Math.max(elapsedNanos, 1);
+        System.out.println("SimpleAACMuxerTest - putADTSHeader: " + (elapsedNanos / loops) + "ns/frame, " + perSecond + " frames/s");
+
+        //44.1kHz AAC는 초당 약 43 frame이다. 실시간의 10만 배 이상이어야 한다.
+        assertTrue(perSecond > 43 * 100000L);
+    }
+}
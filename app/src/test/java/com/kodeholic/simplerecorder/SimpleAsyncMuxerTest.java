@@ -0,0 +1,75 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleAsyncMuxerTest {
+
+    /**
+     * writeSample()이 release될 때까지 멈춰 있는 대상 muxer
+     */
+    private static class BlockingMuxer extends SimpleMuxer {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long>     pTimes  = new ArrayList<>();
+        boolean stopped = false;
+
+        BlockingMuxer() throws Exception {
+            super(null, "/dev/null", "BlockingMuxer");
+        }
+
+        @Override public void addAudioTrack(AudioConfig audioConfig) { ; }
+        @Override public void addVideoTrack(VideoConfig videoConfig) { ; }
+        @Override public void start() { ; }
+
+        @Override
+        public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+            release.await();
+            buffer.position(buffer.limit());
+            pTimes.add(pTimeUS);
+        }
+
+        @Override
+        public void stop(StopListener stopListener) {
+            stopped = true;
+            if (stopListener != null) {
+                stopListener.onStop();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void overrunDoesNotBlockCaptureThread() throws Exception {
+        final BlockingMuxer target = new BlockingMuxer();
+        final SimpleAsyncMuxer muxer = new SimpleAsyncMuxer(null, target, 16, 4);
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(16000, 16, 2, 1));
+        muxer.start();
+
+        //대상 muxer가 멈춰 있어도 writeSample()은 바로 반환되고 overrun만 집계된다.
+        final byte[] b = new byte[16];
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, b, 0, b.length, i);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) < 1000);
+        assertTrue(muxer.getOverrunCount() >= 100 - 4 - 1);
+        assertEquals(4, muxer.getHighWaterMark());
+
+        target.release.countDown();
+        muxer.stop(null);
+        assertTrue(target.stopped);
+
+        //버려지지 않은 chunk는 순서대로 전달된다.
+        assertEquals(100 - muxer.getOverrunCount(), target.pTimes.size());
+        for (int i = 1; i < target.pTimes.size(); i++) {
+            assertTrue(target.pTimes.get(i - 1) < target.pTimes.get(i));
+        }
+    }
+}
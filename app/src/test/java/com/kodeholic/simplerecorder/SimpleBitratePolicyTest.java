@@ -0,0 +1,183 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * SimpleBitratePolicy의 step-down/step-up 조건, 변경 간격(hysteresis), ladder 범위.
+ * ladder는 DEFAULT_LADDER { 32000, 48000, 64000, 96000 }, 기본은 64000이다.
+ */
+public class SimpleBitratePolicyTest {
+    private static final double LOUD   = -20.0;
+    private static final double SILENT = -60.0;
+
+    private static SimpleBitratePolicy newPolicy() {
+        final SimpleBitratePolicy policy = new SimpleBitratePolicy(64000);
+        policy.reportLoudness(LOUD);
+        return policy;
+    }
+
+    /**
+     * 평활화된 write latency가 HIGH_WRITE_LATENCY_US를 넘도록 보고한다.
+     */
+    private static void reportSlowWrite(SimpleBitratePolicy policy) {
+        for (int i = 0; i < 4; i++) {
+            policy.reportWriteLatency(4 * SimpleBitratePolicy.HIGH_WRITE_LATENCY_US);
+        }
+    }
+
+    private static void reportFastWrite(SimpleBitratePolicy policy) {
+        for (int i = 0; i < 32; i++) {
+            policy.reportWriteLatency(0);
+        }
+    }
+
+    @Test
+    public void nominalIsClampedToLadder() {
+        assertEquals(64000, new SimpleBitratePolicy(64000).getBitrate());
+        assertEquals(48000, new SimpleBitratePolicy(50000).getNominalBitrate());
+        //ladder 밖의 값은 최저/최고 bitrate로 맞춘다.
+        assertEquals(96000, new SimpleBitratePolicy(320000).getNominalBitrate());
+        assertEquals(32000, new SimpleBitratePolicy(8000).getNominalBitrate());
+        assertEquals(32000, new SimpleBitratePolicy(8000).getMinBitrate());
+        assertEquals(128000, new SimpleBitratePolicy(new int[] { 128000 }, 64000).getBitrate());
+
+        try {
+            new SimpleBitratePolicy(new int[0], 64000);
+            fail("empty ladder!");
+        }
+        catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void queueThreshold() {
+        final SimpleBitratePolicy policy = newPolicy();
+        policy.reportQueueDepth(49, 100);
+        assertEquals(64000, policy.evaluate(0));
+
+        policy.reportQueueDepth(50, 100);
+        assertEquals(48000, policy.evaluate(0));
+
+        //capacity가 0이면 적체로 보지 않는다.
+        policy.reportQueueDepth(10, 0);
+        assertEquals(64000, policy.evaluate(SimpleBitratePolicy.MIN_CHANGE_INTERVAL_MS));
+    }
+
+    @Test
+    public void writeLatencyThreshold() {
+        final SimpleBitratePolicy policy = newPolicy();
+        //임계값 이하는 유지한다.
+        for (int i = 0; i < 32; i++) {
+            policy.reportWriteLatency(SimpleBitratePolicy.HIGH_WRITE_LATENCY_US);
+        }
+        assertEquals(64000, policy.evaluate(0));
+
+        //한번 튀는 값은 평활화된다. (0 --> 25% 반영)
+        reportFastWrite(policy);
+        policy.reportWriteLatency(2 * SimpleBitratePolicy.HIGH_WRITE_LATENCY_US);
+        assertEquals(64000, policy.evaluate(0));
+
+        reportSlowWrite(policy);
+        assertEquals(48000, policy.evaluate(0));
+    }
+
+    /**
+     * 적체가 계속되면 MIN_CHANGE_INTERVAL_MS 마다 한 단계씩 내리며, 최저 bitrate 아래로는 내리지 않는다.
+     */
+    @Test
+    public void stepsDownOneLevelPerIntervalAndClampsToMin() {
+        final SimpleBitratePolicy policy = newPolicy();
+        final long interval = SimpleBitratePolicy.MIN_CHANGE_INTERVAL_MS;
+        reportSlowWrite(policy);
+
+        assertEquals(48000, policy.evaluate(0));
+        assertEquals(48000, policy.evaluate(1));
+        assertEquals(48000, policy.evaluate(interval - 1));
+        assertEquals(32000, policy.evaluate(interval));
+        assertEquals(32000, policy.evaluate(2 * interval));
+        assertEquals(32000, policy.evaluate(10 * interval));
+    }
+
+    /**
+     * 적체가 풀려도 변경 간격이 지난 후에 기본 bitrate로 올린다. 기본보다 높이 올리지는 않는다.
+     */
+    @Test
+    public void stepsUpAfterInterval() {
+        final SimpleBitratePolicy policy = newPolicy();
+        final long interval = SimpleBitratePolicy.MIN_CHANGE_INTERVAL_MS;
+        policy.reportQueueDepth(80, 100);
+        assertEquals(48000, policy.evaluate(0));
+
+        policy.reportQueueDepth(0, 100);
+        assertEquals(48000, policy.evaluate(interval / 2));
+        assertEquals(48000, policy.evaluate(interval - 1));
+        assertEquals(64000, policy.evaluate(interval));
+        assertEquals(64000, policy.evaluate(10 * interval));
+
+        //다시 적체되면 마지막 변경 후 간격을 지킨다. (flapping 방지)
+        policy.reportQueueDepth(80, 100);
+        assertEquals(64000, policy.evaluate(interval + 1));
+        assertEquals(48000, policy.evaluate(11 * interval));
+    }
+
+    /**
+     * 무음이 SILENCE_HOLD_MS 이상 지속되면 최저 bitrate로 내리고, 소리가 들어오면 간격과 상관없이 즉시 복귀한다.
+     */
+    @Test
+    public void silenceHoldAndImmediateRecovery() {
+        final SimpleBitratePolicy policy = newPolicy();
+        final long hold = SimpleBitratePolicy.SILENCE_HOLD_MS;
+        policy.reportLoudness(SILENT);
+        assertEquals(64000, policy.evaluate(1000));
+        assertEquals(64000, policy.evaluate(1000 + hold - 1));
+        assertEquals(32000, policy.evaluate(1000 + hold));
+
+        policy.reportLoudness(LOUD);
+        assertEquals(64000, policy.evaluate(1000 + hold + 20));
+    }
+
+    /**
+     * 무음 중간에 소리가 들어오면 무음 시간을 다시 센다. SILENCE_DBFS 자체는 무음이 아니다.
+     */
+    @Test
+    public void silenceTimerResets() {
+        final SimpleBitratePolicy policy = newPolicy();
+        final long hold = SimpleBitratePolicy.SILENCE_HOLD_MS;
+        policy.reportLoudness(SILENT);
+        assertEquals(64000, policy.evaluate(0));
+        assertEquals(64000, policy.evaluate(hold - 100));
+
+        policy.reportLoudness(SimpleBitratePolicy.SILENCE_DBFS);
+        assertEquals(64000, policy.evaluate(hold));
+
+        policy.reportLoudness(SILENT);
+        assertEquals(64000, policy.evaluate(hold + 100));
+        assertEquals(64000, policy.evaluate(2 * hold + 99));
+        assertEquals(32000, policy.evaluate(2 * hold + 100));
+    }
+
+    @Test
+    public void computeDbfs() {
+        final ByteBuffer pcm = ByteBuffer.allocate(642).order(ByteOrder.LITTLE_ENDIAN);
+        pcm.putShort((short)0);
+        for (int i = 0; i < 320; i++) {
+            pcm.putShort((short)((i & 1) == 0 ? 16384 : -16384));
+        }
+        pcm.flip();
+        pcm.position(2);
+
+        //half scale square wave --> -6dBFS
+        assertEquals(-6.02, SimpleBitratePolicy.computeDbfs(pcm), 0.01);
+        assertEquals(2, pcm.position());
+
+        assertEquals(SimpleBitratePolicy.MIN_DBFS, SimpleBitratePolicy.computeDbfs(ByteBuffer.allocate(640)), 0.0);
+        assertEquals(SimpleBitratePolicy.MIN_DBFS, SimpleBitratePolicy.computeDbfs(ByteBuffer.allocate(1)), 0.0);
+    }
+}
@@ -0,0 +1,217 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleBufferPoolTest {
+
+    @Test
+    public void generationAdvancesOnEveryAcquire() {
+        final SimpleBufferPool pool = new SimpleBufferPool(16, 1);
+        final SimpleBufferPool.Buffer first = pool.acquire();
+        final int generation = first.getGeneration();
+        first.release();
+
+        final SimpleBufferPool.Buffer second = pool.acquire();
+        assertSame(first, second);
+        assertNotEquals(generation, second.getGeneration());
+        assertEquals(1, second.getRefCount());
+    }
+
+    /**
+     * 반환 후 다시 acquire된 buffer를 이전 holder가 release하면 거부하고, 새 holder의 reference는 유지된다. (ABA)
+     */
+    @Test
+    public void staleReleaseIsRejected() {
+        final SimpleBufferPool pool = new SimpleBufferPool(16, 1);
+        final SimpleBufferPool.Buffer buffer = pool.acquire();
+        final int staleGeneration = buffer.getGeneration();
+        buffer.release(staleGeneration);
+
+        final SimpleBufferPool.Buffer reacquired = pool.acquire();
+        try {
+            buffer.release(staleGeneration);
+            fail("stale release accepted!");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        assertEquals(1, reacquired.getRefCount());
+        assertEquals(1, pool.getInUseCount());
+        assertNull(pool.acquire());
+
+        reacquired.release(reacquired.getGeneration());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test
+    public void releaseAndRetainOnReleasedBufferThrowWithoutSideEffects() {
+        final SimpleBufferPool pool = new SimpleBufferPool(16, 2);
+        final SimpleBufferPool.Buffer buffer = pool.acquire();
+        buffer.release();
+        try {
+            buffer.release();
+            fail("double release accepted!");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        try {
+            buffer.retain();
+            fail("retain on released buffer accepted!");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        assertEquals(0, buffer.getRefCount());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test
+    public void retainKeepsBufferUntilLastRelease() {
+        final SimpleBufferPool pool = new SimpleBufferPool(16, 1);
+        final SimpleBufferPool.Buffer buffer = pool.acquire();
+        final int generation = buffer.getGeneration();
+        buffer.retain(2);
+        buffer.release(generation);
+        buffer.release(generation);
+        assertEquals(1, pool.getInUseCount());
+        assertNull(pool.acquire());
+        buffer.release(generation);
+        assertEquals(0, pool.getInUseCount());
+        assertNotNull(pool.acquire());
+    }
+
+    /**
+     * 다시 acquire에 성공할 때까지의 재시도는 한번의 exhausted로 집계한다.
+     */
+    @Test
+    public void exhaustionIsCountedOncePerEpisode() throws Exception {
+        final SimpleBufferPool pool = new SimpleBufferPool(16, 2);
+        final SimpleBufferPool.Buffer a = pool.acquire();
+        final SimpleBufferPool.Buffer b = pool.acquire();
+        assertEquals(0, pool.getExhaustedCount());
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(pool.acquire());
+        }
+        for (int i = 0; i < 3; i++) {
+            assertNull(pool.acquire(1));
+        }
+        assertEquals(1, pool.getExhaustedCount());
+
+        //반환되면 exhausted 상태가 끝나고, 다시 비면 새로 집계한다.
+        a.release();
+        final SimpleBufferPool.Buffer c = pool.acquire();
+        assertNotNull(c);
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getExhaustedCount());
+
+        //같은 exhausted 상태에서 대기하다 반환되어 acquire에 성공해도 새로 집계하지 않는다.
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    //ignore
+                }
+                b.release();
+            }
+        });
+        releaser.start();
+        assertNotNull(pool.acquire(5000));
+        releaser.join();
+        assertEquals(2, pool.getExhaustedCount());
+    }
+
+    /**
+     * 여러 thread가 reference를 나누어 release하는 경우에도 reference count와 pool 상태가 일관된다.
+     */
+    @Test(timeout = 30000)
+    public void concurrentRetainReleaseStress() throws Exception {
+        final int consumers = 4;
+        final int rounds    = 50000;
+        final SimpleBufferPool pool = new SimpleBufferPool(64, 8);
+        final List<ArrayBlockingQueue<Object[]>> queues = new ArrayList<ArrayBlockingQueue<Object[]>>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Object[] endOfStream = new Object[0];
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < consumers; i++) {
+            final ArrayBlockingQueue<Object[]> queue = new ArrayBlockingQueue<Object[]>(4);
+            queues.add(queue);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            final Object[] item = queue.take();
+                            if (item == endOfStream) {
+                                return;
+                            }
+                            final SimpleBufferPool.Buffer buffer = (SimpleBufferPool.Buffer)item[0];
+                            final int generation = (Integer)item[1];
+                            //buffer 내용은 release 전까지 producer가 쓴 값이어야 한다.
+                            if (buffer.view().getInt(0) != generation) {
+                                throw new AssertionError("corrupted! " + buffer);
+                            }
+                            buffer.release(generation);
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        final Random random = new Random(7);
+        for (int i = 0; i < rounds && failure.get() == null; i++) {
+            final SimpleBufferPool.Buffer buffer = pool.acquire(1000);
+            assertNotNull(buffer);
+            final int generation = buffer.getGeneration();
+            buffer.data().putInt(0, generation);
+
+            //임의의 consumer 일부에게 reference를 나누어 준다.
+            final int mask = 1 + random.nextInt((1 << consumers) - 1);
+            buffer.retain(Integer.bitCount(mask) - 1);
+            for (int c = 0; c < consumers; c++) {
+                if ((mask & (1 << c)) != 0) {
+                    queues.get(c).put(new Object[] { buffer, generation });
+                }
+            }
+        }
+        for (ArrayBlockingQueue<Object[]> queue : queues) {
+            queue.put(endOfStream);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(0, pool.getInUseCount());
+        assertTrue(pool.getAllocatedCount() <= pool.getCapacity());
+        assertEquals(rounds, pool.getAcquireCount());
+        System.out.println("SimpleBufferPoolTest - " + pool);
+    }
+}
@@ -0,0 +1,299 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FakeCodec으로 SimpleEncoderPool의 hit/miss, recycle, 상한, clear/prewarm을 확인한다. (sync/async 모드)
+ */
+public class SimpleEncoderPoolTest {
+    private static final String KEY         = "audio/mp4a-latm/44100/1/64000";
+    private static final int    FRAME_BYTES = 2048;
+    private static final int    FRAMES      = 50;
+
+    /**
+     * FakeCodec을 사용하는 encoder를 생성하고, 생성 횟수와 codec을 기록한다.
+     */
+    private static class FakeFactory implements SimpleEncoderPool.Factory {
+        final int             mode;
+        final long            createDelayMs;
+        final AtomicInteger   created = new AtomicInteger(0);
+        final List<FakeCodec> codecs  = new ArrayList<FakeCodec>();
+
+        FakeFactory(int mode, long createDelayMs) {
+            this.mode          = mode;
+            this.createDelayMs = createDelayMs;
+        }
+
+        @Override
+        public SimpleEncoder create() throws Exception {
+            if (createDelayMs > 0) {
+                //실제 MediaCodec 생성/configure 비용을 흉내낸다.
+                Thread.sleep(createDelayMs);
+            }
+            final FakeCodec codec = new FakeCodec(0, 200);
+            synchronized (codecs) {
+                codecs.add(codec);
+            }
+            created.incrementAndGet();
+            return new SimpleEncoder(null, SimpleEncoder.ENCODER_TYPE_AUDIO, "audio/mp4a-latm", new MediaFormat(), mode, codec);
+        }
+
+        FakeCodec codec(int index) {
+            synchronized (codecs) {
+                return codecs.get(index);
+            }
+        }
+    }
+
+    private static class Recorder implements SimpleEncoder.StartListener {
+        final List<Long>     pTimes = new ArrayList<Long>();
+        volatile MediaFormat format = null;
+
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            format = outputFormat;
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            synchronized (pTimes) {
+                pTimes.add(info.presentationTimeUs);
+            }
+        }
+    }
+
+    /**
+     * FRAMES개를 encode하고 종료한다. 모든 frame이 순서대로 전달되어야 한다.
+     */
+    private static Recorder encodeAndStop(SimpleEncoder encoder) throws Exception {
+        final Recorder recorder = new Recorder();
+        encoder.startEncoder(recorder);
+
+        final ByteBuffer pcm = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAMES; i++) {
+            pcm.clear();
+            encoder.encode(pcm, FRAME_BYTES, i * 1000L, "test");
+            Thread.sleep(1);
+        }
+        assertSame(encoder, encoder.stopEncoder(null).get(2, TimeUnit.SECONDS));
+
+        assertNotNull(recorder.format);
+        synchronized (recorder.pTimes) {
+            assertEquals(FRAMES, recorder.pTimes.size());
+            for (int i = 0; i < FRAMES; i++) {
+                assertEquals(i * 1000L, (long)recorder.pTimes.get(i));
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * stop future는 recycle 전에 완료되므로, idle 개수는 잠시 기다려 확인한다.
+     */
+    private static void awaitIdle(SimpleEncoderPool pool, String key, int expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (pool.getIdleCount(key) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, pool.getIdleCount(key));
+    }
+
+    private static void awaitReleased(FakeCodec codec) throws Exception {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (!codec.released && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(codec.released);
+    }
+
+    @Test
+    public void recycleAndHit_sync() throws Exception {
+        recycleAndHit(SimpleEncoder.ENCODER_MODE_SYNC);
+    }
+
+    @Test
+    public void recycleAndHit_async() throws Exception {
+        recycleAndHit(SimpleEncoder.ENCODER_MODE_ASYNC);
+    }
+
+    private void recycleAndHit(int mode) throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(mode, 0);
+
+        //처음에는 miss --> factory로 생성
+        final SimpleEncoder first = pool.acquire(KEY, factory);
+        assertEquals(1, factory.created.get());
+        assertEquals(0, pool.getIdleCount(KEY));
+        final Recorder firstRecorder = encodeAndStop(first);
+
+        //EOS 후 codec은 release되지 않고 flush되어 pool로 돌아온다.
+        awaitIdle(pool, KEY, 1);
+        final FakeCodec codec = factory.codec(0);
+        assertFalse(codec.released);
+        assertEquals(1, codec.flushCount);
+
+        //두번째는 hit --> 같은 encoder, 생성 없음
+        final SimpleEncoder second = pool.acquire(KEY, factory);
+        assertSame(first, second);
+        assertEquals(1, factory.created.get());
+        assertEquals(0, pool.getIdleCount(KEY));
+
+        //재사용된 codec은 output format을 다시 알리지 않지만, startEncoder()에서 이전 format을 전달한다.
+        final Recorder secondRecorder = encodeAndStop(second);
+        assertSame(firstRecorder.format, secondRecorder.format);
+        assertEquals(2 * (FRAMES + 1), codec.inputCount);
+
+        awaitIdle(pool, KEY, 1);
+        assertFalse(codec.released);
+        assertEquals(2, codec.flushCount);
+    }
+
+    @Test
+    public void maxIdlePerKey() throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_SYNC, 0);
+        final int               count   = SimpleEncoderPool.MAX_IDLE_PER_KEY + 1;
+
+        final List<SimpleEncoder> encoders = new ArrayList<SimpleEncoder>();
+        for (int i = 0; i < count; i++) {
+            encoders.add(pool.acquire(KEY, factory));
+        }
+        assertEquals(count, factory.created.get());
+        for (SimpleEncoder encoder : encoders) {
+            encodeAndStop(encoder);
+        }
+
+        //상한을 넘는 encoder는 보관하지 않고 release한다.
+        awaitIdle(pool, KEY, SimpleEncoderPool.MAX_IDLE_PER_KEY);
+        awaitReleased(factory.codec(count - 1));
+        int released = 0;
+        for (int i = 0; i < count; i++) {
+            if (factory.codec(i).released) {
+                released++;
+            }
+        }
+        assertEquals(count - SimpleEncoderPool.MAX_IDLE_PER_KEY, released);
+    }
+
+    @Test
+    public void keysAreSeparate() throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_SYNC, 0);
+        final String            other   = KEY + "/other";
+
+        final SimpleEncoder encoder = pool.acquire(KEY, factory);
+        encodeAndStop(encoder);
+        awaitIdle(pool, KEY, 1);
+        assertEquals(0, pool.getIdleCount(other));
+
+        //다른 key는 idle encoder를 가져가지 않는다.
+        final SimpleEncoder otherEncoder = pool.acquire(other, factory);
+        assertNotSame(encoder, otherEncoder);
+        assertEquals(2, factory.created.get());
+        assertEquals(1, pool.getIdleCount(KEY));
+        assertEquals(other, otherEncoder.getPoolKey());
+    }
+
+    @Test
+    public void errorIsNotRecycled() throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_SYNC, 0);
+
+        final SimpleEncoder encoder = pool.acquire(KEY, factory);
+        final FakeCodec     codec   = factory.codec(0);
+        codec.dropEndOfStream = true;
+        encoder.startEncoder(new Recorder());
+        try {
+            encoder.stopEncoder(null).get(SimpleEncoder.EOS_TIMEOUT_MS + 2000, TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e) {
+            ; //EOS timeout
+        }
+
+        //EOS를 받지 못한 codec은 상태를 알 수 없으므로 재사용하지 않는다.
+        assertTrue(codec.released);
+        assertEquals(0, codec.flushCount);
+        assertEquals(0, pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void clearReleasesIdleAndRefusesRecycle() throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_SYNC, 0);
+
+        final SimpleEncoder idle  = pool.acquire(KEY, factory);
+        final SimpleEncoder inUse = pool.acquire(KEY, factory);
+        encodeAndStop(idle);
+        awaitIdle(pool, KEY, 1);
+
+        //idle encoder는 즉시 release된다.
+        pool.clear();
+        assertEquals(0, pool.getIdleCount(KEY));
+        assertTrue(factory.codec(0).released);
+
+        //사용 중이던 encoder는 종료 시 pool로 돌아오지 않고 release된다.
+        encodeAndStop(inUse);
+        awaitReleased(factory.codec(1));
+        assertEquals(0, pool.getIdleCount(KEY));
+    }
+
+    @Test
+    public void prewarm() throws Exception {
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_ASYNC, 0);
+
+        //clear() 이후에도 prewarm()하면 다시 받는다. count는 MAX_IDLE_PER_KEY로 제한된다.
+        pool.clear();
+        pool.prewarm(KEY, SimpleEncoderPool.MAX_IDLE_PER_KEY + 3, factory);
+        awaitIdle(pool, KEY, SimpleEncoderPool.MAX_IDLE_PER_KEY);
+        Thread.sleep(50);
+        assertEquals(SimpleEncoderPool.MAX_IDLE_PER_KEY, factory.created.get());
+        assertEquals(SimpleEncoderPool.MAX_IDLE_PER_KEY, pool.getIdleCount(KEY));
+
+        //prewarm된 encoder는 처음 사용할 때 codec이 보낸 output format을 전달한다.
+        final SimpleEncoder encoder = pool.acquire(KEY, factory);
+        assertEquals(SimpleEncoderPool.MAX_IDLE_PER_KEY, factory.created.get());
+        encodeAndStop(encoder);
+        awaitIdle(pool, KEY, SimpleEncoderPool.MAX_IDLE_PER_KEY);
+    }
+
+    /**
+     * 생성 비용(configure/start)이 큰 경우 hit은 생성 비용 없이 반환된다.
+     */
+    @Test
+    public void hitSkipsCreateCost() throws Exception {
+        final long              createDelayMs = 100;
+        final SimpleEncoderPool pool    = new SimpleEncoderPool();
+        final FakeFactory       factory = new FakeFactory(SimpleEncoder.ENCODER_MODE_SYNC, createDelayMs);
+
+        long startNanos = System.nanoTime();
+        final SimpleEncoder encoder = pool.acquire(KEY, factory);
+        final long missMs = (System.nanoTime() - startNanos) / 1000000L;
+        encodeAndStop(encoder);
+        awaitIdle(pool, KEY, 1);
+
+        startNanos = System.nanoTime();
+        assertSame(encoder, pool.acquire(KEY, factory));
+        final long hitMs = (System.nanoTime() - startNanos) / 1000000L;
+        System.out.println("hitSkipsCreateCost() - missMs: " + missMs + ", hitMs: " + hitMs);
+
+        assertTrue(missMs >= createDelayMs);
+        assertTrue("hitMs: " + hitMs, hitMs < createDelayMs / 4);
+    }
+}
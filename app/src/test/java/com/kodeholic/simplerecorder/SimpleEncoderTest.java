@@ -0,0 +1,268 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FakeCodec으로 SimpleEncoder의 입력 -> output 전달과 지연을 확인한다. (sync/async 모드)
+ */
+public class SimpleEncoderTest {
+    private static final int FRAME_BYTES = 2048; //1024 samples, 16bit mono
+    private static final int FRAMES      = 500;
+
+    /**
+     * onEncoded() 시점에 입력 시각과의 차이를 기록한다.
+     */
+    private static class Recorder implements SimpleEncoder.StartListener {
+        final long[]     queuedNanos  = new long[FRAMES];
+        final long[]     latencyNanos = new long[FRAMES];
+        final List<Long> pTimes       = new ArrayList<Long>();
+        volatile MediaFormat format   = null;
+        volatile int     encodedBytes = 0;
+
+        @Override
+        public void onStart(SimpleEncoder encoder, MediaFormat outputFormat) {
+            format = outputFormat;
+        }
+
+        @Override
+        public void onEncoded(SimpleEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            final int frame = (int)(info.presentationTimeUs / 1000);
+            latencyNanos[frame] = System.nanoTime() - queuedNanos[frame];
+            pTimes.add(info.presentationTimeUs);
+            encodedBytes += buffer.remaining();
+        }
+    }
+
+    private static SimpleEncoder newEncoder(int mode, FakeCodec codec) throws Exception {
+        return new SimpleEncoder(null, SimpleEncoder.ENCODER_TYPE_AUDIO, "audio/mp4a-latm", new MediaFormat(), mode, codec);
+    }
+
+    private void encodeAndStop(String name, int mode, long encodeDelayUs) throws Exception {
+        final FakeCodec     codec    = new FakeCodec(encodeDelayUs, 200);
+        final SimpleEncoder encoder  = newEncoder(mode, codec);
+        final Recorder      recorder = new Recorder();
+        assertTrue(codec.configured);
+        encoder.startEncoder(recorder);
+
+        final ByteBuffer pcm = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAMES; i++) {
+            pcm.clear();
+            recorder.queuedNanos[i] = System.nanoTime();
+            encoder.encode(pcm, FRAME_BYTES, i * 1000L, "test");
+            //실제 capture 보다 20배 이상 빠르게 넣는다. (async 모드는 MAX_PENDING_PCM을 넘으면 버린다)
+            Thread.sleep(1);
+        }
+        final long stopNanos = System.nanoTime();
+        final SimpleFuture<SimpleEncoder> stopFuture = encoder.stopEncoder(null);
+        assertSame(encoder, stopFuture.get(2, TimeUnit.SECONDS));
+        final long eosNanos = System.nanoTime() - stopNanos;
+
+        //모든 frame이 순서대로 한번씩 전달되고, codec이 해제된다.
+        assertEquals(FRAMES, recorder.pTimes.size());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i * 1000L, (long)recorder.pTimes.get(i));
+        }
+        assertEquals(FRAMES * 200, recorder.encodedBytes);
+        assertNotNull(recorder.format);
+        assertTrue(codec.released);
+
+        final long[] sorted = Arrays.copyOf(recorder.latencyNanos, FRAMES);
+        Arrays.sort(sorted);
+        final long p50 = sorted[FRAMES / 2] / 1000;
+        final long p99 = sorted[FRAMES * 99 / 100] / 1000;
+        System.out.println("SimpleEncoderTest - " + name + ", encodeDelayUs: " + encodeDelayUs
+                + ", latency p50: " + p50 + "us, p99: " + p99 + "us, eos: " + eosNanos / 1000 + "us");
+
+        //fake codec 지연 외에 100ms(TIMEOUT_USEC)를 넘는 추가 지연이 없어야 한다.
+        assertTrue("p99: " + p99 + "us", p99 < encodeDelayUs * FakeCodec.BUFFER_COUNT + SimpleEncoder.TIMEOUT_USEC);
+    }
+
+    @Test(timeout = 30000)
+    public void syncModeDeliversAllFrames() throws Exception {
+        encodeAndStop("sync", SimpleEncoder.ENCODER_MODE_SYNC, 0);
+        encodeAndStop("sync", SimpleEncoder.ENCODER_MODE_SYNC, 500);
+    }
+
+    @Test(timeout = 30000)
+    public void asyncModeDeliversAllFrames() throws Exception {
+        encodeAndStop("async", SimpleEncoder.ENCODER_MODE_ASYNC, 0);
+        encodeAndStop("async", SimpleEncoder.ENCODER_MODE_ASYNC, 500);
+    }
+
+    @Test
+    public void setBitrateUsesPlainParameter() throws Exception {
+        final FakeCodec     codec   = new FakeCodec(0, 200);
+        final SimpleEncoder encoder = newEncoder(SimpleEncoder.ENCODER_MODE_SYNC, codec);
+        assertTrue(encoder.setBitrate(32000));
+        assertEquals(32000, codec.bitrate);
+        encoder.release();
+        assertTrue(codec.released);
+    }
+
+    /**
+     * TimedSampleReader는 read() 후에 pTime을 정한다. (SimpleRecorder direct 모드의 첫 chunk anchor)
+     */
+    @Test(timeout = 10000)
+    public void timedReaderPTimeIsTakenAfterRead() throws Exception {
+        final FakeCodec     codec    = new FakeCodec(0, 200);
+        final SimpleEncoder encoder  = newEncoder(SimpleEncoder.ENCODER_MODE_SYNC, codec);
+        final Recorder      recorder = new Recorder();
+        encoder.startEncoder(recorder);
+
+        final long[] readCount = { 0 };
+        final SimpleMuxer.TimedSampleReader reader = new SimpleMuxer.TimedSampleReader() {
+            @Override
+            public int read(ByteBuffer buffer, int maxLength) {
+                readCount[0]++;
+                buffer.put(new byte[FRAME_BYTES]);
+                return FRAME_BYTES;
+            }
+
+            @Override
+            public long getPTimeUs() {
+                //read() 이전에 호출되면 -1000이 된다.
+                return (readCount[0] - 1) * 1000L;
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            recorder.queuedNanos[i] = System.nanoTime();
+            assertEquals(FRAME_BYTES, encoder.encode(reader, FRAME_BYTES, -1, "test"));
+        }
+        encoder.stopEncoder(null).get(2, TimeUnit.SECONDS);
+        assertEquals(10, recorder.pTimes.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 1000L, (long)recorder.pTimes.get(i));
+        }
+    }
+
+    /**
+     * writeSample(int, SampleReader, int, long)의 zero-copy 경로 (SimpleEncoder.encode(reader, ...))
+     *  - reader는 codec input buffer에 직접 쓴다.
+     *  - 읽은 데이타가 없으면(0) 빈 buffer를 queue하지 않고, 다음 encode()나 EOS에서 그 buffer를 다시 사용한다.
+     *  - read 오류(음수)는 queue하지 않고 그대로 반환한다.
+     */
+    private void encodeFromReader(int mode) throws Exception {
+        final int           ERROR    = -3; //AudioRecord.ERROR_INVALID_OPERATION
+        final int[]         results  = { FRAME_BYTES, 0, FRAME_BYTES, 0, 0, 0, 0, 0, FRAME_BYTES, ERROR, FRAME_BYTES, ERROR, 0 };
+        final FakeCodec     codec    = new FakeCodec(0, 200);
+        final SimpleEncoder encoder  = newEncoder(mode, codec);
+        final Recorder      recorder = new Recorder();
+        encoder.startEncoder(recorder);
+        //async 모드는 input buffer가 callback으로 전달될 때까지 기다린다.
+        Thread.sleep(50);
+
+        final List<ByteBuffer> readBuffers = new ArrayList<ByteBuffer>();
+        final int[] call = { 0 };
+        final SimpleMuxer.SampleReader reader = new SimpleMuxer.SampleReader() {
+            @Override
+            public int read(ByteBuffer buffer, int maxLength) {
+                readBuffers.add(buffer);
+                final int n = results[call[0]];
+                if (n > 0) {
+                    buffer.put(new byte[n]);
+                }
+                return n;
+            }
+        };
+        for (; call[0] < results.length; call[0]++) {
+            final int i = call[0];
+            recorder.queuedNanos[i] = System.nanoTime();
+            assertEquals("call: " + i, results[i], encoder.encode(reader, FRAME_BYTES, i * 1000L, "test"));
+            Thread.sleep(5);
+        }
+        encoder.stopEncoder(null).get(2, TimeUnit.SECONDS);
+
+        //복사 없이 codec input buffer로 읽었다.
+        assertEquals(results.length, readBuffers.size());
+        for (ByteBuffer buffer : readBuffers) {
+            boolean isInput = false;
+            for (int index = 0; index < FakeCodec.BUFFER_COUNT; index++) {
+                isInput |= (buffer == codec.getInputBuffer(index));
+            }
+            assertTrue(isInput);
+        }
+
+        //데이타가 있는 read만 queue되었다. (+ EOS)
+        assertEquals(4 + 1, codec.inputCount);
+        assertEquals(Arrays.asList(0L, 2000L, 8000L, 10000L), recorder.pTimes);
+        assertEquals(4 * 200, recorder.encodedBytes);
+    }
+
+    @Test(timeout = 10000)
+    public void syncReaderSkipsEmptyAndFailedReads() throws Exception {
+        encodeFromReader(SimpleEncoder.ENCODER_MODE_SYNC);
+    }
+
+    @Test(timeout = 10000)
+    public void asyncReaderSkipsEmptyAndFailedReads() throws Exception {
+        encodeFromReader(SimpleEncoder.ENCODER_MODE_ASYNC);
+    }
+
+    /**
+     * async 모드에서 input buffer가 반환되지 않으면 MAX_PENDING_PCM까지만 보관하고, 나머지는 버린 개수를 센다.
+     */
+    @Test(timeout = 10000)
+    public void asyncPendingOverflowIsCounted() throws Exception {
+        final FakeCodec     codec   = new FakeCodec(5 * 1000 * 1000, 200);
+        final SimpleEncoder encoder = newEncoder(SimpleEncoder.ENCODER_MODE_ASYNC, codec);
+        encoder.startEncoder(new Recorder());
+        //input buffer가 callback으로 전달될 때까지 기다린다.
+        Thread.sleep(50);
+
+        final int  dropped = 10;
+        final int  frames  = FakeCodec.BUFFER_COUNT + SimpleEncoder.MAX_PENDING_PCM + dropped;
+        final ByteBuffer pcm = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < frames; i++) {
+            pcm.clear();
+            encoder.encode(pcm, FRAME_BYTES, i * 1000L, "test");
+        }
+        assertEquals(FakeCodec.BUFFER_COUNT, codec.inputCount);
+        assertEquals(dropped, encoder.getPendingDroppedCount());
+
+        //다른 instance의 개수와 섞이지 않는다.
+        final SimpleEncoder other = newEncoder(SimpleEncoder.ENCODER_MODE_ASYNC, new FakeCodec(0, 200));
+        assertEquals(0, other.getPendingDroppedCount());
+        other.release();
+        encoder.release();
+    }
+
+    /**
+     * codec이 EOS output을 내보내지 않으면 EOS_TIMEOUT_MS 후 TimeoutException으로 실패한다.
+     */
+    @Test(timeout = 30000)
+    public void asyncEosTimeout() throws Exception {
+        final FakeCodec     codec   = new FakeCodec(0, 200);
+        final SimpleEncoder encoder = newEncoder(SimpleEncoder.ENCODER_MODE_ASYNC, codec);
+        codec.dropEndOfStream = true;
+        encoder.startEncoder(new Recorder());
+
+        final long startNanos = System.nanoTime();
+        try {
+            encoder.stopEncoder(null).get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        final long elapsedMs = (System.nanoTime() - startNanos) / 1000000;
+        assertTrue("elapsedMs: " + elapsedMs, elapsedMs >= SimpleEncoder.EOS_TIMEOUT_MS);
+        assertTrue(codec.released);
+    }
+}
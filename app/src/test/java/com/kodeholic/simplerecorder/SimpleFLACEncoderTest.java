@@ -0,0 +1,320 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleFLACEncoder의 출력을 별도 구현인 FlacDecoder로 decode하여 원본 PCM과 비교한다.
+ *  - FlacDecoder가 frame마다 CRC-8/CRC-16과 frame number를, 마지막에 STREAMINFO MD5를 검사한다.
+ */
+public class SimpleFLACEncoderTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("flac", ".flac");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * encode된 frame을 모은다.
+     */
+    private static class Collector implements SimpleFLACEncoder.Output {
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+        @Override
+        public void onFrame(byte[] frame, int length) throws Exception {
+            frames.write(frame, 0, length);
+        }
+    }
+
+    /**
+     * pcm을 chunk 단위로 encode하여 "fLaC" + STREAMINFO + frame을 반환한다.
+     */
+    private static byte[] encode(SimpleFLACEncoder encoder, short[] pcm, int chunkBytes) throws Exception {
+        return encode(encoder, toBytes(pcm), chunkBytes);
+    }
+
+    private static byte[] encode(SimpleFLACEncoder encoder, byte[] pcm, int chunkBytes) throws Exception {
+        final Collector collector = new Collector();
+        for (int off = 0; off < pcm.length; off += chunkBytes) {
+            encoder.write(ByteBuffer.wrap(pcm, off, Math.min(chunkBytes, pcm.length - off)), collector);
+        }
+        encoder.finish(collector);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encoder.buildHeader(true));
+        out.write(collector.frames.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] toBytes(short[] pcm) {
+        final ByteBuffer b = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        b.asShortBuffer().put(pcm);
+        return b.array();
+    }
+
+    private static int[] toInts(short[] pcm) {
+        final int[] x = new int[pcm.length];
+        for (int i = 0; i < pcm.length; i++) {
+            x[i] = pcm[i];
+        }
+        return x;
+    }
+
+    private static short clip(double v) {
+        return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v)));
+    }
+
+    /**
+     * 음성과 비슷한 mono 신호 (harmonic + 음절 envelope + 약한 noise)
+     */
+    private static short[] speech(int frames) {
+        final short[] pcm    = new short[frames];
+        final Random  random = new Random(1);
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            final double t = (double)i / SAMPLE_RATE;
+            phase += 2 * Math.PI * (140 + 40 * Math.sin(2 * Math.PI * 0.5 * t)) / SAMPLE_RATE;
+            double voiced = 0;
+            for (int h = 1; h <= 12; h++) {
+                voiced += Math.sin(h * phase) / h;
+            }
+            pcm[i] = clip(8000 * Math.abs(Math.sin(2 * Math.PI * 3 * t)) * voiced + 50 * random.nextGaussian());
+        }
+        return pcm;
+    }
+
+    /**
+     * L/R 상관이 높은 stereo 신호 (interleaved)
+     */
+    private static short[] stereoMusic(int frames) {
+        final short[] pcm    = new short[frames * 2];
+        final Random  random = new Random(2);
+        for (int i = 0; i < frames; i++) {
+            final double t = (double)i / SAMPLE_RATE;
+            final double a = 6000 * Math.sin(2 * Math.PI * 220 * t) + 3000 * Math.sin(2 * Math.PI * 330 * t);
+            final double b = 2000 * Math.sin(2 * Math.PI * 1250 * t);
+            pcm[i * 2]     = clip(a + b + 20 * random.nextGaussian());
+            pcm[i * 2 + 1] = clip(a - b + 20 * random.nextGaussian());
+        }
+        return pcm;
+    }
+
+    private static short[] white(int samples, long seed) {
+        final short[] pcm    = new short[samples];
+        final Random  random = new Random(seed);
+        for (int i = 0; i < samples; i++) {
+            pcm[i] = (short)random.nextInt();
+        }
+        return pcm;
+    }
+
+    private static FlacDecoder decodeAndCompare(byte[] flac, short[] pcm) throws Exception {
+        final FlacDecoder decoder = new FlacDecoder(flac);
+        assertArrayEquals(toInts(pcm), decoder.decode());
+        assertTrue(decoder.hasMD5());
+        return decoder;
+    }
+
+    @Test
+    public void monoSpeechRoundTrip() throws Exception {
+        final short[] pcm = speech(SAMPLE_RATE * 2);
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 1, SimpleFLACEncoder.DEFAULT_BLOCK_SIZE);
+        final byte[] flac = encode(encoder, pcm, 3584);
+        final FlacDecoder decoder = decodeAndCompare(flac, pcm);
+
+        assertEquals(SAMPLE_RATE, decoder.sampleRate);
+        assertEquals(1, decoder.channelCount);
+        assertEquals(16, decoder.bitsPerSample);
+        assertEquals(pcm.length, decoder.totalSamples);
+        assertEquals(encoder.getFrameCount(), decoder.frameCount);
+        //음성은 LPC/FIXED로 줄어야 한다.
+        assertTrue(decoder.subframeCounts[FlacDecoder.SUBFRAME_LPC] + decoder.subframeCounts[FlacDecoder.SUBFRAME_FIXED] > 0);
+        assertTrue("ratio: " + flac.length + "/" + pcm.length * 2, flac.length < pcm.length * 2 * 7 / 10);
+    }
+
+    @Test
+    public void stereoMusicRoundTrip() throws Exception {
+        final short[] pcm = stereoMusic(SAMPLE_RATE);
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 2, SimpleFLACEncoder.DEFAULT_BLOCK_SIZE);
+        final FlacDecoder decoder = decodeAndCompare(encode(encoder, pcm, 4096), pcm);
+        assertEquals(2, decoder.channelCount);
+        assertEquals(pcm.length / 2, decoder.totalSamples);
+    }
+
+    @Test
+    public void whiteNoiseFallsBackToVerbatim() throws Exception {
+        final short[] pcm = white(SAMPLE_RATE, 3);
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 1, 1024);
+        final byte[] flac = encode(encoder, pcm, 1000);
+        final FlacDecoder decoder = decodeAndCompare(flac, pcm);
+
+        assertTrue(decoder.subframeCounts[FlacDecoder.SUBFRAME_VERBATIM] > 0);
+        //VERBATIM은 원본보다 frame header 만큼만 커진다.
+        assertTrue(flac.length <= pcm.length * 2 + decoder.frameCount * 32 + SimpleFLACEncoder.HEADER_SIZE);
+    }
+
+    @Test
+    public void silenceIsConstant() throws Exception {
+        final short[] pcm = new short[SAMPLE_RATE * 2];
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 2, SimpleFLACEncoder.DEFAULT_BLOCK_SIZE);
+        final byte[] flac = encode(encoder, pcm, 3584);
+        final FlacDecoder decoder = decodeAndCompare(flac, pcm);
+
+        assertEquals(decoder.frameCount * 2, decoder.subframeCounts[FlacDecoder.SUBFRAME_CONSTANT]);
+        assertTrue(flac.length < 1024);
+    }
+
+    @Test
+    public void blockSizes() throws Exception {
+        final short[] pcm = stereoMusic(SAMPLE_RATE / 2 + 77);
+        for (int blockSize : new int[] { SimpleFLACEncoder.MIN_BLOCK_SIZE, 192, 1000, 4096, 4608 }) {
+            final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 2, blockSize);
+            final FlacDecoder decoder = decodeAndCompare(encode(encoder, pcm, 4096), pcm);
+            assertEquals(blockSize, decoder.minBlockSize);
+            assertEquals(blockSize, decoder.maxBlockSize);
+            assertEquals((pcm.length / 2 + blockSize - 1) / blockSize, decoder.frameCount);
+        }
+    }
+
+    @Test
+    public void fixedOnlyAndLpcOrders() throws Exception {
+        final short[] pcm = speech(SAMPLE_RATE / 2);
+        for (int lpcOrder : new int[] { 0, 1, 12, SimpleFLACEncoder.MAX_LPC_ORDER }) {
+            final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 1, 4096, lpcOrder, 4);
+            final FlacDecoder decoder = decodeAndCompare(encode(encoder, pcm, 4096), pcm);
+            if (lpcOrder == 0) {
+                assertEquals(0, decoder.subframeCounts[FlacDecoder.SUBFRAME_LPC]);
+            }
+        }
+    }
+
+    /**
+     * frame 경계와 맞지 않는 chunk로 나누어도 한 번에 넣은 것과 같은 stream이 나온다.
+     */
+    @Test
+    public void oddChunksMatchSingleWrite() throws Exception {
+        final byte[] pcm  = toBytes(stereoMusic(10000));
+        final byte[] once = encode(new SimpleFLACEncoder(SAMPLE_RATE, 2, 1152), pcm, pcm.length);
+        for (int chunk : new int[] { 1, 3, 7, 1001, 4099 }) {
+            assertArrayEquals("chunk: " + chunk, once, encode(new SimpleFLACEncoder(SAMPLE_RATE, 2, 1152), pcm, chunk));
+        }
+    }
+
+    /**
+     * 끝에 남은 frame 조각은 버려지며, MD5도 encode된 sample만으로 계산된다.
+     */
+    @Test
+    public void trailingFragmentIsExcludedFromMD5() throws Exception {
+        final short[] pcm   = stereoMusic(5000);
+        final byte[]  bytes = toBytes(pcm);
+        final byte[]  tail  = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, tail, 0, bytes.length);
+        tail[bytes.length]     = 0x55;
+        tail[bytes.length + 1] = 0x66;
+        tail[bytes.length + 2] = 0x77;
+
+        for (int chunk : new int[] { tail.length, 1000, 4 }) {
+            final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 2, 4096);
+            final byte[] flac = encode(encoder, tail, chunk);
+            assertEquals(5000, encoder.getTotalSamples());
+            assertArrayEquals(encode(new SimpleFLACEncoder(SAMPLE_RATE, 2, 4096), bytes, bytes.length), flac);
+            decodeAndCompare(flac, pcm);
+        }
+    }
+
+    @Test
+    public void shortStream() throws Exception {
+        final short[] pcm = speech(100);
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 1, 4096);
+        final FlacDecoder decoder = decodeAndCompare(encode(encoder, pcm, 3584), pcm);
+        assertEquals(1, decoder.frameCount);
+    }
+
+    @Test
+    public void streamInfo() throws Exception {
+        final short[] pcm = speech(SAMPLE_RATE);
+        final SimpleFLACEncoder encoder = new SimpleFLACEncoder(SAMPLE_RATE, 1, 4096);
+        final FlacDecoder decoder = decodeAndCompare(encode(encoder, pcm, 3584), pcm);
+        assertEquals(encoder.getMinFrameSize(), decoder.minFrameSize);
+        assertEquals(encoder.getMaxFrameSize(), decoder.maxFrameSize);
+        assertTrue(decoder.minFrameSize > 0 && decoder.minFrameSize <= decoder.maxFrameSize);
+
+        //녹음 중(complete = false)에는 total samples와 MD5를 unknown(0)으로 쓴다.
+        final FlacDecoder partial = new FlacDecoder(encoder.buildHeader(false));
+        partial.decode();
+        assertEquals(0, partial.totalSamples);
+        assertFalse(partial.hasMD5());
+        assertEquals(SAMPLE_RATE, partial.sampleRate);
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            final byte[] b = new byte[(int)f.length()];
+            f.readFully(b);
+            return b;
+        }
+    }
+
+    @Test
+    public void muxerWritesDecodableFile() throws Exception {
+        final short[] pcm   = stereoMusic(SAMPLE_RATE * 2);
+        final byte[]  bytes = toBytes(pcm);
+        final SimpleFLACMuxer muxer = new SimpleFLACMuxer(null, mFile.getPath(), 4096);
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, 12, 2, 2));
+        muxer.start();
+        for (int off = 0; off < bytes.length; off += 3584) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, bytes, off, Math.min(3584, bytes.length - off), 0);
+            //실시간처럼 encode thread가 따라올 시간을 준다.
+            if (muxer.getHighWaterMark() > SimpleFLACMuxer.DEFAULT_SLOT_COUNT / 2) {
+                Thread.sleep(1);
+            }
+        }
+        muxer.stop(null);
+
+        assertEquals(0, muxer.getLostSampleCount());
+        decodeAndCompare(readAll(mFile), pcm);
+    }
+
+    /**
+     * ring이 넘치면 버려진 sample은 getLostSampleCount()로 집계되고, 나머지는 정상 decode된다.
+     */
+    @Test
+    public void overrunIsCounted() throws Exception {
+        final int     chunk = 256;
+        final byte[]  bytes = toBytes(white(chunk / 2 * 1000, 4));
+        final SimpleFLACMuxer muxer = new SimpleFLACMuxer(null, mFile.getPath(), 4096, 64 * 1024, chunk, 2);
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, 12, 2, 2));
+        muxer.start();
+        for (int off = 0; off < bytes.length; off += chunk) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, bytes, off, chunk, 0);
+        }
+        muxer.stop(null);
+
+        final FlacDecoder decoder = new FlacDecoder(readAll(mFile));
+        final int[] decoded = decoder.decode();
+        assertEquals(bytes.length / 4, decoded.length / 2 + muxer.getLostSampleCount());
+        assertEquals(decoded.length / 2, decoder.totalSamples);
+        assertEquals(muxer.getOverrunCount() * chunk / 4, muxer.getLostSampleCount());
+    }
+}
@@ -0,0 +1,196 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleFMP4Writer 출력을 box 단위로 파싱하여 구조와 trun/tfdt 값을 확인한다.
+ */
+public class SimpleFMP4WriterTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAMES_PER_FRAGMENT = 10;
+
+    /**
+     * ISO BMFF box (size/type 헤더 + payload 위치)
+     */
+    private static class Box {
+        final String type;
+        final int    start; //box 시작 위치
+        final int    size;
+
+        Box(String type, int start, int size) {
+            this.type  = type;
+            this.start = start;
+            this.size  = size;
+        }
+
+        int payload() { return start + 8; }
+        int end()     { return start + size; }
+    }
+
+    private static List<Box> parse(ByteBuffer b, int start, int end) {
+        final List<Box> boxes = new ArrayList<Box>();
+        int pos = start;
+        while (pos < end) {
+            final int size = b.getInt(pos);
+            assertTrue("box size: " + size + " at " + pos, size >= 8 && pos + size <= end);
+            final byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = b.get(pos + 4 + i);
+            }
+            boxes.add(new Box(new String(type), pos, size));
+            pos += size;
+        }
+        assertEquals(end, pos);
+        return boxes;
+    }
+
+    private static Box child(ByteBuffer b, Box parent, int skip, String type) {
+        for (Box box : parse(b, parent.payload() + skip, parent.end())) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static Box path(ByteBuffer b, Box root, String... types) {
+        Box box = root;
+        for (String type : types) {
+            box = child(b, box, 0, type);
+            assertNotNull(type, box);
+        }
+        return box;
+    }
+
+    private static byte[] frame(int index) {
+        //크기가 다양한 frame (fragment buffer 확장 포함)
+        final int size = (index % 7 == 3) ? 5000 : 100 + (index * 37) % 400;
+        final byte[] frame = new byte[size];
+        for (int i = 0; i < size; i++) {
+            frame[i] = (byte)(index + i);
+        }
+        return frame;
+    }
+
+    @Test
+    public void layoutTrunOffsetsAndTfdt() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] asc = SimpleFMP4Writer.buildAudioSpecificConfig(SAMPLE_RATE, 1);
+        final SimpleFMP4Writer writer = new SimpleFMP4Writer(Channels.newChannel(os), SAMPLE_RATE, 1, asc, FRAMES_PER_FRAGMENT, 64000);
+        writer.writeHeader();
+
+        final int frames = 5 * FRAMES_PER_FRAGMENT + 3; //마지막 fragment는 flush()로 내려쓴다.
+        for (int i = 0; i < frames; i++) {
+            writer.writeFrame(ByteBuffer.wrap(frame(i)));
+        }
+        writer.flush();
+        assertEquals(6, writer.getFragmentCount());
+        assertEquals((long)frames * 1024 * 1000000L / SAMPLE_RATE, writer.getDurationUs());
+
+        final ByteBuffer b = ByteBuffer.wrap(os.toByteArray());
+        assertEquals(b.capacity(), writer.getWrittenBytes());
+        final List<Box> top = parse(b, 0, b.capacity());
+
+        //ftyp, moov, (moof, mdat) x N
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        assertEquals(2 + 2 * 6, top.size());
+
+        //moov: mdhd timescale, trex default duration, esds AudioSpecificConfig
+        final Box moov = top.get(1);
+        final Box mdhd = path(b, moov, "trak", "mdia", "mdhd");
+        assertEquals(SAMPLE_RATE, b.getInt(mdhd.payload() + 4 + 8));
+        final Box trex = path(b, moov, "mvex", "trex");
+        assertEquals(SimpleFMP4Writer.TRACK_ID, b.getInt(trex.payload() + 4));
+        assertEquals(SimpleFMP4Writer.AAC_FRAME_SAMPLES, b.getInt(trex.payload() + 12));
+        final Box stsd = path(b, moov, "trak", "mdia", "minf", "stbl", "stsd");
+        final Box mp4a = child(b, stsd, 8, "mp4a");
+        assertNotNull(mp4a);
+        final Box esds = child(b, mp4a, 28, "esds");
+        assertNotNull(esds);
+        final byte[] found = new byte[asc.length];
+        final int ascPos = esds.payload() + 4 + 2 + 3 + 2 + 13 + 2; //ES_Descriptor, DecoderConfigDescriptor, DecoderSpecificInfo 헤더
+        for (int i = 0; i < asc.length; i++) {
+            found[i] = b.get(ascPos + i);
+        }
+        assertArrayEquals(asc, found);
+
+        int frameIndex = 0;
+        for (int k = 0; k < 6; k++) {
+            final Box moof = top.get(2 + 2 * k);
+            final Box mdat = top.get(3 + 2 * k);
+            assertEquals("moof", moof.type);
+            assertEquals("mdat", mdat.type);
+
+            //mfhd sequence_number
+            final Box mfhd = path(b, moof, "mfhd");
+            assertEquals(k + 1, b.getInt(mfhd.payload() + 4));
+
+            //tfhd: default-base-is-moof
+            final Box tfhd = path(b, moof, "traf", "tfhd");
+            assertEquals(0x020000, b.getInt(tfhd.payload()) & 0xffffff);
+
+            //tfdt(version 1): 앞선 fragment의 sample 수 * 1024
+            final Box tfdt = path(b, moof, "traf", "tfdt");
+            assertEquals(1, b.get(tfdt.payload()));
+            assertEquals((long)k * FRAMES_PER_FRAGMENT * 1024, b.getLong(tfdt.payload() + 4));
+
+            //trun: data_offset은 moof 시작 기준 mdat payload 위치
+            final Box trun = path(b, moof, "traf", "trun");
+            final int count = b.getInt(trun.payload() + 4);
+            assertEquals(k < 5 ? FRAMES_PER_FRAGMENT : 3, count);
+            final int dataOffset = b.getInt(trun.payload() + 8);
+            assertEquals(mdat.payload(), moof.start + dataOffset);
+
+            int offset = moof.start + dataOffset;
+            for (int i = 0; i < count; i++) {
+                final int duration = b.getInt(trun.payload() + 12 + i * 8);
+                final int size     = b.getInt(trun.payload() + 16 + i * 8);
+                assertEquals(1024, duration);
+                final byte[] expected = frame(frameIndex++);
+                assertEquals(expected.length, size);
+                final byte[] actual = new byte[size];
+                for (int j = 0; j < size; j++) {
+                    actual[j] = b.get(offset + j);
+                }
+                assertArrayEquals(expected, actual);
+                offset += size;
+            }
+            assertEquals(mdat.end(), offset);
+        }
+        assertEquals(frames, frameIndex);
+    }
+
+    @Test
+    public void flushWithoutFramesWritesNothing() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final SimpleFMP4Writer writer = new SimpleFMP4Writer(Channels.newChannel(os), SAMPLE_RATE, 2,
+                SimpleFMP4Writer.buildAudioSpecificConfig(SAMPLE_RATE, 2), FRAMES_PER_FRAGMENT, 64000);
+        writer.flush();
+        assertEquals(0, os.size());
+        assertEquals(0, writer.getFragmentCount());
+    }
+
+    @Test
+    public void audioSpecificConfig() {
+        //AAC-LC(2), 44.1kHz(4), stereo(2) --> 00010 0100 0010 000
+        assertArrayEquals(new byte[] { 0x12, 0x10 }, SimpleFMP4Writer.buildAudioSpecificConfig(44100, 2));
+        assertEquals(-1, SimpleFMP4Writer.getSamplingFrequencyIndex(44000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedSampleRate() {
+        SimpleFMP4Writer.buildAudioSpecificConfig(44000, 1);
+    }
+}
@@ -0,0 +1,219 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleFutureTest {
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        final SimpleFuture<String> future = new SimpleFuture<String>();
+        assertFalse(future.isDone());
+        assertTrue(future.complete("a"));
+        assertFalse(future.complete("b"));
+        assertFalse(future.fail(new Exception()));
+        assertFalse(future.cancel(true));
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertNull(future.getError());
+        assertEquals("a", future.get());
+        assertEquals("a", future.get(0, TimeUnit.MILLISECONDS));
+        assertEquals("c", SimpleFuture.completed("c").get());
+    }
+
+    @Test
+    public void failWrapsCause() throws Exception {
+        final SimpleFuture<String> future = new SimpleFuture<String>();
+        final Exception cause = new IllegalStateException("boom");
+        assertTrue(future.fail(cause));
+        assertSame(cause, future.getError());
+        try {
+            future.get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelThrowsCancellation() throws Exception {
+        final SimpleFuture<String> future = new SimpleFuture<String>();
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        future.get();
+    }
+
+    @Test
+    public void getTimesOut() throws Exception {
+        final SimpleFuture<String> future = new SimpleFuture<String>();
+        final long startNanos = System.nanoTime();
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            fail();
+        }
+        catch (TimeoutException e) {
+            //expected
+        }
+        final long elapsedMs = (System.nanoTime() - startNanos) / 1000000L;
+        assertTrue("elapsedMs: " + elapsedMs, elapsedMs >= 50 && elapsedMs < 1000);
+
+        //1ms 미만의 timeout도 즉시 실패하지 않고 기다린다.
+        final long shortStartNanos = System.nanoTime();
+        try {
+            future.get(500, TimeUnit.MICROSECONDS);
+            fail();
+        }
+        catch (TimeoutException e) {
+            //expected
+        }
+        assertTrue(System.nanoTime() - shortStartNanos >= 500 * 1000L);
+    }
+
+    @Test(timeout = 5000)
+    public void getWakesOnCompletionFromOtherThread() throws Exception {
+        final SimpleFuture<Integer> future = new SimpleFuture<Integer>();
+        final Thread completer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    //ignore
+                }
+                future.complete(42);
+            }
+        });
+        completer.start();
+        assertEquals(Integer.valueOf(42), future.get(5, TimeUnit.SECONDS));
+        completer.join();
+    }
+
+    /**
+     * 완료 전에 등록된 listener는 완료한 thread에서, 완료 후에 등록된 listener는 등록한 thread에서 호출된다.
+     */
+    @Test
+    public void listenerThreads() throws Exception {
+        final SimpleFuture<String> future = new SimpleFuture<String>();
+        final AtomicReference<Thread> before = new AtomicReference<Thread>();
+        final AtomicReference<Thread> after  = new AtomicReference<Thread>();
+        final AtomicInteger calls = new AtomicInteger();
+        future.addListener(new SimpleFuture.Listener<String>() {
+            @Override
+            public void onDone(SimpleFuture<String> f) {
+                before.set(Thread.currentThread());
+                calls.incrementAndGet();
+            }
+        });
+        final Thread completer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.complete("done");
+            }
+        });
+        completer.start();
+        completer.join();
+        future.addListener(new SimpleFuture.Listener<String>() {
+            @Override
+            public void onDone(SimpleFuture<String> f) {
+                after.set(Thread.currentThread());
+                calls.incrementAndGet();
+            }
+        });
+        assertSame(completer, before.get());
+        assertSame(Thread.currentThread(), after.get());
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * future는 각자의 lock을 사용한다. 같은 문자열 literal("F")의 monitor를 다른 곳에서 잡고 있어도 영향이 없다.
+     */
+    @Test(timeout = 5000)
+    public void notBlockedByForeignMonitor() throws Exception {
+        final CountDownLatch locked  = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized ("F") {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        //ignore
+                    }
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            final SimpleFuture<String> future = new SimpleFuture<String>();
+            final long startNanos = System.nanoTime();
+            assertTrue(future.complete("x"));
+            assertTrue(future.isDone());
+            assertEquals("x", future.get());
+            assertTrue((System.nanoTime() - startNanos) / 1000000L < 1000);
+        }
+        finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    /**
+     * 많은 future를 동시에 기다리고 완료하여도 각 waiter는 자기 future의 결과를 받는다.
+     */
+    @Test(timeout = 10000)
+    public void manyIndependentWaiters() throws Exception {
+        final int count = 64;
+        final List<SimpleFuture<Integer>> futures = new ArrayList<SimpleFuture<Integer>>();
+        final List<Thread> waiters = new ArrayList<Thread>();
+        final AtomicInteger mismatches = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final SimpleFuture<Integer> future = new SimpleFuture<Integer>();
+            futures.add(future);
+            final Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (future.get() != index) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            });
+            waiters.add(waiter);
+            waiter.start();
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            futures.get(i).complete(i);
+        }
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -0,0 +1,257 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleInterleaver의 pTime 순서, 보관 한도(window), track 정지/종료, flush.
+ * track 0은 audio(21.333ms), track 1은 video(33.333ms)이다.
+ */
+public class SimpleInterleaverTest {
+    private static final int  AUDIO = 0;
+    private static final int  VIDEO = 1;
+    private static final long AUDIO_US = 21333;
+    private static final long VIDEO_US = 33333;
+    private static final int  SIZE     = 100;
+
+    /**
+     * 내보낸 sample을 기록하고, 내용이 (track, pTime)과 맞는지 확인한다.
+     */
+    private static class Output implements SimpleInterleaver.Writer {
+        final List<Integer> tracks = new ArrayList<Integer>();
+        final List<Long>    pTimes = new ArrayList<Long>();
+
+        @Override
+        public void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            assertEquals(SIZE, info.size);
+            for (int i = 0; i < info.size; i++) {
+                assertEquals("track: " + track + ", pTimeUs: " + info.presentationTimeUs, value(track, info.presentationTimeUs), buffer.get(info.offset + i));
+            }
+            tracks.add(track);
+            pTimes.add(info.presentationTimeUs);
+        }
+
+        void assertMonotonic() {
+            for (int i = 1; i < pTimes.size(); i++) {
+                assertTrue("index: " + i + ", " + pTimes.get(i - 1) + " > " + pTimes.get(i), pTimes.get(i - 1) <= pTimes.get(i));
+            }
+        }
+
+        int count(int track) {
+            int n = 0;
+            for (int t : tracks) {
+                if (t == track) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    private static byte value(int track, long pTimeUs) {
+        return (byte)(track * 31 + pTimeUs / 1000);
+    }
+
+    //encoder output buffer 흉내 (호출마다 재사용한다)
+    private final ByteBuffer            mBuffer = ByteBuffer.allocate(SIZE + 16);
+    private final MediaCodec.BufferInfo mInfo   = new MediaCodec.BufferInfo();
+
+    /**
+     * offset 3에 sample을 쓰고 전달한 후, 호출자가 buffer를 재사용하듯 덮어쓴다.
+     */
+    private void write(SimpleInterleaver interleaver, int track, long pTimeUs) throws Exception {
+        mBuffer.clear();
+        for (int i = 0; i < mBuffer.capacity(); i++) {
+            mBuffer.put(i, value(track, pTimeUs));
+        }
+        mBuffer.position(3).limit(3 + SIZE);
+        mInfo.offset             = 3;
+        mInfo.size               = SIZE;
+        mInfo.presentationTimeUs = pTimeUs;
+        mInfo.flags              = 0;
+        interleaver.writeSample(track, mBuffer, mInfo);
+
+        assertEquals(3, mBuffer.position());
+        assertEquals(3 + SIZE, mBuffer.limit());
+        mBuffer.clear();
+        for (int i = 0; i < mBuffer.capacity(); i++) {
+            mBuffer.put(i, (byte)0x5A);
+        }
+    }
+
+    private static SimpleInterleaver newInterleaver(int maxSamples, long maxBytes, Output output) {
+        return new SimpleInterleaver("SimpleInterleaverTest", 2, maxSamples, maxBytes, output);
+    }
+
+    /**
+     * track 간 도착 순서가 섞여도 출력은 pTime 순서이다.
+     */
+    @Test
+    public void interleavesOutOfOrderTracks() throws Exception {
+        final int    audioCount = 300;
+        final int    videoCount = 200;
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(1000, 1000L * SIZE, output);
+        interleaver.start();
+
+        //track마다 순서대로, track 간에는 임의의 burst로 넣는다. (video는 늦게 나온다)
+        final Random random = new Random(1);
+        int audio = 0, video = 0;
+        while (audio < audioCount || video < videoCount) {
+            if (video >= videoCount || (audio < audioCount && random.nextInt(3) != 0)) {
+                final int burst = 1 + random.nextInt(5);
+                for (int i = 0; i < burst && audio < audioCount; i++, audio++) {
+                    write(interleaver, AUDIO, audio * AUDIO_US);
+                }
+            }
+            else {
+                final int burst = 1 + random.nextInt(8);
+                for (int i = 0; i < burst && video < videoCount; i++, video++) {
+                    write(interleaver, VIDEO, video * VIDEO_US);
+                }
+            }
+        }
+        interleaver.endOfTrack(AUDIO);
+        interleaver.endOfTrack(VIDEO);
+
+        assertEquals(0, interleaver.getQueuedSamples());
+        assertEquals(0, interleaver.getForcedCount());
+        assertEquals(0, interleaver.getDroppedCount());
+        assertTrue(interleaver.getDirectCount() > 0);
+        assertEquals(audioCount, output.count(AUDIO));
+        assertEquals(videoCount, output.count(VIDEO));
+        output.assertMonotonic();
+    }
+
+    /**
+     * 한 track이 멈추면 다른 track은 maxSamples까지만 보관하고, 넘으면 가장 이른 sample을 강제로 내보낸다.
+     */
+    @Test
+    public void windowBoundsQueueWhenTrackStalls() throws Exception {
+        final int    maxSamples = 8;
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(maxSamples, 1000L * SIZE, output);
+        interleaver.start();
+
+        write(interleaver, VIDEO, 0);
+        for (int i = 0; i < 100; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+            assertTrue(interleaver.getQueuedSamples() <= maxSamples);
+        }
+        //audio 0은 바로 나가고, 나머지 99개 중 maxSamples개만 남는다.
+        assertEquals(maxSamples, interleaver.getQueuedSamples());
+        assertEquals((long)maxSamples * SIZE, interleaver.getQueuedBytes());
+        assertEquals(99 - maxSamples, interleaver.getForcedCount());
+        output.assertMonotonic();
+
+        //video가 재개되면 그 시각까지의 audio가 나간다.
+        write(interleaver, VIDEO, 93 * AUDIO_US);
+        assertEquals(6, interleaver.getQueuedSamples());
+        assertEquals(99 - maxSamples, interleaver.getForcedCount());
+        assertEquals(2 + 100 - 6, output.tracks.size());
+        output.assertMonotonic();
+    }
+
+    @Test
+    public void windowBoundsQueuedBytes() throws Exception {
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(1000, 4L * SIZE, output);
+        interleaver.start();
+
+        write(interleaver, VIDEO, 0);
+        for (int i = 0; i < 20; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+            assertTrue(interleaver.getQueuedBytes() <= 4L * SIZE);
+        }
+        assertEquals(4, interleaver.getQueuedSamples());
+        assertEquals(19 - 4, interleaver.getForcedCount());
+        output.assertMonotonic();
+    }
+
+    /**
+     * 멈춘 track이 endOfTrack()으로 끝나면 기다리던 sample을 모두 내보낸다.
+     */
+    @Test
+    public void endOfStalledTrackReleasesOthers() throws Exception {
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(100, 100L * SIZE, output);
+        interleaver.start();
+
+        //video가 아직 없으므로 audio는 기다린다.
+        for (int i = 0; i < 10; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+        }
+        assertEquals(10, interleaver.getQueuedSamples());
+        assertTrue(output.tracks.isEmpty());
+
+        interleaver.endOfTrack(VIDEO);
+        assertEquals(0, interleaver.getQueuedSamples());
+        assertEquals(10, output.count(AUDIO));
+        output.assertMonotonic();
+
+        //끝난 track은 더 기다리지 않는다.
+        write(interleaver, AUDIO, 10 * AUDIO_US);
+        assertEquals(0, interleaver.getQueuedSamples());
+        assertEquals(11, output.count(AUDIO));
+    }
+
+    /**
+     * stop(EOS) 시 flush()는 보관 중인 sample을 pTime 순서로 모두 내보내고 queue를 비운다.
+     */
+    @Test
+    public void flushAtEndOfStreamDrainsQueues() throws Exception {
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(100, 100L * SIZE, output);
+
+        //start 전: 두 track 모두 보관된다.
+        for (int i = 0; i < 3; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+            write(interleaver, VIDEO, i * VIDEO_US);
+        }
+        assertEquals(6, interleaver.getQueuedSamples());
+
+        //start 후 video가 멈추면 그 이후의 audio는 남는다.
+        interleaver.start();
+        for (int i = 3; i < 10; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+        }
+        assertTrue(interleaver.getQueuedSamples() > 0);
+        final int written = output.tracks.size();
+
+        interleaver.flush();
+        assertEquals(0, interleaver.getQueuedSamples());
+        assertEquals(0, interleaver.getQueuedBytes());
+        assertEquals(10, output.count(AUDIO));
+        assertEquals(3, output.count(VIDEO));
+        assertTrue(output.tracks.size() > written);
+        output.assertMonotonic();
+    }
+
+    /**
+     * start 전에 flush()하면 쓸 수 없으므로 두 track의 sample을 모두 버린다.
+     */
+    @Test
+    public void flushBeforeStartDropsQueues() throws Exception {
+        final Output output = new Output();
+        final SimpleInterleaver interleaver = newInterleaver(100, 100L * SIZE, output);
+        for (int i = 0; i < 3; i++) {
+            write(interleaver, AUDIO, i * AUDIO_US);
+            write(interleaver, VIDEO, i * VIDEO_US);
+        }
+        interleaver.flush();
+
+        assertEquals(0, interleaver.getQueuedSamples());
+        assertEquals(0, interleaver.getQueuedBytes());
+        assertEquals(6, interleaver.getDroppedCount());
+        assertTrue(output.tracks.isEmpty());
+    }
+}
@@ -0,0 +1,365 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SimpleOggWriter가 쓴 page를 다시 파싱하여 CRC, lacing, granule, continued/BOS/EOS flag를 확인한다.
+ */
+public class SimpleOggWriterTest {
+    private static final int SERIAL_NO = 0x12345678;
+
+    /**
+     * 파싱된 page
+     */
+    private static class Page {
+        int    flags;
+        long   granulePos;
+        int    serialNo;
+        int    seq;
+        int    crc;
+        int[]  lacing;
+        byte[] body;
+
+        boolean isContinued() { return (flags & SimpleOggWriter.FLAG_CONTINUED) != 0; }
+        boolean isBOS()       { return (flags & SimpleOggWriter.FLAG_BOS) != 0; }
+        boolean isEOS()       { return (flags & SimpleOggWriter.FLAG_EOS) != 0; }
+    }
+
+    /**
+     * table 없이 한 bit씩 계산하는 Ogg CRC-32 (polynomial 0x04C11DB7, 초기값 0, reflection 없음)
+     */
+    private static int referenceCrc(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : (crc << 1);
+            }
+        }
+        return crc;
+    }
+
+    /**
+     * page를 파싱하고, CRC 필드를 0으로 두고 다시 계산한 값과 비교한다.
+     */
+    private static List<Page> parse(byte[] file) {
+        final List<Page> pages = new ArrayList<Page>();
+        final ByteBuffer in    = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        while (in.hasRemaining()) {
+            final int start = in.position();
+            assertEquals('O', in.get());
+            assertEquals('g', in.get());
+            assertEquals('g', in.get());
+            assertEquals('S', in.get());
+            assertEquals(0, in.get()); //version
+
+            final Page page = new Page();
+            page.flags      = in.get() & 0xFF;
+            page.granulePos = in.getLong();
+            page.serialNo   = in.getInt();
+            page.seq        = in.getInt();
+            page.crc        = in.getInt();
+            page.lacing     = new int[in.get() & 0xFF];
+            int bodySize = 0;
+            for (int i = 0; i < page.lacing.length; i++) {
+                page.lacing[i] = in.get() & 0xFF;
+                bodySize += page.lacing[i];
+            }
+            page.body = new byte[bodySize];
+            in.get(page.body);
+
+            final byte[] raw = Arrays.copyOfRange(file, start, in.position());
+            raw[22] = raw[23] = raw[24] = raw[25] = 0;
+            assertEquals("crc of page " + page.seq, referenceCrc(raw, 0, raw.length), page.crc);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * page의 lacing으로 packet을 다시 조립한다. continued flag는 이전 page가 packet 중간에서 끝났을 때만 있어야 한다.
+     */
+    private static List<byte[]> reassemble(List<Page> pages) {
+        final List<byte[]>          packets = new ArrayList<byte[]>();
+        final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        boolean open = false;
+        for (Page page : pages) {
+            assertEquals("continued flag of page " + page.seq, open, page.isContinued());
+            int offset = 0;
+            for (int lacing : page.lacing) {
+                partial.write(page.body, offset, lacing);
+                offset += lacing;
+                open = (lacing == 255);
+                if (!open) {
+                    packets.add(partial.toByteArray());
+                    partial.reset();
+                }
+            }
+        }
+        assertTrue("last packet not terminated", !open);
+        return packets;
+    }
+
+    private static ByteBuffer packet(int length, int seed) {
+        final byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    @Test
+    public void crcMatchesReference() {
+        final Random random = new Random(1);
+        for (int length : new int[] { 0, 1, 27, 255, 4096, 65307 }) {
+            final byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertEquals("length " + length, referenceCrc(data, 0, length), SimpleOggWriter.crc32(0, data, 0, length));
+        }
+        //이어서 계산해도 한번에 계산한 값과 같다.
+        final byte[] data = new byte[1000];
+        random.nextBytes(data);
+        assertEquals(referenceCrc(data, 0, 1000), SimpleOggWriter.crc32(SimpleOggWriter.crc32(0, data, 0, 300), data, 300, 700));
+    }
+
+    @Test
+    public void lacingValues() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, 8192, Long.MAX_VALUE);
+        final int[][] expected = {
+                { 0 },                //빈 packet
+                { 1 },
+                { 254 },
+                { 255, 0 },           //255의 배수는 0으로 끝난다.
+                { 255, 1 },
+                { 255, 255, 0 },
+        };
+        final int[] lengths = { 0, 1, 254, 255, 256, 510 };
+        for (int i = 0; i < lengths.length; i++) {
+            ogg.writePacket(packet(lengths[i], i), i + 1, true);
+        }
+        ogg.finish();
+
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(lengths.length + 1, pages.size());
+        for (int i = 0; i < lengths.length; i++) {
+            assertArrayEquals("packet " + lengths[i], expected[i], pages.get(i).lacing);
+            assertEquals(i + 1, pages.get(i).granulePos);
+        }
+        assertEquals(out.size(), ogg.getBytesWritten());
+        assertEquals(pages.size(), ogg.getPageCount());
+    }
+
+    @Test
+    public void headerFields() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, 8192, Long.MAX_VALUE);
+        ogg.writePacket(packet(19, 0), 0, true);
+        ogg.writePacket(packet(30, 1), 0, true);
+        ogg.writePacket(packet(100, 2), 960, false);
+        ogg.writePacket(packet(100, 3), 1920, false);
+        ogg.finish();
+
+        //BOS는 첫 page, EOS는 마지막 page에만 있고, sequence는 0부터 증가한다.
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(3, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            final Page page = pages.get(i);
+            assertEquals(SERIAL_NO, page.serialNo);
+            assertEquals(i, page.seq);
+            assertEquals(i == 0, page.isBOS());
+            assertEquals(i == pages.size() - 1, page.isEOS());
+        }
+        assertEquals(1920, pages.get(2).granulePos);
+        assertEquals(1920, ogg.getGranulePos());
+    }
+
+    @Test
+    public void pageFlushedByGranuleAndBytes() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, 1000, 48000);
+
+        //20ms(960 granule) packet 100개 --> granule 범위 48000마다 page를 내려쓴다.
+        for (int i = 1; i <= 100; i++) {
+            ogg.writePacket(packet(10, i), i * 960L, false);
+        }
+        //큰 packet은 body 크기로 내려쓴다.
+        ogg.writePacket(packet(1200, 0), 101 * 960L, false);
+        ogg.finish();
+
+        //page 0: packet 1 ~ 51 (granule 범위 50 * 960 = 48000)
+        //page 1: packet 52 ~ 101 (body 50 * 10 + 1200 >= 1000)
+        //page 2: 빈 EOS page
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(3, pages.size());
+        assertEquals(51 * 960L, pages.get(0).granulePos);
+        assertEquals(51, pages.get(0).lacing.length);
+        assertEquals(101 * 960L, pages.get(1).granulePos);
+        assertEquals(49 + 5, pages.get(1).lacing.length);
+        assertEquals(0, pages.get(2).lacing.length);
+        assertTrue(pages.get(2).isEOS());
+        assertEquals(101, reassemble(pages).size());
+    }
+
+    /**
+     * segment table이 packet 경계에서 정확히 255개로 찬 경우, 다음 packet은 continued가 아닌 새 page에서 시작한다.
+     */
+    @Test
+    public void exactly255SegmentsIsNotContinued() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, SimpleOggWriter.MAX_BODY_SIZE, Long.MAX_VALUE);
+        for (int i = 1; i <= SimpleOggWriter.MAX_SEGMENTS; i++) {
+            ogg.writePacket(packet(10, i), i, false);
+        }
+        ogg.writePacket(packet(10, 0), 256, false);
+        ogg.finish();
+
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(2, pages.size());
+        assertEquals(SimpleOggWriter.MAX_SEGMENTS, pages.get(0).lacing.length);
+        assertEquals(SimpleOggWriter.MAX_SEGMENTS, pages.get(0).granulePos);
+        assertEquals(false, pages.get(1).isContinued());
+        assertEquals(256, pages.get(1).granulePos);
+        assertEquals(256, reassemble(pages).size());
+
+        //255의 배수 packet이 table을 채우면 종료 segment(0)는 다음 page에 continued로 이어진다.
+        out.reset();
+        final SimpleOggWriter ogg2 = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, SimpleOggWriter.MAX_BODY_SIZE, Long.MAX_VALUE);
+        ogg2.writePacket(packet(SimpleOggWriter.MAX_BODY_SIZE, 1), 1, false);
+        ogg2.finish();
+        final List<Page> pages2 = parse(out.toByteArray());
+        assertEquals(2, pages2.size());
+        assertEquals(-1, pages2.get(0).granulePos);
+        assertTrue(pages2.get(1).isContinued());
+        assertArrayEquals(new int[] { 0 }, pages2.get(1).lacing);
+        assertEquals(1, pages2.get(1).granulePos);
+    }
+
+    /**
+     * 한 page에 담기지 않는 packet은 continued page로 이어지며, 끝나는 packet이 없는 page의 granule은 -1이다.
+     */
+    @Test
+    public void packetSpanningPages() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, SimpleOggWriter.MAX_BODY_SIZE, Long.MAX_VALUE);
+        final ByteBuffer small = packet(100, 1);
+        final ByteBuffer large = packet(150000, 2);
+        ogg.writePacket(small.duplicate(), 960, false);
+        ogg.writePacket(large.duplicate(), 1920, false);
+        ogg.finish();
+
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(3, pages.size());
+        //첫 page: small packet이 끝나고 large packet이 시작된다.
+        assertEquals(960, pages.get(0).granulePos);
+        assertEquals(false, pages.get(0).isContinued());
+        //두번째 page: large packet의 중간만 있다.
+        assertEquals(-1, pages.get(1).granulePos);
+        assertTrue(pages.get(1).isContinued());
+        //마지막 page: large packet이 끝난다.
+        assertEquals(1920, pages.get(2).granulePos);
+        assertTrue(pages.get(2).isContinued());
+        assertTrue(pages.get(2).isEOS());
+
+        final List<byte[]> packets = reassemble(pages);
+        assertEquals(2, packets.size());
+        assertArrayEquals(small.array(), packets.get(0));
+        assertArrayEquals(large.array(), packets.get(1));
+    }
+
+    @Test
+    public void randomPacketsRoundTrip() throws Exception {
+        final Random                random  = new Random(7);
+        final ByteArrayOutputStream out     = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg     = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, 4096, 48000);
+        final List<byte[]>          written = new ArrayList<byte[]>();
+        final ByteBuffer            reused  = ByteBuffer.allocate(70000);
+        long granulePos = 0;
+        for (int i = 0; i < 2000; i++) {
+            //255의 배수 근처 길이와 segment table을 채우는 작은 packet을 섞는다.
+            final int length;
+            switch (random.nextInt(4)) {
+                case 0 : length = 255 * random.nextInt(4);      break;
+                case 1 : length = random.nextInt(4);            break;
+                case 2 : length = random.nextInt(70000);        break;
+                default: length = random.nextInt(1000);         break;
+            }
+            final byte[] data = new byte[length];
+            random.nextBytes(data);
+            written.add(data);
+
+            //반환 후 buffer를 재사용해도 된다.
+            reused.clear();
+            reused.put(data).flip();
+            granulePos += 960;
+            ogg.writePacket(reused, granulePos, random.nextInt(50) == 0);
+            Arrays.fill(reused.array(), 0, length, (byte)0);
+        }
+        ogg.finish();
+
+        final List<Page> pages   = parse(out.toByteArray());
+        final List<byte[]> packets = reassemble(pages);
+        assertEquals(written.size(), packets.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertArrayEquals("packet " + i, written.get(i), packets.get(i));
+        }
+
+        //page granule은 단조 증가하며, 끝나는 packet이 없는 page만 -1이다.
+        long prev = 0;
+        for (Page page : pages) {
+            assertTrue(page.lacing.length <= SimpleOggWriter.MAX_SEGMENTS);
+            if (page.lacing.length == 0) {
+                //finish()의 빈 EOS page는 마지막 granule을 갖는다.
+                assertTrue(page.isEOS());
+                assertEquals(granulePos, page.granulePos);
+                continue;
+            }
+            boolean ends = false;
+            for (int lacing : page.lacing) {
+                ends |= lacing < 255;
+            }
+            if (!ends) {
+                assertEquals(-1, page.granulePos);
+                continue;
+            }
+            assertTrue(page.granulePos > prev);
+            prev = page.granulePos;
+        }
+        assertEquals(granulePos, prev);
+    }
+
+    @Test
+    public void finishWritesEmptyEosPage() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SimpleOggWriter       ogg = new SimpleOggWriter(Channels.newChannel(out), SERIAL_NO, 8192, Long.MAX_VALUE);
+        ogg.writePacket(packet(10, 1), 960, true);
+        ogg.finish();
+        ogg.finish(); //두번 호출해도 한번만 쓴다.
+
+        final List<Page> pages = parse(out.toByteArray());
+        assertEquals(2, pages.size());
+        assertTrue(pages.get(1).isEOS());
+        assertEquals(0, pages.get(1).lacing.length);
+        assertEquals(960, pages.get(1).granulePos);
+
+        try {
+            ogg.writePacket(packet(10, 2), 1920, false);
+            fail("writePacket() after finish()");
+        }
+        catch (IllegalStateException e) {
+            ; //expected
+        }
+    }
+}
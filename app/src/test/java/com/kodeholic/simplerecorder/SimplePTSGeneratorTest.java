@@ -0,0 +1,109 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimplePTSGeneratorTest {
+    private static final int SAMPLE_RATE     = 48000;
+    private static final int BYTES_PER_FRAME = 2;    //16bit mono
+    private static final int CHUNK_FRAMES    = 960;  //20[msec]
+    private static final int CHUNK_BYTES     = CHUNK_FRAMES * BYTES_PER_FRAME;
+
+    @Test
+    public void anchorsOnFramePosition() {
+        final SimplePTSGenerator gen = new SimplePTSGenerator(SAMPLE_RATE, BYTES_PER_FRAME, SimplePTSGenerator.MODE_FIXED);
+        assertFalse(gen.isAnchored());
+
+        //AudioTimestamp: 4800 frame(100ms)이 10s 시점에 capture되었다. -> frame 0은 9.9s
+        gen.anchor(4800, 10000000000L);
+        assertTrue(gen.isAnchored());
+        assertEquals(9900000L, gen.next(CHUNK_BYTES));
+        assertEquals(9920000L, gen.next(CHUNK_BYTES));
+
+        //두번째 anchor는 무시된다.
+        gen.anchor(0, 0);
+        assertEquals(9940000L, gen.getPTimeUs());
+    }
+
+    @Test
+    public void selfAnchorsOnWallClockWhenNotAnchored() {
+        final SimplePTSGenerator gen = new SimplePTSGenerator(SAMPLE_RATE, BYTES_PER_FRAME, SimplePTSGenerator.MODE_FIXED);
+        final long beforeUs = System.nanoTime() / 1000L;
+        final long pTimeUs  = gen.getPTimeUs();
+        assertTrue(gen.isAnchored());
+        assertTrue(pTimeUs >= beforeUs && pTimeUs <= System.nanoTime() / 1000L);
+    }
+
+    /**
+     * 24시간 이상 녹음해도 누적 오차가 없다. (chunk 단위 반올림 오차가 쌓이지 않는다)
+     */
+    @Test
+    public void noAccumulatedErrorOver24Hours() {
+        final SimplePTSGenerator gen = new SimplePTSGenerator(SAMPLE_RATE, BYTES_PER_FRAME, SimplePTSGenerator.MODE_FIXED);
+        gen.anchor(0, 0);
+
+        //44.1kHz처럼 chunk 길이가 us로 나누어 떨어지지 않는 경우도 확인하기 위해 홀수 frame chunk를 쓴다.
+        final int  oddChunkBytes = 1021 * BYTES_PER_FRAME;
+        final long totalFrames   = 25L * 3600 * SAMPLE_RATE;
+        long frames = 0;
+        long prev   = -1;
+        while (frames < totalFrames) {
+            final long pTimeUs = gen.next(oddChunkBytes);
+            assertTrue(pTimeUs > prev);
+            assertEquals(frames * 1000000L / SAMPLE_RATE, pTimeUs);
+            prev    = pTimeUs;
+            frames += 1021;
+        }
+        assertEquals(frames, gen.getFrameCount());
+        assertEquals(25L * 3600 * 1000000L, gen.framesToUs(totalFrames));
+    }
+
+    /**
+     * wall-clock이 sample clock보다 100ppm 빠른 경우, skew를 측정하고 MAX_SLEW_PPM 이내로 단조 보정한다.
+     */
+    @Test
+    public void driftCorrectionIsBoundedAndMonotonic() {
+        final SimplePTSGenerator gen = new SimplePTSGenerator(SAMPLE_RATE, BYTES_PER_FRAME, SimplePTSGenerator.MODE_DRIFT_CORRECTION);
+        gen.anchor(0, 0);
+
+        final long   chunkUs  = gen.framesToUs(CHUNK_FRAMES);
+        final double skewPpm  = 100;
+        final long   maxStep  = Math.max(chunkUs * SimplePTSGenerator.MAX_SLEW_PPM / 1000000L, 1);
+        final int    chunks   = 24 * 3600 * 1000 / 20; //24시간
+        long prev = -1;
+        long prevCorrection = 0;
+        for (int i = 1; i <= chunks; i++) {
+            final long wallNanos = (long)(i * chunkUs * 1000L * (1 + skewPpm / 1000000.0));
+            final long pTimeUs   = gen.next(CHUNK_BYTES, wallNanos);
+            assertTrue(pTimeUs > prev);
+            assertTrue(Math.abs(gen.getCorrectionUs() - prevCorrection) <= maxStep);
+            prev = pTimeUs;
+            prevCorrection = gen.getCorrectionUs();
+        }
+
+        //24시간 동안 100ppm = 8.64초의 drift를 따라간다.
+        final double expectedDriftUs = 24 * 3600 * 1000000.0 * skewPpm / 1000000.0;
+        assertEquals(skewPpm, gen.getClockSkewPpm(), 2);
+        assertEquals(expectedDriftUs, gen.getCorrectionUs(), expectedDriftUs * 0.01);
+    }
+
+    @Test
+    public void fixedModeMeasuresButDoesNotCorrect() {
+        final SimplePTSGenerator gen = new SimplePTSGenerator(SAMPLE_RATE, BYTES_PER_FRAME, SimplePTSGenerator.MODE_FIXED);
+        gen.anchor(0, 0);
+        final long chunkUs = gen.framesToUs(CHUNK_FRAMES);
+        for (int i = 1; i <= 3000; i++) {
+            gen.next(CHUNK_BYTES, (long)(i * chunkUs * 1000L * (1 - 50 / 1000000.0)));
+        }
+        assertEquals(0, gen.getCorrectionUs());
+        assertEquals(-50, gen.getClockSkewPpm(), 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSampleRate() {
+        new SimplePTSGenerator(0, BYTES_PER_FRAME, SimplePTSGenerator.MODE_FIXED);
+    }
+}
@@ -0,0 +1,255 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimplePcmChainTest {
+    private static final int SAMPLE_RATE = 48000;
+
+    private static ByteBuffer toPcm(short[] samples) {
+        final ByteBuffer b = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short s : samples) {
+            b.putShort(s);
+        }
+        b.flip();
+        return b;
+    }
+
+    private static short[] toShorts(ByteBuffer pcm) {
+        final ByteBuffer b = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final short[] samples = new short[b.remaining() / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = b.getShort();
+        }
+        return samples;
+    }
+
+    private static short[] sine(double freqHz, double amplitude, double offset, int frames, int channelCount) {
+        final short[] samples = new short[frames * channelCount];
+        for (int i = 0; i < frames; i++) {
+            final double v = offset + amplitude * Math.sin(2 * Math.PI * freqHz * i / SAMPLE_RATE);
+            for (int c = 0; c < channelCount; c++) {
+                samples[i * channelCount + c] = (short)Math.round(v * 32767);
+            }
+        }
+        return samples;
+    }
+
+    private static double rms(short[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += (double)samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    private static double mean(short[] samples) {
+        double sum = 0;
+        for (short s : samples) {
+            sum += s;
+        }
+        return sum / samples.length;
+    }
+
+    @Test
+    public void emptyChainIsBitExact() {
+        final short[] in = new short[4096];
+        final Random random = new Random(1);
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (short)random.nextInt();
+        }
+        in[0] = Short.MIN_VALUE;
+        in[1] = Short.MAX_VALUE;
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 1);
+        final ByteBuffer pcm = toPcm(in);
+        final ByteBuffer out = chain.process(pcm);
+        assertFalse(pcm.hasRemaining());
+        assertArrayEquals(in, toShorts(out));
+    }
+
+    @Test
+    public void gainScalesAndClips() {
+        final short[] in = { 1000, -1000, 20000, -20000, 0 };
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 1).add(new SimplePcm.Gain(20.0f * (float)Math.log10(2.0)));
+        final short[] out = toShorts(chain.process(toPcm(in)));
+        assertEquals(2000, out[0]);
+        assertEquals(-2000, out[1]);
+        assertEquals(Short.MAX_VALUE, out[2]);
+        assertEquals(Short.MIN_VALUE, out[3]);
+        assertEquals(0, out[4]);
+    }
+
+    @Test
+    public void dcRemoverRemovesOffset() {
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 2).add(new SimplePcm.DCRemover());
+        final short[] in = sine(440, 0.3, 0.25, 960, 2);
+        assertEquals(0.25 * 32767, mean(in), 200);
+        for (int i = 0; i < 10; i++) {
+            final short[] out = toShorts(chain.process(toPcm(in)));
+            //첫 chunk의 평균으로 초기화하므로 처음부터 offset이 제거된다.
+            assertEquals(0, mean(out), 50);
+        }
+    }
+
+    /**
+     * 2차 Butterworth 80Hz: 20Hz는 약 -24dB, 1kHz는 거의 그대로 통과한다.
+     */
+    @Test
+    public void highPassAttenuatesRumble() {
+        final int frames = SAMPLE_RATE; //1초
+        final short[] rumble = sine(20, 0.5, 0, frames, 1);
+        final short[] voice  = sine(1000, 0.5, 0, frames, 1);
+
+        final short[] rumbleOut = toShorts(new SimplePcmChain(SAMPLE_RATE, 1).add(new SimplePcm.HighPass()).process(toPcm(rumble)));
+        final short[] voiceOut  = toShorts(new SimplePcmChain(SAMPLE_RATE, 1).add(new SimplePcm.HighPass()).process(toPcm(voice)));
+
+        //과도 응답 이후 (뒤쪽 절반)
+        final double rumbleDb = 20 * Math.log10(rms(rumbleOut, frames / 2, frames) / rms(rumble, frames / 2, frames));
+        final double voiceDb  = 20 * Math.log10(rms(voiceOut, frames / 2, frames) / rms(voice, frames / 2, frames));
+        assertEquals(-24.1, rumbleDb, 1.0);
+        assertEquals(0.0, voiceDb, 0.1);
+    }
+
+    @Test
+    public void downmixAndUpmixPropagateChannels() {
+        final SimplePcm.Processor up   = new SimplePcm.Upmix();
+        final SimplePcm.Processor down = new SimplePcm.Downmix();
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 1).add(up);
+        assertEquals(2, chain.getOutputChannelCount());
+
+        final short[] mono = { 1, 2, 3, 4 };
+        assertArrayEquals(new short[] { 1, 1, 2, 2, 3, 3, 4, 4 }, toShorts(chain.process(toPcm(mono))));
+
+        chain.add(down);
+        assertEquals(1, chain.getOutputChannelCount());
+        assertArrayEquals(mono, toShorts(chain.process(toPcm(mono))));
+
+        //순서를 바꾸면 mono에 대한 Downmix는 그대로 통과하고, 결과는 stereo이다.
+        assertTrue(chain.move(down, 0));
+        assertEquals(2, chain.getOutputChannelCount());
+        assertEquals(down, chain.getProcessors().get(0));
+        assertArrayEquals(new short[] { 1, 1, 2, 2, 3, 3, 4, 4 }, toShorts(chain.process(toPcm(mono))));
+
+        assertTrue(chain.remove(up));
+        assertFalse(chain.remove(up));
+        assertEquals(1, chain.getOutputChannelCount());
+        assertArrayEquals(mono, toShorts(chain.process(toPcm(mono))));
+    }
+
+    @Test
+    public void resamplerChangesOutputRate() {
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 2)
+                .add(new SimplePcm.Downmix())
+                .add(new SimpleResampler(16000))
+                .add(new SimplePcm.HighPass());
+        assertEquals(SAMPLE_RATE, chain.getInputSampleRate());
+        assertEquals(2, chain.getInputChannelCount());
+        assertEquals(16000, chain.getOutputSampleRate());
+        assertEquals(1, chain.getOutputChannelCount());
+
+        //긴 구간에서 출력 sample 수는 입력의 1/3 (2ch --> 1ch, 48k --> 16k => 1/6 bytes)
+        long outSamples = 0;
+        final short[] in = sine(440, 0.3, 0, 960, 2);
+        for (int i = 0; i < 100; i++) {
+            outSamples += chain.process(toPcm(in)).remaining() / 2;
+        }
+        assertEquals(100 * 960 / 3, outSamples, 64);
+    }
+
+    /**
+     * 다른 thread에서 chain을 변경하는 동안에도 process()는 일관된 snapshot으로 처리한다.
+     */
+    @Test(timeout = 30000)
+    public void concurrentModificationDuringProcess() throws Exception {
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 1).add(new SimplePcm.Gain(0.0f));
+        final short[] in = sine(440, 0.5, 0, 960, 1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread modifier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SimplePcm.Processor unity = new SimplePcm.Gain(0.0f);
+                    final SimplePcm.Processor up    = new SimplePcm.Upmix();
+                    final SimplePcm.Processor down  = new SimplePcm.Downmix();
+                    while (!Thread.currentThread().isInterrupted()) {
+                        chain.add(unity);
+                        chain.add(up);
+                        chain.add(down);
+                        chain.move(unity, 0);
+                        chain.remove(up);
+                        chain.remove(down);
+                        chain.remove(unity);
+                    }
+                }
+                catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+        modifier.start();
+        try {
+            for (int i = 0; i < 20000 && failure.get() == null; i++) {
+                final short[] out = toShorts(chain.process(toPcm(in)));
+                //mono 출력(Upmix 전/Downmix 후) 또는 stereo 출력(Upmix 후)만 가능하다.
+                if (out.length == in.length) {
+                    assertArrayEquals(in, out);
+                }
+                else {
+                    assertEquals(in.length * 2, out.length);
+                    for (int j = 0; j < in.length; j++) {
+                        assertEquals(in[j], out[2 * j]);
+                        assertEquals(in[j], out[2 * j + 1]);
+                    }
+                }
+            }
+        }
+        finally {
+            modifier.interrupt();
+            modifier.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * 구성이 바뀌지 않으면 process()는 할당하지 않는다.
+     */
+    @Test
+    public void processIsAllocationFree() {
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long tid = Thread.currentThread().getId();
+        final SimplePcmChain chain = new SimplePcmChain(SAMPLE_RATE, 1)
+                .add(new SimplePcm.DCRemover())
+                .add(new SimplePcm.HighPass())
+                .add(new SimplePcm.Gain(6.0f));
+        final ByteBuffer in = ByteBuffer.allocateDirect(960 * 2);
+        in.put(toPcm(sine(440, 0.3, 0.1, 960, 1)));
+
+        final int loops = 20000;
+        for (int i = 0; i < loops / 10; i++) {
+            in.clear();
+            chain.process(in);
+        }
+        final long allocatedBefore = bean.getThreadAllocatedBytes(tid);
+        final long startNanos      = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            in.clear();
+            chain.process(in);
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocated    = bean.getThreadAllocatedBytes(tid) - allocatedBefore;
+        System.out.println("SimplePcmChainTest - process(960 frames, 3 processors): " + elapsedNanos / loops + "ns/chunk, allocated: " + allocated + " bytes");
+        assertTrue("allocated: " + allocated, allocated < 1024);
+    }
+}
@@ -0,0 +1,180 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleRecordEngineTest {
+    private static final int CHUNK_SIZE = 1920;
+
+    /**
+     * 바이트 수만 세는 sink muxer (write마다 delayMs 만큼 지연)
+     */
+    private static class CountingMuxer extends SimpleMuxer {
+        final AtomicLong bytes = new AtomicLong();
+        final long delayMs;
+
+        CountingMuxer(long delayMs) throws Exception {
+            super(null, "/dev/null", CountingMuxer.class.getSimpleName());
+            this.delayMs = delayMs;
+        }
+
+        @Override public void addAudioTrack(AudioConfig audioConfig) { updateStatus(ST_PREPARED); }
+        @Override public void addVideoTrack(VideoConfig videoConfig) { }
+        @Override public void start() { updateStatus(ST_STARTED); }
+
+        @Override
+        public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            bytes.addAndGet(buffer.remaining());
+        }
+
+        @Override
+        public void stop(StopListener stopListener) {
+            updateStatus(ST_STOPPED);
+            if (stopListener != null) {
+                stopListener.onStop();
+            }
+        }
+    }
+
+    /**
+     * maxChunks 만큼 읽은 후 EOF(-1)를 반환하는 source (0이면 무한)
+     */
+    private static class CountingSource implements SimpleMuxer.SampleReader {
+        final AtomicInteger reads = new AtomicInteger();
+        final int maxChunks;
+
+        CountingSource(int maxChunks) {
+            this.maxChunks = maxChunks;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int maxLength) {
+            if (maxChunks > 0 && reads.get() >= maxChunks) {
+                return -1;
+            }
+            reads.incrementAndGet();
+            buffer.clear();
+            buffer.position(maxLength);
+            return maxLength;
+        }
+    }
+
+    private static SimpleRecordEngine newEngine(SimpleMuxer.SampleReader source) {
+        return new SimpleRecordEngine(source, CHUNK_SIZE, new SimplePTSGenerator(48000, 2, SimplePTSGenerator.MODE_FIXED));
+    }
+
+    /**
+     * pre-roll 중 POLICY_BLOCK sink의 queue가 가득 차 capture thread가 기다리는 상태에서도 stop()이 반환된다.
+     */
+    @Test(timeout = 5000)
+    public void stopDoesNotDeadlockOnBlockedPreRoll() throws Exception {
+        final CountingSource     source = new CountingSource(0);
+        final SimpleRecordEngine engine = newEngine(source);
+        final CountingMuxer      muxer  = new CountingMuxer(0);
+        final SimpleRecordEngine.Sink sink = engine.addSink(muxer, SimpleRecordEngine.POLICY_BLOCK, 4);
+
+        engine.startCapture();
+        while (sink.getQueueSize() < 4) {
+            Thread.sleep(1);
+        }
+        //capture thread가 queue에서 기다리도록 조금 더 둔다.
+        Thread.sleep(50);
+        final int readsBeforeStop = source.reads.get();
+
+        engine.stop(null);
+        assertTrue(!engine.isRunning());
+        //queue가 찬 이후에는 더 읽지 않았다. (capture는 block되어 있었다)
+        assertEquals(5, readsBeforeStop);
+        //pre-roll chunk는 버려지고 모든 buffer가 pool로 반환된다.
+        assertEquals(0, sink.getQueueSize());
+        assertEquals(0, engine.getPool().getInUseCount());
+        assertEquals(1, sink.getDroppedCount());
+    }
+
+    /**
+     * sink thread가 동작 중이면 POLICY_BLOCK은 stop() 중에도 chunk를 버리지 않는다.
+     */
+    @Test(timeout = 10000)
+    public void blockingSinkIsLossless() throws Exception {
+        final int chunks = 200;
+        final CountingSource     source = new CountingSource(chunks);
+        final SimpleRecordEngine engine = newEngine(source);
+        final CountingMuxer      slow   = new CountingMuxer(1);
+        final CountingMuxer      fast   = new CountingMuxer(0);
+        final SimpleRecordEngine.Sink slowSink = engine.addSink(slow, SimpleRecordEngine.POLICY_BLOCK, 2);
+        final SimpleRecordEngine.Sink fastSink = engine.addSink(fast, SimpleRecordEngine.POLICY_BLOCK, 2);
+
+        engine.start();
+        //source가 끝나기 전에 stop()한다.
+        while (source.reads.get() < chunks / 2) {
+            Thread.sleep(1);
+        }
+        engine.stop(null);
+
+        final long read = (long)source.reads.get() * CHUNK_SIZE;
+        assertEquals(read, slow.bytes.get());
+        assertEquals(read, fast.bytes.get());
+        assertEquals(0, slowSink.getDroppedCount());
+        assertEquals(0, fastSink.getDroppedCount());
+        assertEquals(0, engine.getPool().getInUseCount());
+        assertTrue(slow.isStopped());
+        assertTrue(fast.isStopped());
+    }
+
+    /**
+     * capture thread가 POLICY_BLOCK에서 기다리는 동안 다른 thread의 start()가 lock에 막히지 않는다.
+     */
+    @Test(timeout = 5000)
+    public void startIsNotBlockedByWaitingCapture() throws Exception {
+        final CountingSource     source = new CountingSource(0);
+        final SimpleRecordEngine engine = newEngine(source);
+        final CountingMuxer      muxer  = new CountingMuxer(0);
+        final SimpleRecordEngine.Sink sink = engine.addSink(muxer, SimpleRecordEngine.POLICY_BLOCK, 4);
+
+        engine.startCapture();
+        while (sink.getQueueSize() < 4) {
+            Thread.sleep(1);
+        }
+        engine.start();
+        while (muxer.bytes.get() < 100L * CHUNK_SIZE) {
+            Thread.sleep(1);
+        }
+        engine.stop(null);
+        assertEquals((long)source.reads.get() * CHUNK_SIZE, muxer.bytes.get());
+        assertEquals(0, engine.getPool().getInUseCount());
+    }
+
+    /**
+     * drop 수는 sink 별로 집계된다. (같은 muxer type의 sink나 다른 engine과 공유하지 않는다)
+     */
+    @Test(timeout = 5000)
+    public void droppedCountIsPerSink() throws Exception {
+        final CountingSource     source = new CountingSource(10);
+        final SimpleRecordEngine engine = newEngine(source);
+        final SimpleRecordEngine.Sink small = engine.addSink(new CountingMuxer(0), SimpleRecordEngine.POLICY_DROP_NEWEST, 2);
+        final SimpleRecordEngine.Sink large = engine.addSink(new CountingMuxer(0), SimpleRecordEngine.POLICY_DROP_NEWEST, 16);
+
+        //sink thread 없이 capture만 하므로 small queue는 2개 이후 버린다.
+        engine.startCapture();
+        while (source.reads.get() < 10) {
+            Thread.sleep(1);
+        }
+        engine.stop(null);
+        assertEquals(8, small.getDroppedCount());
+        assertEquals(0, large.getDroppedCount());
+
+        final SimpleRecordEngine other = newEngine(new CountingSource(10));
+        final SimpleRecordEngine.Sink sink = other.addSink(new CountingMuxer(0), SimpleRecordEngine.POLICY_DROP_NEWEST, 2);
+        assertEquals(0, sink.getDroppedCount());
+        assertEquals(0, engine.getPool().getInUseCount());
+    }
+}
@@ -0,0 +1,307 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+import android.media.AudioRecord;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SimpleRecorder의 start/stop/pre-roll 순서. AudioRecord와 codec 대신 가짜 source와 muxer를 사용한다.
+ */
+public class SimpleRecorderTest {
+    private static final int  CHUNK_SIZE = 1920;
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * 바이트 수를 세는 muxer (start()는 startDelayMs 만큼 걸린다. MediaCodec 생성/configure 흉내)
+     */
+    private static class FakeMuxer extends SimpleMuxer {
+        final AtomicLong bytes = new AtomicLong();
+        final long startDelayMs;
+        volatile long bytesAtStart = -1;
+
+        FakeMuxer(long startDelayMs) throws Exception {
+            super(null, "/dev/null", FakeMuxer.class.getSimpleName());
+            this.startDelayMs = startDelayMs;
+        }
+
+        @Override public void addAudioTrack(AudioConfig audioConfig) { updateStatus(ST_PREPARED); }
+        @Override public void addVideoTrack(VideoConfig videoConfig) { }
+
+        @Override
+        public void start() throws Exception {
+            Thread.sleep(startDelayMs);
+            bytesAtStart = bytes.get();
+            updateStatus(ST_STARTED);
+        }
+
+        @Override
+        public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) throws Exception {
+            bytes.addAndGet(buffer.remaining());
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void stop(StopListener stopListener) {
+            updateStatus(ST_STOPPED);
+            if (stopListener != null) {
+                stopListener.onStop();
+            }
+        }
+    }
+
+    /**
+     * chunk마다 readDelayMs 만큼 기다리며, failAfter개를 읽은 후에는 error를 반환하는 source (failAfter가 0이면 무한)
+     */
+    private static class FakeSource implements SimpleMuxer.SampleReader {
+        final AtomicInteger reads    = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final long readDelayMs;
+        final int  failAfter;
+        final int  error;
+
+        FakeSource(long readDelayMs, int failAfter, int error) {
+            this.readDelayMs = readDelayMs;
+            this.failAfter   = failAfter;
+            this.error       = error;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int maxLength) {
+            if (failAfter > 0 && reads.get() >= failAfter) {
+                failures.incrementAndGet();
+                return error;
+            }
+            try {
+                Thread.sleep(readDelayMs);
+            }
+            catch (InterruptedException e) {
+                return AudioRecord.ERROR_INVALID_OPERATION;
+            }
+            buffer.position(buffer.position() + maxLength);
+            reads.incrementAndGet();
+            return maxLength;
+        }
+    }
+
+    private static class RecordingListener implements SimpleRecorder.Listener {
+        final List<String>    started = new ArrayList<String>();
+        final List<String>    stopped = new ArrayList<String>();
+        final List<Exception> errors  = new ArrayList<Exception>();
+        final CountDownLatch  stopLatch = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onStarted(String path) {
+            started.add(path);
+        }
+
+        @Override
+        public synchronized void onStopped(String path) {
+            stopped.add(path);
+            stopLatch.countDown();
+        }
+
+        @Override
+        public synchronized void onError(String path, Exception e) {
+            errors.add(e);
+        }
+    }
+
+    private static SimpleRecorder newRecorder(SimpleMuxer.SampleReader source, final List<FakeMuxer> muxers, final long startDelayMs) {
+        final SimpleRecorder recorder = new SimpleRecorder(null);
+        recorder.setSource(source);
+        recorder.setMuxerFactory(new SimpleRecorder.MuxerFactory() {
+            @Override
+            public SimpleMuxer create(Context context, SimpleRecorder.Config config) throws Exception {
+                final FakeMuxer muxer = new FakeMuxer(startDelayMs);
+                muxers.add(muxer);
+                return muxer;
+            }
+        });
+        return recorder;
+    }
+
+    private static SimpleRecorder.Config newConfig(String path, boolean directInput) {
+        final SimpleRecorder.Config config = new SimpleRecorder.Config(path);
+        config.sampleRateInHz       = 48000;
+        config.outputSampleRateInHz = 48000;
+        config.chunkSize            = CHUNK_SIZE;
+        config.directInput          = directInput;
+        return config;
+    }
+
+    private static void stopAndWait(SimpleRecorder recorder) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        recorder.stop(new SimpleMuxer.StopListener() {
+            @Override
+            public void onStop() {
+                latch.countDown();
+            }
+        });
+        assertTrue("not stopped!", latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void awaitBytes(FakeMuxer muxer, long bytes) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (muxer.bytes.get() < bytes) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timeout! bytes: " + muxer.bytes.get());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * start --> stop --> start. 두번째 녹음은 새 muxer를 사용하며, 각 녹음의 capture는 모두 muxer에 전달된다.
+     */
+    @Test(timeout = 20000)
+    public void startStopRestart() throws Exception {
+        for (boolean directInput : new boolean[] { false, true }) {
+            final FakeSource        source   = new FakeSource(2, 0, 0);
+            final List<FakeMuxer>   muxers   = new ArrayList<FakeMuxer>();
+            final RecordingListener listener = new RecordingListener();
+            final SimpleRecorder    recorder = newRecorder(source, muxers, 0);
+            recorder.setListener(listener);
+
+            for (int i = 0; i < 2; i++) {
+                final String path = "/dev/null/" + i;
+                recorder.start(newConfig(path, directInput));
+                assertTrue(recorder.isRecording());
+                assertEquals(path, recorder.getPath());
+                try {
+                    recorder.start(newConfig(path, directInput));
+                    fail("started twice!");
+                }
+                catch (IllegalStateException e) {
+                    //expected
+                }
+
+                final FakeMuxer muxer = muxers.get(i);
+                awaitBytes(muxer, 10L * CHUNK_SIZE);
+                stopAndWait(recorder);
+
+                assertFalse(recorder.isRecording());
+                assertNull(recorder.getMuxer());
+                assertTrue(muxer.isStopped());
+                assertEquals(0, muxer.bytes.get() % CHUNK_SIZE);
+            }
+            //capture는 stop 후 멈추며, 읽은 chunk는 모두 muxer에 전달되었다.
+            final int reads = source.reads.get();
+            Thread.sleep(20);
+            assertEquals(reads, source.reads.get());
+            assertEquals((long)reads * CHUNK_SIZE, muxers.get(0).bytes.get() + muxers.get(1).bytes.get());
+
+            assertEquals(2, muxers.size());
+            assertEquals(2, listener.started.size());
+            assertTrue(listener.errors.isEmpty());
+        }
+    }
+
+    /**
+     * muxer가 준비되는 동안 capture한 PCM은 pre-roll로 보관되었다가 start 후에 전달된다.
+     */
+    @Test(timeout = 10000)
+    public void preRollKeepsSamplesCapturedDuringStart() throws Exception {
+        final FakeSource      source   = new FakeSource(2, 0, 0);
+        final List<FakeMuxer> muxers   = new ArrayList<FakeMuxer>();
+        final SimpleRecorder  recorder = newRecorder(source, muxers, 100);
+
+        recorder.start(newConfig("/dev/null/preroll", false));
+        //start()가 반환되기 전에 capture가 시작되었다.
+        final int readsAtStart = source.reads.get();
+        assertTrue("reads: " + readsAtStart, readsAtStart > 5);
+        final FakeMuxer muxer = muxers.get(0);
+        assertEquals(0, muxer.bytesAtStart);
+
+        awaitBytes(muxer, (long)readsAtStart * CHUNK_SIZE);
+        stopAndWait(recorder);
+        assertEquals((long)source.reads.get() * CHUNK_SIZE, muxer.bytes.get());
+    }
+
+    /**
+     * muxer start가 실패하면 start()는 예외를 던지고 pre-roll capture를 멈추며, 다시 start할 수 있다.
+     */
+    @Test(timeout = 10000)
+    public void startFailureReleasesCapture() throws Exception {
+        final FakeSource     source   = new FakeSource(2, 0, 0);
+        final SimpleRecorder recorder = new SimpleRecorder(null);
+        recorder.setSource(source);
+        recorder.setMuxerFactory(new SimpleRecorder.MuxerFactory() {
+            @Override
+            public SimpleMuxer create(Context context, SimpleRecorder.Config config) throws Exception {
+                return new FakeMuxer(0) {
+                    @Override
+                    public void start() throws Exception {
+                        Thread.sleep(20);
+                        throw new IllegalStateException("codec failed");
+                    }
+                };
+            }
+        });
+        try {
+            recorder.start(newConfig("/dev/null/fail", false));
+            fail("start() succeeded!");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("codec failed", e.getMessage());
+        }
+        assertFalse(recorder.isRecording());
+        assertNull(recorder.getMuxer());
+        final int reads = source.reads.get();
+        Thread.sleep(20);
+        assertEquals(reads, source.reads.get());
+
+        final List<FakeMuxer> muxers = new ArrayList<FakeMuxer>();
+        final SimpleRecorder  retry  = newRecorder(source, muxers, 0);
+        retry.start(newConfig("/dev/null/retry", false));
+        awaitBytes(muxers.get(0), CHUNK_SIZE);
+        stopAndWait(retry);
+    }
+
+    /**
+     * 모든 음수 read() 결과는 capture 실패이다. onError 후 녹음이 중지되고 capture가 반복되지 않는다.
+     */
+    @Test(timeout = 20000)
+    public void captureFailureStopsRecording() throws Exception {
+        final int[] errors = {
+                AudioRecord.ERROR_INVALID_OPERATION, AudioRecord.ERROR_BAD_VALUE, AudioRecord.ERROR_DEAD_OBJECT, AudioRecord.ERROR
+        };
+        for (boolean directInput : new boolean[] { true, false }) {
+            for (int error : errors) {
+                final String            msg      = "directInput: " + directInput + ", error: " + error;
+                final FakeSource        source   = new FakeSource(1, 20, error);
+                final List<FakeMuxer>   muxers   = new ArrayList<FakeMuxer>();
+                final RecordingListener listener = new RecordingListener();
+                final SimpleRecorder    recorder = newRecorder(source, muxers, 0);
+                recorder.setListener(listener);
+
+                final String path = "/dev/null/error" + error;
+                recorder.start(newConfig(path, directInput));
+                assertTrue(msg, listener.stopLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+                assertFalse(msg, recorder.isRecording());
+                assertEquals(msg, 1, listener.errors.size());
+                assertTrue(msg, listener.errors.get(0).getMessage().contains("n: " + error));
+                assertEquals(msg, path, listener.stopped.get(0));
+                assertTrue(msg, muxers.get(0).isStopped());
+                //실패한 AudioRecord를 다시 읽지 않는다.
+                assertEquals(msg, 1, source.failures.get());
+                assertEquals(msg, 20L * CHUNK_SIZE, muxers.get(0).bytes.get());
+            }
+        }
+    }
+}
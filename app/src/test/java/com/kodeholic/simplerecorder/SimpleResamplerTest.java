@@ -0,0 +1,178 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleResamplerTest {
+    private static final double AMPLITUDE = 0.5;
+
+    /**
+     * seconds 길이의 sine을 chunkFrames 단위로 변환한 결과 (mono)
+     */
+    private static float[] resample(SimpleResampler resampler, int inRate, double freqHz, double seconds, int chunkFrames) {
+        resampler.configure(inRate, 1);
+        final int frames = (int)(inRate * seconds);
+        final float[] work = new float[chunkFrames * resampler.getExpansion()];
+        final float[] out  = new float[(int)((long)frames * resampler.getOutputSampleRate() / inRate) + chunkFrames * resampler.getExpansion()];
+        int outLength = 0;
+        for (int start = 0; start < frames; start += chunkFrames) {
+            final int n = Math.min(chunkFrames, frames - start);
+            for (int i = 0; i < n; i++) {
+                work[i] = (float)(AMPLITUDE * Math.sin(2 * Math.PI * freqHz * (start + i) / inRate));
+            }
+            final int produced = resampler.process(work, n);
+            System.arraycopy(work, 0, out, outLength, produced);
+            outLength += produced;
+        }
+        return Arrays.copyOf(out, outLength);
+    }
+
+    /**
+     * 출력 j번째 sample은 입력 시간 j / outRate에 해당한다. (지연 보정 불필요)
+     * 시작/끝의 과도 구간(필터 길이)은 제외한다.
+     */
+    private static double snrDb(float[] out, int outRate, double freqHz, int skip) {
+        double signal = 0;
+        double noise  = 0;
+        for (int j = skip; j < out.length - skip; j++) {
+            final double ideal = AMPLITUDE * Math.sin(2 * Math.PI * freqHz * j / outRate);
+            signal += ideal * ideal;
+            noise  += (out[j] - ideal) * (out[j] - ideal);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    private static double rms(float[] out, int skip) {
+        double sum = 0;
+        for (int j = skip; j < out.length - skip; j++) {
+            sum += (double)out[j] * out[j];
+        }
+        return Math.sqrt(sum / (out.length - 2 * skip));
+    }
+
+    private static void assertSnr(int inRate, int outRate, int quality, double freqHz, double minSnrDb) {
+        final SimpleResampler resampler = new SimpleResampler(outRate, quality);
+        final float[] out = resample(resampler, inRate, freqHz, 1.0, 960);
+        final double snr = snrDb(out, outRate, freqHz, resampler.getTaps());
+        System.out.println(String.format("SimpleResamplerTest - %d --> %d, %s, %.0fHz: SNR %.1fdB, %s",
+                inRate, outRate, SimpleResampler.valueOfQuality(quality), freqHz, snr, resampler));
+        assertTrue(inRate + " --> " + outRate + " " + SimpleResampler.valueOfQuality(quality) + " SNR: " + snr, snr >= minSnrDb);
+    }
+
+    @Test
+    public void snrDownsampling() {
+        assertSnr(48000, 16000, SimpleResampler.QUALITY_LOW,    1000, 55);
+        assertSnr(48000, 16000, SimpleResampler.QUALITY_MEDIUM, 1000, 80);
+        assertSnr(48000, 16000, SimpleResampler.QUALITY_HIGH,   1000, 100);
+        assertSnr(48000, 44100, SimpleResampler.QUALITY_MEDIUM, 3000, 80);
+    }
+
+    @Test
+    public void snrUpsampling() {
+        assertSnr(16000, 48000, SimpleResampler.QUALITY_MEDIUM, 1000, 80);
+        assertSnr(44100, 48000, SimpleResampler.QUALITY_MEDIUM, 3000, 80);
+        assertSnr(8000,  44100, SimpleResampler.QUALITY_HIGH,   440,  85);
+    }
+
+    /**
+     * L이 MAX_PHASES보다 크면 phase 사이를 보간한다. (임의 비율)
+     */
+    @Test
+    public void snrInterpolatedPhases() {
+        assertSnr(44100, 47999, SimpleResampler.QUALITY_MEDIUM, 1000, 75);
+        assertSnr(48000, 44099, SimpleResampler.QUALITY_HIGH,   1000, 95);
+    }
+
+    /**
+     * 출력 nyquist 이상의 성분은 제거된다. (aliasing)
+     */
+    @Test
+    public void stopbandRejection() {
+        for (int quality = SimpleResampler.QUALITY_LOW; quality <= SimpleResampler.QUALITY_HIGH; quality++) {
+            final SimpleResampler resampler = new SimpleResampler(16000, quality);
+            final float[] out = resample(resampler, 48000, 12000, 0.5, 960);
+            final double db = 20 * Math.log10(rms(out, resampler.getTaps()) / (AMPLITUDE / Math.sqrt(2)));
+            System.out.println(String.format("SimpleResamplerTest - 48000 --> 16000, %s, 12kHz: %.1fdB", SimpleResampler.valueOfQuality(quality), db));
+            assertTrue(SimpleResampler.valueOfQuality(quality) + ": " + db, db < -60);
+        }
+    }
+
+    /**
+     * chunk 크기와 관계없이 같은 결과를 만든다.
+     */
+    @Test
+    public void chunkSizeIndependent() {
+        final float[] reference = resample(new SimpleResampler(16000), 44100, 1000, 0.5, 4410);
+        for (int chunkFrames : new int[] { 1, 7, 160, 441, 1024 }) {
+            final float[] out = resample(new SimpleResampler(16000), 44100, 1000, 0.5, chunkFrames);
+            assertEquals("chunkFrames: " + chunkFrames, reference.length, out.length, 1);
+            final int n = Math.min(reference.length, out.length);
+            assertArrayEquals("chunkFrames: " + chunkFrames, Arrays.copyOf(reference, n), Arrays.copyOf(out, n), 0.0f);
+        }
+    }
+
+    /**
+     * 출력 sample 수는 입력 길이 x L/M을 따른다. (지연만큼 적다)
+     */
+    @Test
+    public void outputLength() {
+        final SimpleResampler resampler = new SimpleResampler(48000);
+        final float[] out = resample(resampler, 44100, 1000, 2.0, 441);
+        final long expected = 2 * 48000 - resampler.getLatencyFrames() * 48000L / 44100;
+        assertEquals(expected, out.length, 2);
+    }
+
+    @Test
+    public void stereoChannelsAreIndependent() {
+        final SimpleResampler resampler = new SimpleResampler(16000);
+        assertEquals(2, resampler.configure(48000, 2));
+        final float[] work = new float[960 * 2 * resampler.getExpansion()];
+        int produced = 0;
+        float[] last = null;
+        for (int chunk = 0; chunk < 10; chunk++) {
+            for (int i = 0; i < 960; i++) {
+                work[2 * i]     = 0.25f;  //L: DC
+                work[2 * i + 1] = -0.5f;  //R: DC
+            }
+            produced = resampler.process(work, 960 * 2);
+            last = Arrays.copyOf(work, produced);
+        }
+        assertEquals(320 * 2, produced);
+        for (int j = 0; j < produced; j += 2) {
+            assertEquals(0.25f, last[j], 1e-5f);
+            assertEquals(-0.5f, last[j + 1], 1e-5f);
+        }
+    }
+
+    /**
+     * 20ms chunk 변환 비용 (실시간 대비)
+     */
+    @Test
+    public void throughput() {
+        final int[][] cases = { { 48000, 16000 }, { 44100, 48000 }, { 16000, 48000 } };
+        for (int[] c : cases) {
+            final SimpleResampler resampler = new SimpleResampler(c[1]);
+            resampler.configure(c[0], 1);
+            final int     chunkFrames = c[0] / 50;
+            final float[] work = new float[chunkFrames * resampler.getExpansion()];
+            final int loops = 5000;
+            for (int i = 0; i < loops / 5; i++) {
+                resampler.process(work, chunkFrames);
+            }
+            final long startNanos = System.nanoTime();
+            for (int i = 0; i < loops; i++) {
+                resampler.process(work, chunkFrames);
+            }
+            final long perChunkNanos = (System.nanoTime() - startNanos) / loops;
+            final double realtime = 20 * 1000000.0 / perChunkNanos;
+            System.out.println(String.format("SimpleResamplerTest - %d --> %d: %dns/20ms chunk, %.0fx realtime, %s",
+                    c[0], c[1], perChunkNanos, realtime, resampler));
+            assertTrue(realtime > 50);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleRingBufferTest {
+
+    /**
+     * poll()로 받은 chunk를 복사해 둔다.
+     */
+    private static class Collector implements SimpleRingBuffer.Consumer {
+        final List<byte[]> chunks = new ArrayList<>();
+        final List<Long>   pTimes = new ArrayList<>();
+
+        @Override
+        public void onChunk(ByteBuffer chunk, long pTimeUs) {
+            byte[] b = new byte[chunk.remaining()];
+            chunk.get(b);
+            chunks.add(b);
+            pTimes.add(pTimeUs);
+        }
+    }
+
+    @Test
+    public void roundsSlotCountToPowerOfTwo() {
+        assertEquals(8, new SimpleRingBuffer(16, 5).getSlotCount());
+        assertEquals(8, new SimpleRingBuffer(16, 8).getSlotCount());
+        assertEquals(1, new SimpleRingBuffer(16, 1).getSlotCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsChunkLargerThanSlot() {
+        new SimpleRingBuffer(16, 4).offer(new byte[17], 0, 17, 0);
+    }
+
+    @Test
+    public void deliversChunksInOrder() throws Exception {
+        final SimpleRingBuffer ring = new SimpleRingBuffer(8, 4);
+        ring.offer(new byte[] { 1, 2, 3 }, 0, 3, 100);
+        ring.offer(ByteBuffer.wrap(new byte[] { 9, 4, 5, 6, 7 }, 1, 4), 200);
+        assertEquals(2, ring.size());
+
+        final Collector c = new Collector();
+        assertTrue(ring.poll(c));
+        assertTrue(ring.poll(c));
+        assertFalse(ring.poll(c));
+        assertTrue(ring.isEmpty());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, c.chunks.get(0));
+        assertArrayEquals(new byte[] { 4, 5, 6, 7 }, c.chunks.get(1));
+        assertEquals(Arrays.asList(100L, 200L), c.pTimes);
+    }
+
+    @Test
+    public void offerByteBufferAdvancesPosition() {
+        final SimpleRingBuffer ring = new SimpleRingBuffer(8, 2);
+        final ByteBuffer b = ByteBuffer.allocateDirect(6);
+        assertTrue(ring.offer(b, 0));
+        assertEquals(6, b.position());
+    }
+
+    @Test
+    public void countsOverrunAndHighWaterMark() throws Exception {
+        final SimpleRingBuffer ring = new SimpleRingBuffer(4, 4);
+        final byte[] b = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(b, 0, 4, i));
+        }
+        assertFalse(ring.offer(b, 0, 4, 4));
+        assertFalse(ring.offer(b, 0, 4, 5));
+        assertEquals(2, ring.getOverrunCount());
+        assertEquals(4, ring.getHighWaterMark());
+
+        //가득 찬 상태에서 버려진 chunk는 전달되지 않는다.
+        final Collector c = new Collector();
+        while (ring.poll(c)) { ; }
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), c.pTimes);
+        assertEquals(4, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void consumerExceptionStillReleasesSlot() throws Exception {
+        final SimpleRingBuffer ring = new SimpleRingBuffer(4, 2);
+        ring.offer(new byte[1], 0, 1, 0);
+        try {
+            ring.poll(new SimpleRingBuffer.Consumer() {
+                @Override
+                public void onChunk(ByteBuffer chunk, long pTimeUs) throws Exception {
+                    throw new IllegalStateException("muxer failed");
+                }
+            });
+            fail();
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    /**
+     * 생산자/소비자 thread를 분리해 내용, 순서, 누락 여부를 확인한다.
+     * 생산자는 가득 차면 재시도하므로 overrun 외에는 누락이 없어야 한다.
+     */
+    @Test(timeout = 60000)
+    public void spscUnderContention() throws Exception {
+        final int count    = 2000000;
+        final int slotSize = 64;
+        final SimpleRingBuffer ring = new SimpleRingBuffer(slotSize, 16);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long[] expected = { 0 };
+                final SimpleRingBuffer.Consumer check = new SimpleRingBuffer.Consumer() {
+                    @Override
+                    public void onChunk(ByteBuffer chunk, long pTimeUs) {
+                        final long seq = expected[0]++;
+                        if (pTimeUs != seq) {
+                            throw new AssertionError("pTime: " + pTimeUs + ", expected: " + seq);
+                        }
+                        final int length = (int)(seq % slotSize) + 1;
+                        if (chunk.remaining() != length) {
+                            throw new AssertionError("length: " + chunk.remaining() + ", expected: " + length);
+                        }
+                        for (int i = 0; i < length; i++) {
+                            if (chunk.get() != (byte)(seq + i)) {
+                                throw new AssertionError("corrupted chunk: " + seq);
+                            }
+                        }
+                    }
+                };
+                try {
+                    while (expected[0] < count) {
+                        if (!ring.poll(check)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+                catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        consumer.start();
+
+        final byte[] b = new byte[slotSize];
+        final long startNanos = System.nanoTime();
+        for (long seq = 0; seq < count && error.get() == null; seq++) {
+            final int length = (int)(seq % slotSize) + 1;
+            for (int i = 0; i < length; i++) {
+                b[i] = (byte)(seq + i);
+            }
+            while (!ring.offer(b, 0, length, seq)) {
+                if (error.get() != null) {
+                    break;
+                }
+                Thread.yield();
+            }
+        }
+        consumer.join();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.getHighWaterMark() <= ring.getSlotCount());
+        System.out.println("SimpleRingBufferTest - " + count + " chunks, "
+                + (count * 1000L / Math.max(1, elapsedNanos / 1000000)) + " chunks/s, " + ring);
+    }
+
+    /**
+     * 소비자가 없는 상태에서 offer()의 비용을 잰다. (capture thread에서 호출되는 경로)
+     */
+    @Test
+    public void offerLatency() throws Exception {
+        final int slotSize = 3584;
+        final SimpleRingBuffer ring = new SimpleRingBuffer(slotSize, 64);
+        final byte[] b = new byte[slotSize];
+        final int loops = 200000;
+
+        long maxNanos = 0;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            final long t0 = System.nanoTime();
+            ring.offer(b, 0, slotSize, i);
+            maxNanos = Math.max(maxNanos, System.nanoTime() - t0);
+            if (ring.size() == ring.getSlotCount()) {
+                while (ring.poll(NOOP)) { ; }
+            }
+        }
+        final long avgNanos = (System.nanoTime() - startNanos) / loops;
+        assertEquals(0, ring.getOverrunCount());
+        System.out.println("SimpleRingBufferTest - offer(" + slotSize + "B) avg: " + avgNanos + "ns, max: " + maxNanos / 1000 + "us");
+    }
+
+    private static final SimpleRingBuffer.Consumer NOOP = new SimpleRingBuffer.Consumer() {
+        @Override
+        public void onChunk(ByteBuffer chunk, long pTimeUs) { ; }
+    };
+}
@@ -0,0 +1,196 @@
+package com.kodeholic.simplerecorder;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleSegmentMuxerTest {
+
+    /**
+     * 받은 바이트 수만 기록하고, stop()에 stopDelayMs가 걸리는 muxer
+     */
+    private static class CountingMuxer extends SimpleMuxer {
+        final long stopDelayMs;
+        volatile long    bytes   = 0;
+        volatile boolean stopped = false;
+
+        CountingMuxer(Context context, String path, long stopDelayMs) throws Exception {
+            super(context, path, "CountingMuxer");
+            this.stopDelayMs = stopDelayMs;
+        }
+
+        @Override public void addAudioTrack(AudioConfig audioConfig) { ; }
+        @Override public void addVideoTrack(VideoConfig videoConfig) { ; }
+        @Override public void start() { ; }
+
+        @Override
+        public void writeSample(int encoderType, ByteBuffer buffer, long pTimeUS) {
+            if (stopped) {
+                throw new IllegalStateException("write after stop");
+            }
+            bytes += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void stop(StopListener stopListener) {
+            try {
+                Thread.sleep(stopDelayMs);
+            }
+            catch (InterruptedException e) {
+                ;
+            }
+            stopped = true;
+            if (stopListener != null) {
+                stopListener.onStop();
+            }
+        }
+    }
+
+    private File mDir;
+    private final List<CountingMuxer> mMuxers = new CopyOnWriteArrayList<CountingMuxer>();
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("segment").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : mDir.listFiles()) {
+            f.delete();
+        }
+        mDir.delete();
+    }
+
+    private SimpleSegmentMuxer newMuxer(final long stopDelayMs, long segmentBytes) throws Exception {
+        final SimpleSegmentMuxer.Factory factory = new SimpleSegmentMuxer.Factory() {
+            @Override
+            public SimpleMuxer create(Context context, String path) throws Exception {
+                final CountingMuxer muxer = new CountingMuxer(context, path, stopDelayMs);
+                mMuxers.add(muxer);
+                return muxer;
+            }
+        };
+        final SimpleSegmentMuxer muxer = new SimpleSegmentMuxer(null, new File(mDir, "W_1.wav").getPath(), factory, 0, segmentBytes);
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(16000, 16, 2, 1));
+        muxer.start();
+        return muxer;
+    }
+
+    private List<String> readManifest(SimpleSegmentMuxer muxer) throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        try (BufferedReader r = new BufferedReader(new FileReader(muxer.getManifestPath()))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test(timeout = 10000)
+    public void rotatesBySizeAndWritesManifest() throws Exception {
+        final SimpleSegmentMuxer muxer = newMuxer(0, 1000);
+        final byte[] chunk = new byte[100];
+        for (int i = 0; i < 35; i++) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, chunk, 0, chunk.length, i * 1000L);
+        }
+        muxer.stopAsync().get(5, TimeUnit.SECONDS);
+        assertTrue(muxer.isStopped());
+
+        //10 + 10 + 10 + 5 chunk, 마지막에 준비된 segment는 삭제된다.
+        final List<String> lines = readManifest(muxer);
+        assertEquals(4, lines.size());
+        assertEquals("0\tW_1_0000.wav\t0\t10000\t1000", lines.get(0));
+        assertEquals("3\tW_1_0003.wav\t30000\t34000\t500", lines.get(3));
+        long total = 0;
+        for (CountingMuxer m : mMuxers) {
+            total += m.bytes;
+            assertTrue(m.stopped);
+        }
+        assertEquals(3500, total);
+    }
+
+    /**
+     * segment 종료가 오래 걸려도 stop()은 바로 반환되고, 모두 종료된 후 rotator thread에서 알린다.
+     */
+    @Test(timeout = 10000)
+    public void stopDoesNotBlockCaller() throws Exception {
+        final SimpleSegmentMuxer muxer = newMuxer(500, 0);
+        muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, new byte[100], 0, 100, 0);
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final AtomicReference<Thread> stopThread = new AtomicReference<Thread>();
+        final long startNanos = System.nanoTime();
+        muxer.stop(new SimpleMuxer.StopListener() {
+            @Override
+            public void onStop() {
+                stopThread.set(Thread.currentThread());
+                stopped.countDown();
+            }
+        });
+        final long stopMs = (System.nanoTime() - startNanos) / 1000000;
+        assertTrue("stopMs: " + stopMs, stopMs < 100);
+
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), stopThread.get());
+        assertTrue(muxer.isStopped());
+        for (CountingMuxer m : mMuxers) {
+            assertTrue(m.stopped);
+        }
+        assertEquals(1, readManifest(muxer).size());
+    }
+
+    /**
+     * capture thread의 writeSample()과 stop()이 겹쳐도 종료된 segment에 write하지 않는다.
+     */
+    @Test(timeout = 20000)
+    public void writeSampleRacingStop() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            mMuxers.clear();
+            final SimpleSegmentMuxer muxer = newMuxer(0, 500);
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            final CountDownLatch started = new CountDownLatch(1);
+            final Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] chunk = new byte[64];
+                    try {
+                        for (long i = 0; !muxer.isStopped(); i++) {
+                            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, chunk, 0, chunk.length, i);
+                            started.countDown();
+                        }
+                    }
+                    catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            });
+            writer.start();
+            started.await();
+            muxer.stopAsync().get(5, TimeUnit.SECONDS);
+            writer.join();
+            assertNull(error.get());
+        }
+    }
+}
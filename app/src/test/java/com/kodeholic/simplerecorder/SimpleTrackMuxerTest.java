@@ -0,0 +1,296 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleTrackMuxer의 start barrier와 track 간 pTime 순서를 확인한다.
+ */
+public class SimpleTrackMuxerTest {
+    private static final int TRACK_AUDIO = 0;
+    private static final int TRACK_VIDEO = 1;
+
+    /**
+     * MediaMuxer의 호출 규칙을 검사하며 기록하는 sink
+     *  - addTrack()은 start() 이전에만, writeSampleData()는 start() 이후에만 허용한다.
+     */
+    private static class FakeSink implements SimpleMuxerSink {
+        final List<Integer> trackIndexes = new ArrayList<Integer>();
+        final List<Long>    pTimes       = new ArrayList<Long>();
+        final List<Byte>    payloads     = new ArrayList<Byte>();
+        int     trackCount = 0;
+        boolean started    = false;
+        boolean stopped    = false;
+        boolean released   = false;
+        String  violation  = null;
+
+        @Override
+        public synchronized int addTrack(MediaFormat format) {
+            if (started) {
+                violation = "addTrack() after start()";
+            }
+            return trackCount++;
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) { ; }
+
+        @Override
+        public synchronized void start() {
+            started = true;
+        }
+
+        @Override
+        public synchronized void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            if (!started) {
+                violation = "writeSampleData() before start()";
+            }
+            trackIndexes.add(trackIndex);
+            pTimes.add(info.presentationTimeUs);
+            payloads.add(buffer.get(buffer.position() + info.offset));
+        }
+
+        @Override
+        public synchronized void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public synchronized void release() {
+            released = true;
+        }
+
+        synchronized int writeCount() {
+            return pTimes.size();
+        }
+    }
+
+    /**
+     * 첫 바이트가 track 번호인 sample을 쓴다. (buffer는 호출 후 덮어써 재사용을 흉내낸다)
+     */
+    private static void write(SimpleTrackMuxer muxer, int track, long pTimeUs) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put(0, (byte)track);
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset             = 0;
+        info.size               = 16;
+        info.presentationTimeUs = pTimeUs;
+        muxer.writeSample(track, buffer, info);
+        buffer.put(0, (byte)0x7F);
+    }
+
+    private static void assertOrdered(FakeSink sink) {
+        for (int i = 1; i < sink.pTimes.size(); i++) {
+            assertTrue("pTime reversed at " + i + ": " + sink.pTimes, sink.pTimes.get(i - 1) <= sink.pTimes.get(i));
+        }
+    }
+
+    @Test
+    public void barrierWaitsForAllDeclaredTracks() throws Exception {
+        final FakeSink         sink  = new FakeSink();
+        final SimpleTrackMuxer muxer = new SimpleTrackMuxer("test", sink, 2, 256, 1 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.declareTrack(TRACK_VIDEO);
+        muxer.begin();
+
+        //video format이 늦게 나오는 동안 audio sample이 먼저 encode된다.
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        for (int i = 0; i < 10; i++) {
+            write(muxer, TRACK_AUDIO, i * 23000L);
+        }
+        assertFalse(muxer.isStarted());
+        assertFalse(sink.started);
+        assertEquals(0, sink.writeCount());
+        assertEquals(10, muxer.getBufferedSamples());
+        assertEquals(10 * 16, muxer.getBufferedBytes());
+
+        //모든 track이 추가되면 start 후, video가 진행한 시각까지의 sample을 내보낸다.
+        muxer.onFormat(TRACK_VIDEO, new MediaFormat());
+        assertTrue(muxer.isStarted());
+        assertTrue(sink.started);
+        assertEquals(2, sink.trackCount);
+        assertEquals(0, sink.writeCount());
+        write(muxer, TRACK_VIDEO, 100000L);
+        assertEquals(6, sink.writeCount());
+
+        muxer.endOfTrack(TRACK_AUDIO);
+        muxer.endOfTrack(TRACK_VIDEO);
+        muxer.finish();
+        assertNull(sink.violation);
+        assertEquals(11, sink.writeCount());
+        assertOrdered(sink);
+        assertEquals(0, muxer.getDroppedCount());
+        assertTrue(sink.stopped);
+        assertTrue(sink.released);
+
+        //보관된 sample은 복사본이므로, 호출자가 buffer를 재사용해도 내용이 유지된다.
+        for (int i = 0; i < sink.writeCount(); i++) {
+            final int track = sink.trackIndexes.get(i) == 0 ? TRACK_AUDIO : TRACK_VIDEO;
+            assertEquals(track, (int)sink.payloads.get(i));
+        }
+    }
+
+    /**
+     * sink의 track index는 format이 도착한 순서로 정해지며, track 번호와 다를 수 있다.
+     */
+    @Test
+    public void trackIndexFollowsFormatOrder() throws Exception {
+        final FakeSink         sink  = new FakeSink();
+        final SimpleTrackMuxer muxer = new SimpleTrackMuxer("test", sink, 2, 256, 1 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.declareTrack(TRACK_VIDEO);
+        muxer.begin();
+
+        muxer.onFormat(TRACK_VIDEO, new MediaFormat());
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        //같은 track의 format이 다시 오면 무시한다.
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        assertEquals(2, sink.trackCount);
+
+        write(muxer, TRACK_VIDEO, 0);
+        write(muxer, TRACK_AUDIO, 0);
+        write(muxer, TRACK_AUDIO, 10000L);
+        write(muxer, TRACK_VIDEO, 20000L);
+        muxer.finish();
+
+        assertNull(sink.violation);
+        assertEquals(4, sink.writeCount());
+        for (int i = 0; i < sink.writeCount(); i++) {
+            //video(track 1) --> sink index 0, audio(track 0) --> sink index 1
+            assertEquals(1 - sink.trackIndexes.get(i), (int)sink.payloads.get(i));
+        }
+        assertOrdered(sink);
+    }
+
+    @Test
+    public void undeclaredTrackDoesNotBlock() throws Exception {
+        final FakeSink         sink  = new FakeSink();
+        final SimpleTrackMuxer muxer = new SimpleTrackMuxer("test", sink, 2, 256, 1 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.begin();
+
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        assertTrue(muxer.isStarted());
+        for (int i = 0; i < 10; i++) {
+            write(muxer, TRACK_AUDIO, i * 23000L);
+        }
+        //video를 기다리지 않고 바로 내보낸다.
+        assertEquals(10, sink.writeCount());
+        assertEquals(0, muxer.getBufferedSamples());
+        muxer.finish();
+        assertNull(sink.violation);
+    }
+
+    @Test
+    public void preStartOverflowDropsEarliest() throws Exception {
+        final int              maxSamples = 8;
+        final FakeSink         sink  = new FakeSink();
+        final SimpleTrackMuxer muxer = new SimpleTrackMuxer("test", sink, 2, maxSamples, 1 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.declareTrack(TRACK_VIDEO);
+        muxer.begin();
+
+        for (int i = 0; i < 20; i++) {
+            write(muxer, TRACK_AUDIO, i * 1000L);
+        }
+        assertEquals(20 - maxSamples, muxer.getDroppedCount());
+        assertEquals(maxSamples, muxer.getBufferedSamples());
+
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        muxer.onFormat(TRACK_VIDEO, new MediaFormat());
+        muxer.endOfTrack(TRACK_VIDEO);
+        muxer.finish();
+
+        //가장 최근 sample만 남는다.
+        assertNull(sink.violation);
+        assertEquals(maxSamples, sink.writeCount());
+        assertEquals((20 - maxSamples) * 1000L, (long)sink.pTimes.get(0));
+        assertOrdered(sink);
+    }
+
+    @Test
+    public void finishBeforeStartReleasesWithoutStop() throws Exception {
+        final FakeSink         sink  = new FakeSink();
+        final SimpleTrackMuxer muxer = new SimpleTrackMuxer("test", sink, 2, 256, 1 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.declareTrack(TRACK_VIDEO);
+        muxer.begin();
+
+        muxer.onFormat(TRACK_AUDIO, new MediaFormat());
+        write(muxer, TRACK_AUDIO, 0);
+        muxer.finish();
+
+        //start되지 않은 MediaMuxer는 stop()하면 안된다.
+        assertNull(sink.violation);
+        assertFalse(sink.started);
+        assertFalse(sink.stopped);
+        assertTrue(sink.released);
+        assertEquals(0, sink.writeCount());
+    }
+
+    /**
+     * encoder thread처럼 track 별 thread에서 format과 sample이 동시에 들어와도,
+     * sink는 start 이후에만 write되고 pTime 순서가 유지된다.
+     */
+    @Test(timeout = 10000)
+    public void concurrentTracksKeepBarrierAndOrder() throws Exception {
+        final int              samples = 2000;
+        final FakeSink         sink    = new FakeSink();
+        final SimpleTrackMuxer muxer   = new SimpleTrackMuxer("test", sink, 2, 4096, 16 << 20);
+        muxer.declareTrack(TRACK_AUDIO);
+        muxer.declareTrack(TRACK_VIDEO);
+        muxer.begin();
+
+        final CountDownLatch go     = new CountDownLatch(1);
+        final Exception[]    errors = new Exception[2];
+        final Thread[]       threads = new Thread[2];
+        final long[]         stepUs  = { 23220L, 33333L };
+        for (int t = 0; t < 2; t++) {
+            final int track = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                        for (int i = 0; i < samples; i++) {
+                            //video format은 audio보다 늦게 나온다.
+                            if (i == (track == TRACK_AUDIO ? 0 : samples / 4)) {
+                                muxer.onFormat(track, new MediaFormat());
+                            }
+                            write(muxer, track, i * stepUs[track]);
+                        }
+                        muxer.endOfTrack(track);
+                    }
+                    catch (Exception e) {
+                        errors[track] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        muxer.finish();
+
+        assertNull(errors[0]);
+        assertNull(errors[1]);
+        assertNull(sink.violation);
+        assertEquals(0, muxer.getDroppedCount());
+        assertEquals(2 * samples, sink.writeCount());
+        assertOrdered(sink);
+    }
+}
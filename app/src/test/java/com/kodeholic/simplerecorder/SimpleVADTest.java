@@ -0,0 +1,198 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleVADTest {
+    private static final int SAMPLE_RATE  = 16000;
+    private static final int CHUNK_FRAMES = 320; //20ms
+
+    private static double amplitude(double dbfs) {
+        return 32767.0 * Math.pow(10.0, dbfs / 20.0);
+    }
+
+    /**
+     * sine (RMS 기준 dbfs) chunk
+     */
+    private static ByteBuffer tone(double freqHz, double dbfs, int channelCount) {
+        final ByteBuffer b = ByteBuffer.allocate(CHUNK_FRAMES * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        final double peak = amplitude(dbfs) * Math.sqrt(2.0);
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            final short s = (short)Math.round(peak * Math.sin(2 * Math.PI * freqHz * i / SAMPLE_RATE));
+            for (int c = 0; c < channelCount; c++) {
+                b.putShort(c == 0 ? s : 0);
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * 백색 잡음 (zero-crossing rate 약 0.5)
+     */
+    private static ByteBuffer noise(double dbfs, Random random) {
+        final ByteBuffer b = ByteBuffer.allocate(CHUNK_FRAMES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        final double rms = amplitude(dbfs);
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            b.putShort((short)Math.round(random.nextGaussian() * rms));
+        }
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer silence() {
+        return ByteBuffer.allocate(CHUNK_FRAMES * 2);
+    }
+
+    @Test
+    public void detectsVoiceAndSilence() {
+        final SimpleVAD vad = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        assertFalse(vad.process(silence()));
+        assertTrue(vad.process(tone(200, -20, 1)));
+        assertEquals(-20.0, vad.getLastDbfs(), 0.1);
+        assertFalse(vad.process(silence()));
+        assertEquals(SimpleBitratePolicy.MIN_DBFS, vad.getLastDbfs(), 0.0);
+    }
+
+    /**
+     * 음성 이후 hangover 동안은 음성으로 유지하고, 그 이후에는 무음이다.
+     */
+    @Test
+    public void hangoverKeepsTrailingChunks() {
+        final long hangoverMs = 100;
+        final SimpleVAD vad = new SimpleVAD(SAMPLE_RATE, 1, hangoverMs);
+        assertTrue(vad.process(tone(200, -20, 1)));
+
+        //100ms / 20ms = 5 chunk
+        final long hangoverChunks = hangoverMs * SAMPLE_RATE / 1000 / CHUNK_FRAMES;
+        for (int i = 0; i < hangoverChunks; i++) {
+            assertTrue("chunk: " + i, vad.process(silence()));
+        }
+        assertFalse(vad.process(silence()));
+
+        //다시 음성이 시작되면 hangover가 초기화된다.
+        assertTrue(vad.process(tone(200, -20, 1)));
+        assertTrue(vad.process(silence()));
+    }
+
+    /**
+     * 에너지가 문턱보다 조금 낮아도 zero-crossing rate가 높으면 무성음으로 판단한다.
+     */
+    @Test
+    public void unvoicedNeedsHighZeroCrossingRate() {
+        //조용한 환경: threshold = MIN_VOICE_DBFS(-45), 무성음은 -51dBFS 이상
+        final double level = SimpleVAD.MIN_VOICE_DBFS - SimpleVAD.UNVOICED_MARGIN_DB / 2;
+
+        final SimpleVAD lowZcr = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        assertFalse(lowZcr.process(tone(200, level, 1)));
+        assertTrue(lowZcr.getLastZcr() < SimpleVAD.UNVOICED_ZCR);
+
+        final SimpleVAD highZcr = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        assertTrue(highZcr.process(noise(level, new Random(1))));
+        assertTrue(highZcr.getLastZcr() >= SimpleVAD.UNVOICED_ZCR);
+
+        //margin보다 더 작으면 무성음도 아니다.
+        final SimpleVAD tooQuiet = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        assertFalse(tooQuiet.process(noise(SimpleVAD.MIN_VOICE_DBFS - SimpleVAD.UNVOICED_MARGIN_DB - 3, new Random(2))));
+    }
+
+    /**
+     * noise floor가 올라가면 같은 크기의 음성도 무음으로 판단한다.
+     */
+    @Test
+    public void noiseFloorRaisesThreshold() {
+        final double hum = -50; //MIN_VOICE_DBFS 아래의 저주파 hum
+        final double quietVoice = -42;
+
+        final SimpleVAD quietRoom = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        assertTrue(quietRoom.process(tone(300, quietVoice, 1)));
+
+        final SimpleVAD noisyRoom = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        for (int i = 0; i < 500; i++) {
+            assertFalse(noisyRoom.process(tone(100, hum, 1)));
+        }
+        //floor는 천천히 올라가 hum 근처에 머문다.
+        assertEquals(hum, noisyRoom.getNoiseFloorDbfs(), 0.2);
+        assertFalse(noisyRoom.process(tone(300, quietVoice, 1)));
+        assertTrue(noisyRoom.process(tone(300, hum + SimpleVAD.VOICE_MARGIN_DB + 1, 1)));
+
+        //floor는 조용해지면 즉시 내려간다.
+        noisyRoom.process(silence());
+        assertEquals(SimpleBitratePolicy.MIN_DBFS, noisyRoom.getNoiseFloorDbfs(), 0.0);
+        assertTrue(noisyRoom.process(tone(300, quietVoice, 1)));
+    }
+
+    @Test
+    public void checksFirstChannelOnlyAndKeepsPosition() {
+        final SimpleVAD vad = new SimpleVAD(SAMPLE_RATE, 2, 0);
+        final ByteBuffer stereo = tone(200, -20, 2);
+        final int position = stereo.position();
+        assertTrue(vad.process(stereo));
+        assertEquals(position, stereo.position());
+        assertEquals(CHUNK_FRAMES, vad.getTotalFrames());
+
+        //홀수 길이는 마지막 바이트를 무시한다.
+        final ByteBuffer odd = ByteBuffer.allocate(CHUNK_FRAMES * 2 + 1);
+        assertFalse(vad.process(odd));
+        assertEquals(CHUNK_FRAMES + CHUNK_FRAMES / 2, vad.getTotalFrames());
+
+        //빈 chunk는 통계에 포함하지 않는다.
+        assertFalse(vad.process(ByteBuffer.allocate(0)));
+        assertEquals(CHUNK_FRAMES + CHUNK_FRAMES / 2, vad.getTotalFrames());
+    }
+
+    @Test
+    public void reportsSilentPercent() {
+        final SimpleVAD vad = new SimpleVAD(SAMPLE_RATE, 1, 0);
+        for (int i = 0; i < 30; i++) {
+            vad.process(tone(200, -20, 1));
+        }
+        for (int i = 0; i < 70; i++) {
+            vad.process(silence());
+        }
+        assertEquals(100L * CHUNK_FRAMES, vad.getTotalFrames());
+        assertEquals(70L * CHUNK_FRAMES, vad.getSilentFrames());
+        assertEquals(70.0, vad.getSilentPercent(), 1e-9);
+    }
+
+    /**
+     * process()는 할당하지 않는다. (capture/sink thread에서 chunk마다 호출)
+     */
+    @Test
+    public void processIsAllocationFreeAndFast() {
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long tid = Thread.currentThread().getId();
+        final SimpleVAD  vad    = new SimpleVAD(48000, 1);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(960 * 2);
+        direct.put(tone(200, -20, 1)).put(noise(-60, new Random(3))).put(tone(3000, -30, 1)).clear();
+
+        final int loops = 200000;
+        for (int i = 0; i < loops / 10; i++) {
+            vad.process(direct);
+        }
+        final long allocatedBefore = bean.getThreadAllocatedBytes(tid);
+        final long startNanos      = System.nanoTime();
+        boolean any = false;
+        for (int i = 0; i < loops; i++) {
+            any |= vad.process(direct);
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocated    = bean.getThreadAllocatedBytes(tid) - allocatedBefore;
+        assertTrue(any);
+
+        //20ms chunk당 처리 시간
+        System.out.println("SimpleVADTest - process(960 frames): " + elapsedNanos / loops + "ns/chunk, allocated: " + allocated + " bytes");
+        //측정 코드 자체의 할당을 감안한 여유
+        assertTrue("allocated: " + allocated, allocated < 1024);
+        //실시간(20ms)의 1/100 이하
+        assertTrue(elapsedNanos / loops < 200 * 1000L);
+    }
+}
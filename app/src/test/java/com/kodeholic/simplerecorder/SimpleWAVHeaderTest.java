@@ -0,0 +1,146 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleWAVHeader.write()의 RIFF/RF64 필드와 4GB 경계.
+ */
+public class SimpleWAVHeaderTest {
+    private static final int  SAMPLE_RATE = 48000;
+    private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+    //RIFF 크기(파일 - 8)가 32bit에 들어가는 최대 data 길이
+    private static final long MAX_RIFF_PCM_LENGTH = MAX_CHUNK_SIZE - (SimpleWAVHeader.RF64_HEADER_SIZE - 8);
+
+    private static ByteBuffer header(int channelCount, long totalPCMLength) {
+        final byte[] h = new byte[SimpleWAVHeader.RF64_HEADER_SIZE];
+        SimpleWAVHeader.write(h, channelCount, SAMPLE_RATE, 16, totalPCMLength);
+        return ByteBuffer.wrap(h).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String tag(ByteBuffer h, int offset) {
+        return new String(h.array(), offset, 4);
+    }
+
+    private static long uint32(ByteBuffer h, int offset) {
+        return h.getInt(offset) & MAX_CHUNK_SIZE;
+    }
+
+    private static void assertFmt(ByteBuffer h, int channelCount) {
+        assertEquals("WAVE", tag(h, 8));
+        assertEquals("fmt ", tag(h, 48));
+        assertEquals(16, h.getInt(52));
+        assertEquals(1, h.getShort(56));
+        assertEquals(channelCount, h.getShort(58));
+        assertEquals(SAMPLE_RATE, h.getInt(60));
+        assertEquals(SAMPLE_RATE * channelCount * 2, h.getInt(64));
+        assertEquals(channelCount * 2, h.getShort(68));
+        assertEquals(16, h.getShort(70));
+        assertEquals("data", tag(h, 72));
+    }
+
+    @Test
+    public void riffWithJunk() throws Exception {
+        final long length = 12345 * 4;
+        final ByteBuffer h = header(2, length);
+        assertFalse(SimpleWAVHeader.isRF64(length));
+
+        assertEquals("RIFF", tag(h, 0));
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE - 8 + length, uint32(h, 4));
+        //ds64 자리는 0으로 채운 JUNK chunk
+        assertEquals("JUNK", tag(h, 12));
+        assertEquals(28, h.getInt(16));
+        assertArrayEquals(new byte[28], Arrays.copyOfRange(h.array(), 20, 48));
+        assertFmt(h, 2);
+        assertEquals(length, uint32(h, 76));
+    }
+
+    @Test
+    public void emptyData() throws Exception {
+        final ByteBuffer h = header(1, 0);
+        assertEquals("RIFF", tag(h, 0));
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE - 8, h.getInt(4));
+        assertEquals(0, h.getInt(76));
+        assertFmt(h, 1);
+    }
+
+    /**
+     * 2GB ~ 4GB는 RIFF 그대로이며, 크기를 unsigned 32bit로 쓴다. (signed int 시절에는 음수가 되었다)
+     */
+    @Test
+    public void between2GBAnd4GBIsUnsignedRiff() throws Exception {
+        for (long length : new long[] { 0x7FFFFFFFL, 0x80000000L, 0xC0000000L }) {
+            final ByteBuffer h = header(2, length);
+            assertEquals("RIFF", tag(h, 0));
+            assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE - 8 + length, uint32(h, 4));
+            assertEquals(length, uint32(h, 76));
+        }
+    }
+
+    @Test
+    public void lastRiffLength() throws Exception {
+        final long length = MAX_RIFF_PCM_LENGTH;
+        assertFalse(SimpleWAVHeader.isRF64(length));
+
+        final ByteBuffer h = header(2, length);
+        assertEquals("RIFF", tag(h, 0));
+        assertEquals(MAX_CHUNK_SIZE, uint32(h, 4));
+        assertEquals("JUNK", tag(h, 12));
+        assertEquals(length, uint32(h, 76));
+    }
+
+    @Test
+    public void firstRF64Length() throws Exception {
+        final long length = MAX_RIFF_PCM_LENGTH + 1;
+        assertTrue(SimpleWAVHeader.isRF64(length));
+
+        final ByteBuffer h = header(2, length);
+        assertEquals("RF64", tag(h, 0));
+        assertEquals(MAX_CHUNK_SIZE, uint32(h, 4));
+        //ds64: riffSize, dataSize, sampleCount, table length
+        assertEquals("ds64", tag(h, 12));
+        assertEquals(28, h.getInt(16));
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE - 8 + length, h.getLong(20));
+        assertEquals(length, h.getLong(28));
+        assertEquals(length / 4, h.getLong(36));
+        assertEquals(0, h.getInt(44));
+        assertFmt(h, 2);
+        //RF64의 32bit 크기는 -1(0xFFFFFFFF)이며 ds64 값을 사용한다.
+        assertEquals(MAX_CHUNK_SIZE, uint32(h, 76));
+    }
+
+    @Test
+    public void multiGBRF64() throws Exception {
+        //48kHz stereo 16bit 3일
+        final long length = 3L * 24 * 3600 * SAMPLE_RATE * 4;
+        final ByteBuffer h = header(2, length);
+        assertEquals("RF64", tag(h, 0));
+        assertEquals(length, h.getLong(28));
+        assertEquals(3L * 24 * 3600 * SAMPLE_RATE, h.getLong(36));
+    }
+
+    /**
+     * 같은 배열에 RIFF --> RF64 --> RIFF 순으로 다시 써도 이전 값이 남지 않는다. (녹음 중 전환)
+     */
+    @Test
+    public void rewriteInPlace() throws Exception {
+        final byte[] h = new byte[SimpleWAVHeader.RF64_HEADER_SIZE];
+        assertFalse(SimpleWAVHeader.write(h, 1, SAMPLE_RATE, 16, 1000));
+        final byte[] riff = h.clone();
+
+        assertTrue(SimpleWAVHeader.write(h, 1, SAMPLE_RATE, 16, MAX_RIFF_PCM_LENGTH + 2));
+        //fmt와 data 위치는 바뀌지 않는다.
+        assertArrayEquals(Arrays.copyOfRange(riff, 48, 76), Arrays.copyOfRange(h, 48, 76));
+
+        assertFalse(SimpleWAVHeader.write(h, 1, SAMPLE_RATE, 16, 1000));
+        assertArrayEquals(riff, h);
+    }
+}
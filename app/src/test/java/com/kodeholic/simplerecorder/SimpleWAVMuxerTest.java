@@ -0,0 +1,265 @@
+package com.kodeholic.simplerecorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimpleWAVMuxer의 FileChannel + write buffer 경로.
+ */
+public class SimpleWAVMuxerTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK_SIZE  = 3584; //AudioRecord.getMinBufferSize(44100, MONO, 16BIT)
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("wav", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private SimpleWAVMuxer startMuxer(int writeBufferSize) throws Exception {
+        final SimpleWAVMuxer muxer = new SimpleWAVMuxer(null, mFile.getPath(), writeBufferSize);
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, 16, 2, 1));
+        muxer.start();
+        return muxer;
+    }
+
+    /**
+     * length 바이트의 무음을 writeSample()로 전달한다. channel이 skipping이면 파일에는 쓰지 않는다.
+     */
+    private static void writeSilence(SimpleWAVMuxer muxer, long length) throws Exception {
+        final ByteBuffer silence = ByteBuffer.allocate(64 * 1024 * 1024);
+        while (length > 0) {
+            final int n = (int)Math.min(length, silence.capacity());
+            silence.clear().limit(n);
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, silence, 0);
+            length -= n;
+        }
+    }
+
+    private static byte[] pcm(int length) {
+        final byte[] pcm = new byte[length];
+        for (int i = 0; i < length; i++) {
+            pcm[i] = (byte)(i * 31 + (i >> 8));
+        }
+        return pcm;
+    }
+
+    private byte[] readAll() throws Exception {
+        try (RandomAccessFile f = new RandomAccessFile(mFile, "r")) {
+            final byte[] b = new byte[(int)f.length()];
+            f.readFully(b);
+            return b;
+        }
+    }
+
+    @Test
+    public void writesHeaderAndAllSamples() throws Exception {
+        final byte[] pcm = pcm(1000 * CHUNK_SIZE + 123);
+        final SimpleWAVMuxer muxer = startMuxer(64 * 1024);
+        for (int off = 0; off < pcm.length; off += CHUNK_SIZE) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, pcm, off, Math.min(CHUNK_SIZE, pcm.length - off), 0);
+        }
+        muxer.stop(null);
+
+        final byte[] file = readAll();
+        final int    headerSize = SimpleWAVHeader.RF64_HEADER_SIZE;
+        assertEquals(headerSize + pcm.length, file.length);
+        final ByteBuffer h = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(file.length - 8, h.getInt(4));
+        assertEquals(pcm.length, h.getInt(headerSize - 4));
+        assertArrayEquals(pcm, Arrays.copyOfRange(file, headerSize, file.length));
+    }
+
+    @Test
+    public void keepsSamplesInBufferUntilStop() throws Exception {
+        final byte[] pcm = pcm(10 * CHUNK_SIZE);
+        final SimpleWAVMuxer muxer = startMuxer(SimpleWAVMuxer.DEFAULT_WRITE_BUFFER_SIZE);
+        muxer.setHeaderSyncBytes(0);
+        muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, pcm, 0, pcm.length, 0);
+
+        //buffer가 차지 않았으므로 아직 header만 있다.
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE, mFile.length());
+
+        muxer.stop(null);
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE + pcm.length, mFile.length());
+    }
+
+    @Test
+    public void headerIsSyncedPeriodically() throws Exception {
+        final byte[] pcm = pcm(CHUNK_SIZE);
+        final SimpleWAVMuxer muxer = startMuxer(SimpleWAVMuxer.DEFAULT_WRITE_BUFFER_SIZE);
+        muxer.setHeaderSyncBytes(10 * CHUNK_SIZE);
+        for (int i = 0; i < 25; i++) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, pcm, 0, pcm.length, 0);
+        }
+
+        //stop() 없이도 마지막 sync(20 chunk) 시점까지는 재생 가능한 파일이다.
+        final ByteBuffer h = ByteBuffer.wrap(readAll()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(20 * CHUNK_SIZE, h.getInt(SimpleWAVHeader.RF64_HEADER_SIZE - 4));
+        assertTrue(mFile.length() >= SimpleWAVHeader.RF64_HEADER_SIZE + 20 * CHUNK_SIZE);
+        muxer.stop(null);
+    }
+
+    /**
+     * 4GB를 넘는 녹음. 중간의 무음 구간은 SparseFileChannel이 쓰지 않고 건너뛰어 sparse file로 만든다. (실제 디스크는 거의 쓰지 않는다)
+     * 녹음 중 sync 시점에 RIFF에서 RF64로 전환되고, 앞뒤 sample은 제 위치에 남아야 한다.
+     */
+    @Test(timeout = 120000)
+    public void sparseMultiGBPromotesToRF64() throws Exception {
+        final int    headerSize = SimpleWAVHeader.RF64_HEADER_SIZE;
+        final long   maxRiffPCMLength = 0xFFFFFFFFL - (headerSize - 8);
+        final byte[] head = pcm(CHUNK_SIZE);
+        final byte[] tail = pcm(2 * CHUNK_SIZE);
+        final SparseFileChannel[] channel = { null };
+        final SimpleWAVMuxer muxer = new SimpleWAVMuxer(null, mFile.getPath()) {
+            @Override
+            protected FileChannel openChannel(File file) throws IOException {
+                channel[0] = new SparseFileChannel(super.openChannel(file));
+                return channel[0];
+            }
+        };
+        muxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, 16, 2, 1));
+        muxer.start();
+        muxer.setHeaderSyncBytes(0);
+        muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, head, 0, head.length, 0);
+
+        //RIFF로 쓸 수 있는 마지막 길이 (앞의 sample은 먼저 내려쓴다)
+        muxer.sync();
+        channel[0].skipping = true;
+        writeSilence(muxer, maxRiffPCMLength - head.length);
+        muxer.sync();
+        channel[0].skipping = false;
+        assertFalse(muxer.isRF64());
+        try (RandomAccessFile f = new RandomAccessFile(mFile, "r")) {
+            final byte[] h = new byte[headerSize];
+            f.readFully(h);
+            assertEquals("RIFF", new String(h, 0, 4));
+            assertEquals(0xFFFFFFFFL, ByteBuffer.wrap(h).order(ByteOrder.LITTLE_ENDIAN).getInt(4) & 0xFFFFFFFFL);
+        }
+
+        //1바이트만 넘어도 RF64로 전환된다.
+        muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, tail, 0, tail.length, 0);
+        muxer.sync();
+        channel[0].skipping = true;
+        writeSilence(muxer, 1L << 30);
+        muxer.sync();
+        channel[0].skipping = false;
+        muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, tail, 0, tail.length, 0);
+        final long total = muxer.getTotalPCMLength();
+        muxer.stop(null);
+
+        assertTrue(muxer.isRF64());
+        assertEquals(maxRiffPCMLength + (1L << 30) + 2 * tail.length, total);
+        assertEquals(headerSize + total, mFile.length());
+        try (RandomAccessFile f = new RandomAccessFile(mFile, "r")) {
+            final byte[] h = new byte[headerSize];
+            f.readFully(h);
+            final ByteBuffer b = ByteBuffer.wrap(h).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals("RF64", new String(h, 0, 4));
+            assertEquals("ds64", new String(h, 12, 4));
+            assertEquals(headerSize - 8 + total, b.getLong(20));
+            assertEquals(total, b.getLong(28));
+            assertEquals(total / 2, b.getLong(36));
+
+            final byte[] b1 = new byte[head.length];
+            f.readFully(b1);
+            assertArrayEquals(head, b1);
+
+            final byte[] b2 = new byte[tail.length];
+            f.seek(headerSize + maxRiffPCMLength);
+            f.readFully(b2);
+            assertArrayEquals(tail, b2);
+            f.seek(headerSize + total - tail.length);
+            f.readFully(b2);
+            assertArrayEquals(tail, b2);
+        }
+    }
+
+    /**
+     * 수백 MB를 chunk마다 FileOutputStream.write()하던 이전 경로와 비교한다.
+     * write syscall 수는 /proc/self/io(syscw)가 있는 경우에만 비교한다.
+     */
+    @Test
+    public void fewerSyscallsThanUnbufferedPath() throws Exception {
+        final long total = 256L * 1024 * 1024;
+        final byte[] chunk = pcm(CHUNK_SIZE);
+
+        //이전 경로: chunk마다 write()
+        long syscw0 = readSyscw();
+        long t0 = System.nanoTime();
+        try (FileOutputStream os = new FileOutputStream(mFile)) {
+            os.write(new byte[SimpleWAVHeader.RF64_HEADER_SIZE]);
+            for (long n = 0; n < total; n += CHUNK_SIZE) {
+                os.write(chunk);
+            }
+        }
+        final long oldNanos   = System.nanoTime() - t0;
+        final long oldSyscalls = readSyscw() - syscw0;
+
+        //새 경로: 256KB direct buffer + FileChannel
+        syscw0 = readSyscw();
+        t0 = System.nanoTime();
+        final SimpleWAVMuxer muxer = startMuxer(SimpleWAVMuxer.DEFAULT_WRITE_BUFFER_SIZE);
+        for (long n = 0; n < total; n += CHUNK_SIZE) {
+            muxer.writeSample(SimpleEncoder.ENCODER_TYPE_AUDIO, chunk, 0, CHUNK_SIZE, 0);
+        }
+        muxer.stop(null);
+        final long newNanos    = System.nanoTime() - t0;
+        final long newSyscalls = readSyscw() - syscw0;
+
+        System.out.println("SimpleWAVMuxerTest - " + (total >> 20) + "MB"
+                + ", unbuffered: " + oldNanos / 1000000 + "ms, " + (total * 1000L / oldNanos) + "MB/s, syscw: " + oldSyscalls
+                + ", buffered: "   + newNanos / 1000000 + "ms, " + (total * 1000L / newNanos) + "MB/s, syscw: " + newSyscalls);
+
+        final long chunks = (total + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        assertEquals(SimpleWAVHeader.RF64_HEADER_SIZE + chunks * CHUNK_SIZE, mFile.length());
+        if (oldSyscalls > 0) {
+            assertTrue("unbuffered: " + oldSyscalls + ", buffered: " + newSyscalls, newSyscalls * 20 < oldSyscalls);
+        }
+    }
+
+    /**
+     * 현재 프로세스의 write syscall 수 (없으면 -1)
+     */
+    private static long readSyscw() {
+        final File io = new File("/proc/self/io");
+        if (!io.canRead()) {
+            return -1;
+        }
+        try (BufferedReader r = new BufferedReader(new FileReader(io))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        }
+        catch (Exception e) {
+            //측정하지 않는다.
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,121 @@
+package com.kodeholic.simplerecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * JVM 테스트용 FileChannel.
+ *  - skipping이 true이면 순차 write()는 내용을 쓰지 않고 position만 옮긴다. (sparse file의 빈 구간은 0으로 읽힌다)
+ *  - 위치 지정 write(header 갱신)와 나머지는 그대로 file channel에 전달한다.
+ * 실제 디스크를 거의 쓰지 않고 수 GB 녹음을 흉내낼 수 있다.
+ */
+public class SparseFileChannel extends FileChannel {
+    private final FileChannel mChannel;
+    public volatile boolean skipping = false;
+
+    public SparseFileChannel(FileChannel channel) {
+        mChannel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!skipping) {
+            return mChannel.write(src);
+        }
+        final int n = src.remaining();
+        mChannel.position(mChannel.position() + n);
+        src.position(src.limit());
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n += write(srcs[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return mChannel.write(src, position);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return mChannel.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        return mChannel.read(dsts, offset, length);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return mChannel.read(dst, position);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return mChannel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        mChannel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return mChannel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        mChannel.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        mChannel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return mChannel.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return mChannel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return mChannel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return mChannel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return mChannel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        mChannel.close();
+    }
+}
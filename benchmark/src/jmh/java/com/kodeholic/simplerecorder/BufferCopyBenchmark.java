@@ -0,0 +1,106 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * capture thread에서 PCM chunk를 넘기는 방법별 비용
+ *  - heap/direct ByteBuffer 간 복사
+ *  - SimpleRingBuffer offer + poll (SimpleAsyncMuxer, SimpleFLACMuxer)
+ *  - SimpleBufferPool acquire + release (SimpleRecordEngine fan-out)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BufferCopyBenchmark {
+    @Param({ "1920", "8192" })
+    public int chunkSize;
+
+    private byte[]     mBytes;
+    private ByteBuffer mHeapSrc;
+    private ByteBuffer mDirectSrc;
+    private ByteBuffer mHeapDst;
+    private ByteBuffer mDirectDst;
+
+    private SimpleRingBuffer mRing;
+    private SimpleBufferPool mPool;
+
+    private long mConsumed;
+    private final SimpleRingBuffer.Consumer mConsumer = new SimpleRingBuffer.Consumer() {
+        @Override
+        public void onChunk(ByteBuffer chunk, long pTimeUs) {
+            mConsumed += chunk.remaining();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mBytes     = Pcm16.generate(48000, 1, chunkSize / 2);
+        mHeapSrc   = ByteBuffer.wrap(mBytes);
+        mDirectSrc = ByteBuffer.allocateDirect(chunkSize);
+        mDirectSrc.put(mBytes).flip();
+        mHeapDst   = ByteBuffer.allocate(chunkSize);
+        mDirectDst = ByteBuffer.allocateDirect(chunkSize);
+
+        mRing = new SimpleRingBuffer(chunkSize, 16);
+        mPool = new SimpleBufferPool(chunkSize, 16);
+    }
+
+    @Benchmark
+    public ByteBuffer arrayToHeap() {
+        mHeapDst.clear();
+        mHeapDst.put(mBytes, 0, chunkSize);
+        return mHeapDst;
+    }
+
+    @Benchmark
+    public ByteBuffer arrayToDirect() {
+        mDirectDst.clear();
+        mDirectDst.put(mBytes, 0, chunkSize);
+        return mDirectDst;
+    }
+
+    @Benchmark
+    public ByteBuffer heapToDirect() {
+        mHeapSrc.clear();
+        mDirectDst.clear();
+        mDirectDst.put(mHeapSrc);
+        return mDirectDst;
+    }
+
+    @Benchmark
+    public ByteBuffer directToDirect() {
+        mDirectSrc.clear();
+        mDirectDst.clear();
+        mDirectDst.put(mDirectSrc);
+        return mDirectDst;
+    }
+
+    @Benchmark
+    public long ringOfferPoll() throws Exception {
+        mDirectSrc.clear();
+        mRing.offer(mDirectSrc, 0);
+        mRing.poll(mConsumer);
+        return mConsumed;
+    }
+
+    @Benchmark
+    public int poolAcquireRelease() {
+        final SimpleBufferPool.Buffer buffer = mPool.acquire();
+        mDirectSrc.clear();
+        buffer.data().clear();
+        buffer.data().put(mDirectSrc).flip();
+        final int length = buffer.length();
+        buffer.release();
+        return length;
+    }
+}
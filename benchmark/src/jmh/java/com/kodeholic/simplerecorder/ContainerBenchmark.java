@@ -0,0 +1,76 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * encode된 frame을 container로 쓰는 비용 (encoder drain thread). 출력은 NullChannel
+ *  - Ogg : Opus 20ms packet (48kHz granule)
+ *  - fMP4: AAC frame, 1초(43 frame)마다 fragment
+ *  - FLAC: 4096 sample block encode
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContainerBenchmark {
+    private final NullChannel mChannel = new NullChannel();
+
+    private ByteBuffer        mPacket;
+    private SimpleOggWriter   mOgg;
+    private long              mGranulePos;
+    private SimpleFMP4Writer  mFMP4;
+    private ByteBuffer        mPcm;
+    private SimpleFLACEncoder mFLAC;
+
+    private final SimpleFLACEncoder.Output mNullOutput = new SimpleFLACEncoder.Output() {
+        @Override
+        public void onFrame(byte[] frame, int length) { }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        final byte[] payload = new byte[160]; //64kbps 20ms
+        new Random(1).nextBytes(payload);
+        mPacket = ByteBuffer.wrap(payload);
+
+        mOgg = new SimpleOggWriter(mChannel, 0x12345678, SimpleOggWriter.MAX_BODY_SIZE, 48000);
+        mGranulePos = 0;
+
+        mFMP4 = new SimpleFMP4Writer(mChannel, 44100, 2, SimpleFMP4Writer.buildAudioSpecificConfig(44100, 2), 43, 128000);
+        mFMP4.writeHeader();
+
+        mPcm  = ByteBuffer.wrap(Pcm16.generate(44100, 2, 4096));
+        mFLAC = new SimpleFLACEncoder(44100, 2, 4096);
+    }
+
+    @Benchmark
+    public long oggWritePacket() throws Exception {
+        mPacket.clear();
+        mGranulePos += 960;
+        mOgg.writePacket(mPacket, mGranulePos, false);
+        return mChannel.getWritten();
+    }
+
+    @Benchmark
+    public long fmp4WriteFrame() throws Exception {
+        mPacket.clear();
+        mFMP4.writeFrame(mPacket);
+        return mChannel.getWritten();
+    }
+
+    @Benchmark
+    public long flacEncodeBlock() throws Exception {
+        mPcm.clear();
+        mFLAC.write(mPcm, mNullOutput);
+        return mFLAC.getBytesEncoded();
+    }
+}
@@ -0,0 +1,127 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 같은 PCM 1초를 WAV(write buffer 복사)와 FLAC(encode + write buffer 복사)으로 쓰는 비용과 출력 크기. 출력은 NullChannel
+ *  - 1 op = 1초 분량이므로 ops/s가 실시간 배수이다.
+ *  - 출력 크기(원본 대비 %)는 trial 종료 시 출력한다.
+ *  - TONE: Pcm16 (sine + 약한 noise), NOISE: white noise (FLAC 최악), SILENCE: 0 (FLAC 최선)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FLACEncoderBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHUNK_MS    = 20; //AudioRecord read 단위
+
+    @Param({ "WAV", "FLAC" })
+    public String format;
+
+    @Param({ "TONE", "NOISE", "SILENCE" })
+    public String signal;
+
+    @Param({ "1", "2" })
+    public int channelCount;
+
+    private ByteBuffer        mPcm;
+    private int               mChunkSize;
+    private ByteBuffer        mWriteBuffer;
+    private NullChannel       mChannel;
+    private SimpleFLACEncoder mEncoder;
+    private long              mPcmBytes;
+
+    /**
+     * SimpleFLACMuxer와 같이 frame을 write buffer에 복사하고, 가득 차면 channel로 내려쓴다.
+     */
+    private final SimpleFLACEncoder.Output mFrameOutput = new SimpleFLACEncoder.Output() {
+        @Override
+        public void onFrame(byte[] frame, int length) {
+            put(frame, 0, length);
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int frames = SAMPLE_RATE;
+        final byte[] pcm;
+        switch (signal) {
+            case "TONE":
+                pcm = Pcm16.generate(SAMPLE_RATE, channelCount, frames);
+                break;
+            case "NOISE":
+                pcm = new byte[frames * channelCount * 2];
+                new Random(1).nextBytes(pcm);
+                break;
+            case "SILENCE":
+                pcm = new byte[frames * channelCount * 2];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown signal: " + signal);
+        }
+        mPcm         = ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN);
+        mChunkSize   = SAMPLE_RATE * CHUNK_MS / 1000 * channelCount * 2;
+        mWriteBuffer = ByteBuffer.allocateDirect(SimpleWAVMuxer.DEFAULT_WRITE_BUFFER_SIZE);
+        mChannel     = new NullChannel();
+        mEncoder     = new SimpleFLACEncoder(SAMPLE_RATE, channelCount, SimpleFLACEncoder.DEFAULT_BLOCK_SIZE);
+        mPcmBytes    = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if ("FLAC".equals(format)) {
+            mEncoder.finish(mFrameOutput);
+        }
+        flush();
+        System.out.println(format + "/" + signal + "/" + channelCount + "ch - output: " + mChannel.getWritten()
+                + " bytes, " + (mChannel.getWritten() * 100 / Math.max(mPcmBytes, 1)) + "% of PCM");
+    }
+
+    @Benchmark
+    public long write1s() throws Exception {
+        final int capacity = mPcm.capacity();
+        for (int off = 0; off < capacity; off += mChunkSize) {
+            mPcm.limit(Math.min(off + mChunkSize, capacity)).position(off);
+            if ("FLAC".equals(format)) {
+                mEncoder.write(mPcm, mFrameOutput);
+            }
+            else {
+                put(mPcm.array(), off, mPcm.remaining());
+            }
+        }
+        mPcmBytes += capacity;
+        return mChannel.getWritten();
+    }
+
+    private void put(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (!mWriteBuffer.hasRemaining()) {
+                flush();
+            }
+            final int n = Math.min(length, mWriteBuffer.remaining());
+            mWriteBuffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void flush() {
+        mWriteBuffer.flip();
+        mChannel.write(mWriteBuffer);
+        mWriteBuffer.clear();
+    }
+}
@@ -0,0 +1,80 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.AudioFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * capture thread에서 호출되는 SimpleMuxer.writeSample() 비용. 출력은 /dev/null (fake file sink)
+ *  - WAV      : write buffer 복사와 주기적인 write/header 갱신
+ *  - PCM_CHAIN: DC 제거 + high-pass + gain 후 WAV
+ *  - FLAC     : ring buffer 복사만 측정한다. (encode는 별도 thread, FLACEncoderBenchmark 참조)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MuxerBenchmark {
+    private static final String SINK = "/dev/null";
+    private static final int    ENCODER_TYPE_AUDIO = 0; //SimpleEncoder.ENCODER_TYPE_AUDIO
+
+    @Param({ "WAV", "PCM_CHAIN", "FLAC" })
+    public String muxer;
+
+    //AudioRecord read 단위 (48kHz mono 20ms)
+    @Param({ "1920" })
+    public int chunkSize;
+
+    private SimpleMuxer mMuxer;
+    private ByteBuffer  mChunk;
+    private long        mPTimeUs;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        switch (muxer) {
+            case "WAV":
+                mMuxer = new SimpleWAVMuxer(null, SINK);
+                break;
+            case "PCM_CHAIN":
+                mMuxer = new SimplePcmMuxer(null, new SimpleWAVMuxer(null, SINK), new SimplePcmChain(48000, 1)
+                        .add(new SimplePcm.DCRemover())
+                        .add(new SimplePcm.HighPass())
+                        .add(new SimplePcm.Gain(6.0f)));
+                break;
+            case "FLAC":
+                mMuxer = new SimpleFLACMuxer(null, SINK);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown muxer: " + muxer);
+        }
+        mMuxer.addAudioTrack(new SimpleMuxer.AudioConfig(48000, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, 1));
+        mMuxer.start();
+
+        mChunk   = ByteBuffer.allocateDirect(chunkSize);
+        mChunk.put(Pcm16.generate(48000, 1, chunkSize / 2));
+        mPTimeUs = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mMuxer.stop(null);
+    }
+
+    @Benchmark
+    public void writeSample() throws Exception {
+        mChunk.clear();
+        mMuxer.writeSample(ENCODER_TYPE_AUDIO, mChunk, mPTimeUs);
+        mPTimeUs += 20000;
+    }
+}
@@ -0,0 +1,31 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 쓰기 비용 없이 바이트 수만 세는 channel (fake file sink)
+ */
+class NullChannel implements WritableByteChannel {
+    private long mWritten = 0;
+
+    long getWritten() {
+        return mWritten;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        final int n = src.remaining();
+        src.position(src.limit());
+        mWritten += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,43 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chunk마다 호출되는 SimplePTSGenerator.next() 비용
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PTSGeneratorBenchmark {
+    private static final int  CHUNK_BYTES = 1920;            //48kHz mono 20ms
+    private static final long CHUNK_NANOS = 20 * 1000 * 1000L;
+
+    @Param({ "0", "1" }) //MODE_FIXED, MODE_DRIFT_CORRECTION
+    public int mode;
+
+    private SimplePTSGenerator mGenerator;
+    private long mObservedNano;
+
+    @Setup
+    public void setUp() {
+        mGenerator    = new SimplePTSGenerator(48000, 2, mode);
+        mObservedNano = 0;
+        mGenerator.anchor(0, mObservedNano);
+    }
+
+    @Benchmark
+    public long next() {
+        //100ppm 빠른 clock을 흉내낸다.
+        mObservedNano += CHUNK_NANOS - CHUNK_NANOS / 10000;
+        return mGenerator.next(CHUNK_BYTES, mObservedNano);
+    }
+}
@@ -0,0 +1,25 @@
+package com.kodeholic.simplerecorder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * benchmark 입력용 16bit LE PCM (음성 대역 sine + 약한 noise)
+ */
+final class Pcm16 {
+    private Pcm16() { }
+
+    static byte[] generate(int sampleRateInHz, int channelCount, int frames) {
+        final ByteBuffer b = ByteBuffer.allocate(frames * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        final Random random = new Random(0x5EED);
+        for (int i = 0; i < frames; i++) {
+            final double t = (double)i / sampleRateInHz;
+            final double v = 0.4 * Math.sin(2 * Math.PI * 220 * t) + 0.2 * Math.sin(2 * Math.PI * 1870 * t) + 0.01 * random.nextGaussian();
+            for (int c = 0; c < channelCount; c++) {
+                b.putShort((short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v * 32767))));
+            }
+        }
+        return b.array();
+    }
+}
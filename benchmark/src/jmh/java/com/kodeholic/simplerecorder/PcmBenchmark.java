@@ -0,0 +1,60 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 20ms chunk (48kHz mono) 하나에 대한 PCM 처리 비용
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES      = 960;
+
+    private ByteBuffer     mChunk;
+    private SimpleVAD      mVAD;
+    private SimplePcmChain mFilterChain;
+    private SimplePcmChain mResampleChain;
+
+    @Setup
+    public void setUp() {
+        mChunk = ByteBuffer.allocateDirect(FRAMES * 2);
+        mChunk.put(Pcm16.generate(SAMPLE_RATE, 1, FRAMES));
+
+        mVAD = new SimpleVAD(SAMPLE_RATE, 1);
+        mFilterChain = new SimplePcmChain(SAMPLE_RATE, 1)
+                .add(new SimplePcm.DCRemover())
+                .add(new SimplePcm.HighPass())
+                .add(new SimplePcm.Gain(6.0f));
+        mResampleChain = new SimplePcmChain(SAMPLE_RATE, 1)
+                .add(new SimpleResampler(16000));
+    }
+
+    @Benchmark
+    public boolean vad() {
+        mChunk.clear();
+        return mVAD.process(mChunk);
+    }
+
+    @Benchmark
+    public ByteBuffer filterChain() {
+        mChunk.clear();
+        return mFilterChain.process(mChunk);
+    }
+
+    @Benchmark
+    public ByteBuffer resample48kTo16k() {
+        mChunk.clear();
+        return mResampleChain.process(mChunk);
+    }
+}
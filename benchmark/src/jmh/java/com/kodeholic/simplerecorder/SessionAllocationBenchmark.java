@@ -0,0 +1,121 @@
+package com.kodeholic.simplerecorder;
+
+import android.media.AudioFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1시간 녹음(48kHz mono 20ms chunk x 180,000)의 hot path 할당량. 1 op = 1 session
+ *  - capture(SimplePTSGenerator) --> SimpleWAVMuxer.writeSample() --> /dev/null
+ *  - BEFORE: SimpleLog 이전처럼 chunk마다 hot path 로그 문자열을 만든다. (encode/drain/onEncoded/writeSample)
+ *  - AFTER : 현재 코드. 로그는 if (SimpleLog.VERBOSE)로 제거되고, SimpleLog.trace()만 기록한다.
+ * session당 할당량은 gc profiler의 gc.alloc.rate.norm (B/op)으로 읽는다.
+ * (MediaCodec은 JVM에서 실행할 수 없으므로 encoder/M4A muxer는 로그만 재현한다)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionAllocationBenchmark {
+    private static final String SINK = "/dev/null";
+    private static final String TAG  = "SessionAllocationBenchmark";
+    private static final int    ENCODER_TYPE_AUDIO = 0; //SimpleEncoder.ENCODER_TYPE_AUDIO
+
+    private static final int  SAMPLE_RATE  = 48000;
+    private static final int  CHUNK_SIZE   = 1920;          //48kHz mono 20ms
+    private static final long CHUNK_NANOS  = 20 * 1000 * 1000L;
+    private static final int  SESSION_CHUNKS = 3600 * 50;   //1시간
+
+    @Param({ "BEFORE", "AFTER" })
+    public String logging;
+
+    private SimplePTSGenerator mPTSGenerator;
+    private SimpleWAVMuxer     mMuxer;
+    private ByteBuffer         mChunk;
+    //onEncoded()의 MediaCodec.BufferInfo 대신 (toString()만 사용한다)
+    private final Object       mInfo = new Object();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        SimpleLog.setTraceEnabled("AFTER".equals(logging));
+
+        mPTSGenerator = new SimplePTSGenerator(SAMPLE_RATE, 2, SimplePTSGenerator.MODE_FIXED);
+        mPTSGenerator.anchor(0, 0);
+        mMuxer = new SimpleWAVMuxer(null, SINK);
+        mMuxer.addAudioTrack(new SimpleMuxer.AudioConfig(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, 1));
+        mMuxer.start();
+
+        mChunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        mChunk.put(Pcm16.generate(SAMPLE_RATE, 1, CHUNK_SIZE / 2));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mMuxer.stop(null);
+        SimpleLog.setTraceEnabled(true);
+    }
+
+    @Benchmark
+    public long session(Blackhole bh) throws Exception {
+        final boolean before = "BEFORE".equals(logging);
+        long observedNano = 0;
+        for (int i = 0; i < SESSION_CHUNKS; i++) {
+            observedNano += CHUNK_NANOS;
+            final long pTimeUs = mPTSGenerator.next(CHUNK_SIZE, observedNano);
+            if (before) {
+                logBefore(bh, i, pTimeUs);
+            }
+            else {
+                traceAfter(i, pTimeUs);
+            }
+            mChunk.clear();
+            mMuxer.writeSample(ENCODER_TYPE_AUDIO, mChunk, pTimeUs);
+        }
+        return mMuxer.getTotalPCMLength();
+    }
+
+    /**
+     * SimpleLog 이전에 chunk마다 만들던 로그 문자열 (android.util.Log로 넘기던 것과 같다)
+     */
+    private void logBefore(Blackhole bh, int inputIndex, long pTimeUs) {
+        final int  length   = CHUNK_SIZE;
+        final long timeoutUs = 10000;
+        //SimpleEncoder
+        bh.consume("encode(enter) - f: " + false + ", buffer: " + mChunk + ", length: " + length + ", pTimeUs: " + pTimeUs + ", running: " + true);
+        bh.consume("encode() - dequeueInputBuffer inputIndex: " + (inputIndex & 3));
+        bh.consume("encode() - queueInputBuffer() - inputIndex: " + (inputIndex & 3) + ", length: " + length + ", pTimeUs: " + pTimeUs);
+        bh.consume("encode(leave) - f: " + false + ", running: " + true + ", result: " + true);
+        bh.consume("DrainRunnable() - drain(enter) - drainAgainLaterCount: " + 0);
+        bh.consume("drain() - dequeueOutputBuffer outputIndex: " + (inputIndex & 3) + ", timeoutUs: " + timeoutUs);
+        bh.consume("DrainRunnable() - drain(leave) - drainAgainLaterCount: " + 0);
+        //SimpleM4AMuxer
+        bh.consume("onEncoded() - encoder: " + "audio/mp4a-latm" + ", buffer: " + mChunk + ", info: " + mInfo + ", trackIndex: " + 0);
+        bh.consume("writeSample(enter) - encoderType: " + ENCODER_TYPE_AUDIO + ", length: " + mChunk.remaining() + ", pTimeUS: " + pTimeUs + ", trackIndex: " + 0);
+        bh.consume("writeSample(leave) - encoderType: " + ENCODER_TYPE_AUDIO + ", trackIndex: " + 0);
+        //SimpleWAVMuxer
+        bh.consume("writeSample() - encoderType: " + ENCODER_TYPE_AUDIO + ", length: " + mChunk.remaining() + ", pTimeUS: " + pTimeUs);
+    }
+
+    /**
+     * 현재 hot path의 trace (SimpleWAVMuxer의 EV_WAV_WRITE는 writeSample() 안에서 기록된다)
+     */
+    private static void traceAfter(int inputIndex, long pTimeUs) {
+        SimpleLog.trace(SimpleLog.EV_ENCODE, CHUNK_SIZE, pTimeUs);
+        SimpleLog.trace(SimpleLog.EV_QUEUE_IN, inputIndex & 3, pTimeUs);
+        SimpleLog.trace(SimpleLog.EV_DRAIN, inputIndex & 3, 10000);
+        SimpleLog.trace(SimpleLog.EV_ENCODED, CHUNK_SIZE, pTimeUs);
+        SimpleLog.trace(SimpleLog.EV_MUX_WRITE, CHUNK_SIZE, pTimeUs);
+    }
+}
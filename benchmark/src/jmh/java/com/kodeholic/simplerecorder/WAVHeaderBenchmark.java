@@ -0,0 +1,31 @@
+package com.kodeholic.simplerecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WAV/RF64 header 생성 (SimpleWAVMuxer는 header sync마다 호출한다)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WAVHeaderBenchmark {
+    //RIFF / RF64 경계 양쪽
+    @Param({ "1048576", "8589934592" })
+    public long totalPCMLength;
+
+    private final byte[] mHeader = new byte[SimpleWAVHeader.RF64_HEADER_SIZE];
+
+    @Benchmark
+    public byte[] write() {
+        SimpleWAVHeader.write(mHeader, 2, 48000, 16, totalPCMLength);
+        return mHeader;
+    }
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * JVM benchmark용 shim. muxer는 Context를 보관만 한다.
+ */
+public abstract class Context {
+}
@@ -0,0 +1,24 @@
+package android.media;
+
+/**
+ * JVM benchmark용 shim. (android.media.AudioFormat과 같은 값)
+ */
+public final class AudioFormat {
+    public static final int ENCODING_PCM_16BIT = 2;
+    public static final int ENCODING_PCM_8BIT  = 3;
+    public static final int ENCODING_PCM_FLOAT = 4;
+
+    public static final int CHANNEL_INVALID                = 0;
+    public static final int CHANNEL_IN_DEFAULT             = 1;
+    public static final int CHANNEL_CONFIGURATION_DEFAULT  = 1;
+    public static final int CHANNEL_CONFIGURATION_MONO     = 2;
+    public static final int CHANNEL_CONFIGURATION_STEREO   = 3;
+    public static final int CHANNEL_IN_LEFT                = 0x4;
+    public static final int CHANNEL_IN_RIGHT               = 0x8;
+    public static final int CHANNEL_IN_FRONT               = 0x10;
+    public static final int CHANNEL_IN_BACK                = 0x20;
+    public static final int CHANNEL_IN_MONO                = CHANNEL_IN_FRONT;
+    public static final int CHANNEL_IN_STEREO              = (CHANNEL_IN_LEFT | CHANNEL_IN_RIGHT);
+
+    private AudioFormat() { }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JVM benchmark용 shim. thread 우선순위는 변경하지 않는다.
+ */
+public final class Process {
+    public static final int THREAD_PRIORITY_DEFAULT       = 0;
+    public static final int THREAD_PRIORITY_AUDIO         = -16;
+    public static final int THREAD_PRIORITY_URGENT_AUDIO  = -19;
+
+    private Process() { }
+
+    public static void setThreadPriority(int priority) { }
+}